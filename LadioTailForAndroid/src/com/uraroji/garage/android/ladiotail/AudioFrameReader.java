@@ -0,0 +1,426 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.IOException;
+
+/**
+ * ストリームから音声のフレームを切り出す
+ * 
+ * MP3（MPEG-1/2/2.5 Layer III）とADTS形式のAACに対応する。 最初の同期では、ヘッダとその次のフレームのヘッダが
+ * 同じ形式であることを確かめてから形式を確定する。 同期が外れた場合は1バイトずつ読み飛ばして同期し直す。
+ * AACはADTSのヘッダを取り除いた生のフレームを返す。
+ * 
+ * Androidに依存しないので、JVM上で試験できる。
+ */
+/* package */class AudioFrameReader {
+
+    /**
+     * MP3のMIMEタイプ
+     */
+    public static final String MIME_TYPE_MPEG = "audio/mpeg";
+
+    /**
+     * AACのMIMEタイプ
+     */
+    public static final String MIME_TYPE_AAC = "audio/mp4a-latm";
+
+    /**
+     * フレームの最大バイト数
+     */
+    public static final int MAX_FRAME_SIZE = 8192;
+
+    /**
+     * 同期を探す最大バイト数 これを超えても同期できない場合は未対応の形式とみなす。
+     */
+    private static final int MAX_SYNC_SEARCH_BYTES = 64 * 1024;
+
+    /**
+     * MPEG-1 Layer IIIのビットレート（kbps）
+     */
+    private static final int[] MPEG1_L3_BITRATES = {
+            0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320
+    };
+
+    /**
+     * MPEG-2/2.5 Layer IIIのビットレート（kbps）
+     */
+    private static final int[] MPEG2_L3_BITRATES = {
+            0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160
+    };
+
+    /**
+     * MPEG-1のサンプリングレート
+     */
+    private static final int[] MPEG1_SAMPLE_RATES = {
+            44100, 48000, 32000
+    };
+
+    /**
+     * ADTSのサンプリングレート
+     */
+    private static final int[] ADTS_SAMPLE_RATES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000,
+            7350
+    };
+
+    /**
+     * ストリーム
+     */
+    private final StreamRingBuffer mInput;
+
+    /**
+     * 読み込み用の窓
+     */
+    private final byte[] mWindow = new byte[MAX_FRAME_SIZE * 2];
+
+    /**
+     * 窓の中の次に読む位置
+     */
+    private int mPosition = 0;
+
+    /**
+     * 窓の中のデータの終わり
+     */
+    private int mLimit = 0;
+
+    /**
+     * ストリームの終わりに達したか
+     */
+    private boolean mIsEndOfStream = false;
+
+    /**
+     * MIMEタイプ。 同期していない場合はnull。
+     */
+    private String mMimeType;
+
+    /**
+     * サンプリングレート
+     */
+    private int mSampleRate;
+
+    /**
+     * チャンネル数
+     */
+    private int mChannelCount;
+
+    /**
+     * 1フレームのサンプル数
+     */
+    private int mSamplesPerFrame;
+
+    /**
+     * AACのAudioSpecificConfig。 MP3の場合はnull。
+     */
+    private byte[] mCodecConfig;
+
+    /**
+     * 同期が外れて読み飛ばしたバイト数の合計
+     */
+    private long mSkippedBytes = 0;
+
+    /**
+     * 直前に解析したヘッダの情報 {フレームのバイト数, ヘッダのバイト数, サンプリングレート, チャンネル数, 1フレームのサンプル数}
+     */
+    private final int[] mHeader = new int[5];
+
+    /**
+     * コンストラクタ
+     * 
+     * @param input ストリーム
+     */
+    public AudioFrameReader(StreamRingBuffer input) {
+        mInput = input;
+    }
+
+    /**
+     * 最初のフレームに同期し、形式を確定する
+     * 
+     * @return 同期できた場合はtrue。ストリームの終わりまでに同期できなかった場合はfalse。
+     * @throws IOException 未対応の形式
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public boolean sync() throws IOException, InterruptedException {
+        int searched = 0;
+        for (;;) {
+            if (fill(4) == false) {
+                return false;
+            }
+            final String mimeType = parseHeader(mWindow, mPosition, mLimit - mPosition, mHeader);
+            if (mimeType != null) {
+                final int frameSize = mHeader[0];
+                final int sampleRate = mHeader[2];
+                final int channelCount = mHeader[3];
+                final int samplesPerFrame = mHeader[4];
+                // 次のフレームのヘッダも同じ形式であれば同期できたとみなす
+                if (fill(frameSize + 4) == false) {
+                    return false;
+                }
+                final String nextMimeType = parseHeader(mWindow, mPosition + frameSize, mLimit
+                        - mPosition - frameSize, mHeader);
+                if (mimeType.equals(nextMimeType) && mHeader[2] == sampleRate
+                        && mHeader[3] == channelCount) {
+                    mMimeType = mimeType;
+                    mSampleRate = sampleRate;
+                    mChannelCount = channelCount;
+                    mSamplesPerFrame = samplesPerFrame;
+                    if (MIME_TYPE_AAC.equals(mimeType)) {
+                        mCodecConfig = createAacCodecConfig(mWindow, mPosition);
+                    }
+                    return true;
+                }
+            }
+            ++mPosition;
+            ++mSkippedBytes;
+            if (++searched >= MAX_SYNC_SEARCH_BYTES) {
+                throw new IOException("Unsupported stream format.");
+            }
+        }
+    }
+
+    /**
+     * 次のフレームを読み込む sync()で同期してから呼ぶこと。
+     * 
+     * @param frame 読み込み先。{@link #MAX_FRAME_SIZE}以上の長さにすること。
+     * @return フレームのバイト数。ストリームの終わりの場合は-1。
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public int readFrame(byte[] frame) throws InterruptedException {
+        for (;;) {
+            if (fill(4) == false) {
+                return -1;
+            }
+            final String mimeType = parseHeader(mWindow, mPosition, mLimit - mPosition, mHeader);
+            if (mMimeType.equals(mimeType) && mHeader[2] == mSampleRate) {
+                final int frameSize = mHeader[0];
+                final int headerSize = mHeader[1];
+                if (fill(frameSize) == false) {
+                    return -1;
+                }
+                // AACはADTSのヘッダを取り除く
+                final int skip = MIME_TYPE_AAC.equals(mMimeType) ? headerSize : 0;
+                final int length = frameSize - skip;
+                System.arraycopy(mWindow, mPosition + skip, frame, 0, length);
+                mPosition += frameSize;
+                return length;
+            }
+            // 同期が外れたので1バイトずつ読み飛ばす
+            ++mPosition;
+            ++mSkippedBytes;
+        }
+    }
+
+    /**
+     * 窓に指定したバイト数が溜まるまで読み込む
+     * 
+     * @param bytes 必要なバイト数
+     * @return 溜まった場合はtrue。ストリームの終わりに達した場合はfalse。
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    private boolean fill(int bytes) throws InterruptedException {
+        if (mLimit - mPosition >= bytes) {
+            return true;
+        }
+        // 残りのデータを窓の先頭に詰める
+        if (mPosition > 0) {
+            System.arraycopy(mWindow, mPosition, mWindow, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+        while (mLimit < bytes) {
+            if (mIsEndOfStream) {
+                return false;
+            }
+            final int read = mInput.read(mWindow, mLimit, mWindow.length - mLimit);
+            if (read < 0) {
+                mIsEndOfStream = true;
+                return false;
+            }
+            mLimit += read;
+        }
+        return true;
+    }
+
+    /**
+     * フレームのヘッダを解析する
+     * 
+     * @param b データ
+     * @param off ヘッダの開始位置
+     * @param len 解析できるバイト数
+     * @param header 解析結果の格納先 {フレームのバイト数, ヘッダのバイト数, サンプリングレート, チャンネル数, 1フレームのサンプル数}
+     * @return MIMEタイプ。ヘッダではない場合はnull。
+     */
+    /* package */static String parseHeader(byte[] b, int off, int len, int[] header) {
+        if (len < 4) {
+            return null;
+        }
+        final int b0 = b[off] & 0xFF;
+        final int b1 = b[off + 1] & 0xFF;
+        final int b2 = b[off + 2] & 0xFF;
+        final int b3 = b[off + 3] & 0xFF;
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return null;
+        }
+
+        final int layer = (b1 >> 1) & 0x03;
+        if (layer == 0 && (b1 & 0xF0) == 0xF0) {
+            return parseAdtsHeader(b, off, len, header);
+        }
+
+        // MP3 (Layer IIIのみ)
+        final int version = (b1 >> 3) & 0x03;
+        if (version == 1 || layer != 1) {
+            return null;
+        }
+        final int bitrateIndex = (b2 >> 4) & 0x0F;
+        final int sampleRateIndex = (b2 >> 2) & 0x03;
+        if (bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return null;
+        }
+        final boolean isMpeg1 = (version == 3);
+        final int bitrate = (isMpeg1 ? MPEG1_L3_BITRATES : MPEG2_L3_BITRATES)[bitrateIndex] * 1000;
+        int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex];
+        if (version == 2) {
+            sampleRate /= 2;
+        } else if (version == 0) {
+            sampleRate /= 4;
+        }
+        final int padding = (b2 >> 1) & 0x01;
+        final int samplesPerFrame = isMpeg1 ? 1152 : 576;
+        header[0] = (samplesPerFrame / 8) * bitrate / sampleRate + padding;
+        header[1] = 4;
+        header[2] = sampleRate;
+        header[3] = (((b3 >> 6) & 0x03) == 3) ? 1 : 2;
+        header[4] = samplesPerFrame;
+        return MIME_TYPE_MPEG;
+    }
+
+    /**
+     * ADTSのヘッダを解析する
+     * 
+     * @param b データ
+     * @param off ヘッダの開始位置
+     * @param len 解析できるバイト数
+     * @param header 解析結果の格納先
+     * @return MIMEタイプ。ヘッダではない場合はnull。
+     */
+    private static String parseAdtsHeader(byte[] b, int off, int len, int[] header) {
+        if (len < 7) {
+            return null;
+        }
+        final int b1 = b[off + 1] & 0xFF;
+        final int b2 = b[off + 2] & 0xFF;
+        final int b3 = b[off + 3] & 0xFF;
+        final int b4 = b[off + 4] & 0xFF;
+        final int b5 = b[off + 5] & 0xFF;
+        final int sampleRateIndex = (b2 >> 2) & 0x0F;
+        final int channelConfig = ((b2 & 0x01) << 2) | ((b3 >> 6) & 0x03);
+        if (sampleRateIndex >= ADTS_SAMPLE_RATES.length || channelConfig == 0) {
+            return null;
+        }
+        final int headerSize = ((b1 & 0x01) == 0) ? 9 : 7;
+        final int frameSize = ((b3 & 0x03) << 11) | (b4 << 3) | ((b5 >> 5) & 0x07);
+        if (frameSize <= headerSize || frameSize > MAX_FRAME_SIZE) {
+            return null;
+        }
+        header[0] = frameSize;
+        header[1] = headerSize;
+        header[2] = ADTS_SAMPLE_RATES[sampleRateIndex];
+        header[3] = (channelConfig == 7) ? 8 : channelConfig;
+        header[4] = 1024;
+        return MIME_TYPE_AAC;
+    }
+
+    /**
+     * ADTSのヘッダからAACのAudioSpecificConfigを作る
+     * 
+     * @param b データ
+     * @param off ヘッダの開始位置
+     * @return AudioSpecificConfig
+     */
+    private static byte[] createAacCodecConfig(byte[] b, int off) {
+        final int b2 = b[off + 2] & 0xFF;
+        final int b3 = b[off + 3] & 0xFF;
+        final int objectType = ((b2 >> 6) & 0x03) + 1;
+        final int sampleRateIndex = (b2 >> 2) & 0x0F;
+        final int channelConfig = ((b2 & 0x01) << 2) | ((b3 >> 6) & 0x03);
+        final int config = (objectType << 11) | (sampleRateIndex << 7) | (channelConfig << 3);
+        return new byte[] {
+                (byte) (config >> 8), (byte) config
+        };
+    }
+
+    /**
+     * MIMEタイプを取得する
+     * 
+     * @return MIMEタイプ。同期していない場合はnull。
+     */
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * サンプリングレートを取得する
+     * 
+     * @return サンプリングレート
+     */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * チャンネル数を取得する
+     * 
+     * @return チャンネル数
+     */
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    /**
+     * 1フレームの時間を取得する
+     * 
+     * @return 1フレームの時間（μs）
+     */
+    public long getFrameDurationUs() {
+        return mSamplesPerFrame * 1000000L / mSampleRate;
+    }
+
+    /**
+     * AACのAudioSpecificConfigを取得する
+     * 
+     * @return AudioSpecificConfig。MP3の場合はnull。
+     */
+    public byte[] getCodecConfig() {
+        return mCodecConfig;
+    }
+
+    /**
+     * 同期が外れて読み飛ばしたバイト数の合計を取得する
+     * 
+     * @return 読み飛ばしたバイト数の合計
+     */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+}
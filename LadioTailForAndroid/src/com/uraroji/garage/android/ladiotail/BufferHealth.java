@@ -0,0 +1,184 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * 先読みバッファの状態 サービスからクライアントに渡すためにParcelableとする。
+ */
+public class BufferHealth implements Parcelable {
+
+    /**
+     * 先読みの目標量（ms）
+     */
+    private final long mTargetMs;
+
+    /**
+     * 再生位置より先に溜まっている量（ms）
+     */
+    private final long mFillMs;
+
+    /**
+     * 途切れた回数
+     */
+    private final int mUnderrunCount;
+
+    /**
+     * 途切れていた時間の合計（ms）
+     */
+    private final long mStallMs;
+
+    /**
+     * 直近のビットレートに対する受信速度（%）
+     */
+    private final int mThroughputPercent;
+
+    /**
+     * ビットレート（kbps）
+     */
+    private final int mBitrate;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param targetMs 先読みの目標量（ms）
+     * @param fillMs 再生位置より先に溜まっている量（ms）
+     * @param underrunCount 途切れた回数
+     * @param stallMs 途切れていた時間の合計（ms）
+     * @param throughputPercent 直近のビットレートに対する受信速度（%）
+     * @param bitrate ビットレート（kbps）
+     */
+    public BufferHealth(long targetMs, long fillMs, int underrunCount, long stallMs,
+            int throughputPercent, int bitrate) {
+        mTargetMs = targetMs;
+        mFillMs = fillMs;
+        mUnderrunCount = underrunCount;
+        mStallMs = stallMs;
+        mThroughputPercent = throughputPercent;
+        mBitrate = bitrate;
+    }
+
+    /**
+     * Parcelから復元するコンストラクタ
+     * 
+     * @param in Parcel
+     */
+    private BufferHealth(Parcel in) {
+        mTargetMs = in.readLong();
+        mFillMs = in.readLong();
+        mUnderrunCount = in.readInt();
+        mStallMs = in.readLong();
+        mThroughputPercent = in.readInt();
+        mBitrate = in.readInt();
+    }
+
+    /**
+     * 先読みの目標量を取得する
+     * 
+     * @return 先読みの目標量（ms）
+     */
+    public long getTargetMs() {
+        return mTargetMs;
+    }
+
+    /**
+     * 再生位置より先に溜まっている量を取得する
+     * 
+     * @return 再生位置より先に溜まっている量（ms）
+     */
+    public long getFillMs() {
+        return mFillMs;
+    }
+
+    /**
+     * 途切れた回数を取得する
+     * 
+     * @return 途切れた回数
+     */
+    public int getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * 途切れていた時間の合計を取得する
+     * 
+     * @return 途切れていた時間の合計（ms）
+     */
+    public long getStallMs() {
+        return mStallMs;
+    }
+
+    /**
+     * 直近のビットレートに対する受信速度を取得する
+     * 
+     * @return ビットレートに対する受信速度（%）
+     */
+    public int getThroughputPercent() {
+        return mThroughputPercent;
+    }
+
+    /**
+     * ビットレートを取得する
+     * 
+     * @return ビットレート（kbps）
+     */
+    public int getBitrate() {
+        return mBitrate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("buffer: fill %dms / target %dms, %d underruns (stall %dms), "
+                + "throughput %d%% of %dkbps", mFillMs, mTargetMs, mUnderrunCount, mStallMs,
+                mThroughputPercent, mBitrate);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mTargetMs);
+        dest.writeLong(mFillMs);
+        dest.writeInt(mUnderrunCount);
+        dest.writeLong(mStallMs);
+        dest.writeInt(mThroughputPercent);
+        dest.writeInt(mBitrate);
+    }
+
+    public static final Parcelable.Creator<BufferHealth> CREATOR = new Parcelable.Creator<BufferHealth>() {
+        @Override
+        public BufferHealth createFromParcel(Parcel in) {
+            return new BufferHealth(in);
+        }
+
+        @Override
+        public BufferHealth[] newArray(int size) {
+            return new BufferHealth[size];
+        }
+    };
+}
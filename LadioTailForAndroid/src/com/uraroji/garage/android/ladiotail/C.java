@@ -49,6 +49,11 @@ public class C {
      */
     public static final int NOTIFICATION_ID = R.layout.main;
 
+    /**
+     * ウォッチルールに一致した番組を通知するNotificationのID ユニークなIDを取得するために、R.layout.channel_infoのリソースIDを使う
+     */
+    public static final int WATCH_NOTIFICATION_ID = R.layout.channel_info;
+
     /**
      * 音声による検索単語の入力を有効にするか 微妙な機能なのでfalse推奨
      */
@@ -63,6 +68,245 @@ public class C {
      */
     public static final int VOICE_SEARCH_MAX_RESULT_NUM = 0;
 
+    /**
+     * ヘッドラインの取得に失敗した場合にリトライする最大回数
+     */
+    public static final int HEADLINE_FETCH_MAX_RETRY = 3;
+
+    /**
+     * ヘッドラインの取得をリトライするまでの待ち時間の基準値（ms）。 リトライの度に倍になる。
+     */
+    public static final long HEADLINE_FETCH_BACKOFF_BASE_MS = 1000;
+
+    /**
+     * ヘッドラインの取得をリトライするまでの待ち時間の最大値（ms）
+     */
+    public static final long HEADLINE_FETCH_BACKOFF_MAX_MS = 8000;
+
+    /**
+     * 番組一覧の1行に表示する内容をまとめて生成する件数
+     */
+    public static final int ROW_MODEL_PAGE_SIZE = 32;
+
+    /**
+     * 番組一覧の1行に表示する内容をキャッシュする最大数。 全タブで共有する。
+     */
+    public static final int ROW_MODEL_CACHE_SIZE = 256;
+
+    /**
+     * 起動時の広告の表示と再生サービスの接続を、最初の描画の後まで遅らせるか
+     */
+    public static final boolean DEFER_STARTUP_WORK = true;
+
+    /**
+     * 番組一覧のスクロール中のフレーム時間を計測するか 計測結果はメニューとdumpsysで確認できる。 リリースの場合にはfalse
+     */
+    public static final boolean ENABLE_FRAME_METRICS = false;
+
+    /**
+     * 番組一覧のスクロール中のフレーム時間を記録する最大フレーム数
+     */
+    public static final int FRAME_METRICS_MAX_FRAMES = 2048;
+
+    /**
+     * 再生品質の統計をメニューから確認できるようにするか 統計はdumpsysでも確認できる。 リリースの場合にはfalse
+     */
+    public static final boolean ENABLE_PLAYBACK_STATS = false;
+
+    /**
+     * 独自のHTTP/ICYクライアントとMediaCodecによる再生エンジンを使うか Android 4.1以降でのみ有効。
+     * falseの場合、または未対応の形式の場合はMediaPlayerで再生する。
+     */
+    public static final boolean USE_STREAMING_ENGINE = false;
+
+    /**
+     * ストリームの接続のタイムアウト（ms）
+     */
+    public static final int STREAM_CONNECT_TIMEOUT_MS = 10000;
+
+    /**
+     * ストリームの読み込みのタイムアウト（ms）
+     */
+    public static final int STREAM_READ_TIMEOUT_MS = 15000;
+
+    /**
+     * 独自の再生エンジンの受信バッファの大きさ（バイト） 128kbpsで約30秒分。
+     */
+    public static final int STREAMING_ENGINE_BUFFER_SIZE = 512 * 1024;
+
+    /**
+     * メモリが不足した後の、独自の再生エンジンの受信バッファの大きさ（バイト） 128kbpsで約12秒分。
+     */
+    public static final int STREAMING_ENGINE_LOW_MEMORY_BUFFER_SIZE = 192 * 1024;
+
+    /**
+     * 独自の再生エンジンで再生開始までに溜める時間（ms）
+     */
+    public static final long STREAMING_ENGINE_START_THRESHOLD_MS = 1500;
+
+    /**
+     * 独自の再生エンジンで、ビットレートが不明な場合に仮定するビットレート（kbps）
+     */
+    public static final int STREAMING_ENGINE_DEFAULT_BITRATE = 128;
+
+    /**
+     * MediaPlayerにローカルのストリーミングプロキシを経由させるか
+     * プロキシは先読みとICYメタデータの除去を行い、配信サーバとの接続が切れた場合は接続し直す。
+     */
+    public static final boolean USE_STREAM_PROXY = false;
+
+    /**
+     * ストリーミングプロキシの先読みバッファの大きさ（バイト） 128kbpsで約60秒分。
+     */
+    public static final int STREAM_PROXY_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * メモリが不足した後の、ストリーミングプロキシの先読みバッファの大きさ（バイト）
+     * 128kbpsで約24秒分で、ジッタバッファの最大の目標量は溜められる。
+     */
+    public static final int STREAM_PROXY_LOW_MEMORY_BUFFER_SIZE = 384 * 1024;
+
+    /**
+     * ストリーミングプロキシが配信サーバに続けて接続し直す最大回数
+     */
+    public static final int STREAM_PROXY_MAX_RECONNECT = 5;
+
+    /**
+     * ストリーミングプロキシが配信サーバに接続し直すまでの待ち時間の基準値（ms）。 接続し直す度に倍になる。
+     */
+    public static final long STREAM_PROXY_RECONNECT_BASE_MS = 500;
+
+    /**
+     * ストリーミングプロキシが配信サーバに接続し直すまでの待ち時間の最大値（ms）
+     */
+    public static final long STREAM_PROXY_RECONNECT_MAX_MS = 8000;
+
+    /**
+     * 再生されそうな番組のストリームに前もって接続しておく最大数
+     */
+    public static final int PREWARM_MAX_IN_FLIGHT = 2;
+
+    /**
+     * 前もって接続したストリームを再生に引き渡せる期限（ms） 過ぎた場合は接続を破棄する。
+     */
+    public static final long PREWARM_TTL_MS = 30 * 1000;
+
+    /**
+     * ストリーミングプロキシのジッタバッファの目標量の最小値（ms） 再生開始時はこれだけ溜めてから送る。
+     */
+    public static final long JITTER_BUFFER_MIN_MS = 2 * 1000;
+
+    /**
+     * ストリーミングプロキシのジッタバッファの目標量の最大値（ms） 0の場合はジッタバッファを使わない。
+     * 先読みバッファの大きさに収まる量にすること。
+     */
+    public static final long JITTER_BUFFER_MAX_MS = 20 * 1000;
+
+    /**
+     * ストリーミングプロキシが再生速度より先行してMediaPlayerに送る量（ms）
+     */
+    public static final long JITTER_BUFFER_CLIENT_LEAD_MS = 5 * 1000;
+
+    /**
+     * 停止後に再利用のため取っておいた再生エンジンを解放するまでの時間（ms）
+     */
+    public static final long PLAYER_IDLE_RELEASE_MS = 60 * 1000;
+
+    /**
+     * 再生中にストリームが途切れた場合に、続けて接続し直す最大回数 0の場合は接続し直さずに再生を終える。
+     */
+    public static final int RECONNECT_MAX_ATTEMPTS = 5;
+
+    /**
+     * ストリームが途切れてから接続し直すまでの待ち時間の基準値（ms）。 接続し直す度に倍になる。
+     */
+    public static final long RECONNECT_BASE_MS = 1000;
+
+    /**
+     * ストリームが途切れてから接続し直すまでの待ち時間の最大値（ms）
+     */
+    public static final long RECONNECT_MAX_MS = 16 * 1000;
+
+    /**
+     * 再接続してからこの時間（ms）再生し続けた場合は、次に途切れた時は1回目の再接続からやり直す
+     */
+    public static final long RECONNECT_STABLE_MS = 60 * 1000;
+
+    /**
+     * 再生中に番組を切り替える場合に、前の番組を再生したまま次の番組を準備するか
+     * falseの場合は前の番組を止めてから準備する。 trueの場合は切り替え中に再生エンジンと接続が2つずつになるので、
+     * USE_STREAM_PROXYなどと同じく、端末で確かめるまでは既定ではfalse。
+     */
+    public static final boolean OVERLAP_SWITCH = false;
+
+    /**
+     * 番組を切り替える際のクロスフェードの時間（ms）
+     */
+    public static final long SWITCH_CROSSFADE_MS = 1500;
+
+    /**
+     * 番組を切り替える際のクロスフェードで音量を変える間隔（ms）
+     */
+    public static final long SWITCH_CROSSFADE_STEP_MS = 50;
+
+    /**
+     * 受信したデータをファイルに溜めて、一時停止や時間をずらした再生をできるようにするか
+     * データを溜めるのはストリーミングプロキシなので、プロキシを経由しない場合は常にfalse。
+     */
+    public static final boolean ENABLE_TIME_SHIFT = USE_STREAM_PROXY;
+
+    /**
+     * 時間をずらした再生のために溜める最大の時間（ms）
+     */
+    public static final long TIME_SHIFT_MAX_MS = 30 * 60 * 1000;
+
+    /**
+     * 時間をずらした再生のために溜める最大のバイト数 ビットレートが高い番組でもディスクをこれ以上使わない。
+     */
+    public static final int TIME_SHIFT_MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 時間をずらした再生のためのファイルを置く、キャッシュディレクトリ内のディレクトリ名
+     */
+    public static final String TIME_SHIFT_DIRECTORY = "timeshift";
+
+    /**
+     * サービスの終了時に、コマンドスレッドで後始末が終わるのを待つ最大の時間（ms）
+     */
+    public static final long COMMAND_SHUTDOWN_TIMEOUT_MS = 2 * 1000;
+
+    /**
+     * サービスのコマンドの待ち時間と実行時間の合計がこれ（ms）を超えた場合は警告をログに出す
+     */
+    public static final long COMMAND_SLOW_WARNING_MS = 500;
+
+    /**
+     * dumpの引数で指定した解放を、コマンドスレッドで行う場合に終わるのを待つ最大の時間（ms）
+     */
+    public static final long DUMP_COMMAND_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * 曲名の変化をクライアントとNotificationに通知する最短の間隔（ms）
+     */
+    public static final long STREAM_TITLE_MIN_INTERVAL_MS = 5 * 1000;
+
+    /**
+     * 再生品質の統計に使う、計測値の種類毎の直近の計測値の数
+     */
+    public static final int TELEMETRY_HISTORY_SIZE = 32;
+
+    /**
+     * 再生サービスをUIと同じプロセスで動かすか
+     * trueの場合はLocalMediaPlayServiceにバインドし、プロセス間の呼び出しを経ずにサービスを直接呼び出す。
+     * falseの場合は別プロセスのMediaPlayServiceを使う。
+     */
+    public static final boolean IN_PROCESS_SERVICE = false;
+
+    /**
+     * サービスの呼び出しの計測で、状態の問い合わせを繰り返す回数
+     */
+    public static final int SERVICE_BENCHMARK_QUERY_COUNT = 100;
+
     /**
      * コンストラクタ シングルトンなのでprivateとする
      */
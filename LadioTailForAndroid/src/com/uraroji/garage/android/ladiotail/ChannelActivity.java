@@ -31,6 +31,8 @@ import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.Window;
 import android.view.View.OnClickListener;
@@ -43,7 +45,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.uraroji.garage.android.netladiolib.Channel;
-import com.uraroji.garage.android.netladiolib.HeadlineManager;
 
 import java.util.ArrayList;
 
@@ -62,6 +63,8 @@ public class ChannelActivity extends Activity {
      */
     public static final String INTENT_EXTRA_OPEN_CHANNEL_PLAY_URL = "OPEN_CHANNEL_PLAY_URL";
 
+    private final static int MENU_ID_WATCH_DJ = Menu.FIRST + 1;
+
     /**
      * Play/Stopボタン
      */
@@ -72,6 +75,11 @@ public class ChannelActivity extends Activity {
      */
     private Channel mChannel;
 
+    /**
+     * 番組の情報を表示するAdapter
+     */
+    private ChannelInfoAdapter mChannelInfoAdapter;
+
     /**
      * 再生状態変更時にボタンやテキストの表示を変更するためのHandler
      */
@@ -79,6 +87,7 @@ public class ChannelActivity extends Activity {
         @Override
         public void handleMessage(Message msg) {
             switchPlayStopButtonText();
+            updateStreamTitle();
         }
     };
 
@@ -91,6 +100,9 @@ public class ChannelActivity extends Activity {
 
         setContentView(R.layout.channel_info);
 
+        // 通知から直接開かれた場合に備えて初期化する
+        WatchRuleManager.getManager().init(getApplicationContext());
+
         Intent intent = getIntent();
         if (intent != null) {
             Bundle bundle = intent.getExtras();
@@ -104,7 +116,7 @@ public class ChannelActivity extends Activity {
                 if (channel != null) {
                     mChannel = channel;
                 } else if (channelPlayUrl != null) {
-                    mChannel = HeadlineManager.getHeadline().getChannel(
+                    mChannel = HeadlineFetcher.getFetcher().getHeadline().getChannel(
                             channelPlayUrl);
                     if (mChannel == null) {
                         Log.w(C.TAG, "Channel isn't exists. Finish");
@@ -137,6 +149,11 @@ public class ChannelActivity extends Activity {
             djTextView.setText(dj);
         }
 
+        // 番組の詳細を開いた場合は再生されることが多いので、前もって接続しておく
+        if (mChannel.getPlayUrl() != null) {
+            MediaPlayManager.getConnector().prewarm(mChannel.getPlayUrl().toString());
+        }
+
         // Play/Stopボタン
         mPlayStopImageButton = (ImageButton) findViewById(R.id.PlayStopImageButton);
         mPlayStopImageButton.setOnClickListener(new OnClickListener() {
@@ -186,9 +203,9 @@ public class ChannelActivity extends Activity {
         });
 
         ListView channelInfoListView = (ListView) findViewById(R.id.ChannelInfoListView);
-        ChannelInfoAdapter channelInfoAdapter = new ChannelInfoAdapter(this,
-                mChannel);
-        channelInfoListView.setAdapter(channelInfoAdapter);
+        mChannelInfoAdapter = new ChannelInfoAdapter(this, mChannel);
+        channelInfoListView.setAdapter(mChannelInfoAdapter);
+        updateStreamTitle();
 
         // Closeボタン
         Button closeButton = (Button) findViewById(R.id.BackButton);
@@ -209,6 +226,44 @@ public class ChannelActivity extends Activity {
         MediaPlayManager.getConnector().removePlayStateChangedHandler(mSwitchPlayStopButtonTextHandler);
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        boolean ret = super.onCreateOptionsMenu(menu);
+
+        menu.add(Menu.NONE, MENU_ID_WATCH_DJ, Menu.NONE, R.string.watch_this_dj);
+
+        return ret;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean ret = super.onPrepareOptionsMenu(menu);
+
+        // DJが無い番組はウォッチできない
+        final String dj = (mChannel != null) ? mChannel.getDj() : null;
+        menu.findItem(MENU_ID_WATCH_DJ).setEnabled(dj != null && dj.trim().length() != 0);
+
+        return ret;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_ID_WATCH_DJ:
+            {
+                final WatchRule rule = new WatchRule(WatchRule.FIELD_DJ, mChannel.getDj());
+                WatchRuleManager.getManager().addRule(rule);
+                Toast.makeText(this,
+                        getString(R.string.watch_rule_added, rule.getKeyword()),
+                        Toast.LENGTH_SHORT).show();
+                return false;
+            }
+            default:
+                break;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
     /**
      * 番組を再生する 再生前にはプログレス画面が表示され、再生が開始するとプログレス画面が消える。
      */
@@ -250,6 +305,9 @@ public class ChannelActivity extends Activity {
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PREPARE_STARTED:
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PLAY_COMPLATED:
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PLAY_STOPPED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PAUSED:
                             break;
                         default:
                             Log.w(C.TAG, String.format(
@@ -324,6 +382,17 @@ public class ChannelActivity extends Activity {
         }
     }
 
+    /**
+     * この画面で表示している番組を再生中の場合は、曲をストリームから取り出した曲名で表示する
+     */
+    private void updateStreamTitle() {
+        final String playingPath = MediaPlayManager.getConnector().getPlayingPath();
+        final boolean isPlaying = mChannel.getPlayUrl() != null
+                && mChannel.getPlayUrl().toString().equals(playingPath);
+        mChannelInfoAdapter.setStreamTitle(isPlaying ? MediaPlayManager.getConnector()
+                .getStreamTitle() : null);
+    }
+
     private class ChannelInfoAdapter extends BaseAdapter {
 
         private LayoutInflater mInflater;
@@ -360,6 +429,21 @@ public class ChannelActivity extends Activity {
          */
         private ArrayList<ChannelInfo> mInfoList = new ArrayList<ChannelInfo>(11);
 
+        /**
+         * ヘッドラインの曲
+         */
+        private String mHeadlineSong;
+
+        /**
+         * 曲の表示内容。 表示していない場合はnull。
+         */
+        private ChannelInfo mSongInfo;
+
+        /**
+         * 曲の表示位置
+         */
+        private int mSongPosition;
+
         /**
          * コンストラクタ
          * 
@@ -377,7 +461,12 @@ public class ChannelActivity extends Activity {
             }
             addInfoList(R.string.genre, channel.getGnl());
             addInfoList(R.string.description, channel.getDesc());
-            addInfoList(R.string.song, channel.getSong());
+            mHeadlineSong = channel.getSong();
+            mSongPosition = mInfoList.size();
+            addInfoList(R.string.song, mHeadlineSong);
+            if (mInfoList.size() > mSongPosition) {
+                mSongInfo = mInfoList.get(mSongPosition);
+            }
             addInfoList(R.string.airtime, channel.getTimsString());
             int totalListensersNum = channel.getClns();
             if (totalListensersNum != Channel.UNKNOWN_LISTENER_NUM) {
@@ -415,6 +504,32 @@ public class ChannelActivity extends Activity {
             }
         }
 
+        /**
+         * ストリームから取り出した曲名を設定する
+         * 
+         * @param streamTitle 曲名。nullの場合はヘッドラインの曲を表示する。
+         */
+        /* package */void setStreamTitle(String streamTitle) {
+            final String song = (streamTitle != null) ? streamTitle : mHeadlineSong;
+            if (song == null || song.length() == 0) {
+                if (mSongInfo != null) {
+                    mInfoList.remove(mSongInfo);
+                    mSongInfo = null;
+                    notifyDataSetChanged();
+                }
+                return;
+            }
+            if (mSongInfo == null) {
+                mSongInfo = new ChannelInfo(getString(R.string.song), song);
+                mInfoList.add(mSongPosition, mSongInfo);
+            } else if (song.equals(mSongInfo.value)) {
+                return;
+            } else {
+                mSongInfo.value = song;
+            }
+            notifyDataSetChanged();
+        }
+
         @Override
         public int getCount() {
             return mInfoList.size();
@@ -0,0 +1,328 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+import com.uraroji.garage.android.netladiolib.Headline;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ヘッドラインの番組の並び順の索引
+ * 
+ * 番組の配列を1つだけ保持し、各並び順はその配列の位置の配列として保持する。
+ * 各タブはこの索引を共有するので、タブ毎に番組の配列を持つ必要が無い。
+ * また、番組一覧の1行に表示する内容は表示する分だけを生成し、一定数のみキャッシュする。
+ * メモリが不足した場合は、キャッシュと表示中でない並び順の索引を破棄し、次に使う際に作り直す。
+ * 
+ * 生成は別スレッドで行ってもよいが、生成後はUIスレッドからのみ使用すること。
+ * ただし番組とIDは生成後に変わらないので、ウォッチルールの照合のためにどのスレッドから読んでもよい。
+ * 番組一覧の1行に表示する内容のキャッシュは、{@link RowModelPrebuilder}のスレッドからも使うので同期している。
+ */
+public class ChannelIndex {
+
+    /**
+     * 索引を作成する並び順
+     */
+    private static final int[] SORT_TYPES = {
+            Headline.SORT_TYPE_NEWLY, Headline.SORT_TYPE_LISTENERS, Headline.SORT_TYPE_TITLE,
+            Headline.SORT_TYPE_DJ
+    };
+
+    /**
+     * ヘッドライン。 検索に使用する。
+     */
+    private final Headline mHeadline;
+
+    /**
+     * 番組の配列
+     */
+    private final Channel[] mChannels;
+
+    /**
+     * 番組を識別するIDの配列。 mChannelsと同じ並び。
+     */
+    private final long[] mIds;
+
+    /**
+     * 並び順毎の、mChannelsの位置の配列。 SORT_TYPESと同じ並び。 破棄した並び順はnull。
+     */
+    private final int[][] mSortedIndexes;
+
+    /**
+     * 最後に検索した単語
+     */
+    private String mMatchedWord;
+
+    /**
+     * 最後に検索した単語に一致した番組
+     */
+    private HashSet<Channel> mMatchedChannels;
+
+    /**
+     * mChannelsの位置をキーとした、番組一覧の1行に表示する内容のキャッシュ。 最近使用した順に並ぶ。
+     * 
+     * UIスレッドと{@link RowModelPrebuilder}のスレッドから使うので、このオブジェクトで同期する。
+     */
+    private final LinkedHashMap<Integer, ChannelRowModel> mRowModelCache = new LinkedHashMap<Integer, ChannelRowModel>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ChannelRowModel> eldest) {
+            return size() > C.ROW_MODEL_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * コンストラクタ
+     * 
+     * 並び順毎にヘッドラインから番組を取得して索引を作成する。
+     * 
+     * @param headline ヘッドライン
+     */
+    public ChannelIndex(Headline headline) {
+        mHeadline = headline;
+        mChannels = headline.getChannels();
+
+        mIds = new long[mChannels.length];
+        for (int i = 0; i < mChannels.length; ++i) {
+            mIds[i] = ChannelRowModel.createId(mChannels[i]);
+        }
+
+        final HashMap<Channel, Integer> positionMap = createPositionMap();
+        mSortedIndexes = new int[SORT_TYPES.length][];
+        for (int i = 0; i < SORT_TYPES.length; ++i) {
+            mSortedIndexes[i] = createSortedIndexes(SORT_TYPES[i], positionMap);
+        }
+    }
+
+    /**
+     * 番組からmChannelsの位置を引くマップを作成する
+     * 
+     * @return 番組からmChannelsの位置を引くマップ
+     */
+    private HashMap<Channel, Integer> createPositionMap() {
+        final HashMap<Channel, Integer> positionMap = new HashMap<Channel, Integer>(
+                mChannels.length * 4 / 3 + 1);
+        for (int i = 0; i < mChannels.length; ++i) {
+            positionMap.put(mChannels[i], i);
+        }
+        return positionMap;
+    }
+
+    /**
+     * 並び順の索引を作成する
+     * 
+     * @param sortType 番組の並び順
+     * @param positionMap 番組からmChannelsの位置を引くマップ
+     * @return mChannelsの位置の配列
+     */
+    private int[] createSortedIndexes(int sortType, HashMap<Channel, Integer> positionMap) {
+        // 並び替えはライブラリに任せ、結果の番組の配列は位置の配列に置き換えて捨てる
+        final Channel[] sorted = mHeadline.getChannels(sortType);
+        final int[] indexes = new int[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            indexes[i] = positionMap.get(sorted[i]);
+        }
+        return indexes;
+    }
+
+    /**
+     * 番組の数を取得する
+     * 
+     * @return 番組の数
+     */
+    public int getChannelCount() {
+        return mChannels.length;
+    }
+
+    /**
+     * 番組を取得する
+     * 
+     * @param index 番組の位置
+     * @return 番組
+     */
+    public Channel getChannel(int index) {
+        return mChannels[index];
+    }
+
+    /**
+     * 番組を識別するIDを取得する
+     * 
+     * @param index 番組の位置
+     * @return 番組を識別するID
+     * @see ChannelRowModel#getId()
+     */
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * 指定した並び順で、検索単語に一致する番組の位置の配列を取得する
+     * 
+     * 検索単語が空の場合は索引の配列そのものを返すので、返り値は変更しないこと。
+     * 
+     * @param sortType 番組の並び順
+     * @param searchWord 検索単語
+     * @return 番組の位置の配列
+     * @see Headline#SORT_TYPE_NEWLY
+     * @see Headline#SORT_TYPE_LISTENERS
+     * @see Headline#SORT_TYPE_TITLE
+     * @see Headline#SORT_TYPE_DJ
+     */
+    public int[] getIndexes(int sortType, String searchWord) {
+        int[] sortedIndexes = null;
+        for (int i = 0; i < SORT_TYPES.length; ++i) {
+            if (SORT_TYPES[i] == sortType) {
+                if (mSortedIndexes[i] == null) {
+                    // メモリ不足で破棄した索引を作り直す
+                    mSortedIndexes[i] = createSortedIndexes(sortType, createPositionMap());
+                }
+                sortedIndexes = mSortedIndexes[i];
+                break;
+            }
+        }
+        if (sortedIndexes == null) {
+            throw new IllegalArgumentException("Unknown sort type(" + sortType + ").");
+        }
+
+        if (searchWord == null || searchWord.length() == 0) {
+            return sortedIndexes;
+        }
+
+        // 検索は1度だけ行い、各タブでは一致した番組を並び順の索引から抜き出す
+        if (searchWord.equals(mMatchedWord) == false) {
+            final Channel[] matched = mHeadline.getChannels(searchWord);
+            mMatchedChannels = new HashSet<Channel>(matched.length * 4 / 3 + 1);
+            for (Channel channel : matched) {
+                mMatchedChannels.add(channel);
+            }
+            mMatchedWord = searchWord;
+        }
+
+        final int[] buffer = new int[mMatchedChannels.size()];
+        int count = 0;
+        for (int index : sortedIndexes) {
+            if (count < buffer.length && mMatchedChannels.contains(mChannels[index])) {
+                buffer[count++] = index;
+            }
+        }
+        if (count == buffer.length) {
+            return buffer;
+        }
+        final int[] result = new int[count];
+        System.arraycopy(buffer, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * キャッシュしている番組一覧の1行に表示する内容を取得する
+     * 
+     * @param index 番組の位置
+     * @return 番組一覧の1行に表示する内容。キャッシュしていない場合はnull。
+     */
+    public ChannelRowModel getCachedRowModel(int index) {
+        synchronized (mRowModelCache) {
+            return mRowModelCache.get(index);
+        }
+    }
+
+    /**
+     * 番組一覧の1行に表示する内容をキャッシュする
+     * 
+     * キャッシュが{@link C#ROW_MODEL_CACHE_SIZE}を超えた場合は、最も長く使用していないものを破棄する。
+     * 
+     * @param index 番組の位置
+     * @param rowModel 番組一覧の1行に表示する内容
+     */
+    public void cacheRowModel(int index, ChannelRowModel rowModel) {
+        synchronized (mRowModelCache) {
+            mRowModelCache.put(index, rowModel);
+        }
+    }
+
+    /**
+     * キャッシュしている番組一覧の1行に表示する内容の、放送開始時間の表示文字列を現在時刻に合わせて更新する
+     * 
+     * 表示する際には更新しないので、1分毎にUIスレッドから呼ぶ。
+     * 
+     * @param rowModelBuilder 番組一覧の1行に表示する内容の生成
+     * @param now 現在時刻（ms）
+     * @return 更新した数
+     */
+    public int updateCachedDates(ChannelRowModelBuilder rowModelBuilder, long now) {
+        int count = 0;
+        synchronized (mRowModelCache) {
+            for (ChannelRowModel rowModel : mRowModelCache.values()) {
+                if (rowModelBuilder.updateDate(rowModel, now)) {
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * メモリが不足したので、作り直せるものを破棄する 破棄したものは次に使う際に作り直す。
+     * 
+     * LEVEL_BACKGROUND以上では、番組一覧の1行に表示する内容のキャッシュと検索結果を破棄する。
+     * LEVEL_MODERATE以上では、表示中のタブ以外の並び順の索引も破棄する。
+     * 
+     * @param level 解放の段階
+     * @param keepSortType 表示中のタブの並び順。この並び順の索引は破棄しない。
+     * @see MemoryTrimmer#LEVEL_BACKGROUND
+     * @see MemoryTrimmer#LEVEL_MODERATE
+     * @see MemoryTrimmer#LEVEL_COMPLETE
+     */
+    public void trim(int level, int keepSortType) {
+        synchronized (mRowModelCache) {
+            mRowModelCache.clear();
+        }
+        mMatchedWord = null;
+        mMatchedChannels = null;
+        if (level < MemoryTrimmer.LEVEL_MODERATE) {
+            return;
+        }
+
+        for (int i = 0; i < SORT_TYPES.length; ++i) {
+            if (SORT_TYPES[i] != keepSortType) {
+                mSortedIndexes[i] = null;
+            }
+        }
+    }
+
+    /**
+     * キャッシュしている番組一覧の1行に表示する内容の数を取得する ログ出力用。
+     * 
+     * @return キャッシュしている番組一覧の1行に表示する内容の数
+     */
+    public int getCachedRowModelCount() {
+        synchronized (mRowModelCache) {
+            return mRowModelCache.size();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+/**
+ * 番組一覧の1行に表示する内容
+ * 
+ * 表示用の文字列はすべて生成済みなので、ChannelAdapter#getViewでは値を設定するだけでよい。
+ * 
+ * @see ChannelRowModelBuilder
+ */
+public class ChannelRowModel {
+
+    /**
+     * 番組
+     */
+    private final Channel mChannel;
+
+    /**
+     * 番組の再生URL。再生URLが無い場合はnull。
+     */
+    private final String mPlayUrl;
+
+    /**
+     * 番組を識別するID。 再生URLから求めるので、ヘッドラインを取得し直しても同じ番組は同じIDになる。
+     */
+    private final long mId;
+
+    /**
+     * タイトル
+     */
+    private final String mTitle;
+
+    /**
+     * ジャンル
+     */
+    private final String mGenre;
+
+    /**
+     * DJ
+     */
+    private final String mDj;
+
+    /**
+     * リスナー数の表示文字列
+     */
+    private final String mListeners;
+
+    /**
+     * 放送開始時間の表示文字列
+     */
+    private String mDate;
+
+    /**
+     * 放送開始時間の表示文字列を生成した時点での、放送開始からの経過時間（分）
+     */
+    private long mDateElapsedMin;
+
+    /**
+     * 放送開始時間（ms）。不明な場合は-1。
+     */
+    private final long mStartTime;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param channel 番組
+     * @param title タイトル
+     * @param genre ジャンル
+     * @param dj DJ
+     * @param listeners リスナー数の表示文字列
+     * @param date 放送開始時間の表示文字列
+     * @param dateElapsedMin 放送開始時間の表示文字列を生成した時点での、放送開始からの経過時間（分）
+     * @param startTime 放送開始時間（ms）。不明な場合は-1。
+     */
+    /* package */ChannelRowModel(Channel channel, String title, String genre, String dj,
+            String listeners, String date, long dateElapsedMin, long startTime) {
+        mChannel = channel;
+        mPlayUrl = (channel.getPlayUrl() != null) ? channel.getPlayUrl().toString() : null;
+        mId = createId(channel);
+        mTitle = title;
+        mGenre = genre;
+        mDj = dj;
+        mListeners = listeners;
+        mDate = date;
+        mDateElapsedMin = dateElapsedMin;
+        mStartTime = startTime;
+    }
+
+    /**
+     * 番組を取得する
+     * 
+     * @return 番組
+     */
+    public Channel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * 番組の再生URLを取得する
+     * 
+     * @return 番組の再生URL。再生URLが無い場合はnull。
+     */
+    public String getPlayUrl() {
+        return mPlayUrl;
+    }
+
+    /**
+     * 番組を識別するIDを取得する
+     * 
+     * @return 番組を識別するID
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * タイトルを取得する
+     * 
+     * @return タイトル。nullは返さない。
+     */
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * ジャンルを取得する
+     * 
+     * @return ジャンル。nullは返さない。
+     */
+    public String getGenre() {
+        return mGenre;
+    }
+
+    /**
+     * DJを取得する
+     * 
+     * @return DJ。nullは返さない。
+     */
+    public String getDj() {
+        return mDj;
+    }
+
+    /**
+     * リスナー数の表示文字列を取得する
+     * 
+     * @return リスナー数の表示文字列。nullは返さない。
+     */
+    public String getListeners() {
+        return mListeners;
+    }
+
+    /**
+     * 放送開始時間の表示文字列を取得する
+     * 
+     * @return 放送開始時間の表示文字列。nullは返さない。
+     */
+    public String getDate() {
+        return mDate;
+    }
+
+    /**
+     * 放送開始時間の表示文字列を生成した時点での、放送開始からの経過時間を取得する
+     * 
+     * @return 放送開始時間の表示文字列を生成した時点での、放送開始からの経過時間（分）
+     */
+    /* package */long getDateElapsedMin() {
+        return mDateElapsedMin;
+    }
+
+    /**
+     * 放送開始時間の表示文字列を設定する
+     * 
+     * @param date 放送開始時間の表示文字列
+     * @param dateElapsedMin 放送開始時間の表示文字列を生成した時点での、放送開始からの経過時間（分）
+     */
+    /* package */void setDate(String date, long dateElapsedMin) {
+        mDate = date;
+        mDateElapsedMin = dateElapsedMin;
+    }
+
+    /**
+     * 放送開始時間を取得する
+     * 
+     * @return 放送開始時間（ms）。不明な場合は-1。
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * 表示内容が同じか
+     * 
+     * @param other 比較する番組一覧の1行に表示する内容
+     * @return 表示内容が同じ場合はtrue
+     */
+    public boolean hasSameContent(ChannelRowModel other) {
+        return mId == other.mId && mTitle.equals(other.mTitle) && mGenre.equals(other.mGenre)
+                && mDj.equals(other.mDj) && mListeners.equals(other.mListeners)
+                && mDate.equals(other.mDate);
+    }
+
+    /**
+     * 番組を識別するIDを求める
+     * 
+     * 再生URLから求めるので、ヘッドラインを取得し直しても同じ番組は同じIDになる。
+     * 
+     * @param channel 番組
+     * @return 番組を識別するID
+     */
+    /* package */static long createId(Channel channel) {
+        if (channel.getPlayUrl() != null) {
+            return createId(channel.getPlayUrl().toString());
+        }
+        // 再生URLが無い番組はタイトルとDJで識別する
+        final String title = channel.getNam();
+        final String dj = channel.getDj();
+        return createId(((title != null) ? title : "") + "\n" + ((dj != null) ? dj : ""));
+    }
+
+    /**
+     * 文字列から64bitのIDを求める（FNV-1a）
+     * 
+     * @param str 文字列
+     * @return ID
+     */
+    private static long createId(String str) {
+        long hash = 0xcbf29ce484222325L;
+        final int length = str.length();
+        for (int i = 0; i < length; ++i) {
+            hash ^= str.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * 指定した再生中のパスがこの番組か
+     * 
+     * @param playingPath 再生中のパス
+     * @return 指定した再生中のパスがこの番組の場合はtrue
+     */
+    public boolean isPlaying(String playingPath) {
+        return mPlayUrl != null && mPlayUrl.equals(playingPath);
+    }
+}
@@ -0,0 +1,182 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.content.Context;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+import java.util.Date;
+
+/**
+ * 番組一覧の1行に表示する内容を生成する
+ * 
+ * 使用する文字列リソースはコンストラクタで取得しておくので、別スレッドから使用できる。
+ */
+public class ChannelRowModelBuilder {
+
+    private final String mListenerString;
+
+    private final String mListenersString;
+
+    private final String mStartTimeDayFormat;
+
+    private final String mStartTimeDaysFormat;
+
+    private final String mStartTimeHourFormat;
+
+    private final String mStartTimeHoursFormat;
+
+    private final String mStartTimeMinFormat;
+
+    private final String mStartTimeMinsFormat;
+
+    private final String mStartTimeAgoString;
+
+    private final String mStartTimeUnder1MinString;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param context コンテキスト
+     */
+    public ChannelRowModelBuilder(Context context) {
+        mListenerString = context.getString(R.string.listener);
+        mListenersString = context.getString(R.string.listeners);
+        mStartTimeDayFormat = context.getString(R.string.start_time_day);
+        mStartTimeDaysFormat = context.getString(R.string.start_time_days);
+        mStartTimeHourFormat = context.getString(R.string.start_time_hour);
+        mStartTimeHoursFormat = context.getString(R.string.start_time_hours);
+        mStartTimeMinFormat = context.getString(R.string.start_time_min);
+        mStartTimeMinsFormat = context.getString(R.string.start_time_mins);
+        mStartTimeAgoString = context.getString(R.string.start_time_ago);
+        mStartTimeUnder1MinString = context.getString(R.string.start_time_under1min);
+    }
+
+    /**
+     * 番組一覧の1行に表示する内容を生成する
+     * 
+     * @param channel 番組
+     * @param now 現在時刻（ms）。放送開始時間の表示に使用する。
+     * @return 番組一覧の1行に表示する内容
+     */
+    public ChannelRowModel build(Channel channel, long now) {
+        final String title = channel.getNam();
+        final String genre = channel.getGnl();
+        final String dj = channel.getDj();
+
+        final int listenersNum = channel.getCln();
+        final String listeners;
+        if (listenersNum != Channel.UNKNOWN_LISTENER_NUM) {
+            listeners = String.valueOf(listenersNum) + " "
+                    + ((listenersNum <= 1) ? mListenerString : mListenersString);
+        } else {
+            listeners = "";
+        }
+
+        final Date startDate = channel.getTims();
+        final long startTime = (startDate != null) ? startDate.getTime() : -1;
+
+        return new ChannelRowModel(channel, (title != null) ? title : "",
+                (genre != null) ? genre : "", (dj != null) ? dj : "", listeners,
+                formatStartTime(startTime, now), getElapsedMin(startTime, now), startTime);
+    }
+
+    /**
+     * 放送開始時間の表示文字列を現在時刻に合わせて更新する
+     * 
+     * 表示文字列が変わるのは放送開始からの経過時間が1分進んだ時だけなので、それ以外は何もしない。
+     * 
+     * @param rowModel 番組一覧の1行に表示する内容
+     * @param now 現在時刻（ms）
+     * @return 放送開始時間の表示文字列を更新した場合はtrue
+     */
+    public boolean updateDate(ChannelRowModel rowModel, long now) {
+        final long elapsedMin = getElapsedMin(rowModel.getStartTime(), now);
+        if (elapsedMin == rowModel.getDateElapsedMin()) {
+            return false;
+        }
+        rowModel.setDate(formatStartTime(rowModel.getStartTime(), now), elapsedMin);
+        return true;
+    }
+
+    /**
+     * 放送開始からの経過時間を取得する
+     * 
+     * @param startTime 放送開始時間（ms）。不明な場合は-1。
+     * @param now 現在時刻（ms）
+     * @return 放送開始からの経過時間（分）。放送開始時間が不明な場合は-1。
+     */
+    private static long getElapsedMin(long startTime, long now) {
+        if (startTime < 0) {
+            return -1;
+        }
+        return (now - startTime) / (60 * 1000);
+    }
+
+    /**
+     * 放送開始時間の表示文字列を生成する
+     * 
+     * @param startTime 放送開始時間（ms）。不明な場合は-1。
+     * @param now 現在時刻（ms）
+     * @return 放送開始時間の表示文字列。放送開始時間が不明な場合は空文字。
+     */
+    public String formatStartTime(long startTime, long now) {
+        if (startTime < 0) {
+            return "";
+        }
+
+        // 放送開始時間と現在時刻の差分を取得
+        final long diff = now - startTime;
+
+        // 1分未満
+        if (diff < 60 * 1000) {
+            return mStartTimeUnder1MinString;
+        }
+
+        // 1分以上
+        final long day = diff / (24 * 60 * 60 * 1000);
+        final long hour = (diff % (24 * 60 * 60 * 1000)) / (60 * 60 * 1000);
+        final long min = (diff % (60 * 60 * 1000)) / (60 * 1000);
+
+        final StringBuilder sb = new StringBuilder(32);
+        if (0 < day && day <= 1) {
+            sb.append(String.format(mStartTimeDayFormat, day));
+        } else if (day > 1) {
+            sb.append(String.format(mStartTimeDaysFormat, day));
+        }
+        if (0 < hour && hour <= 1) {
+            sb.append(String.format(mStartTimeHourFormat, hour));
+        } else if (hour > 1) {
+            sb.append(String.format(mStartTimeHoursFormat, hour));
+        }
+        if (0 < min && min <= 1) {
+            sb.append(String.format(mStartTimeMinFormat, min));
+        } else if (min > 1) {
+            sb.append(String.format(mStartTimeMinsFormat, min));
+        }
+        sb.append(mStartTimeAgoString);
+
+        return sb.toString();
+    }
+}
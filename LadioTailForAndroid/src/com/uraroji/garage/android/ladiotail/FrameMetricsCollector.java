@@ -0,0 +1,303 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.ViewTreeObserver;
+import android.view.ViewTreeObserver.OnPreDrawListener;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+
+import java.util.Arrays;
+
+/**
+ * 番組一覧のスクロール中のフレーム時間を計測する
+ * 
+ * スクロール中（フリングを含む）のフレーム毎に、フレーム時間と、そのフレームでのgetViewの時間と回数を記録する。
+ * Android 4.1以降ではChoreographerのフレームのコールバックで、それより前ではOnPreDrawListenerで
+ * フレームを検出する。 記録するフレーム数は{@link C#FRAME_METRICS_MAX_FRAMES}までで、超えた場合は古いものから上書きする。
+ * 
+ * UIスレッドからのみ使用すること。
+ */
+public class FrameMetricsCollector implements OnScrollListener {
+
+    /**
+     * 1フレームの時間の目安（ns）
+     */
+    private static final long FRAME_BUDGET_NANOS = 1000L * 1000L * 1000L / 60L;
+
+    /**
+     * 要約に含めるパーセンタイル
+     */
+    private static final int[] PERCENTILES = {
+            50, 90, 95, 99
+    };
+
+    /**
+     * 計測対象の名前。 レポートに使用する。
+     */
+    private final String mName;
+
+    /**
+     * 計測対象のListView
+     */
+    private final AbsListView mListView;
+
+    /**
+     * フレーム時間（ns）の記録
+     */
+    private final long[] mFrameNanos = new long[C.FRAME_METRICS_MAX_FRAMES];
+
+    /**
+     * フレーム毎のgetViewの時間の合計（ns）の記録
+     */
+    private final long[] mBindNanos = new long[C.FRAME_METRICS_MAX_FRAMES];
+
+    /**
+     * フレーム毎のgetViewの回数の記録
+     */
+    private final int[] mBindCounts = new int[C.FRAME_METRICS_MAX_FRAMES];
+
+    /**
+     * 記録したフレーム数。 記録の上限を超えても数え続ける。
+     */
+    private int mFrameCount = 0;
+
+    /**
+     * 目安の時間を超えたフレーム数
+     */
+    private int mJankCount = 0;
+
+    /**
+     * 前のフレームの時刻（ns）。 スクロール中でない場合は-1。
+     */
+    private long mLastFrameTime = -1;
+
+    /**
+     * 現在のフレームでのgetViewの時間の合計（ns）
+     */
+    private long mCurrentBindNanos = 0;
+
+    /**
+     * 現在のフレームでのgetViewの回数
+     */
+    private int mCurrentBindCount = 0;
+
+    /**
+     * スクロール中か
+     */
+    private boolean mIsScrolling = false;
+
+    /**
+     * Choreographerのフレームのコールバック。 Android 4.1より前ではnull。
+     */
+    private final ChoreographerFrameCallback mFrameCallback;
+
+    /**
+     * Android 4.1より前で、フレームを検出するOnPreDrawListener
+     */
+    private final OnPreDrawListener mPreDrawListener = new OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            onFrame(System.nanoTime());
+            return true;
+        }
+    };
+
+    /**
+     * コンストラクタ
+     * 
+     * @param name 計測対象の名前
+     * @param listView 計測対象のListView。 スクロールの状態はこのクラスに通知すること。
+     */
+    public FrameMetricsCollector(String name, AbsListView listView) {
+        mName = name;
+        mListView = listView;
+        mFrameCallback = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) ? new ChoreographerFrameCallback()
+                : null;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        final boolean isScrolling = (scrollState != OnScrollListener.SCROLL_STATE_IDLE);
+        if (isScrolling == mIsScrolling) {
+            return;
+        }
+        mIsScrolling = isScrolling;
+        mLastFrameTime = -1;
+        mCurrentBindNanos = 0;
+        mCurrentBindCount = 0;
+
+        if (mFrameCallback != null) {
+            if (isScrolling) {
+                mFrameCallback.start();
+            } else {
+                mFrameCallback.stop();
+            }
+        } else {
+            final ViewTreeObserver observer = mListView.getViewTreeObserver();
+            if (isScrolling) {
+                observer.addOnPreDrawListener(mPreDrawListener);
+            } else {
+                observer.removeOnPreDrawListener(mPreDrawListener);
+            }
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+        ;
+    }
+
+    /**
+     * getViewの時間を記録する スクロール中でない場合は何もしない。
+     * 
+     * @param nanos getViewの時間（ns）
+     */
+    public void recordBind(long nanos) {
+        if (mIsScrolling == false) {
+            return;
+        }
+        mCurrentBindNanos += nanos;
+        ++mCurrentBindCount;
+    }
+
+    /**
+     * フレームを記録する
+     * 
+     * @param frameTime フレームの時刻（ns）
+     */
+    private void onFrame(long frameTime) {
+        if (mLastFrameTime >= 0) {
+            final long frameNanos = frameTime - mLastFrameTime;
+            final int index = mFrameCount % C.FRAME_METRICS_MAX_FRAMES;
+            mFrameNanos[index] = frameNanos;
+            mBindNanos[index] = mCurrentBindNanos;
+            mBindCounts[index] = mCurrentBindCount;
+            ++mFrameCount;
+            // 1.5フレーム分を超えた場合はフレームを落としたとみなす
+            if (frameNanos > FRAME_BUDGET_NANOS * 3 / 2) {
+                ++mJankCount;
+            }
+        }
+        mLastFrameTime = frameTime;
+        mCurrentBindNanos = 0;
+        mCurrentBindCount = 0;
+    }
+
+    /**
+     * 記録を消去する
+     */
+    public void reset() {
+        mFrameCount = 0;
+        mJankCount = 0;
+        mLastFrameTime = -1;
+        mCurrentBindNanos = 0;
+        mCurrentBindCount = 0;
+    }
+
+    /**
+     * 記録の要約を取得する
+     * 
+     * @return 記録の要約
+     */
+    public String getReport() {
+        final int count = Math.min(mFrameCount, C.FRAME_METRICS_MAX_FRAMES);
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append(mName).append(": ").append(mFrameCount).append(" frames");
+        if (count == 0) {
+            return sb.toString();
+        }
+
+        sb.append(String.format(", %d janky (%.1f%%)\n", mJankCount, mJankCount * 100.0
+                / mFrameCount));
+
+        long totalBindCount = 0;
+        int maxBindCount = 0;
+        for (int i = 0; i < count; ++i) {
+            totalBindCount += mBindCounts[i];
+            maxBindCount = Math.max(maxBindCount, mBindCounts[i]);
+        }
+
+        sb.append("  frame ms:   ").append(getPercentiles(mFrameNanos, count)).append('\n');
+        sb.append("  getView ms: ").append(getPercentiles(mBindNanos, count)).append('\n');
+        sb.append(String.format("  getView/frame: avg %.2f, max %d", (double) totalBindCount
+                / count, maxBindCount));
+        if (mFrameCount > count) {
+            sb.append(String.format("\n  (last %d frames)", count));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * パーセンタイルの文字列を取得する
+     * 
+     * @param values 値（ns）の配列
+     * @param count 値の数
+     * @return パーセンタイルの文字列（ms）
+     */
+    private static String getPercentiles(long[] values, int count) {
+        final long[] sorted = new long[count];
+        System.arraycopy(values, 0, sorted, 0, count);
+        Arrays.sort(sorted);
+
+        final StringBuilder sb = new StringBuilder(64);
+        for (int percentile : PERCENTILES) {
+            final int index = Math.min(count - 1, (int) Math.ceil(count * percentile / 100.0) - 1);
+            sb.append(String.format("p%d=%.1f ", percentile,
+                    sorted[Math.max(0, index)] / 1000000.0));
+        }
+        sb.append(String.format("max=%.1f", sorted[count - 1] / 1000000.0));
+        return sb.toString();
+    }
+
+    /**
+     * Choreographerのフレームのコールバック Android 4.1以降でのみ使用する。
+     */
+    private class ChoreographerFrameCallback implements Choreographer.FrameCallback {
+
+        /**
+         * フレームのコールバックを開始する
+         */
+        /* package */void start() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /**
+         * フレームのコールバックを停止する
+         */
+        /* package */void stop() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onFrame(frameTimeNanos);
+            if (mIsScrolling) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    }
+}
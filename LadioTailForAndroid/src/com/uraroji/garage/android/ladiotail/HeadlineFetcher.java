@@ -0,0 +1,266 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.util.Log;
+
+import com.uraroji.garage.android.netladiolib.Headline;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * ヘッドラインの取得を管理する
+ * 
+ * 取得に失敗した場合は指数バックオフでリトライする。
+ * 取得は新しいHeadlineに対して行い、成功した場合にのみ差し替えるため、
+ * リトライがすべて失敗しても最後に取得に成功したヘッドラインを引き続き参照できる。
+ */
+public class HeadlineFetcher {
+
+    /**
+     * シングルトンのインスタンス
+     */
+    private static HeadlineFetcher mInstance = new HeadlineFetcher();
+
+    /**
+     * 最後に取得に成功したヘッドライン
+     */
+    private Headline mHeadline = new Headline();
+
+    /**
+     * 最後にヘッドラインの取得に成功した時刻（ms）。一度も成功していない場合は0。
+     */
+    private long mFetchedTime = 0;
+
+    /**
+     * 直近の取得で行ったリトライ回数
+     */
+    private int mLastRetryCount = 0;
+
+    /**
+     * 起動してからのリトライ回数の合計
+     */
+    private int mTotalRetryCount = 0;
+
+    /**
+     * 起動してからの取得失敗回数（リトライをすべて失敗した回数）の合計
+     */
+    private int mTotalFailureCount = 0;
+
+    /**
+     * バックオフのゆらぎ用の乱数
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * ロックオブジェクト
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * コンストラクタ シングルトンなのでprivateとする
+     */
+    private HeadlineFetcher() {
+    }
+
+    /**
+     * インスタンスを取得する
+     * 
+     * @return インスタンス
+     */
+    public static HeadlineFetcher getFetcher() {
+        return mInstance;
+    }
+
+    /**
+     * 最後に取得に成功したヘッドラインを取得する
+     * 
+     * @return 最後に取得に成功したヘッドライン。一度も取得に成功していない場合は空のヘッドライン。
+     */
+    public Headline getHeadline() {
+        synchronized (mLock) {
+            return mHeadline;
+        }
+    }
+
+    /**
+     * ヘッドラインを取得する
+     * 
+     * 失敗した場合は{@link C#HEADLINE_FETCH_MAX_RETRY}回までリトライする。
+     * 通信を行うのでUIスレッドからは呼ばないこと。
+     * 
+     * @throws IOException リトライをすべて失敗した
+     */
+    public void fetch() throws IOException {
+        IOException lastException = null;
+
+        for (int retry = 0; retry <= C.HEADLINE_FETCH_MAX_RETRY; ++retry) {
+            if (retry > 0) {
+                final long delay = getBackoffDelay(retry);
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, "Retry fetching headline(" + retry + ") after " + delay + "ms.");
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            // 取得途中で失敗した場合に表示中のヘッドラインが壊れないよう、新しいHeadlineに取得する
+            final Headline headline = new Headline();
+            try {
+                headline.fetchHeadline();
+
+                synchronized (mLock) {
+                    mHeadline = headline;
+                    mFetchedTime = System.currentTimeMillis();
+                    mLastRetryCount = retry;
+                    mTotalRetryCount += retry;
+                }
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, "Fetched headline. " + getStatsString());
+                }
+                return;
+            } catch (IOException e) {
+                Log.i(C.TAG, "Failed to fetch headline(" + e.toString() + ").");
+                lastException = e;
+            }
+        }
+
+        synchronized (mLock) {
+            mLastRetryCount = C.HEADLINE_FETCH_MAX_RETRY;
+            mTotalRetryCount += C.HEADLINE_FETCH_MAX_RETRY;
+            ++mTotalFailureCount;
+        }
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Gave up fetching headline. " + getStatsString());
+        }
+
+        throw (lastException != null) ? lastException : new IOException(
+                "Fetching headline is interrupted.");
+    }
+
+    /**
+     * リトライまでの待ち時間を取得する
+     * 
+     * @param retry リトライ回数（1以上）
+     * @return 待ち時間（ms）
+     */
+    private long getBackoffDelay(int retry) {
+        final double random;
+        synchronized (mLock) {
+            random = mRandom.nextDouble();
+        }
+        return getBackoffDelay(retry, random);
+    }
+
+    /**
+     * リトライまでの待ち時間を計算する
+     * 
+     * 待ち時間は指数的に増加し、同時に失敗した端末が一斉にリトライしないように半分をランダムにする。
+     * 
+     * @param retry リトライ回数（1以上）
+     * @param random 0以上1未満の乱数
+     * @return 待ち時間（ms）
+     */
+    /* package */static long getBackoffDelay(int retry, double random) {
+        // 大きな回数でシフトが桁あふれしないように抑える
+        final int shift = Math.min(Math.max(retry - 1, 0), 30);
+        final long delay = Math.min(C.HEADLINE_FETCH_BACKOFF_BASE_MS << shift,
+                C.HEADLINE_FETCH_BACKOFF_MAX_MS);
+        return delay / 2 + (long) (random * (delay / 2));
+    }
+
+    /**
+     * 最後にヘッドラインの取得に成功した時刻を取得する
+     * 
+     * @return 最後にヘッドラインの取得に成功した時刻（ms）。一度も成功していない場合は0。
+     */
+    public long getFetchedTime() {
+        synchronized (mLock) {
+            return mFetchedTime;
+        }
+    }
+
+    /**
+     * 表示中のヘッドラインの古さを取得する
+     * 
+     * @return 最後にヘッドラインの取得に成功してからの経過時間（ms）。一度も成功していない場合は-1。
+     */
+    public long getStaleness() {
+        synchronized (mLock) {
+            if (mFetchedTime == 0) {
+                return -1;
+            }
+            return System.currentTimeMillis() - mFetchedTime;
+        }
+    }
+
+    /**
+     * 直近の取得で行ったリトライ回数を取得する
+     * 
+     * @return 直近の取得で行ったリトライ回数
+     */
+    public int getLastRetryCount() {
+        synchronized (mLock) {
+            return mLastRetryCount;
+        }
+    }
+
+    /**
+     * 起動してからのリトライ回数の合計を取得する
+     * 
+     * @return 起動してからのリトライ回数の合計
+     */
+    public int getTotalRetryCount() {
+        synchronized (mLock) {
+            return mTotalRetryCount;
+        }
+    }
+
+    /**
+     * 起動してからの取得失敗回数の合計を取得する
+     * 
+     * @return 起動してからの取得失敗回数の合計
+     */
+    public int getTotalFailureCount() {
+        synchronized (mLock) {
+            return mTotalFailureCount;
+        }
+    }
+
+    /**
+     * 取得状況の統計を文字列で取得する ログ出力用。
+     * 
+     * @return 取得状況の統計
+     */
+    public String getStatsString() {
+        synchronized (mLock) {
+            return "staleness=" + getStaleness() + "ms, lastRetry=" + mLastRetryCount
+                    + ", totalRetry=" + mTotalRetryCount + ", totalFailure="
+                    + mTotalFailureCount;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * ストリーム中のICYメタデータからStreamTitleを取り出す
+ * 
+ * メタデータは"StreamTitle='曲名';StreamUrl='';"の形式で、icy-metaintバイト毎に送られてくる。
+ * 同じ曲の間は同じメタデータが繰り返し送られてくるので、受信中はあらかじめ確保した配列に溜めて比較するだけにし、
+ * 曲名が変わった場合にのみ文字列を作る。
+ * 
+ * Androidに依存しないので、JVM上で試験できる。
+ */
+/* package */class IcyMetadataParser {
+
+    /**
+     * メタデータの最大バイト数（長さは1バイトで16バイト単位）
+     */
+    public static final int MAX_METADATA_SIZE = 255 * 16;
+
+    /**
+     * StreamTitleの開始
+     */
+    private static final byte[] TITLE_START = {
+            'S', 't', 'r', 'e', 'a', 'm', 'T', 'i', 't', 'l', 'e', '=', '\''
+    };
+
+    /**
+     * 受信中のメタデータ
+     */
+    private final byte[] mBlock = new byte[MAX_METADATA_SIZE];
+
+    /**
+     * 受信中のメタデータのバイト数
+     */
+    private int mBlockLength = 0;
+
+    /**
+     * 現在のStreamTitle
+     */
+    private final byte[] mTitle = new byte[MAX_METADATA_SIZE];
+
+    /**
+     * 現在のStreamTitleのバイト数。 まだ受信していない場合は-1。
+     */
+    private int mTitleLength = -1;
+
+    /**
+     * メタデータの受信を始める
+     */
+    public void begin() {
+        mBlockLength = 0;
+    }
+
+    /**
+     * 受信したメタデータを溜める
+     * 
+     * @param src 受信したデータ。 lengthバイト分positionが進む。
+     * @param length 溜めるバイト数
+     */
+    public void append(ByteBuffer src, int length) {
+        final int n = Math.min(length, MAX_METADATA_SIZE - mBlockLength);
+        src.get(mBlock, mBlockLength, n);
+        mBlockLength += n;
+        // 最大バイト数を超えることは無いはずだが、超えた分は読み捨てる
+        if (n < length) {
+            src.position(src.position() + (length - n));
+        }
+    }
+
+    /**
+     * メタデータの受信を終える
+     * 
+     * @return StreamTitleが変わった場合はtrue
+     */
+    public boolean end() {
+        final int start = indexOf(mBlock, mBlockLength, TITLE_START, 0);
+        if (start < 0) {
+            return false;
+        }
+        final int titleStart = start + TITLE_START.length;
+        final int titleEnd = findTitleEnd(titleStart);
+
+        final int length = titleEnd - titleStart;
+        if (length == mTitleLength && equals(mBlock, titleStart, mTitle, 0, length)) {
+            return false;
+        }
+        System.arraycopy(mBlock, titleStart, mTitle, 0, length);
+        mTitleLength = length;
+        return true;
+    }
+
+    /**
+     * 現在のStreamTitleを取得する 曲名が変わった時のみ呼ぶこと（呼ぶ度に文字列を作る）。
+     * 
+     * @return 現在のStreamTitle。まだ受信していない場合、または空の場合はnull。
+     */
+    public String getTitle() {
+        if (mTitleLength <= 0) {
+            return null;
+        }
+        // 文字コードは決まっていないので、UTF-8として正しくない場合はShift_JISとみなす
+        final String charset = isValidUtf8(mTitle, mTitleLength) ? "UTF-8" : "Shift_JIS";
+        try {
+            return new String(mTitle, 0, mTitleLength, charset).trim();
+        } catch (UnsupportedEncodingException e) {
+            return new String(mTitle, 0, mTitleLength).trim();
+        }
+    }
+
+    /**
+     * 現在のStreamTitleを忘れる 接続し直した場合などに呼ぶ。
+     */
+    public void reset() {
+        mBlockLength = 0;
+        mTitleLength = -1;
+    }
+
+    /**
+     * StreamTitleの終わりを探す 曲名に"'"が含まれる場合があるので、"';"または末尾の"'"を終わりとする。
+     * 
+     * @param titleStart StreamTitleの開始位置
+     * @return StreamTitleの終わりの位置（"'"の位置）
+     */
+    private int findTitleEnd(int titleStart) {
+        int lastQuote = -1;
+        for (int i = titleStart; i < mBlockLength; ++i) {
+            if (mBlock[i] == 0) {
+                break;
+            }
+            if (mBlock[i] == '\'') {
+                if (i + 1 < mBlockLength && mBlock[i + 1] == ';') {
+                    return i;
+                }
+                lastQuote = i;
+            }
+        }
+        if (lastQuote >= 0) {
+            return lastQuote;
+        }
+        // 閉じていない場合はパディングの手前までとする
+        int end = titleStart;
+        while (end < mBlockLength && mBlock[end] != 0) {
+            ++end;
+        }
+        return end;
+    }
+
+    /**
+     * 配列から部分配列を探す
+     * 
+     * @param data 探す対象
+     * @param length 探す対象のバイト数
+     * @param pattern 探す部分配列
+     * @param from 探し始める位置
+     * @return 見つかった位置。見つからない場合は-1。
+     */
+    private static int indexOf(byte[] data, int length, byte[] pattern, int from) {
+        final int last = length - pattern.length;
+        for (int i = from; i <= last; ++i) {
+            if (equals(data, i, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 配列の一部が等しいか
+     * 
+     * @param a 比較する配列
+     * @param aOffset 比較する配列の開始位置
+     * @param b 比較する配列
+     * @param bOffset 比較する配列の開始位置
+     * @param length 比較するバイト数
+     * @return 等しい場合はtrue
+     */
+    private static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; ++i) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * UTF-8として正しいか
+     * 
+     * @param data 調べるデータ
+     * @param length 調べるバイト数
+     * @return UTF-8として正しい場合はtrue
+     */
+    /* package */static boolean isValidUtf8(byte[] data, int length) {
+        int i = 0;
+        while (i < length) {
+            final int b = data[i] & 0xFF;
+            final int following;
+            if (b < 0x80) {
+                following = 0;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                following = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                following = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                following = 3;
+            } else {
+                return false;
+            }
+            if (i + following >= length && following != 0) {
+                return false;
+            }
+            for (int j = 1; j <= following; ++j) {
+                if ((data[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += following + 1;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,342 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * ストリームを取得するHTTP/ICYクライアント
+ * 
+ * ねとらじの配信サーバ（Icecast/SHOUTcast互換）に接続し、応答ヘッダを読んだ後の音声データのストリームを返す。
+ * 応答の"ICY 200 OK"と"HTTP/1.x 200"の両方に対応し、リダイレクトは{@link #MAX_REDIRECT}回まで辿る。
+ * 
+ * Androidに依存しないので、JVM上でローカルのサーバを相手に試験できる。
+ */
+public class IcyStreamClient {
+
+    /**
+     * リダイレクトを辿る最大回数
+     */
+    public static final int MAX_REDIRECT = 3;
+
+    /**
+     * 応答ヘッダの1行の最大長
+     */
+    private static final int MAX_HEADER_LINE_LENGTH = 4096;
+
+    /**
+     * 応答ヘッダの最大行数
+     */
+    private static final int MAX_HEADER_LINES = 100;
+
+    /**
+     * 接続先のURL
+     */
+    private final String mUrl;
+
+    /**
+     * 接続のタイムアウト（ms）
+     */
+    private final int mConnectTimeout;
+
+    /**
+     * 読み込みのタイムアウト（ms）
+     */
+    private final int mReadTimeout;
+
+    /**
+     * ソケット。 接続していない場合はnull。
+     */
+    private volatile Socket mSocket;
+
+    /**
+     * 音声データのストリーム。 接続していない場合はnull。
+     */
+    private InputStream mInputStream;
+
+    /**
+     * 応答ヘッダ。 キーは小文字。
+     */
+    private final HashMap<String, String> mHeaders = new HashMap<String, String>();
+
+    /**
+     * 閉じたか
+     */
+    private volatile boolean mIsClosed = false;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param url 接続先のURL
+     * @param connectTimeout 接続のタイムアウト（ms）
+     * @param readTimeout 読み込みのタイムアウト（ms）
+     */
+    public IcyStreamClient(String url, int connectTimeout, int readTimeout) {
+        mUrl = url;
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+    }
+
+    /**
+     * 接続する 応答ヘッダを読み終えるまでブロックする。
+     * 
+     * @throws IOException 接続できなかった、または応答が200ではなかった
+     */
+    public void connect() throws IOException {
+        String url = mUrl;
+        for (int redirect = 0; redirect <= MAX_REDIRECT; ++redirect) {
+            final String location = connect(url);
+            if (location == null) {
+                return;
+            }
+            close(mSocket);
+            mSocket = null;
+            url = location;
+        }
+        throw new IOException("Too many redirects(" + mUrl + ").");
+    }
+
+    /**
+     * 指定したURLに接続する
+     * 
+     * @param urlString 接続先のURL
+     * @return リダイレクトされた場合はリダイレクト先のURL。接続できた場合はnull。
+     * @throws IOException 接続できなかった、または応答が200ではなかった
+     */
+    private String connect(String urlString) throws IOException {
+        final URL url;
+        try {
+            url = new URL(urlString);
+        } catch (MalformedURLException e) {
+            throw new IOException("Invalid url(" + urlString + ").");
+        }
+        if ("http".equalsIgnoreCase(url.getProtocol()) == false) {
+            throw new IOException("Unsupported protocol(" + urlString + ").");
+        }
+        final int port = (url.getPort() >= 0) ? url.getPort() : 80;
+        final String file = (url.getFile().length() != 0) ? url.getFile() : "/";
+
+        final Socket socket = new Socket();
+        mSocket = socket;
+        if (mIsClosed) {
+            close(socket);
+            throw new IOException("Closed.");
+        }
+        socket.setSoTimeout(mReadTimeout);
+        socket.connect(new InetSocketAddress(url.getHost(), port), mConnectTimeout);
+
+        final StringBuilder request = new StringBuilder(256);
+        request.append("GET ").append(file).append(" HTTP/1.0\r\n");
+        request.append("Host: ").append(url.getHost());
+        if (url.getPort() >= 0) {
+            request.append(':').append(port);
+        }
+        request.append("\r\n");
+        request.append("User-Agent: LadioTail\r\n");
+        request.append("Accept: */*\r\n");
+        request.append("Icy-MetaData: 0\r\n");
+        request.append("Connection: close\r\n");
+        request.append("\r\n");
+        final OutputStream out = socket.getOutputStream();
+        out.write(request.toString().getBytes("ISO-8859-1"));
+        out.flush();
+
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        final String statusLine = readLine(in);
+        if (statusLine == null) {
+            throw new IOException("No response(" + urlString + ").");
+        }
+        final int statusCode = parseStatusCode(statusLine);
+
+        mHeaders.clear();
+        for (int i = 0;; ++i) {
+            if (i >= MAX_HEADER_LINES) {
+                throw new IOException("Too many headers(" + urlString + ").");
+            }
+            final String line = readLine(in);
+            if (line == null) {
+                throw new IOException("Unexpected end of headers(" + urlString + ").");
+            }
+            if (line.length() == 0) {
+                break;
+            }
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+        }
+
+        switch (statusCode) {
+            case 200:
+                mInputStream = in;
+                return null;
+            case 301:
+            case 302:
+            case 303:
+            case 307: {
+                final String location = mHeaders.get("location");
+                if (location == null) {
+                    throw new IOException("Redirect without location(" + urlString + ").");
+                }
+                return new URL(url, location).toString();
+            }
+            default:
+                throw new IOException("Unexpected status(" + statusLine + ").");
+        }
+    }
+
+    /**
+     * 応答のステータスコードを取得する
+     * 
+     * @param statusLine 応答の1行目
+     * @return ステータスコード
+     * @throws IOException 応答の1行目の形式が不正
+     */
+    /* package */static int parseStatusCode(String statusLine) throws IOException {
+        // "ICY 200 OK"または"HTTP/1.0 200 OK"
+        final int start = statusLine.indexOf(' ');
+        if (start < 0 || (statusLine.startsWith("ICY") == false
+                && statusLine.startsWith("HTTP/") == false)) {
+            throw new IOException("Invalid status line(" + statusLine + ").");
+        }
+        int end = statusLine.indexOf(' ', start + 1);
+        if (end < 0) {
+            end = statusLine.length();
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(start + 1, end));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line(" + statusLine + ").");
+        }
+    }
+
+    /**
+     * 応答ヘッダを1行読む
+     * 
+     * @param in 入力ストリーム
+     * @return 改行を除いた1行。ストリームの終わりの場合はnull。
+     * @throws IOException 読み込みに失敗した、または1行が長すぎる
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder sb = new StringBuilder(64);
+        for (;;) {
+            final int c = in.read();
+            if (c < 0) {
+                return (sb.length() != 0) ? sb.toString() : null;
+            }
+            if (c == '\n') {
+                final int length = sb.length();
+                if (length != 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            if (sb.length() >= MAX_HEADER_LINE_LENGTH) {
+                throw new IOException("Too long header line.");
+            }
+            // ヘッダはISO-8859-1として扱う
+            sb.append((char) c);
+        }
+    }
+
+    /**
+     * 応答ヘッダの値を取得する
+     * 
+     * @param name ヘッダ名。大文字・小文字は区別しない。
+     * @return ヘッダの値。無い場合はnull。
+     */
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * 応答ヘッダのicy-brからビットレートを取得する
+     * 
+     * @return ビットレート（kbps）。不明な場合は-1。
+     */
+    public int getBitrate() {
+        return parseBitrate(getHeader("icy-br"));
+    }
+
+    /**
+     * icy-brの値からビットレートを取得する
+     * 
+     * @param br icy-brの値。無い場合はnull。
+     * @return ビットレート（kbps）。不明な場合は-1。
+     */
+    /* package */static int parseBitrate(String br) {
+        if (br == null) {
+            return -1;
+        }
+        try {
+            // "128"または"128,128"のような形式がある
+            final int comma = br.indexOf(',');
+            return Integer.parseInt((comma >= 0) ? br.substring(0, comma).trim() : br);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 音声データのストリームを取得する
+     * 
+     * @return 音声データのストリーム。接続していない場合はnull。
+     */
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /**
+     * 接続を閉じる 別スレッドで接続中・読み込み中の場合、その処理はIOExceptionで中断する。
+     */
+    public void close() {
+        mIsClosed = true;
+        close(mSocket);
+    }
+
+    /**
+     * ソケットを閉じる
+     * 
+     * @param socket ソケット。nullの場合は何もしない。
+     */
+    private static void close(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+/**
+ * 受信速度に合わせて先読みの目標量を変えるジッタバッファの制御
+ * 
+ * 受信したバイト数を一定時間毎に番組のビットレートと比べ、受信が遅れた区間があれば目標量を増やし、
+ * 遅れない状態が続けば目標量を減らす。 MediaPlayerには再生速度に合わせて少しずつ送り、
+ * 溜まっている分を全て送っても再生に追い付かない場合は途切れたとみなして、目標量まで溜め直す。
+ * 
+ * 時刻は呼び出し元から渡すので、Androidに依存せずJVM上で模擬的な通信状況を与えて試験できる。
+ * メソッドは受信・送信のスレッドと、状態を取得するスレッドから呼ばれるので同期する。
+ */
+/* package */class JitterBufferController {
+
+    /**
+     * 受信速度を測る区間の長さ（ms）
+     */
+    private static final long WINDOW_MS = 2 * 1000;
+
+    /**
+     * ビットレートに対する受信速度がこれ（%）を下回った区間は、受信が遅れたとみなす
+     */
+    private static final int LOW_THROUGHPUT_PERCENT = 80;
+
+    /**
+     * 目標量を一度に増減する時間（ms）
+     */
+    private static final long STEP_MS = 1000;
+
+    /**
+     * 受信が遅れない状態がこれだけ（ms）続いたら目標量を減らす
+     */
+    private static final long STABLE_MS = 60 * 1000;
+
+    /**
+     * 再生中にMediaPlayerへ送る間隔（ms）
+     */
+    private static final long SEND_INTERVAL_MS = 250;
+
+    /**
+     * 目標量の最小値（ms）
+     */
+    private final long mMinMs;
+
+    /**
+     * 目標量の最大値（ms）
+     */
+    private final long mMaxMs;
+
+    /**
+     * 再生速度より先行してMediaPlayerに送る量（ms）
+     */
+    private final long mLeadMs;
+
+    /**
+     * ビットレート（kbps）
+     */
+    private int mBitrate;
+
+    /**
+     * 先読みの目標量（ms）
+     */
+    private long mTargetMs;
+
+    /**
+     * 目標量まで溜めているところか
+     */
+    private boolean mIsBuffering = true;
+
+    /**
+     * MediaPlayerへ送り始めた時刻（ms）
+     */
+    private long mSendStartTime;
+
+    /**
+     * 送り始めてからMediaPlayerへ送ったバイト数
+     */
+    private long mSentBytes;
+
+    /**
+     * 受信速度を測っている区間の開始時刻（ms）。 まだ受信していない場合は-1。
+     */
+    private long mWindowStartTime = -1;
+
+    /**
+     * 受信速度を測っている区間に受信したバイト数
+     */
+    private long mWindowBytes;
+
+    /**
+     * 直近の区間のビットレートに対する受信速度（%）
+     */
+    private int mThroughputPercent = 100;
+
+    /**
+     * 最後に目標量を変えた時刻（ms）
+     */
+    private long mLastAdjustTime;
+
+    /**
+     * 途切れた回数
+     */
+    private int mUnderrunCount = 0;
+
+    /**
+     * 途切れていた時間の合計（ms）
+     */
+    private long mStallMs = 0;
+
+    /**
+     * 途切れた時刻（ms）。 途切れていない場合は-1。
+     */
+    private long mStallStartTime = -1;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param minMs 目標量の最小値（ms）
+     * @param maxMs 目標量の最大値（ms）
+     * @param leadMs 再生速度より先行してMediaPlayerに送る量（ms）
+     * @param bitrate ビットレート（kbps）
+     */
+    public JitterBufferController(long minMs, long maxMs, long leadMs, int bitrate) {
+        mMinMs = minMs;
+        mMaxMs = Math.max(minMs, maxMs);
+        mLeadMs = leadMs;
+        mBitrate = Math.max(bitrate, 1);
+        mTargetMs = minMs;
+    }
+
+    /**
+     * ビットレートを設定する 配信サーバの応答ヘッダから分かった場合に呼ぶ。
+     * 
+     * @param bitrate ビットレート（kbps）。0以下の場合は何もしない。
+     */
+    public synchronized void setBitrate(int bitrate) {
+        if (bitrate > 0) {
+            mBitrate = bitrate;
+        }
+    }
+
+    /**
+     * 受信した
+     * 
+     * @param bytes 受信したバイト数
+     * @param now 現在時刻（ms）
+     */
+    public synchronized void onReceived(int bytes, long now) {
+        if (mWindowStartTime < 0) {
+            mWindowStartTime = now;
+            mLastAdjustTime = now;
+        }
+        mWindowBytes += bytes;
+
+        final long elapsed = now - mWindowStartTime;
+        if (elapsed < WINDOW_MS) {
+            return;
+        }
+        mThroughputPercent = (int) (mWindowBytes * 100 / msToBytes(elapsed));
+        mWindowStartTime = now;
+        mWindowBytes = 0;
+
+        if (mThroughputPercent < LOW_THROUGHPUT_PERCENT) {
+            grow(now, STEP_MS);
+        } else if (now - mLastAdjustTime >= STABLE_MS) {
+            shrink(now);
+        }
+    }
+
+    /**
+     * MediaPlayerへ送ってよいバイト数を取得する
+     * 
+     * 目標量まで溜めている間は0を返す。 送った場合はonSentを呼ぶこと。
+     * 
+     * @param bufferedBytes 先読みバッファに溜まっているバイト数
+     * @param now 現在時刻（ms）
+     * @return 送ってよいバイト数
+     */
+    public synchronized int getSendableBytes(int bufferedBytes, long now) {
+        if (mIsBuffering) {
+            if (bufferedBytes < msToBytes(mTargetMs)) {
+                return 0;
+            }
+            mIsBuffering = false;
+            if (mStallStartTime >= 0) {
+                mStallMs += now - mStallStartTime;
+                mStallStartTime = -1;
+            }
+            mSendStartTime = now;
+            mSentBytes = 0;
+        }
+
+        final long allowance = msToBytes(mLeadMs + (now - mSendStartTime)) - mSentBytes;
+        if (allowance - bufferedBytes >= msToBytes(mLeadMs)) {
+            // 溜まっている分を送っても再生した分に届かないので、途切れている
+            // 受信が遅いまま少しずつ届く場合は先読みバッファが空にならないので、空かどうかでは判定しない
+            onUnderrun(now);
+            return 0;
+        }
+        return (int) Math.max(0, Math.min(allowance, bufferedBytes));
+    }
+
+    /**
+     * MediaPlayerへ送った
+     * 
+     * @param bytes 送ったバイト数
+     */
+    public synchronized void onSent(int bytes) {
+        mSentBytes += bytes;
+    }
+
+    /**
+     * 送る位置が変わった 目標量まで溜まっているか確かめてから送り直す。 途切れたとはみなさない。
+     */
+    public synchronized void restart() {
+        mIsBuffering = true;
+        mStallStartTime = -1;
+    }
+
+    /**
+     * 次にMediaPlayerへ送るまでの時間を取得する
+     * 
+     * @return 次に送るまでの時間（ms）。目標量まで溜めている場合は受信を待つので-1。
+     */
+    public synchronized long getSendDelayMs() {
+        return mIsBuffering ? -1 : SEND_INTERVAL_MS;
+    }
+
+    /**
+     * 途切れた
+     * 
+     * @param now 現在時刻（ms）
+     */
+    private void onUnderrun(long now) {
+        ++mUnderrunCount;
+        mIsBuffering = true;
+        mStallStartTime = now;
+        // 受信の遅れより強い兆候なので大きく増やす
+        grow(now, STEP_MS * 2);
+    }
+
+    /**
+     * 目標量を増やす
+     * 
+     * @param now 現在時刻（ms）
+     * @param stepMs 増やす量（ms）
+     */
+    private void grow(long now, long stepMs) {
+        mTargetMs = Math.min(mMaxMs, mTargetMs + stepMs);
+        mLastAdjustTime = now;
+    }
+
+    /**
+     * 目標量を減らす
+     * 
+     * @param now 現在時刻（ms）
+     */
+    private void shrink(long now) {
+        mTargetMs = Math.max(mMinMs, mTargetMs - STEP_MS);
+        mLastAdjustTime = now;
+    }
+
+    /**
+     * 時間をバイト数に換算する
+     * 
+     * @param ms 時間（ms）
+     * @return バイト数
+     */
+    private long msToBytes(long ms) {
+        return ms * mBitrate / 8;
+    }
+
+    /**
+     * 先読みの目標量を取得する
+     * 
+     * @return 先読みの目標量（ms）
+     */
+    public synchronized long getTargetMs() {
+        return mTargetMs;
+    }
+
+    /**
+     * 再生位置より先に溜まっている量を取得する
+     * 
+     * 先読みバッファに溜まっている分と、MediaPlayerに先行して送った分の合計とする。
+     * 
+     * @param bufferedBytes 先読みバッファに溜まっているバイト数
+     * @param now 現在時刻（ms）
+     * @return 溜まっている量（ms）
+     */
+    public synchronized long getFillMs(int bufferedBytes, long now) {
+        long bytes = bufferedBytes;
+        if (mIsBuffering == false) {
+            bytes += Math.max(0, mSentBytes - msToBytes(now - mSendStartTime));
+        }
+        return bytes * 8 / mBitrate;
+    }
+
+    /**
+     * 途切れた回数を取得する
+     * 
+     * @return 途切れた回数
+     */
+    public synchronized int getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * 途切れていた時間の合計を取得する
+     * 
+     * @param now 現在時刻（ms）
+     * @return 途切れていた時間の合計（ms）。途切れている最中の場合はその時間も含む。
+     */
+    public synchronized long getStallMs(long now) {
+        return mStallMs + ((mStallStartTime >= 0) ? now - mStallStartTime : 0);
+    }
+
+    /**
+     * 直近の区間のビットレートに対する受信速度を取得する
+     * 
+     * @return ビットレートに対する受信速度（%）
+     */
+    public synchronized int getThroughputPercent() {
+        return mThroughputPercent;
+    }
+
+    /**
+     * ビットレートを取得する
+     * 
+     * @return ビットレート（kbps）
+     */
+    public synchronized int getBitrate() {
+        return mBitrate;
+    }
+
+    /**
+     * 目標量まで溜めているところか
+     * 
+     * @return 溜めている場合はtrue
+     */
+    public synchronized boolean isBuffering() {
+        return mIsBuffering;
+    }
+}
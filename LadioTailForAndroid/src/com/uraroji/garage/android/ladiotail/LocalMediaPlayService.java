@@ -0,0 +1,36 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+/**
+ * UIと同じプロセスで動かすメディア再生サービス
+ * 
+ * 処理はMediaPlayServiceと同じで、AndroidManifest.xmlでプロセスを分けずに宣言する点だけが異なる。
+ * 同じプロセスでバインドすると、MediaPlayServiceInterface.Stub.asInterfaceはサービスのStubそのものを返すので、
+ * AIDLのインターフェースのまま、Parcelへの変換とプロセス間の呼び出しを経ずに直接呼び出せる。
+ * その代わり、UIと同じヒープを使い、UIのプロセスが終わると再生も止まる。
+ * 
+ * C#IN_PROCESS_SERVICEがtrueの場合にMediaPlayServiceConnectorが使う。
+ */
+public class LocalMediaPlayService extends MediaPlayService {
+}
@@ -23,14 +23,20 @@
 package com.uraroji.garage.android.ladiotail;
 
 import android.app.AlertDialog;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.TabActivity;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue.IdleHandler;
 import android.os.Message;
 import android.speech.RecognizerIntent;
 import android.text.Editable;
@@ -44,6 +50,7 @@ import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.View.OnTouchListener;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver.OnPreDrawListener;
 import android.view.Window;
 import android.view.WindowManager.LayoutParams;
 import android.view.inputmethod.InputMethodManager;
@@ -56,6 +63,8 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.TabHost;
+import android.widget.TabHost.OnTabChangeListener;
+import android.widget.TabHost.TabContentFactory;
 import android.widget.TabHost.TabSpec;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -66,10 +75,10 @@ import com.handmark.pulltorefresh.library.PullToRefreshBase.OnRefreshListener;
 import com.handmark.pulltorefresh.library.PullToRefreshListView;
 import com.uraroji.garage.android.netladiolib.Channel;
 import com.uraroji.garage.android.netladiolib.Headline;
-import com.uraroji.garage.android.netladiolib.HeadlineManager;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.util.Date;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -81,25 +90,115 @@ public class MainActivity extends TabActivity {
 
     private final static int MENU_ID_STOP = Menu.FIRST + 2;
 
+    private final static int MENU_ID_FRAME_METRICS = Menu.FIRST + 3;
+
+    private final static int MENU_ID_WATCH_RULES = Menu.FIRST + 4;
+
+    private final static int MENU_ID_PLAYBACK_STATS = Menu.FIRST + 5;
+
     private final static int REQUEST_VOICE_SEARCH = 0;
 
     private EditText mSearchEditText;
 
-    private PullToRefreshListView mNewlyPullToRefreshListView;
+    /**
+     * ヘッドラインの取得に失敗した際に、表示中のヘッドラインの古さを表示するTextView
+     */
+    private TextView mHeadlineAgeTextView;
+
+    /**
+     * タブの並び順のタブのタグ
+     */
+    private static final String[] TAB_TAGS = {
+            "NewlyTab", "ListenersTab", "TitleTab", "DjTab"
+    };
+
+    /**
+     * タブの並び順の番組の並び順
+     */
+    private static final int[] TAB_SORT_TYPES = {
+            Headline.SORT_TYPE_NEWLY, Headline.SORT_TYPE_LISTENERS, Headline.SORT_TYPE_TITLE,
+            Headline.SORT_TYPE_DJ
+    };
+
+    /**
+     * タブの並び順の番組一覧。 タブが初めて表示された際に作成するので、未作成のタブはnull。
+     */
+    private final PullToRefreshListView[] mPullToRefreshListViews = new PullToRefreshListView[TAB_TAGS.length];
+
+    /**
+     * タブの並び順の番組一覧のAdapter。 TabHost#getCurrentTabの値で参照する。 未作成のタブはnull。
+     */
+    private final ChannelAdapter[] mListAdapters = new ChannelAdapter[TAB_TAGS.length];
+
+    /**
+     * タブの並び順の番組一覧のフレーム時間の計測。 計測しない場合や未作成のタブはnull。
+     */
+    private final FrameMetricsCollector[] mFrameMetricsCollectors = new FrameMetricsCollector[TAB_TAGS.length];
 
-    private PullToRefreshListView mListenersPullToRefreshListView;
+    /**
+     * 広告の表示と再生サービスの接続を、最初の描画の後まで遅らせるか 遅らせない場合と起動時間を比べるため、検証用に起動前に切り替えられる。
+     * 
+     * @see C#DEFER_STARTUP_WORK
+     */
+    /*package*/ static boolean mDeferStartupWork = C.DEFER_STARTUP_WORK;
 
-    private PullToRefreshListView mTitlePullToRefreshListView;
+    /**
+     * 最初の描画後に行う起動処理（広告の表示と再生サービスの接続）を実行済みか
+     */
+    private boolean mIsDeferredStartupDone = false;
 
-    private PullToRefreshListView mDjPullToRefreshListView;
+    /**
+     * アイドル時に未更新のタブを更新するIdleHandlerを登録済みか
+     */
+    private boolean mIsIdleHandlerAdded = false;
 
-    private ChannelAdapter mNewlyListAdapter;
+    /**
+     * 番組一覧の更新を要求された際に、表示していないために更新を後回しにしたタブの数の合計。 ログ出力用。
+     */
+    private int mDeferredTabUpdateCount = 0;
 
-    private ChannelAdapter mListenersListAdapter;
+    /**
+     * 後回しにしたタブの更新のうち、実際に更新する前に再び更新を要求されたために省略できた数の合計。 ログ出力用。
+     */
+    private int mSkippedTabUpdateCount = 0;
 
-    private ChannelAdapter mTitleListAdapter;
+    /**
+     * 番組一覧の1行に表示する内容の生成
+     */
+    private ChannelRowModelBuilder mRowModelBuilder;
 
-    private ChannelAdapter mDjListAdapter;
+    /**
+     * 番組一覧の1行に表示する内容を表示する前に生成する
+     */
+    private RowModelPrebuilder mRowModelPrebuilder;
+
+    /**
+     * 全タブで共有する番組の並び順の索引。 ヘッドラインの取得時に別スレッドで作成する。
+     */
+    private ChannelIndex mChannelIndex;
+
+    /**
+     * メモリ不足への対応
+     */
+    private final MemoryTrimmer mMemoryTrimmer = new MemoryTrimmer("MainActivity",
+            new MemoryTrimmer.OnTrimListener() {
+                @Override
+                public void onTrim(int level) {
+                    trimMemory(level);
+                }
+            });
+
+    /**
+     * 最後に計測したサービスの呼び出しの計測結果。 計測していない場合はnull。
+     * 
+     * 計測はサービスを繰り返し呼び出すので別スレッドで行う。 dumpではUIスレッドで計測せずにこれを出力する。
+     */
+    private volatile String mBenchmarkReport;
+
+    /**
+     * dumpの引数で指定されたサービスの呼び出しの計測を行うスレッド。 計測していない場合はnull。
+     */
+    private Thread mBenchmarkThread;
 
     /**
      * ヘッドラインアップデート中かを示すフラグ
@@ -114,18 +213,65 @@ public class MainActivity extends TabActivity {
     private boolean isFetchAndUpdateHeadlineStartup = false;
 
     /**
-     * 再生状態変更時にヘッドラインを更新するためのHandler
+     * 放送開始時間の表示を1分毎に更新するためのHandler
      */
-    private final Handler mUpdateHeadlineHandler = new Handler() {
+    private final Handler mMinuteTickHandler = new Handler();
+
+    /**
+     * 放送開始時間の表示を更新し、次の分の始まりに再び実行されるように登録する
+     */
+    private final Runnable mMinuteTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.currentTimeMillis();
+
+            // 表示する際には更新しないので、キャッシュしている行と表示中の行の放送開始時間をここで更新する
+            mChannelIndex.updateCachedDates(mRowModelBuilder, now);
+            final int currentTab = getTabHost().getCurrentTab();
+            if (0 <= currentTab && currentTab < mListAdapters.length
+                    && mListAdapters[currentTab] != null) {
+                mListAdapters[currentTab].updateVisibleDates(now);
+            }
+            // 表示中のヘッドラインの古さの表示も更新する
+            if (mHeadlineAgeTextView.getVisibility() == View.VISIBLE) {
+                updateHeadlineAge(true);
+            }
+
+            mMinuteTickHandler.postDelayed(this, 60 * 1000 - (now % (60 * 1000)));
+        }
+    };
+
+    /**
+     * 再生状態変更時に番組一覧の再生中の表示を更新するためのHandler
+     */
+    private final Handler mUpdatePlayingHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
-            // 再生状態が変わったらリストを更新
-            updateHeadline();
+            final long startTime = (C.LOCAL_LOG) ? System.nanoTime() : 0;
+
+            // 再生状態が変わったら、再生中の表示が変わる行のみを更新
+            final String playingPath = MediaPlayManager.getConnector().getPlayingPath();
+            int updatedRowCount = 0;
+            for (ChannelAdapter adapter : mListAdapters) {
+                // 未作成のタブは作成時に再生中の表示をする
+                if (adapter != null) {
+                    updatedRowCount += adapter.updatePlayingPath(playingPath);
+                }
+            }
+
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, String.format(
+                        "Updated playing indicator of %d rows in %dus (message %d).",
+                        updatedRowCount, (System.nanoTime() - startTime) / 1000, msg.what));
+            }
         }
     };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        StartupTrace.start();
+        StartupTrace.beginSection("MainActivity.onCreate");
+
         super.onCreate(savedInstanceState);
         
         /*
@@ -137,45 +283,38 @@ public class MainActivity extends TabActivity {
         // タイトルバーにプログレスアイコンを表示可能にする
         requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
 
+        StartupTrace.beginSection("setContentView");
         setContentView(R.layout.main);
+        StartupTrace.endSection();
+
+        WatchRuleManager.getManager().init(getApplicationContext());
 
-        // 再生管理の初期化
-        MediaPlayManager.getConnector().init(getApplicationContext());
+        mRowModelBuilder = new ChannelRowModelBuilder(this);
+        mRowModelPrebuilder = new RowModelPrebuilder();
+        mChannelIndex = new ChannelIndex(HeadlineFetcher.getFetcher().getHeadline());
 
-        // TabHostを取得
+        // タブの作成 番組一覧はタブが初めて表示された際に作成するので、ここでは選択中のタブのみ作成される
+        StartupTrace.beginSection("addTabs");
         final TabHost tabHost = getTabHost();
         final Resources resources = getResources();
-
-        // Newlyタブの作成
-        TabSpec newlyTab = tabHost.newTabSpec("NewlyTab");
-        newlyTab.setIndicator(getString(R.string.newly),
-                resources.getDrawable(R.drawable.ic_tab_newly));
-        newlyTab.setContent(R.id.NewlyListView);
-        tabHost.addTab(newlyTab);
-
-        // Listenersタブの作成
-        TabSpec listenersTab = tabHost.newTabSpec("ListenersTab");
-        listenersTab.setIndicator(getString(R.string.listeners),
-                resources.getDrawable(R.drawable.ic_tab_listeners));
-        listenersTab.setContent(R.id.ListenersListView);
-        tabHost.addTab(listenersTab);
-
-        // Titleタブの作成
-        TabSpec titleTab = tabHost.newTabSpec("TitleTab");
-        titleTab.setIndicator(getString(R.string.title),
-                resources.getDrawable(R.drawable.ic_tab_title));
-        titleTab.setContent(R.id.TitleListView);
-        tabHost.addTab(titleTab);
-
-        // DJタブの作成
-        TabSpec djTab = tabHost.newTabSpec("DjTab");
-        djTab.setIndicator(getString(R.string.dj),
-                resources.getDrawable(R.drawable.ic_tab_dj));
-        djTab.setContent(R.id.DjListView);
-        tabHost.addTab(djTab);
+        final int[] tabLabels = {
+                R.string.newly, R.string.listeners, R.string.title, R.string.dj
+        };
+        final int[] tabIcons = {
+                R.drawable.ic_tab_newly, R.drawable.ic_tab_listeners, R.drawable.ic_tab_title,
+                R.drawable.ic_tab_dj
+        };
+        for (int i = 0; i < TAB_TAGS.length; ++i) {
+            TabSpec tab = tabHost.newTabSpec(TAB_TAGS[i]);
+            tab.setIndicator(getString(tabLabels[i]), resources.getDrawable(tabIcons[i]));
+            tab.setContent(mTabContentFactory);
+            tabHost.addTab(tab);
+        }
+        StartupTrace.endSection();
 
         // 検索ボックス
         mSearchEditText = (EditText) findViewById(R.id.SearchEditText);
+        mHeadlineAgeTextView = (TextView) findViewById(R.id.HeadlineAgeTextView);
         // 検索ボックス入力時に番組をフィルタリングする
         mSearchEditText.addTextChangedListener(new TextWatcher() {
             @Override
@@ -254,145 +393,212 @@ public class MainActivity extends TabActivity {
             });
         }
 
-        // 番組を選択した際の処理
-        OnItemClickListener channelClickListener = new OnItemClickListener() {
+        // タブが表示された際に、番組一覧が未更新の場合は更新する
+        tabHost.setOnTabChangedListener(new OnTabChangeListener() {
             @Override
-            public void onItemClick(AdapterView<?> arg0, View arg1, int arg2,
-                    long arg3) {
-                Object selectedItem = arg0.getItemAtPosition(arg2);
+            public void onTabChanged(String tabId) {
+                final int currentTab = getTabHost().getCurrentTab();
+                updateTab(currentTab);
+                // 表示されていない間に古くなった放送開始時間の表示を更新する
+                mListAdapters[currentTab].updateVisibleDates(System.currentTimeMillis());
+            }
+        });
 
-                if (selectedItem == null) {
-                    if (C.LOCAL_LOG) {
-                        Log.v(C.TAG, "Clicked null item. Maybe selected ad.");
-                    }
-                } else if (selectedItem instanceof Channel) {
-                    if (C.LOCAL_LOG) {
-						Log.v(C.TAG,
-								String.format("Clicked %s item.",
-										selectedItem.toString()));
-                    }
-                    
-                    Channel selectedChanel = (Channel) selectedItem;
-                    final String playingPath = MediaPlayManager.getConnector().getPlayingPath(); 
-                    
-                    // 再生中のURLと番組のURLが同じ場合に再生中とする
-                    if (selectedChanel.getPlayUrl() != null
-                            && selectedChanel.getPlayUrl().toString().equals(playingPath)) {
-                    	stop();
-                    } else {
-                        // 再生していない場合は再生
-                        play(selectedChanel);
-					}
-                } else {
-                    Log.w(C.TAG, String.format("Clicked unknown %s item.",
-                            selectedItem.toString()));
+        MediaPlayManager.getConnector().addPlayStateChangedHandler(mUpdatePlayingHandler);
+
+        isFetchAndUpdateHeadlineStartup = true;
+
+        // 遅らせない場合も比べられるよう、最初の描画は常に記録する
+        getWindow().getDecorView().getViewTreeObserver()
+                .addOnPreDrawListener(mFirstPreDrawListener);
+        if (mDeferStartupWork == false) {
+            mDeferredStartupRunnable.run();
+        }
+
+        StartupTrace.endSection();
+    }
+
+    /**
+     * タブの内容を作成するFactory 番組一覧はタブが初めて表示された際に作成する。
+     */
+    private final TabContentFactory mTabContentFactory = new TabContentFactory() {
+        @Override
+        public View createTabContent(String tag) {
+            for (int i = 0; i < TAB_TAGS.length; ++i) {
+                if (TAB_TAGS[i].equals(tag)) {
+                    return createChannelList(i);
                 }
             }
-        };
+            throw new IllegalArgumentException("Unknown tab tag(" + tag + ").");
+        }
+    };
 
-        // 番組を長押しした際の処理
-        OnItemLongClickListener channelLongClickListener = new OnItemLongClickListener() {
-            @Override
-            public boolean onItemLongClick(AdapterView<?> arg0, View arg1,
-                    int arg2, long arg3) {
-                Object selectedItem = arg0.getItemAtPosition(arg2);
-
-                if (selectedItem == null) {
-                    if (C.LOCAL_LOG) {
-                        Log.v(C.TAG,
-                                "Long clicked null item. Maybe selected ad.");
-                    }
-                    return true;
-                } else if (selectedItem instanceof Channel) {
-                    if (C.LOCAL_LOG) {
-                        Log.v(C.TAG, String.format("Long clicked %s item.",
-                                selectedItem.toString()));
-                    }
+    /**
+     * 番組一覧を作成する
+     * 
+     * @param tab タブの位置
+     * @return 番組一覧
+     */
+    private View createChannelList(int tab) {
+        StartupTrace.beginSection("createChannelList");
+
+        final PullToRefreshListView pullToRefreshListView = (PullToRefreshListView) getLayoutInflater()
+                .inflate(R.layout.channel_list, null);
+        pullToRefreshListView.setOnRefreshListener(mOnRefreshListener);
+        // ヘッドラインの更新中はPull down to refreshを無効にする
+        if (mIsHeadlineUpdating) {
+            pullToRefreshListView.setMode(Mode.DISABLED);
+        }
+        final ListView listView = pullToRefreshListView.getRefreshableView();
+        listView.setOnItemClickListener(mChannelClickListener);
+        listView.setOnItemLongClickListener(mChannelLongClickListener);
+        final ChannelAdapter adapter = new ChannelAdapter(this, TAB_SORT_TYPES[tab], listView);
+        listView.setAdapter(adapter);
+
+        if (C.ENABLE_FRAME_METRICS) {
+            final FrameMetricsCollector collector = new FrameMetricsCollector(TAB_TAGS[tab],
+                    listView);
+            pullToRefreshListView.setOnScrollListener(collector);
+            adapter.setFrameMetricsCollector(collector);
+            mFrameMetricsCollectors[tab] = collector;
+        }
+
+        mPullToRefreshListViews[tab] = pullToRefreshListView;
+        mListAdapters[tab] = adapter;
 
-                    Intent intent = new Intent(MainActivity.this,
-                            ChannelActivity.class);
-                    intent.putExtra(ChannelActivity.INTENT_EXTRA_OPEN_CHANNEL,
-                            ((Channel) selectedItem));
-                    startActivity(intent);
+        StartupTrace.endSection();
+
+        return pullToRefreshListView;
+    }
+
+    /**
+     * 番組を選択した際の処理
+     */
+    private final OnItemClickListener mChannelClickListener = new OnItemClickListener() {
+        @Override
+        public void onItemClick(AdapterView<?> arg0, View arg1, int arg2,
+                long arg3) {
+            Object selectedItem = arg0.getItemAtPosition(arg2);
 
-                    return false;
+            if (selectedItem == null) {
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, "Clicked null item. Maybe selected ad.");
+                }
+            } else if (selectedItem instanceof Channel) {
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, String.format("Clicked %s item.",
+                            selectedItem.toString()));
+                }
+
+                Channel selectedChanel = (Channel) selectedItem;
+                final String playingPath = MediaPlayManager.getConnector().getPlayingPath();
+
+                // 再生中のURLと番組のURLが同じ場合に再生中とする
+                if (selectedChanel.getPlayUrl() != null
+                        && selectedChanel.getPlayUrl().toString().equals(playingPath)) {
+                    stop();
                 } else {
-                    Log.w(C.TAG, String.format("Long clicked unknown %s item.",
+                    // 再生していない場合は再生
+                    play(selectedChanel);
+                }
+            } else {
+                Log.w(C.TAG, String.format("Clicked unknown %s item.",
+                        selectedItem.toString()));
+            }
+        }
+    };
+
+    /**
+     * 番組を長押しした際の処理
+     */
+    private final OnItemLongClickListener mChannelLongClickListener = new OnItemLongClickListener() {
+        @Override
+        public boolean onItemLongClick(AdapterView<?> arg0, View arg1,
+                int arg2, long arg3) {
+            Object selectedItem = arg0.getItemAtPosition(arg2);
+
+            if (selectedItem == null) {
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG,
+                            "Long clicked null item. Maybe selected ad.");
+                }
+                return true;
+            } else if (selectedItem instanceof Channel) {
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, String.format("Long clicked %s item.",
                             selectedItem.toString()));
+                }
 
-                    return true;
+                Intent intent = new Intent(MainActivity.this,
+                        ChannelActivity.class);
+                intent.putExtra(ChannelActivity.INTENT_EXTRA_OPEN_CHANNEL,
+                        ((Channel) selectedItem));
+                startActivity(intent);
+
+                return false;
+            } else {
+                Log.w(C.TAG, String.format("Long clicked unknown %s item.",
+                        selectedItem.toString()));
+
+                return true;
+            }
+        }
+    };
+
+    /**
+     * 最初の描画を検出するOnPreDrawListener
+     */
+    private final OnPreDrawListener mFirstPreDrawListener = new OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            final View decorView = getWindow().getDecorView();
+            decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+            StartupTrace.firstFrame();
+            // 広告の表示と再生サービスの接続は、描画が終わってから実行されるようにpostする
+            if (mDeferStartupWork) {
+                decorView.post(mDeferredStartupRunnable);
+            }
+            return true;
+        }
+    };
+
+    /**
+     * 最初の描画の後に行う起動処理
+     */
+    private final Runnable mDeferredStartupRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsDeferredStartupDone) {
+                return;
+            }
+            mIsDeferredStartupDone = true;
+
+            StartupTrace.beginSection("deferredStartup");
+
+            // 再生管理の初期化
+            MediaPlayManager.getConnector().init(getApplicationContext());
+
+            // 広告を表示する 未作成のタブでは作成時に表示される
+            for (ChannelAdapter adapter : mListAdapters) {
+                if (adapter != null) {
+                    adapter.showAd();
                 }
             }
-        };
 
-        // Newly list
-        mNewlyPullToRefreshListView = (PullToRefreshListView) findViewById(R.id.NewlyListView);
-        mNewlyPullToRefreshListView.setOnRefreshListener(new OnRefreshListener<ListView>() {
-
-			@Override
-			public void onRefresh(PullToRefreshBase<ListView> refreshView) {
-				// ヘッドライン更新
-				MainActivity.this.fecthAndUpdateHeadline();
-			}
-		});
-        ListView newlyListView = mNewlyPullToRefreshListView.getRefreshableView();
-        newlyListView.setOnItemClickListener(channelClickListener);
-        newlyListView.setOnItemLongClickListener(channelLongClickListener);
-        mNewlyListAdapter = new ChannelAdapter(this);
-        newlyListView.setAdapter(mNewlyListAdapter);
-
-        // Listeners list
-        mListenersPullToRefreshListView = (PullToRefreshListView) findViewById(R.id.ListenersListView);
-        mListenersPullToRefreshListView.setOnRefreshListener(new OnRefreshListener<ListView>() {
-
-			@Override
-			public void onRefresh(PullToRefreshBase<ListView> refreshView) {
-				// ヘッドライン更新
-				MainActivity.this.fecthAndUpdateHeadline();
-			}
-		});
-        ListView listenersListView = mListenersPullToRefreshListView.getRefreshableView();
-        listenersListView.setOnItemClickListener(channelClickListener);
-        listenersListView.setOnItemLongClickListener(channelLongClickListener);
-        mListenersListAdapter = new ChannelAdapter(this);
-        listenersListView.setAdapter(mListenersListAdapter);
-
-        // Title list
-        mTitlePullToRefreshListView = (PullToRefreshListView) findViewById(R.id.TitleListView);
-        mTitlePullToRefreshListView.setOnRefreshListener(new OnRefreshListener<ListView>() {
-
-			@Override
-			public void onRefresh(PullToRefreshBase<ListView> refreshView) {
-				// ヘッドライン更新
-				MainActivity.this.fecthAndUpdateHeadline();
-			}
-		});
-        ListView titleListView = mTitlePullToRefreshListView.getRefreshableView();
-        titleListView.setOnItemClickListener(channelClickListener);
-        titleListView.setOnItemLongClickListener(channelLongClickListener);
-        mTitleListAdapter = new ChannelAdapter(this);
-        titleListView.setAdapter(mTitleListAdapter);
-
-        // DJ list
-        mDjPullToRefreshListView = (PullToRefreshListView) findViewById(R.id.DjListView);
-        mDjPullToRefreshListView.setOnRefreshListener(new OnRefreshListener<ListView>() {
-
-			@Override
-			public void onRefresh(PullToRefreshBase<ListView> refreshView) {
-				// ヘッドライン更新
-				MainActivity.this.fecthAndUpdateHeadline();
-			}
-		});
-        ListView djListView = mDjPullToRefreshListView.getRefreshableView();
-        djListView.setOnItemClickListener(channelClickListener);
-        djListView.setOnItemLongClickListener(channelLongClickListener);
-        mDjListAdapter = new ChannelAdapter(this);
-        djListView.setAdapter(mDjListAdapter);
-
-        MediaPlayManager.getConnector().addPlayStateChangedHandler(mUpdateHeadlineHandler);
+            StartupTrace.endSection();
+        }
+    };
 
-        isFetchAndUpdateHeadlineStartup = true;
-    }
+    /**
+     * 番組一覧を引っ張った際にヘッドラインを更新する
+     */
+    private final OnRefreshListener<ListView> mOnRefreshListener = new OnRefreshListener<ListView>() {
+        @Override
+        public void onRefresh(PullToRefreshBase<ListView> refreshView) {
+            // ヘッドライン更新
+            MainActivity.this.fecthAndUpdateHeadline();
+        }
+    };
 
     @Override
     protected void onStart() {
@@ -412,16 +618,103 @@ public class MainActivity extends TabActivity {
         isFetchAndUpdateHeadlineStartup = false;
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        // 表示中のみ放送開始時間の表示を1分毎に更新する
+        mMinuteTickHandler.removeCallbacks(mMinuteTickRunnable);
+        mMinuteTickRunnable.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        mMinuteTickHandler.removeCallbacks(mMinuteTickRunnable);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
-        MediaPlayManager.getConnector().removePlayStateChangedHandler(mUpdateHeadlineHandler);
+        MediaPlayManager.getConnector().removePlayStateChangedHandler(mUpdatePlayingHandler);
+
+        mRowModelPrebuilder.quit();
+
+        // 最初の描画の前に終了した場合は、最初の描画の後の起動処理を行わない
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().removeOnPreDrawListener(mFirstPreDrawListener);
+        decorView.removeCallbacks(mDeferredStartupRunnable);
+
+        if (mIsIdleHandlerAdded) {
+            Looper.myQueue().removeIdleHandler(mUpdateTabIdleHandler);
+            mIsIdleHandlerAdded = false;
+        }
 
         // 一応起動時にヘッドライン自動取得ができるようにしておく
         isFetchAndUpdateHeadlineStartup = true;
 
-        MediaPlayManager.getConnector().release();
+        // 再生管理を初期化していない場合は解放するものが無い
+        if (mIsDeferredStartupDone) {
+            MediaPlayManager.getConnector().release();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        mMemoryTrimmer.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        mMemoryTrimmer.onLowMemory();
+    }
+
+    /**
+     * メモリ不足への対応を取得する 検証用。
+     * 
+     * @return メモリ不足への対応
+     */
+    /*package*/ MemoryTrimmer getMemoryTrimmer() {
+        return mMemoryTrimmer;
+    }
+
+    /**
+     * メモリが不足したので解放する
+     * 
+     * 番組一覧の1行に表示する内容のキャッシュと検索結果を破棄する。 LEVEL_MODERATE以上では、
+     * 表示中でないタブの番組一覧と並び順の索引も破棄し、タブが表示された際に作り直す。
+     * 表示中のタブはそのまま表示し続けられるよう、どの段階でも破棄しない。
+     * 
+     * @param level 解放の段階
+     * @see MemoryTrimmer#LEVEL_BACKGROUND
+     * @see MemoryTrimmer#LEVEL_MODERATE
+     * @see MemoryTrimmer#LEVEL_COMPLETE
+     */
+    private void trimMemory(int level) {
+        final int currentTab = getTabHost().getCurrentTab();
+        mChannelIndex.trim(level, TAB_SORT_TYPES[currentTab]);
+        if (level < MemoryTrimmer.LEVEL_MODERATE) {
+            return;
+        }
+
+        // アイドル時に作り直さないよう、後回しにしたタブの更新はやめる
+        if (mIsIdleHandlerAdded) {
+            Looper.myQueue().removeIdleHandler(mUpdateTabIdleHandler);
+            mIsIdleHandlerAdded = false;
+        }
+        for (int i = 0; i < mListAdapters.length; ++i) {
+            if (i == currentTab || mListAdapters[i] == null) {
+                continue;
+            }
+            mListAdapters[i].clear();
+            mListAdapters[i].setDirty();
+        }
     }
 
     // オプションメニュー作成
@@ -436,6 +729,16 @@ public class MainActivity extends TabActivity {
                 Menu.NONE, R.string.reload);
         reloadMenuItem.setIcon(R.drawable.ic_menu_reload);
 
+        menu.add(Menu.NONE, MENU_ID_WATCH_RULES, Menu.NONE, R.string.watch_rules);
+
+        if (C.ENABLE_FRAME_METRICS) {
+            menu.add(Menu.NONE, MENU_ID_FRAME_METRICS, Menu.NONE, R.string.frame_metrics);
+        }
+
+        if (C.ENABLE_PLAYBACK_STATS) {
+            menu.add(Menu.NONE, MENU_ID_PLAYBACK_STATS, Menu.NONE, R.string.playback_stats);
+        }
+
         return super.onCreateOptionsMenu(menu);
     }
 
@@ -456,6 +759,8 @@ public class MainActivity extends TabActivity {
                 menu.findItem(MENU_ID_STOP).setEnabled(true);
                 break;
             case MediaPlayServiceConnector.PLAY_STATE_PLAYING:
+            case MediaPlayServiceConnector.PLAY_STATE_RECONNECTING:
+            case MediaPlayServiceConnector.PLAY_STATE_PAUSED:
                 menu.findItem(MENU_ID_RELOAD).setEnabled(true);
                 menu.findItem(MENU_ID_STOP).setEnabled(true);
                 break;
@@ -482,6 +787,15 @@ public class MainActivity extends TabActivity {
             case MENU_ID_RELOAD:
                 fecthAndUpdateHeadline();
                 return false;
+            case MENU_ID_FRAME_METRICS:
+                showFrameMetrics();
+                return false;
+            case MENU_ID_WATCH_RULES:
+                showWatchRules();
+                return false;
+            case MENU_ID_PLAYBACK_STATS:
+                showPlaybackStats();
+                return false;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -520,13 +834,305 @@ public class MainActivity extends TabActivity {
                     }
                 }
                 break;
-            }
-            default: {
+            }
+            default: {
+                break;
+            }
+        }
+
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        // adb shell dumpsys activity com.uraroji.garage.android.ladiotail/.MainActivity で出力される
+        // 引数に"trim レベル"を付けた場合は、onTrimMemoryが呼ばれた場合と同じ解放をしてから出力する
+        // 引数に"benchmark"を付けた場合は、サービスの呼び出しを計測し直す
+        mMemoryTrimmer.trimIfRequested(args);
+        writer.print(prefix);
+        writer.println(mMemoryTrimmer.getReport());
+        if (C.ENABLE_FRAME_METRICS) {
+            writer.print(prefix);
+            writer.println("Frame metrics:");
+            writer.println(getFrameMetricsReport());
+        }
+        if (C.ENABLE_PLAYBACK_STATS) {
+            writer.print(prefix);
+            writer.println("Service benchmark:");
+            // dumpはUIスレッドで呼ばれるので計測を待たずに、前回の計測結果を出力する
+            final boolean isStarted = args != null && args.length >= 1
+                    && "benchmark".equals(args[0]) && startBenchmark();
+            final String benchmarkReport = mBenchmarkReport;
+            writer.print(prefix);
+            writer.println((benchmarkReport != null) ? benchmarkReport
+                    : "not measured yet, dump with \"benchmark\" to measure");
+            if (isStarted) {
+                writer.print(prefix);
+                writer.println("measuring, dump again to see the result");
+            }
+        }
+    }
+
+    /**
+     * サービスの呼び出しを別スレッドで計測し、計測結果を更新する 計測中の場合は何もしない。
+     * 
+     * @return 計測を開始した場合はtrue
+     */
+    private boolean startBenchmark() {
+        if (mBenchmarkThread != null && mBenchmarkThread.isAlive()) {
+            return false;
+        }
+        mBenchmarkThread = new Thread() {
+            @Override
+            public void run() {
+                mBenchmarkReport = MediaPlayManager.getConnector().getBenchmarkReport();
+            }
+        };
+        mBenchmarkThread.start();
+        return true;
+    }
+
+    /**
+     * 番組一覧のフレーム時間の計測結果を表示する
+     */
+    private void showFrameMetrics() {
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.frame_metrics)
+                .setMessage(getFrameMetricsReport())
+                .setPositiveButton(R.string.ok, null)
+                .setNeutralButton(R.string.reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        for (FrameMetricsCollector collector : mFrameMetricsCollectors) {
+                            if (collector != null) {
+                                collector.reset();
+                            }
+                        }
+                    }
+                }).create();
+        dialog.show();
+    }
+
+    /**
+     * 番組一覧のフレーム時間の計測結果を取得する
+     * 
+     * @return 番組一覧のフレーム時間の計測結果。未作成のタブは含まない。
+     */
+    private String getFrameMetricsReport() {
+        final StringBuilder sb = new StringBuilder(1024);
+        for (FrameMetricsCollector collector : mFrameMetricsCollectors) {
+            if (collector != null) {
+                sb.append(collector.getReport()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 再生品質の統計と先読みバッファの状態を表示する
+     */
+    private void showPlaybackStats() {
+        // タイトルバーのプログレスアイコンを表示する
+        setProgressBarIndeterminateVisibility(true);
+
+        // 計測はサービスを繰り返し呼び出すので、別スレッドで行う
+        new Thread() {
+
+            @Override
+            public void run() {
+                final MediaPlayServiceConnector connector = MediaPlayManager.getConnector();
+                final StringBuilder sb = new StringBuilder(1024);
+                final PlaybackStats stats = connector.getPlaybackStats();
+                if (stats != null) {
+                    sb.append(stats.toString()).append('\n');
+                }
+                final BufferHealth bufferHealth = connector.getBufferHealth();
+                if (bufferHealth != null) {
+                    sb.append(bufferHealth.toString()).append('\n');
+                }
+                final String benchmarkReport = connector.getBenchmarkReport();
+                mBenchmarkReport = benchmarkReport;
+                sb.append(benchmarkReport);
+                mmHandler.sendMessage(mmHandler.obtainMessage(0, sb.toString()));
+            }
+
+            private Handler mmHandler = new Handler() {
+                @Override
+                public void handleMessage(Message msg) {
+                    // タイトルバーのプログレスアイコンを表示を消す
+                    setProgressBarIndeterminateVisibility(false);
+                    // 計測中に画面を閉じた場合は表示しない
+                    if (isFinishing()) {
+                        return;
+                    }
+                    AlertDialog dialog = new AlertDialog.Builder(MainActivity.this)
+                            .setTitle(R.string.playback_stats)
+                            .setMessage((String) msg.obj)
+                            .setPositiveButton(R.string.ok, null)
+                            .create();
+                    dialog.show();
+                }
+            };
+        }.start();
+    }
+
+    /**
+     * ウォッチルールのリストを表示する 選択したルールは削除する。
+     */
+    private void showWatchRules() {
+        final List<WatchRule> rules = WatchRuleManager.getManager().getRules();
+        final String[] items = new String[rules.size()];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = getWatchRuleLabel(rules.get(i));
+        }
+
+        final AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle(R.string.watch_rules)
+                .setPositiveButton(R.string.add, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showAddWatchRule();
+                    }
+                }).setNegativeButton(R.string.cancel, null);
+        if (items.length == 0) {
+            builder.setMessage(R.string.watch_rules_empty);
+        } else {
+            builder.setItems(items, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    WatchRuleManager.getManager().removeRule(rules.get(which));
+                    Toast.makeText(MainActivity.this,
+                            getString(R.string.watch_rule_removed, items[which]),
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+        builder.create().show();
+    }
+
+    /**
+     * ウォッチルールを追加する 項目を選択させてから単語を入力させる。
+     */
+    private void showAddWatchRule() {
+        final int[] fields = {
+                WatchRule.FIELD_DJ, WatchRule.FIELD_TITLE, WatchRule.FIELD_GENRE
+        };
+        final String[] fieldLabels = {
+                getString(R.string.dj), getString(R.string.title), getString(R.string.genre)
+        };
+
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.add)
+                .setItems(fieldLabels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final int field = fields[which];
+                        final EditText keywordEditText = new EditText(MainActivity.this);
+                        keywordEditText.setSingleLine(true);
+                        keywordEditText.setHint(R.string.watch_keyword_hint);
+
+                        AlertDialog keywordDialog = new AlertDialog.Builder(MainActivity.this)
+                                .setTitle(fieldLabels[which])
+                                .setView(keywordEditText)
+                                .setPositiveButton(R.string.ok,
+                                        new DialogInterface.OnClickListener() {
+                                            @Override
+                                            public void onClick(DialogInterface dialog,
+                                                    int which) {
+                                                addWatchRule(field, keywordEditText.getText()
+                                                        .toString());
+                                            }
+                                        }).setNegativeButton(R.string.cancel, null)
+                                .create();
+                        keywordDialog.show();
+                    }
+                }).setNegativeButton(R.string.cancel, null).create();
+        dialog.show();
+    }
+
+    /**
+     * ウォッチルールを追加する
+     * 
+     * @param field 対象の項目
+     * @param keyword 単語。空の場合は何もしない。
+     */
+    private void addWatchRule(int field, String keyword) {
+        if (keyword == null || keyword.trim().length() == 0) {
+            return;
+        }
+        final WatchRule rule = new WatchRule(field, keyword);
+        WatchRuleManager.getManager().addRule(rule);
+        Toast.makeText(this, getString(R.string.watch_rule_added, getWatchRuleLabel(rule)),
+                Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * ウォッチルールの表示文字列を取得する
+     * 
+     * @param rule ウォッチルール
+     * @return ウォッチルールの表示文字列
+     */
+    private String getWatchRuleLabel(WatchRule rule) {
+        final int fieldLabel;
+        switch (rule.getField()) {
+            case WatchRule.FIELD_DJ:
+                fieldLabel = R.string.dj;
+                break;
+            case WatchRule.FIELD_TITLE:
+                fieldLabel = R.string.title;
                 break;
+            case WatchRule.FIELD_GENRE:
+            default:
+                fieldLabel = R.string.genre;
+                break;
+        }
+        return getString(fieldLabel) + ": " + rule.getKeyword();
+    }
+
+    /**
+     * ウォッチルールに一致した番組を通知する UIスレッドから呼ぶこと。
+     * 
+     * @param channels ウォッチルールに一致した番組のリスト。空の場合は何もしない。
+     */
+    private void notifyWatchedChannels(List<Channel> channels) {
+        if (channels.isEmpty()) {
+            return;
+        }
+
+        final StringBuilder content = new StringBuilder(128);
+        for (Channel channel : channels) {
+            if (content.length() > 0) {
+                content.append(", ");
             }
+            content.append(channel.getNam());
         }
 
-        super.onActivityResult(requestCode, resultCode, data);
+        // Android 2.2以下と2.3以上でステータスバーに表示するアイコンを分ける
+        final int iconId = ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+                ? R.drawable.ic_stat_2_3 : R.drawable.ic_stat_2_2);
+        final String title = getString(R.string.watch_notification_title);
+
+        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        Notification n = new Notification(iconId, title, System.currentTimeMillis());
+        n.flags |= Notification.FLAG_AUTO_CANCEL;
+
+        // 1番組のみの場合はその番組の詳細を開く
+        final Intent intent;
+        final Channel first = channels.get(0);
+        if (channels.size() == 1 && first.getPlayUrl() != null) {
+            intent = new Intent(this, ChannelActivity.class);
+            intent.putExtra(ChannelActivity.INTENT_EXTRA_OPEN_CHANNEL_PLAY_URL, first
+                    .getPlayUrl().toString());
+        } else {
+            intent = new Intent(this, MainActivity.class);
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        n.setLatestEventInfo(getApplicationContext(), title, content.toString(), contentIntent);
+
+        nm.notify(C.WATCH_NOTIFICATION_ID, n);
     }
 
     /**
@@ -541,14 +1147,17 @@ public class MainActivity extends TabActivity {
         mIsHeadlineUpdating = true;
 
     	// 更新中はPull down to refreshを無効にする
-    	mNewlyPullToRefreshListView.setMode(Mode.DISABLED);
-		mListenersPullToRefreshListView.setMode(Mode.DISABLED);
-		mTitlePullToRefreshListView.setMode(Mode.DISABLED);
-		mDjPullToRefreshListView.setMode(Mode.DISABLED);
+        for (PullToRefreshListView pullToRefreshListView : mPullToRefreshListViews) {
+            if (pullToRefreshListView != null) {
+                pullToRefreshListView.setMode(Mode.DISABLED);
+            }
+        }
+
+        /*
+         * ヘッドラインリストはクリアしない。
+         * 取得に失敗した場合は、最後に取得に成功したヘッドラインをそのまま表示し続ける。
+         */
 
-		// ヘッドラインリストのクリア
-        clearHeadline();
-        
         // タイトルバーのプログレスアイコンを表示する
         setProgressBarIndeterminateVisibility(true);
 
@@ -568,10 +1177,27 @@ public class MainActivity extends TabActivity {
             @Override
             public void run() {
                 try {
-                    HeadlineManager.getHeadline().fetchHeadline();
+                    HeadlineFetcher.getFetcher().fetch();
+
+                    // 並び替えはUIスレッドで行わないように、ここで索引を作成しておく
+                    final ChannelIndex channelIndex = new ChannelIndex(HeadlineFetcher
+                            .getFetcher().getHeadline());
+
+                    // ルールの照合はファイルを読み込む場合があるのでここで行い、通知はUIスレッドで行う
+                    final List<Channel> watchedChannels = WatchRuleManager.getManager().evaluate(
+                            channelIndex);
+                    if (watchedChannels.isEmpty() == false) {
+                        mmHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                notifyWatchedChannels(watchedChannels);
+                            }
+                        });
+                    }
 
                     // 読み込み終了の通知
-                    mmHandler.sendEmptyMessage(MSG_FETCHED_HEADLINE);
+                    mmHandler.sendMessage(mmHandler.obtainMessage(MSG_FETCHED_HEADLINE,
+                            channelIndex));
                 } catch (IOException e) {
                     // 読み込み失敗の通知
                     mmHandler.sendEmptyMessage(MSG_FAILED_FETCH_HEADLINE);
@@ -584,11 +1210,15 @@ public class MainActivity extends TabActivity {
                     switch (msg.what) {
                         case MSG_FETCHED_HEADLINE:
                             // ヘッドラインリストの内容を更新する
-                            updateHeadline();
+                            showChannelIndex((ChannelIndex) msg.obj);
+                            // 最新のヘッドラインなので古さの表示を消す
+                            updateHeadlineAge(false);
                             break;
                         case MSG_FAILED_FETCH_HEADLINE:
                             // ヘッドラインリストの内容を更新する
                             updateHeadline();
+                            // 最後に取得に成功したヘッドラインを表示しているので、その古さを表示する
+                            updateHeadlineAge(true);
                             // 失敗した旨のメッセージを出す
                             Toast.makeText(MainActivity.this,
                                     R.string.failed_fetch_headline,
@@ -614,54 +1244,159 @@ public class MainActivity extends TabActivity {
                  * Pull down to refresh完了
                  */
 				private void completePullDownRefresh() {
-					// Pull down to refresh終了
-					mNewlyPullToRefreshListView.onRefreshComplete();
-					mListenersPullToRefreshListView.onRefreshComplete();
-					mTitlePullToRefreshListView.onRefreshComplete();
-					mDjPullToRefreshListView.onRefreshComplete();
-					// Pull down to refreshを有効にする
-					mNewlyPullToRefreshListView.setMode(Mode.PULL_FROM_START);
-					mListenersPullToRefreshListView.setMode(Mode.PULL_FROM_START);
-					mTitlePullToRefreshListView.setMode(Mode.PULL_FROM_START);
-					mDjPullToRefreshListView.setMode(Mode.PULL_FROM_START);
+                    for (PullToRefreshListView pullToRefreshListView : mPullToRefreshListViews) {
+                        if (pullToRefreshListView == null) {
+                            continue;
+                        }
+                        // Pull down to refresh終了
+                        pullToRefreshListView.onRefreshComplete();
+                        // Pull down to refreshを有効にする
+                        pullToRefreshListView.setMode(Mode.PULL_FROM_START);
+                    }
 				}
             };
         }.start();
     }
 
+    /**
+     * 取得したヘッドラインの索引に差し替え、ヘッドラインリストの内容を更新する
+     * 
+     * @param channelIndex ヘッドラインの索引
+     */
+    /*package*/ void showChannelIndex(ChannelIndex channelIndex) {
+        mChannelIndex = channelIndex;
+        updateHeadline();
+    }
+
+    /**
+     * ヘッドラインを取得中か 検証用。
+     * 
+     * @return ヘッドラインを取得中の場合はtrue
+     */
+    /*package*/ boolean isHeadlineUpdating() {
+        return mIsHeadlineUpdating;
+    }
+
+    /**
+     * 指定したタブの番組の行を表示した回数の合計を取得する 検証用。
+     * 
+     * @param tab タブの位置
+     * @return 番組の行を表示した回数の合計。タブが未作成の場合は0。
+     */
+    /*package*/ int getBindCount(int tab) {
+        return (mListAdapters[tab] != null) ? mListAdapters[tab].getBindCount() : 0;
+    }
+
     /**
      * ヘッドラインリストの内容を更新する
+     * 
+     * 表示中のタブのみをすぐに更新し、それ以外のタブは未更新として、表示された際かアイドル時に更新する。
      */
     private void updateHeadline() {
+        final int currentTab = getTabHost().getCurrentTab();
+
+        int deferred = 0;
+        int skipped = 0;
+        for (int i = 0; i < mListAdapters.length; ++i) {
+            // 未作成のタブは作成後に表示される際に更新される
+            if (i == currentTab || mListAdapters[i] == null) {
+                continue;
+            }
+            if (mListAdapters[i].isDirty()) {
+                // 前回後回しにした更新が不要になった
+                ++skipped;
+            }
+            mListAdapters[i].setDirty();
+            ++deferred;
+        }
+        mDeferredTabUpdateCount += deferred;
+        mSkippedTabUpdateCount += skipped;
+
+        // 表示中のタブを更新
+        mListAdapters[currentTab].setDirty();
+        updateTab(currentTab);
+
+        // 残りのタブはアイドル時に更新
+        if (mIsIdleHandlerAdded == false) {
+            Looper.myQueue().addIdleHandler(mUpdateTabIdleHandler);
+            mIsIdleHandlerAdded = true;
+        }
+
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, String.format(
+                    "Updated 1 tab, deferred %d tabs, skipped %d tabs (total deferred %d, total skipped %d).",
+                    deferred, skipped, mDeferredTabUpdateCount, mSkippedTabUpdateCount));
+        }
+    }
+
+    /**
+     * 指定したタブの番組一覧が未更新の場合は更新する
+     * 
+     * @param tab タブの位置
+     */
+    private void updateTab(int tab) {
+        if (tab < 0 || tab >= mListAdapters.length) {
+            return;
+        }
+
+        final ChannelAdapter adapter = mListAdapters[tab];
+        if (adapter == null || adapter.isDirty() == false) {
+            return;
+        }
+
         // 検索ボックスの文字列を空白文字で分割する
         final String searchWord = mSearchEditText.getText().toString();
 
         final String playingPath = MediaPlayManager.getConnector().getPlayingPath();
 
-        // リストの更新
-        mNewlyListAdapter.update(
-                HeadlineManager.getHeadline().getChannels(
-                        Headline.SORT_TYPE_NEWLY, searchWord), playingPath);
-        mListenersListAdapter.update(
-                HeadlineManager.getHeadline().getChannels(
-                        Headline.SORT_TYPE_LISTENERS, searchWord), playingPath);
-        mTitleListAdapter.update(
-                HeadlineManager.getHeadline().getChannels(
-                        Headline.SORT_TYPE_TITLE, searchWord), playingPath);
-        mDjListAdapter.update(
-                HeadlineManager.getHeadline().getChannels(
-                        Headline.SORT_TYPE_DJ, searchWord), playingPath);
+        // リストの更新 番組の並びは索引から取得し、1行に表示する内容は表示する際に生成する
+        adapter.update(new PagedChannelList(mChannelIndex, mChannelIndex.getIndexes(
+                adapter.getSortType(), searchWord), mRowModelBuilder), playingPath);
+
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, String.format("Tab %d shows %d of %d channels, %d row models cached.",
+                    tab, adapter.getCount() - 1, mChannelIndex.getChannelCount(),
+                    mChannelIndex.getCachedRowModelCount()));
+        }
     }
 
     /**
-     * ヘッドラインリストの内容をクリアする
+     * アイドル時に未更新のタブを1つずつ更新するIdleHandler
+     */
+    private final IdleHandler mUpdateTabIdleHandler = new IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            for (int i = 0; i < mListAdapters.length; ++i) {
+                if (mListAdapters[i] != null && mListAdapters[i].isDirty()) {
+                    updateTab(i);
+                    // 一度に全部更新するとアイドルでなくなるので、残りは次のアイドル時に更新する
+                    return true;
+                }
+            }
+
+            // 全てのタブが更新済みなのでIdleHandlerを外す
+            mIsIdleHandlerAdded = false;
+            return false;
+        }
+    };
+
+    /**
+     * 表示中のヘッドラインの古さの表示を更新する
+     * 
+     * @param isStale 表示中のヘッドラインが古いか。古い場合は最後に取得に成功してからの経過時間を表示する。
      */
-    private void clearHeadline() {
-        // リストの更新
-        mNewlyListAdapter.clear();
-        mListenersListAdapter.clear();
-        mTitleListAdapter.clear();
-        mDjListAdapter.clear();
+    private void updateHeadlineAge(boolean isStale) {
+        final long fetchedTime = HeadlineFetcher.getFetcher().getFetchedTime();
+
+        // 一度も取得に成功していない場合は表示するヘッドラインが無いので、古さも表示しない
+        if (isStale == false || fetchedTime == 0) {
+            mHeadlineAgeTextView.setVisibility(View.GONE);
+            return;
+        }
+
+        final long min = Math.max(1, (System.currentTimeMillis() - fetchedTime) / (60 * 1000));
+        mHeadlineAgeTextView.setText(String.format(getString(R.string.headline_age), min));
+        mHeadlineAgeTextView.setVisibility(View.VISIBLE);
     }
     
     /**
@@ -722,6 +1457,9 @@ public class MainActivity extends TabActivity {
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PREPARE_STARTED:
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PLAY_COMPLATED:
                         case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PLAY_STOPPED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED:
+                        case MediaPlayServiceConnector.MSG_MEDIA_PLAY_MANAGER_PAUSED:
                             break;
                         default:
                             Log.w(C.TAG, String.format(
@@ -782,39 +1520,99 @@ public class MainActivity extends TabActivity {
      */
     private class ChannelAdapter extends BaseAdapter {
 
+        /**
+         * 広告の行のID
+         */
+        private static final long AD_ITEM_ID = Long.MIN_VALUE;
+
         private LayoutInflater mInflater;
 
         /**
-         * 広告のView
+         * このAdapterを設定したListView
+         */
+        private final ListView mListView;
+
+        /**
+         * 広告のView。 広告を表示するまでは作成しない。
          */
         private View mAdView;
 
+        /**
+         * 広告を表示するまで、広告の代わりに表示する空のView
+         */
+        private View mAdPlaceholderView;
+
+        /**
+         * 偶数行の背景色
+         */
+        private final int mLightBackgroundColor;
+
+        /**
+         * 奇数行の背景色
+         */
+        private final int mDarkBackgroundColor;
+
+        /**
+         * 番組の並び順
+         */
+        private final int mSortType;
+
+        /**
+         * 番組リストが未更新か
+         */
+        private boolean mIsDirty = true;
+
+        /**
+         * 番組の行を表示した回数の合計。 表示済みの内容と同じため表示し直さなかった行は数えない。
+         */
+        private int mBindCount = 0;
+
+        /**
+         * フレーム時間の計測。 計測しない場合はnull。
+         */
+        private FrameMetricsCollector mFrameMetricsCollector;
+
         /**
          * 再生中のパス
          */
         private String mPlayingPath;
 
         /**
-         * 番組リスト
+         * 番組のリスト
          */
-        private Channel[] mChannelList = new Channel[0];
+        private PagedChannelList mChannelList = new PagedChannelList(mChannelIndex, new int[0],
+                mRowModelBuilder);
 
         /**
          * コンストラクタ
          * 
          * @param context コンテキスト
+         * @param sortType 番組の並び順
+         * @param listView このAdapterを設定するListView
+         * @see Headline#SORT_TYPE_NEWLY
+         * @see Headline#SORT_TYPE_LISTENERS
+         * @see Headline#SORT_TYPE_TITLE
+         * @see Headline#SORT_TYPE_DJ
          */
-        public ChannelAdapter(Context context) {
+        public ChannelAdapter(Context context, int sortType, ListView listView) {
             super();
 
+            this.mSortType = sortType;
+            this.mListView = listView;
+
             this.mInflater = LayoutInflater.from(context);
-            this.mAdView = mInflater.inflate(R.layout.ad_item_row, null);
+
+            final Resources res = context.getResources();
+            this.mLightBackgroundColor = res
+                    .getColor(R.color.headline_table_cell_background_color_light);
+            this.mDarkBackgroundColor = res
+                    .getColor(R.color.headline_table_cell_background_color_dark);
         }
 
         @Override
         public int getCount() {
             // 広告 + 番組
-            return mChannelList.length + 1;
+            return mChannelList.size() + 1;
         }
 
         @Override
@@ -823,18 +1621,45 @@ public class MainActivity extends TabActivity {
             if (position == 0) {
                 return null;
             } else {
-                return mChannelList[position - 1];
+                return mChannelList.getChannel(position - 1);
             }
         }
 
         @Override
         public long getItemId(int position) {
-            // 使用しないのでとりあえずpositionでも返しておく
-            return position;
+            // 番組は再生URLから求めたIDを返すので、ヘッドラインを取得し直しても同じ番組は同じIDになる
+            if (position == 0) {
+                return AD_ITEM_ID;
+            } else {
+                return mChannelList.getId(position - 1);
+            }
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
         }
 
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
+            if (mFrameMetricsCollector == null) {
+                return bindView(position, convertView);
+            }
+
+            final long startTime = System.nanoTime();
+            final View view = bindView(position, convertView);
+            mFrameMetricsCollector.recordBind(System.nanoTime() - startTime);
+            return view;
+        }
+
+        /**
+         * 行のViewを設定する
+         * 
+         * @param position 位置
+         * @param convertView 再利用するView
+         * @return 行のView
+         */
+        private View bindView(int position, View convertView) {
             View view = convertView;
 
             if (position == 0) {
@@ -843,7 +1668,7 @@ public class MainActivity extends TabActivity {
                  * 広告表示用のViewを設定する。
                  */
                 if (view == null || view.getTag() != null) {
-                    view = mAdView;
+                    view = getAdView();
                 }
             } else {
                 ViewHolder holder = null;
@@ -876,98 +1701,84 @@ public class MainActivity extends TabActivity {
                     view.setTag(holder);
                 }
 
-                Resources res = getResources();
-				if (position % 2 == 0) {
-					view.setBackgroundColor(res.getColor(R.color.headline_table_cell_background_color_light));
-				} else {
-					view.setBackgroundColor(res.getColor(R.color.headline_table_cell_background_color_dark));
-				}
-                
-                final Channel CHANNEL = (Channel) getItem(position);
-
-                final String TITLE = CHANNEL.getNam();
-                if (TITLE != null) {
-                    holder.channelTitleTextView.setText(TITLE);
-                } else {
-                    holder.channelTitleTextView.setText("");
-                }
+                // 番組の位置がずれると偶数行と奇数行が入れ替わるので、背景色は常に設定する
+                view.setBackgroundColor((position % 2 == 0) ? mLightBackgroundColor
+                        : mDarkBackgroundColor);
 
-                final String GENRE = CHANNEL.getGnl();
-                if (GENRE != null) {
-                    holder.channelGenreTextView.setText(GENRE);
-                } else {
-                    holder.channelGenreTextView.setText("");
-                }
+                // 表示する文字列は別スレッドで生成済みなので設定するだけ 次に表示しそうな行の生成はページが変わった時に要求する
+                // 放送開始時間の表示は1分毎にまとめて更新するので、ここでは更新しない
+                final ChannelRowModel rowModel = mChannelList.getRowModel(position - 1);
+                mRowModelPrebuilder.request(mChannelList, position - 1);
+                final boolean isPlaying = rowModel.isPlaying(mPlayingPath);
 
-                final String DJ = CHANNEL.getDj();
-                if (DJ != null) {
-                    holder.channelDjTextView.setText(DJ);
-                } else {
-                    holder.channelDjTextView.setText("");
+                /*
+                 * hasStableIdsなので、番組リストを更新した際はListViewが同じIDの番組を表示していたViewを渡す（Android 5.0以降）。
+                 * 同じ番組を同じ内容で表示済みの場合は、位置がずれていても参照先のみ差し替える。
+                 */
+                if (holder.rowModel != null && rowModel.hasSameContent(holder.rowModel)
+                        && rowModel.getDate().equals(holder.date)
+                        && holder.isPlaying == isPlaying) {
+                    holder.rowModel = rowModel;
+                    return view;
                 }
 
-                final int LISTENERS_NUM = CHANNEL.getCln();
-                if (LISTENERS_NUM != Channel.UNKNOWN_LISTENER_NUM) {
-                    holder.channelListenersTextView.setText(String.valueOf(LISTENERS_NUM)
-                            + " "
-                            + ((LISTENERS_NUM <= 1) ? getString(R.string.listener)
-                                    : getString(R.string.listeners)));
-                } else {
-                    holder.channelListenersTextView.setText("");
-                }
+                ++mBindCount;
 
-                // 放送開始時間を取得
-                final Date START_DATE = CHANNEL.getTims();
-                if (START_DATE != null) {
-                    // 放送開始時間と現在時刻の差分を取得
-                    final long DIFF = (new Date()).getTime() - START_DATE.getTime();
+                holder.rowModel = rowModel;
+                holder.channelTitleTextView.setText(rowModel.getTitle());
+                holder.channelGenreTextView.setText(rowModel.getGenre());
+                holder.channelDjTextView.setText(rowModel.getDj());
+                holder.channelListenersTextView.setText(rowModel.getListeners());
+                holder.channelDateTextView.setText(rowModel.getDate());
+                holder.date = rowModel.getDate();
 
-                    // 1分未満
-                    if (DIFF < 60 * 1000) {
-                        holder.channelDateTextView.setText(R.string.start_time_under1min);
-                    }
-                    // 1分以上
-                    else {
-                        final long DAY = DIFF / (24 * 60 * 60 * 1000);
-                        final long HOUR = (DIFF % (24 * 60 * 60 * 1000)) / (60 * 60 * 1000);
-                        final long MIN = (DIFF % (60 * 60 * 1000)) / (60 * 1000);
-                        
-                        String dateStr = "";
-                        if (0 < DAY && DAY <= 1) {
-                            dateStr += String.format(getString(R.string.start_time_day), DAY);
-                        } else if (DAY > 1) {
-                            dateStr += String.format(getString(R.string.start_time_days), DAY);
-                        }
-                        if (0 < HOUR && HOUR <= 1) {
-                            dateStr += String.format(getString(R.string.start_time_hour), HOUR);
-                        } else if (HOUR > 1) {
-                            dateStr += String.format(getString(R.string.start_time_hours), HOUR);
-                        }
-                        if (0 < MIN && MIN <= 1) {
-                            dateStr += String.format(getString(R.string.start_time_min), MIN);
-                        } else if (MIN > 1) {
-                            dateStr += String.format(getString(R.string.start_time_mins), MIN);
-                        }
-                        dateStr += getString(R.string.start_time_ago);
-                        
-                        holder.channelDateTextView.setText(dateStr);
-                    }
-				} else {
-                    holder.channelDateTextView.setText("");
-                }
-                
                 // 再生中のURLと番組のURLが同じ場合に再生中であることをリスト内に表示する
-                if (CHANNEL.getPlayUrl() != null
-                        && CHANNEL.getPlayUrl().toString().equals(mPlayingPath)) {
-                    holder.playingImageView.setImageResource(R.drawable.play_in_list);
-                } else {
-                    holder.playingImageView.setImageBitmap(null);
-                }
+                setPlayingImage(holder, isPlaying);
             }
 
             return view;
         }
 
+        /**
+         * フレーム時間の計測を設定する
+         * 
+         * @param collector フレーム時間の計測
+         */
+        /*package*/ void setFrameMetricsCollector(FrameMetricsCollector collector) {
+            mFrameMetricsCollector = collector;
+        }
+
+        /**
+         * 広告のViewを取得する
+         * 
+         * 広告のViewの作成は重いので、最初の描画の後の起動処理が終わるまでは空のViewを返す。
+         * 
+         * @return 広告のView
+         */
+        private View getAdView() {
+            if (mIsDeferredStartupDone == false) {
+                if (mAdPlaceholderView == null) {
+                    mAdPlaceholderView = new View(MainActivity.this);
+                }
+                return mAdPlaceholderView;
+            }
+            if (mAdView == null) {
+                StartupTrace.beginSection("inflateAd");
+                mAdView = mInflater.inflate(R.layout.ad_item_row, null);
+                StartupTrace.endSection();
+            }
+            return mAdView;
+        }
+
+        /**
+         * 広告を表示する 広告の行が表示中の場合は、空のViewを広告のViewに差し替える。
+         */
+        /*package*/ void showAd() {
+            if (mListView.getFirstVisiblePosition() <= mListView.getHeaderViewsCount()) {
+                notifyDataSetChanged();
+            }
+        }
+
         /**
          * ChannelAdapter#getViewにおけるViewの保持クラス
          */
@@ -978,24 +1789,234 @@ public class MainActivity extends TabActivity {
             /*package*/ TextView channelListenersTextView;
             /*package*/ TextView channelDateTextView;
             /*package*/ ImageView playingImageView;
+            /*package*/ ChannelRowModel rowModel;
+            /*package*/ String date;
+            /*package*/ boolean isPlaying;
+        }
+
+        /**
+         * 再生中のパスを更新する
+         * 
+         * notifyDataSetChangedは呼ばずに、表示中の行のうち再生中の表示が変わる行（前に再生していた番組と、
+         * 新たに再生する番組）の再生中のアイコンのみを書き換える。
+         * 
+         * @param playingPath 再生中のパス
+         * @return 再生中のアイコンを書き換えた行の数
+         */
+        /*package*/ int updatePlayingPath(String playingPath) {
+            final String oldPlayingPath = mPlayingPath;
+            if ((oldPlayingPath == null) ? (playingPath == null) : oldPlayingPath.equals(playingPath)) {
+                return 0;
+            }
+            mPlayingPath = playingPath;
+
+            int updatedRowCount = 0;
+            final int childCount = mListView.getChildCount();
+            for (int i = 0; i < childCount; ++i) {
+                final Object tag = mListView.getChildAt(i).getTag();
+                // 広告やPull down to refreshのViewは対象外
+                if ((tag instanceof ViewHolder) == false) {
+                    continue;
+                }
+                final ViewHolder holder = (ViewHolder) tag;
+                if (holder.rowModel == null) {
+                    continue;
+                }
+                final boolean wasPlaying = holder.rowModel.isPlaying(oldPlayingPath);
+                final boolean isPlaying = holder.rowModel.isPlaying(playingPath);
+                if (wasPlaying != isPlaying) {
+                    setPlayingImage(holder, isPlaying);
+                    ++updatedRowCount;
+                }
+            }
+            return updatedRowCount;
+        }
+
+        /**
+         * 再生中のアイコンを設定する
+         * 
+         * @param holder 行のViewの保持クラス
+         * @param isPlaying 再生中か
+         */
+        private void setPlayingImage(ViewHolder holder, boolean isPlaying) {
+            holder.isPlaying = isPlaying;
+            if (isPlaying) {
+                holder.playingImageView.setImageResource(R.drawable.play_in_list);
+            } else {
+                holder.playingImageView.setImageBitmap(null);
+            }
+        }
+
+        /**
+         * 表示中の行の放送開始時間の表示を更新する
+         * 
+         * notifyDataSetChangedは呼ばずに、表示中の行の放送開始時間のTextViewのみを書き換える。
+         * 
+         * @param now 現在時刻（ms）
+         */
+        /*package*/ void updateVisibleDates(long now) {
+            final int childCount = mListView.getChildCount();
+            for (int i = 0; i < childCount; ++i) {
+                final Object tag = mListView.getChildAt(i).getTag();
+                // 広告やPull down to refreshのViewは対象外
+                if ((tag instanceof ViewHolder) == false) {
+                    continue;
+                }
+                final ViewHolder holder = (ViewHolder) tag;
+                if (holder.rowModel == null) {
+                    continue;
+                }
+                mRowModelBuilder.updateDate(holder.rowModel, now);
+                // 他のタブで先に更新されている場合もあるので、表示中の文字列と比べる
+                if (holder.date != holder.rowModel.getDate()) {
+                    holder.channelDateTextView.setText(holder.rowModel.getDate());
+                    holder.date = holder.rowModel.getDate();
+                }
+            }
         }
 
         /**
          * 番組リストを更新する
          * 
-         * @param channels 番組リスト
+         * 更新前後の番組は位置ではなくIDで対応付け、表示中の行のうち表示内容か再生中の表示が変わった行だけを表示し直す。
+         * 番組の並びが変わった場合も、表示範囲の番組が同じであれば位置がずれた行は表示し直さない。
+         * 
+         * @param channelList 番組のリスト
          * @param playingPath 再生中のパス
          */
-        /*package*/ void update(Channel[] channels, String playingPath) {
-            if (channels == null) {
+        /*package*/ void update(PagedChannelList channelList, String playingPath) {
+            if (channelList == null) {
                 throw new IllegalArgumentException(
-                        "channels is specified null.");
+                        "channelList is specified null.");
             }
 
-            mPlayingPath = playingPath;
-            mChannelList = channels;
+            if (mChannelList.isSameOrder(channelList)) {
+                // 番組の並びが変わっていない場合は、配置し直さずに表示中の行を更新する
+                final int oldBindCount = mBindCount;
 
-            notifyDataSetChanged();
+                mPlayingPath = playingPath;
+                mChannelList = channelList;
+                mIsDirty = false;
+
+                updateVisibleRows();
+
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, String.format("Updated list(sort type %d). Bound %d rows.",
+                            mSortType, mBindCount - oldBindCount));
+                }
+            } else {
+                /*
+                 * 並びが変わった場合は配置し直し、先頭に表示していた番組の位置を保つ。
+                 * ただしリストの上端を表示している場合は、新しい番組が見えるように上端のままにする。
+                 * 配置し直す際も各行はIDで対応付けるので、表示し直すのは内容が変わった行と表示範囲に入った行だけになる。
+                 */
+                final int anchorIndex = (mListView.getFirstVisiblePosition() > mListView
+                        .getHeaderViewsCount()) ? getFirstVisibleChildIndex() : -1;
+                long anchorId = AD_ITEM_ID;
+                int anchorTop = 0;
+                if (anchorIndex >= 0) {
+                    final View anchorView = mListView.getChildAt(anchorIndex);
+                    anchorId = ((ViewHolder) anchorView.getTag()).rowModel.getId();
+                    anchorTop = anchorView.getTop();
+                }
+
+                mPlayingPath = playingPath;
+                mChannelList = channelList;
+                mIsDirty = false;
+
+                notifyDataSetChanged();
+
+                if (anchorId != AD_ITEM_ID) {
+                    final int size = channelList.size();
+                    for (int i = 0; i < size; ++i) {
+                        if (channelList.getId(i) == anchorId) {
+                            mListView.setSelectionFromTop(
+                                    mListView.getHeaderViewsCount() + i + 1, anchorTop);
+                            break;
+                        }
+                    }
+                }
+
+                if (C.LOCAL_LOG) {
+                    Log.v(C.TAG, String.format("Reordered list(sort type %d).", mSortType));
+                }
+            }
+        }
+
+        /**
+         * 表示中の行を、更新した番組リストの内容で表示し直す
+         * 
+         * 番組の並びが変わっていない場合にのみ使用できる。 表示内容が変わっていない行はbindViewが参照先のみ差し替えるので、
+         * 表示していない行の内容は生成しない。
+         */
+        private void updateVisibleRows() {
+            final int firstPosition = mListView.getFirstVisiblePosition()
+                    - mListView.getHeaderViewsCount();
+            final int childCount = mListView.getChildCount();
+            for (int i = 0; i < childCount; ++i) {
+                final View child = mListView.getChildAt(i);
+                // 広告やPull down to refreshのViewは対象外
+                if ((child.getTag() instanceof ViewHolder) == false) {
+                    continue;
+                }
+                final int position = firstPosition + i;
+                if (position < 1 || position > mChannelList.size()) {
+                    continue;
+                }
+                getView(position, child, mListView);
+            }
+        }
+
+        /**
+         * 番組の行を表示した回数の合計を取得する 検証用。
+         * 
+         * 表示済みの内容と同じため参照先のみ差し替えた行は数えない。
+         * 
+         * @return 番組の行を表示した回数の合計
+         */
+        /*package*/ int getBindCount() {
+            return mBindCount;
+        }
+
+        /**
+         * 表示中の番組の行のうち、一番上の行のListView内でのインデックスを取得する
+         * 
+         * @return 表示中の番組の行のうち、一番上の行のインデックス。番組の行が表示されていない場合は-1。
+         */
+        private int getFirstVisibleChildIndex() {
+            final int childCount = mListView.getChildCount();
+            for (int i = 0; i < childCount; ++i) {
+                final Object tag = mListView.getChildAt(i).getTag();
+                if (tag instanceof ViewHolder && ((ViewHolder) tag).rowModel != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 番組の並び順を取得する
+         * 
+         * @return 番組の並び順
+         */
+        /*package*/ int getSortType() {
+            return mSortType;
+        }
+
+        /**
+         * 番組リストが未更新か
+         * 
+         * @return 番組リストが未更新の場合はtrue
+         */
+        /*package*/ boolean isDirty() {
+            return mIsDirty;
+        }
+
+        /**
+         * 番組リストを未更新にする
+         */
+        /*package*/ void setDirty() {
+            mIsDirty = true;
         }
 
         /**
@@ -1003,7 +2024,7 @@ public class MainActivity extends TabActivity {
          */
         /*package*/ void clear() {
             mPlayingPath = null;
-            mChannelList = new Channel[0];
+            mChannelList = new PagedChannelList(mChannelIndex, new int[0], mRowModelBuilder);
 
             notifyDataSetChanged();
         }
@@ -26,21 +26,35 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.Intent;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.MediaPlayer.OnCompletionListener;
-import android.media.MediaPlayer.OnPreparedListener;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * メディア再生サービス
+ * 
+ * 再生状態の変更は全てコマンドスレッドで順に行う。 クライアントからの再生・停止の要求はコマンドとして積むだけですぐに戻り、
+ * 再生エンジンの解放などの時間がかかる処理でBinderのスレッドを止めない。 再生エンジンはコマンドスレッドで作成するので、
+ * 再生エンジンからの通知もコマンドスレッドで受け取る。 他のスレッドからはmLockを取得して状態を読むだけとする。
  */
 public class MediaPlayService extends Service {
 
@@ -69,6 +83,21 @@ public class MediaPlayService extends Service {
      */
     public static final int MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START = 4;
 
+    /**
+     * 再接続開始メッセージ 再生中にストリームが途切れたので、同じパスに接続し直す。
+     */
+    public static final int MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED = 5;
+
+    /**
+     * 曲名変更メッセージ 再生中の番組の曲名が変わった。
+     */
+    public static final int MSG_MEDIA_PLAY_SERVICE_STREAM_TITLE_CHANGED = 6;
+
+    /**
+     * 一時停止メッセージ 受信は続けているので、一時停止した位置から再開できる。
+     */
+    public static final int MSG_MEDIA_PLAY_SERVICE_PAUSED = 7;
+
     /**
      * 再生状態・停止中
      */
@@ -85,9 +114,37 @@ public class MediaPlayService extends Service {
     public static final int PLAY_STATE_PLAYING = 2;
 
     /**
-     * Media player
+     * 再生状態・再接続中
+     */
+    public static final int PLAY_STATE_RECONNECTING = 3;
+
+    /**
+     * 再生状態・一時停止中
+     */
+    public static final int PLAY_STATE_PAUSED = 4;
+
+    /**
+     * 再生エンジン
+     * 
+     * コマンドスレッドでのみ変更し、変更する場合はmLockを取得する。 コマンドスレッドではmLockを取得せずに読んでよい。
+     * 再生エンジンの操作は時間がかかることがあるので、Binderのスレッドを待たせないようにmLockの外で行う。
+     */
+    private PlayerEngine mPlayer;
+
+    /**
+     * ストリーミングプロキシ。 使用しない場合はnull。
+     */
+    private StreamProxy mStreamProxy;
+
+    /**
+     * 再生されそうな番組のストリームに前もって接続しておく
+     */
+    private StreamPrewarmer mStreamPrewarmer;
+
+    /**
+     * 使い終わった再生エンジンを再利用する
      */
-    private MediaPlayer mMediaPlayer;
+    private PlayerRecycler mPlayerRecycler;
 
     /**
      * 準備中・再生中のパス。停止中の場合はnull。
@@ -105,20 +162,284 @@ public class MediaPlayService extends Service {
     private String mNotificationContent;
 
     /**
-     * 再生状態
+     * メモリが不足したので、これから作る再生エンジンのバッファを縮めるか
+     */
+    private volatile boolean mIsLowMemory = false;
+
+    /**
+     * メモリ不足への対応
+     */
+    private final MemoryTrimmer mMemoryTrimmer = new MemoryTrimmer("MediaPlayService",
+            new MemoryTrimmer.OnTrimListener() {
+                @Override
+                public void onTrim(int level) {
+                    trimMemory(level);
+                }
+            });
+
+    /**
+     * ストリームのICYメタデータから取り出した曲名。 キーはパス。
+     * 
+     * 再生中のパスの他に、前もって接続しているパスの曲名を持つ。
+     */
+    private final HashMap<String, String> mStreamTitles = new HashMap<String, String>();
+
+    /**
+     * 曲名の変化の通知を予約しているか
+     */
+    private boolean mIsStreamTitleNotifyPending = false;
+
+    /**
+     * 最後に曲名の変化を通知した時刻（ms）
      */
-    private PlayState mPlayState = new IdleState();
+    private long mLastStreamTitleNotifyTime = 0;
 
     /**
-     * ロックオブジェクト
+     * 再生中のNotificationの時刻
+     */
+    private long mNotificationWhen;
+
+    /**
+     * 再生状態 コマンドスレッドでのみ変更する。
+     */
+    private volatile PlayState mPlayState = new IdleState();
+
+    /**
+     * ロックオブジェクト コマンドスレッド以外から状態を読む場合に取得する。
      */
     private final Object mLock = new Object();
 
+    /**
+     * 実行中、または最後に実行した要求のID。 通知に入れる。
+     */
+    private int mRequestId = 0;
+
+    /**
+     * 最後に通知した通番
+     */
+    private long mEventSequence = 0;
+
+    /**
+     * コマンドスレッド
+     */
+    private HandlerThread mCommandThread;
+
+    /**
+     * コマンドスレッドで実行するHandler 再接続の待ちと曲名の通知の間隔もこのHandlerで空ける。
+     */
+    private Handler mHandler;
+
+    /**
+     * 実行したコマンドの数
+     */
+    private int mCommandCount = 0;
+
+    /**
+     * コマンドを積んでから実行するまでの待ち時間の合計（ms）
+     */
+    private long mCommandTotalWaitMs = 0;
+
+    /**
+     * コマンドを積んでから実行するまでの待ち時間の最大値（ms）
+     */
+    private long mCommandMaxWaitMs = 0;
+
+    /**
+     * コマンドの実行時間の最大値（ms）
+     */
+    private long mCommandMaxRunMs = 0;
+
+    /**
+     * ストリームが途切れた回数
+     */
+    private int mReconnectCount = 0;
+
+    /**
+     * 接続し直した回数 1回の途切れで何回も接続し直す場合は、その回数だけ数える。
+     */
+    private int mReconnectAttemptCount = 0;
+
+    /**
+     * 接続し直して再生を再開できた回数
+     */
+    private int mReconnectSucceededCount = 0;
+
+    /**
+     * 接続し直すのを諦めた回数
+     */
+    private int mReconnectGaveUpCount = 0;
+
+    /**
+     * ストリームが途切れてから再生を再開するまでの時間の合計（ms）
+     */
+    private long mReconnectTotalMs = 0;
+
+    /**
+     * ストリームが途切れてから再生を再開するまでの時間の最大値（ms）
+     */
+    private long mReconnectMaxMs = 0;
+
+    /**
+     * 再生品質の計測値
+     */
+    private final PlaybackTelemetry mTelemetry = new PlaybackTelemetry(C.TELEMETRY_HISTORY_SIZE);
+
+    /**
+     * 最後に再生を要求された時刻（ms） コマンドスレッドでのみ使用する。
+     */
+    private long mPlayRequestTime = -1;
+
+    /**
+     * 再生を開始した時刻（ms）。 再生していない場合は-1。 コマンドスレッドでのみ使用する。
+     */
+    private long mSessionStartTime = -1;
+
+    /**
+     * 再生を開始してから手放した再生エンジンが受信したバイト数の合計 コマンドスレッドでのみ使用する。
+     */
+    private long mSessionBytes = 0;
+
+    /**
+     * 最初に音声を出力するまでの時間をまだ記録していない再生エンジンについて、再生の要求から準備を開始するまでの時間（ms）。
+     * 記録待ちが無い場合は-1。 コマンドスレッドでのみ使用する。
+     */
+    private long mFirstAudioOffsetMs = -1;
+
+    /**
+     * 再生中にバッファリングを開始した時刻（ms）。 バッファリングしていない場合は-1。 コマンドスレッドでのみ使用する。
+     */
+    private long mBufferingStartTime = -1;
+
     /**
      * 再生状態が変化した通知をするコールバックのリスト
      */
     private final RemoteCallbackList<PlayStateChangedCallbackInterface> playStateChangedCallbackList = new RemoteCallbackList<PlayStateChangedCallbackInterface>();
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mCommandThread = new HandlerThread("MediaPlayService-Command");
+        mCommandThread.start();
+        mHandler = new Handler(mCommandThread.getLooper());
+
+        if (C.USE_STREAM_PROXY) {
+            mStreamProxy = new StreamProxy(C.STREAM_PROXY_BUFFER_SIZE,
+                    C.STREAM_PROXY_MAX_RECONNECT, C.STREAM_PROXY_RECONNECT_BASE_MS,
+                    C.STREAM_PROXY_RECONNECT_MAX_MS);
+            mStreamProxy.setJitterBuffer(C.JITTER_BUFFER_MIN_MS, C.JITTER_BUFFER_MAX_MS,
+                    C.JITTER_BUFFER_CLIENT_LEAD_MS);
+            if (C.ENABLE_TIME_SHIFT) {
+                mStreamProxy.setTimeShift(new File(getCacheDir(), C.TIME_SHIFT_DIRECTORY),
+                        C.TIME_SHIFT_MAX_MS, C.TIME_SHIFT_MAX_BYTES);
+            }
+            try {
+                mStreamProxy.start();
+            } catch (IOException e) {
+                // プロキシを使わずに再生する
+                Log.w(C.TAG, "Failed to start StreamProxy(" + e.toString() + ").");
+                mStreamProxy = null;
+            }
+        }
+        if (mStreamProxy != null) {
+            mStreamProxy.setOnStreamTitleChangedListener(mStreamTitleChangedListener);
+        }
+
+        // 独自の再生エンジンはプロキシを経由しないので、名前解決のみを前もって行う
+        mStreamPrewarmer = new StreamPrewarmer(useStreamingEngine(true) ? null : mStreamProxy,
+                C.PREWARM_MAX_IN_FLIGHT, C.PREWARM_TTL_MS);
+
+        mPlayerRecycler = new PlayerRecycler(mHandler, C.PLAYER_IDLE_RELEASE_MS);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, final String[] args) {
+        // "trim レベル"を指定された場合は、コマンドスレッドで解放してから出力する
+        final CountDownLatch trimmed = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMemoryTrimmer.trimIfRequested(args);
+                trimmed.countDown();
+            }
+        });
+        try {
+            trimmed.await(C.DUMP_COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.println(mMemoryTrimmer.getReport());
+        writer.println(mStreamPrewarmer.getReport());
+        writer.println(mPlayerRecycler.getReport());
+        writer.println(getReconnectReport());
+        writer.println(getCommandReport());
+        writer.println(mTelemetry.getStats().toString());
+        final BufferHealth bufferHealth = getBufferHealth();
+        if (bufferHealth != null) {
+            writer.println(bufferHealth.toString());
+        }
+    }
+
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+
+        // 解放する再生エンジンやストリームはコマンドスレッドで使っているので、コマンドスレッドで解放する
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMemoryTrimmer.onTrimMemory(level);
+            }
+        });
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMemoryTrimmer.onLowMemory();
+            }
+        });
+    }
+
+    /**
+     * メモリが不足したので解放する コマンドスレッドで呼ばれる。
+     * 
+     * 再生中の番組は止めない。 再生に使っていないものは全て作り直せるので、LEVEL_MODERATE以上は同じとする。
+     * 
+     * @param level 解放の段階
+     * @see MemoryTrimmer#LEVEL_BACKGROUND
+     * @see MemoryTrimmer#LEVEL_MODERATE
+     * @see MemoryTrimmer#LEVEL_COMPLETE
+     */
+    private void trimMemory(int level) {
+        // 取っておいた再生エンジンは作り直せるので、まず解放する
+        mPlayerRecycler.trim();
+        if (level < MemoryTrimmer.LEVEL_MODERATE) {
+            return;
+        }
+
+        // 前もって接続したストリームは、再生の際に接続し直せばよい
+        mStreamPrewarmer.clear();
+        synchronized (mLock) {
+            final String streamTitle = (mPlayingPath != null) ? mStreamTitles
+                    .get(mPlayingPath) : null;
+            mStreamTitles.clear();
+            if (streamTitle != null) {
+                mStreamTitles.put(mPlayingPath, streamTitle);
+            }
+        }
+
+        // 再生中のバッファはそのままにし、これから接続する番組のバッファを縮める サービスが終わるまで戻さない
+        mIsLowMemory = true;
+        if (mStreamProxy != null) {
+            mStreamProxy.setBufferSize(C.STREAM_PROXY_LOW_MEMORY_BUFFER_SIZE);
+        }
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return mInterfaceImpl;
@@ -128,22 +449,67 @@ public class MediaPlayService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
-        boolean isPlayed;
-        synchronized (mLock) {
-            if (mMediaPlayer == null) {
-                return;
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, mStreamPrewarmer.getReport());
+            Log.v(C.TAG, mPlayerRecycler.getReport());
+            Log.v(C.TAG, getReconnectReport());
+            Log.v(C.TAG, getCommandReport());
+            Log.v(C.TAG, mTelemetry.getStats().toString());
+        }
+
+        // 後始末は積まれているコマンドの後にコマンドスレッドで行い、終わるのを待つ
+        final CountDownLatch finished = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                shutdown();
+                finished.countDown();
+                mCommandThread.quit();
+            }
+        });
+        try {
+            if (finished.await(C.COMMAND_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS) == false) {
+                Log.w(C.TAG, "Command thread did not finish in time.");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 再生を止めて、再生に使ったリソースを解放する コマンドスレッドで呼ぶこと。
+     */
+    private void shutdown() {
+        if (mPlayState instanceof ReconnectingState) {
+            ((ReconnectingState) mPlayState).leave();
+        } else if (mPlayState instanceof SwitchingState) {
+            ((SwitchingState) mPlayState).leave();
+        }
+        mStreamPrewarmer.clear();
+        mPlayerRecycler.trim();
+        mHandler.removeCallbacks(mNotifyStreamTitleRunnable);
+        if (mStreamProxy != null) {
+            mStreamProxy.setOnStreamTitleChangedListener(null);
+            mStreamProxy.stop();
+        }
+
+        if (mPlayer == null) {
+            return;
+        }
 
-            isPlayed = mMediaPlayer.isPlaying();
-            if (isPlayed == true) {
-                mMediaPlayer.stop();
+        final boolean isPlayed = mPlayer.isPlaying();
+        if (isPlayed == true) {
+            mPlayer.stop();
+            synchronized (mLock) {
                 mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
             }
-
-            mMediaPlayer.release();
-            mMediaPlayer = null;
         }
 
+        releasePlayer();
+        endSession();
+
         if (isPlayed == true) {
             notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED);
         }
@@ -152,181 +518,785 @@ public class MediaPlayService extends Service {
     /**
      * 再生を開始する
      * 
+     * @param requestId 要求のID
      * @param path 再生する音声のパス
      * @param notificationTitle Notificationに表示するタイトル。局名や番組名などを入れる。
      * @param notificationContent Notificationに表示するタイトル。アーティスト名などを入れる。
      */
-    private void play(String path, String notificationTitle,
-            String notificationContent) {
+    private void play(final int requestId, final String path, final String notificationTitle,
+            final String notificationContent) {
         if (C.LOCAL_LOG) {
-            Log.v(C.TAG, "trying to play " + path + ".");
+            Log.v(C.TAG, "trying to play " + path + "(request " + requestId + ").");
         }
 
-        if (path == null) {
-            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
-            return;
-        }
+        // コマンドを待つ時間も再生開始までの時間に含める
+        final long requestTime = SystemClock.uptimeMillis();
+        postCommand(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    mRequestId = requestId;
+                }
+                mPlayRequestTime = requestTime;
+                if (path == null) {
+                    notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
+                    return;
+                }
 
-        synchronized (mLock) {
-            if (mMediaPlayer == null) {
-                mMediaPlayer = new MediaPlayer();
-                mMediaPlayer
-                        .setOnCompletionListener(new OnCompletionListener() {
-                            @Override
-                            public void onCompletion(MediaPlayer mp) {
-                                synchronized (mLock) {
-                                    mp.stop();
-                                    mp.setOnPreparedListener(null);
-                                    mPlayingPath = null;
-                                    mNotificationTitle = null;
-                                    mNotificationContent = null;
-                                    mp.reset();
-                                }
-                                notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED);
-
-                                changeState(new IdleState());
-                            }
-                        });
+                mPlayState.play(path, notificationTitle, notificationContent);
             }
-        }
-        
-        mPlayState.play(path, notificationTitle, notificationContent);
+        });
     }
 
     /**
-     * 再生を停止する
+     * コマンドを積む コマンドは積んだ順にコマンドスレッドで実行する。
+     * 
+     * @param command コマンド
      */
-    public void stop() {
-        if (C.LOCAL_LOG) {
-            Log.v(C.TAG, "trying to stop playing.");
-        }
-
-        mPlayState.stop();
+    private void postCommand(final Runnable command) {
+        final long postTime = SystemClock.uptimeMillis();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final long startTime = SystemClock.uptimeMillis();
+                command.run();
+                final long endTime = SystemClock.uptimeMillis();
+                recordCommand(startTime - postTime, endTime - startTime);
+            }
+        });
     }
 
     /**
-     * 準備中・再生中のパスを取得する
+     * コマンドの待ち時間と実行時間を記録する
      * 
-     * @return 準備中・再生中のパス。停止中の場合はnull。
+     * @param waitMs 積んでから実行するまでの待ち時間（ms）
+     * @param runMs 実行時間（ms）
      */
-    public String getPlayingPath() {
+    private void recordCommand(long waitMs, long runMs) {
         synchronized (mLock) {
-            return mPlayingPath;
+            ++mCommandCount;
+            mCommandTotalWaitMs += waitMs;
+            mCommandMaxWaitMs = Math.max(mCommandMaxWaitMs, waitMs);
+            mCommandMaxRunMs = Math.max(mCommandMaxRunMs, runMs);
+        }
+        if (waitMs + runMs > C.COMMAND_SLOW_WARNING_MS) {
+            Log.w(C.TAG, "Slow command(wait " + waitMs + "ms, run " + runMs + "ms).");
         }
     }
 
     /**
-     * 再生状態を取得する
+     * コマンドの統計を取得する
      * 
-     * @return 再生状態
-     * @see MediaPlayService#PLAY_STATE_IDLE
-     * @see MediaPlayService#PLAY_STATE_PREPARE
-     * @see MediaPlayService#PLAY_STATE_PLAYING
+     * @return コマンドの統計
      */
-    public int getPlayState() {
-        return mPlayState.getPlayState();
+    private String getCommandReport() {
+        synchronized (mLock) {
+            return String.format("command: %d executed, wait avg %dms max %dms, run max %dms",
+                    mCommandCount, (mCommandCount != 0) ? mCommandTotalWaitMs / mCommandCount
+                            : 0, mCommandMaxWaitMs, mCommandMaxRunMs);
+        }
     }
 
     /**
-     * 再生状態が変化したので、登録済みのコールバックを実行する。
-     * 
-     * @param changedState 変化後の状態
-     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED
-     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED
-     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED
-     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED
-     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START
+     * 再生エンジンを次の再生のために取っておく コマンドスレッドで、mLockを取得せずに呼ぶこと。
      */
-    private void notifyPlayStateChanged(int changedState) {
-        // コールバックを実行する
-        execCallback(changedState);
+    private void recyclePlayer() {
+        // resetはmLockの外で行う
+        mPlayerRecycler.recycle(detachPlayer());
+    }
 
-        // Notificationを更新する
-        updateNotification(changedState);
+    /**
+     * 再生エンジンを解放する コマンドスレッドで、mLockを取得せずに呼ぶこと。
+     */
+    private void releasePlayer() {
+        final PlayerEngine player = detachPlayer();
+        if (player != null) {
+            player.release();
+        }
     }
 
     /**
-     * コールバックを実行する
+     * 再生品質の計測値を集めてから、再生エンジンを手放す
      * 
-     * @param changedState 変化後の状態
+     * @return 手放した再生エンジン。無い場合はnull。
      */
-    private void execCallback(int changedState) {
-        synchronized (playStateChangedCallbackList) {
-            final int n = playStateChangedCallbackList.beginBroadcast();
+    private PlayerEngine detachPlayer() {
+        synchronized (mLock) {
+            collectPlayerStats();
+            final PlayerEngine player = mPlayer;
+            mPlayer = null;
+            return player;
+        }
+    }
 
-            for (int i = 0; i < n; ++i) {
-                final PlayStateChangedCallbackInterface callback = playStateChangedCallbackList
-                        .getBroadcastItem(i);
-                if (callback != null) {
-                    try {
-                        callback.changed(changedState);
-                    } catch (RemoteException e) {
-                        // 例外はどうしようもないので無視しておく
-                        Log.w(C.TAG, "Occurd RemoteException(" + e.toString() + ").");
-                    }
-                }
+    /**
+     * 手放す再生エンジンから再生品質の計測値を集める mLockを取得してから、再生エンジンを手放す前に呼ぶこと。
+     */
+    private void collectPlayerStats() {
+        mBufferingStartTime = -1;
+        if (mPlayer == null) {
+            return;
+        }
+        // 準備完了の後に音声を出力する再生エンジンは、ここで記録する
+        if (mFirstAudioOffsetMs >= 0) {
+            final long timeToFirstAudio = mPlayer.getTimeToFirstAudio();
+            if (timeToFirstAudio >= 0) {
+                mTelemetry.record(PlaybackStats.METRIC_FIRST_AUDIO, mFirstAudioOffsetMs
+                        + timeToFirstAudio);
             }
-
-            playStateChangedCallbackList.finishBroadcast();
+            mFirstAudioOffsetMs = -1;
+        }
+        final long receivedBytes = mPlayer.getReceivedBytes();
+        if (mSessionStartTime >= 0 && receivedBytes > 0) {
+            mSessionBytes += receivedBytes;
         }
     }
 
     /**
-     * Notificationを更新する
+     * 再生の開始を記録する mLockを取得してから、再生を始めた再生エンジンをmPlayerに設定した後に呼ぶこと。
      * 
-     * @param changedState 変化後の状態
+     * @param engineStartTime 再生エンジンが準備を開始した時刻（ms）
      */
-    private void updateNotification(int changedState) {
-        switch (changedState) {
-            case MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED: {
-                // Android 2.2以下と2.3以上でステータスバーに表示するアイコンを分ける
-                final int iconId = ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
-                        ? R.drawable.ic_stat_2_3 : R.drawable.ic_stat_2_2);
-
-                NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-                Notification n = new Notification(iconId, mNotificationTitle,
-                        System.currentTimeMillis());
-
-                Intent intent = new Intent(this, ChannelActivity.class);
-                intent.putExtra(
-                        ChannelActivity.INTENT_EXTRA_OPEN_CHANNEL_PLAY_URL,
-                        mPlayingPath);
-                PendingIntent contentIntent = PendingIntent.getActivity(this,
-                        0, intent, Intent.FLAG_ACTIVITY_NEW_TASK);
-                n.setLatestEventInfo(this, mNotificationTitle,
-                        mNotificationContent, contentIntent);
-
-                nm.notify(C.NOTIFICATION_ID, n);
-                break;
-            }
-            case MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED:
-            case MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED:
-            case MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED:
-            case MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START:
-                // 再生中ではないのでNotificationを消す
-                NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-                nm.cancel(C.NOTIFICATION_ID);
-                break;
-            default:
-                break;
+    private void startSession(long engineStartTime) {
+        mFirstAudioOffsetMs = engineStartTime - mPlayRequestTime;
+        final long timeToFirstAudio = mPlayer.getTimeToFirstAudio();
+        if (timeToFirstAudio >= 0) {
+            mTelemetry.record(PlaybackStats.METRIC_FIRST_AUDIO, mFirstAudioOffsetMs
+                    + timeToFirstAudio);
+            mFirstAudioOffsetMs = -1;
         }
+        mSessionStartTime = SystemClock.uptimeMillis();
+        mSessionBytes = 0;
     }
 
     /**
-     * 再生状態を変更する
+     * 再生の終わりを記録する 再生していない場合は何もしない。
+     */
+    private void endSession() {
+        if (mSessionStartTime < 0) {
+            return;
+        }
+        mTelemetry.record(PlaybackStats.METRIC_SESSION, SystemClock.uptimeMillis()
+                - mSessionStartTime);
+        mTelemetry.record(PlaybackStats.METRIC_SESSION_BYTES, mSessionBytes);
+        mSessionStartTime = -1;
+        mSessionBytes = 0;
+    }
+
+    /**
+     * 再生品質の統計を取得する
      * 
-     * @param nextState 次の状態
+     * @return 再生品質の統計
      */
-    private void changeState(PlayState nextState) {
-        mPlayState = nextState;
-        mPlayState.init();
+    public PlaybackStats getPlaybackStats() {
+        return mTelemetry.getStats();
     }
-    
+
     /**
-     * 再生状態を表すインターフェース
+     * 再生されそうな音声に前もって接続する
+     * 
+     * @param path 再生されそうな音声のパス
      */
-    private interface PlayState {
-        /**
+    private void prewarm(String path) {
+        synchronized (mLock) {
+            // 再生中のパスは接続済み
+            if (path == null || path.equals(mPlayingPath)) {
+                return;
+            }
+        }
+
+        mStreamPrewarmer.prewarm(path);
+    }
+
+    /**
+     * 再生エンジンを作成する
+     * 
+     * @param allowStreamingEngine 独自の再生エンジンを使ってよいか
+     * @return 再生エンジン
+     */
+    private PlayerEngine createPlayer(boolean allowStreamingEngine) {
+        if (useStreamingEngine(allowStreamingEngine)) {
+            return new StreamingEngine(mIsLowMemory ? C.STREAMING_ENGINE_LOW_MEMORY_BUFFER_SIZE
+                    : C.STREAMING_ENGINE_BUFFER_SIZE, C.STREAMING_ENGINE_START_THRESHOLD_MS);
+        }
+        mPlayerRecycler.onCreated();
+        return new MediaPlayerEngine(mStreamProxy, mStreamPrewarmer);
+    }
+
+    /**
+     * 独自の再生エンジンを使うか
+     * 
+     * @param allowStreamingEngine 独自の再生エンジンを使ってよいか
+     * @return 独自の再生エンジンを使う場合はtrue
+     */
+    private static boolean useStreamingEngine(boolean allowStreamingEngine) {
+        return allowStreamingEngine && C.USE_STREAMING_ENGINE
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
+
+    /**
+     * 再生エンジンが再生中にバッファリングを開始・終了した コマンドスレッドで呼ばれる。
+     * 
+     * @param engine 再生エンジン
+     * @param isBuffering バッファリングを開始した場合はtrue、終了した場合はfalse
+     */
+    private void onPlayerBufferingChanged(PlayerEngine engine, boolean isBuffering) {
+        synchronized (mLock) {
+            if (engine != mPlayer) {
+                return;
+            }
+        }
+        if (isBuffering) {
+            if (mBufferingStartTime < 0) {
+                mBufferingStartTime = SystemClock.uptimeMillis();
+            }
+        } else if (mBufferingStartTime >= 0) {
+            mTelemetry.record(PlaybackStats.METRIC_REBUFFER, SystemClock.uptimeMillis()
+                    - mBufferingStartTime);
+            mBufferingStartTime = -1;
+        }
+    }
+
+    /**
+     * 再生エンジンがストリームの終わりまで再生した コマンドスレッドで呼ばれる。
+     * 
+     * @param engine 再生エンジン
+     * @param attempt 接続し直す場合に何回目の再接続か（1から）
+     * @see ReconnectPolicy#getNextAttempt(int, long)
+     */
+    private void onPlayerCompletion(PlayerEngine engine, int attempt) {
+        // 切り替え中に前の番組が終わった場合は、接続し直さずに次の番組の準備を続ける
+        if (mPlayState instanceof SwitchingState
+                && ((SwitchingState) mPlayState).onOutgoingCompletion(engine)) {
+            return;
+        }
+
+        final String path;
+        final String notificationTitle;
+        final String notificationContent;
+        final boolean reconnect;
+        // 既に解放した再生エンジンからの通知は無視する
+        if (engine != mPlayer) {
+            return;
+        }
+        mPlayer.stop();
+        synchronized (mLock) {
+            path = mPlayingPath;
+            notificationTitle = mNotificationTitle;
+            notificationContent = mNotificationContent;
+            reconnect = ReconnectPolicy.canAttempt(attempt) && path != null;
+            if (reconnect == false) {
+                mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
+                if (attempt > 1) {
+                    ++mReconnectGaveUpCount;
+                }
+            } else {
+                ++mReconnectCount;
+            }
+        }
+
+        // ラジオのストリームの終わりはほとんどが通信の途切れなので、接続し直す
+        if (reconnect) {
+            Log.i(C.TAG, "Stream of " + path + " is interrupted, reconnecting(attempt "
+                    + attempt + ").");
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED);
+            changeState(new ReconnectingState(path, notificationTitle, notificationContent,
+                    attempt, SystemClock.uptimeMillis()));
+            return;
+        }
+        if (attempt > 1) {
+            Log.i(C.TAG, "Gave up reconnecting to " + path + ".");
+        }
+
+        notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED);
+
+        changeState(new IdleState());
+    }
+
+    /**
+     * 再接続の統計を取得する
+     * 
+     * @return 再接続の統計
+     */
+    private String getReconnectReport() {
+        synchronized (mLock) {
+            return String.format(
+                    "reconnect: %d drops, %d attempts, %d recovered (avg %dms, max %dms), "
+                            + "%d gave up",
+                    mReconnectCount, mReconnectAttemptCount, mReconnectSucceededCount,
+                    (mReconnectSucceededCount != 0) ? mReconnectTotalMs
+                            / mReconnectSucceededCount : 0, mReconnectMaxMs,
+                    mReconnectGaveUpCount);
+        }
+    }
+
+    /**
+     * 接続し直した回数を取得する 検証用。
+     * 
+     * @return 接続し直した回数
+     */
+    /*package*/ int getReconnectAttemptCount() {
+        synchronized (mLock) {
+            return mReconnectAttemptCount;
+        }
+    }
+
+    /**
+     * ネットワークの接続状態が変わった 再接続を待っている場合は、切断から接続に変わった時に待たずに接続し直す。
+     * 
+     * 再接続の待ち中に受け取ったCONNECTIVITY_ACTIONから呼ばれるほか、検証用に直接呼ぶ。
+     * 
+     * @param connected ネットワークに接続しているか
+     */
+    /*package*/ void onConnectivityChanged(final boolean connected) {
+        // 状態を変えるので、コマンドスレッドで行う
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlayState instanceof ReconnectingState) {
+                    ((ReconnectingState) mPlayState).onConnectivityChanged(connected);
+                }
+            }
+        });
+    }
+
+    /**
+     * ネットワークに接続しているか
+     * 
+     * @return ネットワークに接続している場合はtrue
+     */
+    private boolean isNetworkConnected() {
+        final ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        final NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    /**
+     * 再生を停止する
+     * 
+     * @param requestId 要求のID
+     */
+    public void stop(final int requestId) {
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "trying to stop playing(request " + requestId + ").");
+        }
+
+        postCommand(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    mRequestId = requestId;
+                }
+                mPlayState.stop();
+            }
+        });
+    }
+
+    /**
+     * 再生を一時停止する 時間をずらせない場合、または再生中でない場合は何もしない。
+     * 
+     * @param requestId 要求のID
+     */
+    public void pause(final int requestId) {
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "trying to pause playing(request " + requestId + ").");
+        }
+
+        postCommand(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlayState instanceof PlayingState) {
+                    synchronized (mLock) {
+                        mRequestId = requestId;
+                    }
+                    ((PlayingState) mPlayState).pause();
+                }
+            }
+        });
+    }
+
+    /**
+     * 一時停止した位置から再生を再開する 一時停止中でない場合は何もしない。
+     * 
+     * @param requestId 要求のID
+     */
+    public void resume(final int requestId) {
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "trying to resume playing(request " + requestId + ").");
+        }
+
+        postCommand(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlayState instanceof PausedState) {
+                    synchronized (mLock) {
+                        mRequestId = requestId;
+                    }
+                    ((PausedState) mPlayState).resume();
+                }
+            }
+        });
+    }
+
+    /**
+     * 最新から指定した時間だけ前の位置から再生し直す 一時停止中の場合は再生を再開する。
+     * 時間をずらせない場合、または再生中・一時停止中でない場合は何もしない。
+     * 
+     * @param requestId 要求のID
+     * @param delayMs 最新からの時間（ms）。0の場合は最新の位置に戻る。
+     */
+    public void timeShift(final int requestId, final long delayMs) {
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "trying to shift playing " + delayMs + "ms behind live(request "
+                    + requestId + ").");
+        }
+
+        postCommand(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlayState instanceof PlayingState) {
+                    synchronized (mLock) {
+                        mRequestId = requestId;
+                    }
+                    ((PlayingState) mPlayState).timeShift(delayMs);
+                }
+            }
+        });
+    }
+
+    /**
+     * 再生している位置が、最新からどれだけ前かを取得する
+     * 
+     * @return 最新からの時間（ms）。停止中の場合、または時間をずらせない場合は-1。
+     */
+    public long getTimeShiftDelayMs() {
+        final PlayerEngine player;
+        synchronized (mLock) {
+            player = mPlayer;
+        }
+        return (player != null) ? player.getTimeShiftDelayMs() : -1;
+    }
+
+    /**
+     * 最新からどれだけ前まで遡れるかを取得する
+     * 
+     * @return 遡れる時間（ms）。停止中の場合、または時間をずらせない場合は-1。
+     */
+    public long getTimeShiftAvailableMs() {
+        final PlayerEngine player;
+        synchronized (mLock) {
+            player = mPlayer;
+        }
+        return (player != null) ? player.getTimeShiftAvailableMs() : -1;
+    }
+
+    /**
+     * 現在の再生状態を取得する
+     * 
+     * @return 現在の再生状態。通番は最後に通知した通番。
+     */
+    public PlayStateEvent getState() {
+        synchronized (mLock) {
+            return createEvent(PlayStateEvent.WHAT_SNAPSHOT, mPlayState.getPlayState(),
+                    mEventSequence);
+        }
+    }
+
+    /**
+     * 通知を作成する mLockを取得してから呼ぶこと。
+     * 
+     * @param what 通知の種類
+     * @param playState 変化後の再生状態
+     * @param sequence 通番
+     * @return 通知
+     */
+    private PlayStateEvent createEvent(int what, int playState, long sequence) {
+        return new PlayStateEvent(what, playState, mPlayingPath, mNotificationTitle,
+                mNotificationContent, getStreamTitle(), mRequestId, sequence,
+                SystemClock.uptimeMillis());
+    }
+
+    /**
+     * 準備中・再生中の番組の曲名を取得する
+     * 
+     * @return 曲名。不明な場合、または停止中の場合はnull。
+     */
+    public String getStreamTitle() {
+        synchronized (mLock) {
+            return (mPlayingPath != null) ? mStreamTitles.get(mPlayingPath) : null;
+        }
+    }
+
+    /**
+     * 先読みバッファの状態を取得する
+     * 
+     * @return 先読みバッファの状態。停止中の場合、またはジッタバッファを使っていない場合はnull。
+     */
+    public BufferHealth getBufferHealth() {
+        final PlayerEngine player;
+        synchronized (mLock) {
+            player = mPlayer;
+        }
+        return (player != null) ? player.getBufferHealth() : null;
+    }
+
+    /**
+     * ストリーミングプロキシから曲名の変化を受け取る
+     */
+    private final StreamProxy.OnStreamTitleChangedListener mStreamTitleChangedListener = new StreamProxy.OnStreamTitleChangedListener() {
+        @Override
+        public void onStreamTitleChanged(final String upstreamUrl, final String title) {
+            // セレクタスレッドで呼ばれるので、コマンドスレッドで処理する
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onStreamTitleChanged(upstreamUrl, title);
+                }
+            });
+        }
+    };
+
+    /**
+     * 曲名が変わった
+     * 
+     * @param path 曲名が変わったパス
+     * @param title 曲名。空の場合はnull。
+     */
+    private void onStreamTitleChanged(String path, String title) {
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Stream title of " + path + " is changed to " + title + ".");
+        }
+
+        synchronized (mLock) {
+            mStreamTitles.put(path, title);
+            // 前もって接続している番組の曲名は覚えておくだけ
+            if (path.equals(mPlayingPath) == false) {
+                return;
+            }
+        }
+        scheduleStreamTitleNotification();
+    }
+
+    /**
+     * 曲名の変化の通知を予約する 曲名が立て続けに変わった場合でも、通知の間隔は一定以上空ける。
+     */
+    private void scheduleStreamTitleNotification() {
+        if (mIsStreamTitleNotifyPending) {
+            return;
+        }
+        mIsStreamTitleNotifyPending = true;
+        final long wait = mLastStreamTitleNotifyTime + C.STREAM_TITLE_MIN_INTERVAL_MS
+                - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mNotifyStreamTitleRunnable, Math.max(wait, 0));
+    }
+
+    /**
+     * 曲名の変化を通知する 通知するのは通知時点の最新の曲名。
+     */
+    private final Runnable mNotifyStreamTitleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mIsStreamTitleNotifyPending = false;
+            mLastStreamTitleNotifyTime = SystemClock.uptimeMillis();
+
+            final String playingPath;
+            synchronized (mLock) {
+                playingPath = mPlayingPath;
+            }
+            if (playingPath == null) {
+                return;
+            }
+            execCallback(MSG_MEDIA_PLAY_SERVICE_STREAM_TITLE_CHANGED);
+            if (mPlayState.getPlayState() == PLAY_STATE_PLAYING) {
+                showPlayingNotification(false);
+            }
+        }
+    };
+
+    /**
+     * 再生状態が変化したので、登録済みのコールバックを実行する。
+     * 
+     * @param changedState 変化後の状態
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED
+     * @see MediaPlayService#MSG_MEDIA_PLAY_SERVICE_PAUSED
+     */
+    private void notifyPlayStateChanged(int changedState) {
+        // コールバックを実行する
+        execCallback(changedState);
+
+        // Notificationを更新する
+        updateNotification(changedState);
+    }
+
+    /**
+     * コールバックを実行する
+     * 
+     * @param changedState 変化後の状態
+     */
+    private void execCallback(int changedState) {
+        // クライアントが改めて問い合わせなくて済むように、変化後の状態をすべて通知する
+        final PlayStateEvent event;
+        synchronized (mLock) {
+            event = createEvent(changedState, getPlayStateAfter(changedState),
+                    ++mEventSequence);
+        }
+
+        synchronized (playStateChangedCallbackList) {
+            final int n = playStateChangedCallbackList.beginBroadcast();
+
+            for (int i = 0; i < n; ++i) {
+                final PlayStateChangedCallbackInterface callback = playStateChangedCallbackList
+                        .getBroadcastItem(i);
+                if (callback != null) {
+                    try {
+                        callback.changed(event);
+                    } catch (RemoteException e) {
+                        // 例外はどうしようもないので無視しておく
+                        Log.w(C.TAG, "Occurd RemoteException(" + e.toString() + ").");
+                    }
+                }
+            }
+
+            playStateChangedCallbackList.finishBroadcast();
+        }
+    }
+
+    /**
+     * 通知した変化の後の再生状態を取得する 状態を変える前に通知する場合があるので、通知の種類から決める。
+     * 
+     * @param changedState 変化後の状態
+     * @return 変化の後の再生状態
+     */
+    private int getPlayStateAfter(int changedState) {
+        switch (changedState) {
+            case MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED:
+                return PLAY_STATE_PREPARE;
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED:
+                return PLAY_STATE_PLAYING;
+            case MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED:
+                return PLAY_STATE_RECONNECTING;
+            case MSG_MEDIA_PLAY_SERVICE_PAUSED:
+                return PLAY_STATE_PAUSED;
+            case MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START:
+                return isKeepingPreviousPlayer() ? PLAY_STATE_PLAYING : PLAY_STATE_IDLE;
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED:
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED:
+                return PLAY_STATE_IDLE;
+            default:
+                return mPlayState.getPlayState();
+        }
+    }
+
+    /**
+     * 番組の切り替え中で、前の番組を再生し続けているか
+     * 
+     * @return 前の番組を再生し続けている場合はtrue
+     */
+    private boolean isKeepingPreviousPlayer() {
+        return mPlayState instanceof SwitchingState && mPlayer != null;
+    }
+
+    /**
+     * Notificationを更新する
+     * 
+     * @param changedState 変化後の状態
+     */
+    private void updateNotification(int changedState) {
+        switch (changedState) {
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED:
+                showPlayingNotification(true);
+                break;
+            case MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START:
+                // 番組の切り替えに失敗した場合は、再生し続けている番組のNotificationをそのまま表示しておく
+                if (isKeepingPreviousPlayer() == false) {
+                    cancelNotification();
+                }
+                break;
+            case MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED:
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED:
+            case MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED:
+                // 再生中ではないのでNotificationを消す
+                cancelNotification();
+                break;
+            case MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED:
+                // 再接続中は再生中の番組のNotificationをそのまま表示しておく
+                break;
+            case MSG_MEDIA_PLAY_SERVICE_PAUSED:
+                // 一時停止中は再開できるので、再生中の番組のNotificationをそのまま表示しておく
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Notificationを消す
+     */
+    private void cancelNotification() {
+        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        nm.cancel(C.NOTIFICATION_ID);
+    }
+
+    /**
+     * 再生中のNotificationを表示する 曲名が分かっている場合は、アーティスト名などの代わりに曲名を表示する。
+     * 
+     * @param isStarted 再生を開始した時か。falseの場合は曲名の更新なので、ステータスバーに文字を流さない。
+     */
+    private void showPlayingNotification(boolean isStarted) {
+        // Android 2.2以下と2.3以上でステータスバーに表示するアイコンを分ける
+        final int iconId = ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+                ? R.drawable.ic_stat_2_3 : R.drawable.ic_stat_2_2);
+
+        final String playingPath;
+        final String title;
+        final String content;
+        synchronized (mLock) {
+            playingPath = mPlayingPath;
+            title = mNotificationTitle;
+            final String streamTitle = getStreamTitle();
+            content = (streamTitle != null) ? streamTitle : mNotificationContent;
+        }
+        if (isStarted) {
+            mNotificationWhen = System.currentTimeMillis();
+        }
+
+        NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        Notification n = new Notification(iconId, isStarted ? title : null,
+                mNotificationWhen);
+
+        Intent intent = new Intent(this, ChannelActivity.class);
+        intent.putExtra(
+                ChannelActivity.INTENT_EXTRA_OPEN_CHANNEL_PLAY_URL,
+                playingPath);
+        PendingIntent contentIntent = PendingIntent.getActivity(this,
+                0, intent, Intent.FLAG_ACTIVITY_NEW_TASK);
+        n.setLatestEventInfo(this, title, content, contentIntent);
+
+        nm.notify(C.NOTIFICATION_ID, n);
+    }
+
+    /**
+     * 再生状態を変更する コマンドスレッドで呼ぶこと。
+     * 
+     * @param nextState 次の状態
+     */
+    private void changeState(PlayState nextState) {
+        mPlayState = nextState;
+        mPlayState.init();
+    }
+    
+    /**
+     * 再生状態を表すインターフェース
+     */
+    private interface PlayState {
+        /**
          * 初期化
          */
         public void init();
@@ -342,129 +1312,813 @@ public class MediaPlayService extends Service {
                 String notificationContent);
         
         /**
-         * 停止
+         * 停止
+         */
+        public void stop();
+
+        /**
+         * 再生状態を取得する
+         * 
+         * @return 再生状態
+         * @see MediaPlayService#PLAY_STATE_IDLE
+         * @see MediaPlayService#PLAY_STATE_PREPARE
+         * @see MediaPlayService#PLAY_STATE_PLAYING
+         * @see MediaPlayService#PLAY_STATE_RECONNECTING
+         * @see MediaPlayService#PLAY_STATE_PAUSED
+         */
+        public int getPlayState();
+    }
+    
+    /**
+     * 停止中状態
+     */
+    private class IdleState implements PlayState {
+
+        @Override
+        public void init() {
+            // 次の再生のために取っておく
+            recyclePlayer();
+            endSession();
+        }
+
+        @Override
+        public void play(String path, String notificationTitle,
+                String notificationContent) {
+            changeState(new PrepareState(path, notificationTitle, notificationContent));
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public int getPlayState() {
+            return PLAY_STATE_IDLE;
+        }
+    }
+    
+    /**
+     * 準備中状態
+     */
+    private class PrepareState implements PlayState {
+
+        private String mmPath;
+        private String mmNotificationTitle;
+        private String mmNotificationContent;
+
+        /**
+         * 準備を開始した時刻（ms）
+         */
+        private long mmPrepareStartTime;
+
+        /**
+         * 今の再生エンジンで準備を開始した時刻（ms） 独自の再生エンジンからMediaPlayerに切り替えた場合は更新する。
+         */
+        private long mmEngineStartTime;
+
+        /**
+         * 再利用した再生エンジンで準備しているか
+         */
+        private boolean mmIsReusedPlayer;
+
+        /**
+         * 何回目の再接続か 再接続ではない場合は0。
+         */
+        private final int mmReconnectAttempt;
+
+        /**
+         * 準備が完了した時刻（ms）。 完了していない場合は-1。
+         */
+        private long mmPreparedTime = -1;
+
+        /**
+         * ストリームが途切れた時刻（ms）。 再接続ではない場合は-1。
+         */
+        private final long mmDropTime;
+
+        public PrepareState(String path, String notificationTitle,
+                String notificationContent) {
+            this(path, notificationTitle, notificationContent, 0, -1);
+        }
+
+        /**
+         * コンストラクタ
+         * 
+         * @param path 再生する音声のパス
+         * @param notificationTitle Notificationに表示するタイトル
+         * @param notificationContent Notificationに表示するタイトル
+         * @param reconnectAttempt 何回目の再接続か。再接続ではない場合は0。
+         * @param dropTime ストリームが途切れた時刻（ms）。再接続ではない場合は-1。
+         */
+        public PrepareState(String path, String notificationTitle,
+                String notificationContent, int reconnectAttempt, long dropTime) {
+            mmPath = path;
+            mmNotificationTitle = notificationTitle;
+            mmNotificationContent = notificationContent;
+            mmReconnectAttempt = reconnectAttempt;
+            mmDropTime = dropTime;
+        }
+
+        @Override
+        public void init() {
+            // 準備開始の通知で準備中のパスとタイトルが伝わるように、先に設定しておく
+            synchronized (mLock) {
+                mPlayingPath = mmPath;
+                mNotificationTitle = mmNotificationTitle;
+                mNotificationContent = mmNotificationContent;
+                if (mmReconnectAttempt > 0) {
+                    ++mReconnectAttemptCount;
+                }
+            }
+            mmPrepareStartTime = SystemClock.uptimeMillis();
+            // 再接続の場合は再接続開始を通知済み
+            if (mmReconnectAttempt == 0) {
+                // 別の番組に切り替えた場合は、前の番組の再生がここで終わる
+                endSession();
+                // これから再生する番組以外の曲名は要らない
+                synchronized (mLock) {
+                    final String streamTitle = mStreamTitles.get(mmPath);
+                    mStreamTitles.clear();
+                    if (streamTitle != null) {
+                        mStreamTitles.put(mmPath, streamTitle);
+                    }
+                }
+                notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED);
+            }
+            preparePlayer(true);
+        }
+
+        /**
+         * 再生エンジンを作成して準備を開始する コマンドスレッドで、mLockを取得せずに呼ぶこと。
+         * 
+         * @param allowStreamingEngine 独自の再生エンジンを使ってよいか
+         */
+        private void preparePlayer(boolean allowStreamingEngine) {
+            // 独自の再生エンジンからMediaPlayerに切り替える場合
+            if (mPlayer != null) {
+                releasePlayer();
+            }
+            final PlayerEngine spare = useStreamingEngine(allowStreamingEngine) ? null
+                    : mPlayerRecycler.obtain();
+            mmIsReusedPlayer = (spare != null);
+            final PlayerEngine player = (spare != null) ? spare
+                    : createPlayer(allowStreamingEngine);
+            player.setListener(new PlayerEngine.Listener() {
+
+                @Override
+                public void onPrepared(PlayerEngine engine) {
+                    // 既に解放した再生エンジンからの通知は無視する
+                    if (engine != mPlayer) {
+                        return;
+                    }
+                    mPlayer.start();
+                    mmPreparedTime = SystemClock.uptimeMillis();
+                    synchronized (mLock) {
+                        mNotificationTitle = mmNotificationTitle;
+                        mNotificationContent = mmNotificationContent;
+                        if (mmReconnectAttempt > 0) {
+                            final long reconnectMs = SystemClock.uptimeMillis() - mmDropTime;
+                            ++mReconnectSucceededCount;
+                            mReconnectTotalMs += reconnectMs;
+                            mReconnectMaxMs = Math.max(mReconnectMaxMs, reconnectMs);
+                            Log.i(C.TAG, "Reconnected to " + mmPath + " in " + reconnectMs
+                                    + "ms(attempt " + mmReconnectAttempt + ").");
+                            mTelemetry.record(PlaybackStats.METRIC_REBUFFER, reconnectMs);
+                        } else {
+                            mTelemetry.record(PlaybackStats.METRIC_PREPARE,
+                                    SystemClock.uptimeMillis() - mPlayRequestTime);
+                            startSession(mmEngineStartTime);
+                        }
+                    }
+                    final long prepareMs = SystemClock.uptimeMillis() - mmPrepareStartTime;
+                    mPlayerRecycler.recordPrepareTime(mmIsReusedPlayer, prepareMs);
+                    if (C.LOCAL_LOG) {
+                        Log.v(C.TAG, engine.getName() + (mmIsReusedPlayer ? "(reused)" : "")
+                                + " prepared in " + prepareMs + "ms.");
+                    }
+                    notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED);
+                    // 準備中に受け取った曲名を通知する
+                    if (getStreamTitle() != null) {
+                        scheduleStreamTitleNotification();
+                    }
+                    changeState(new PlayingState());
+                }
+
+                @Override
+                public void onCompletion(PlayerEngine engine) {
+                    if (mPlayState != PrepareState.this) {
+                        onPlayerCompletion(engine, getNextReconnectAttempt());
+                        return;
+                    }
+                    if (engine != mPlayer) {
+                        return;
+                    }
+                    // 準備中に終わった場合は繋がらなかったので、準備の失敗とする
+                    failPrepare(PlaybackStats.CAUSE_UNKNOWN);
+                }
+
+                @Override
+                public void onBufferingChanged(PlayerEngine engine, boolean isBuffering) {
+                    onPlayerBufferingChanged(engine, isBuffering);
+                }
+
+                @Override
+                public void onError(PlayerEngine engine, int what) {
+                    if (mPlayState != PrepareState.this) {
+                        // 再生中のエラーはストリームの終わりとして扱う
+                        onPlayerCompletion(engine, getNextReconnectAttempt());
+                        return;
+                    }
+                    if (engine != mPlayer) {
+                        return;
+                    }
+                    // 独自の再生エンジンが未対応の形式はMediaPlayerで再生し直す
+                    if (what == PlayerEngine.ERROR_UNSUPPORTED
+                            && (engine instanceof MediaPlayerEngine) == false) {
+                        Log.i(C.TAG, engine.getName()
+                                + " does not support the stream, fall back to MediaPlayer.");
+                        preparePlayer(false);
+                        return;
+                    }
+                    failPrepare(PlaybackTelemetry.toCause(what));
+                }
+            });
+            synchronized (mLock) {
+                mPlayer = player;
+            }
+            mmEngineStartTime = SystemClock.uptimeMillis();
+            try {
+                mPlayer.prepareAsync(mmPath);
+            } catch (IllegalStateException e) {
+                failPrepare(PlaybackStats.CAUSE_UNKNOWN);
+            } catch (IOException e) {
+                Log.i(C.TAG, mPlayer.getName() + " occurred IOException(" + e.toString()
+                        + ").");
+                failPrepare(PlaybackStats.CAUSE_IO);
+            }
+        }
+
+        /**
+         * 準備した再生エンジンのストリームが途切れた時に、何回目の再接続になるかを取得する
+         * 
+         * @return 何回目の再接続か（1から）
+         */
+        private int getNextReconnectAttempt() {
+            return ReconnectPolicy.getNextAttempt(mmReconnectAttempt, SystemClock.uptimeMillis()
+                    - mmPreparedTime);
+        }
+
+        /**
+         * 準備に失敗した
+         * 
+         * @param cause 失敗の原因
+         * @see PlaybackStats#CAUSE_IO
+         * @see PlaybackStats#CAUSE_UNSUPPORTED
+         * @see PlaybackStats#CAUSE_UNKNOWN
+         */
+        private void failPrepare(int cause) {
+            // 再接続の失敗は再生の開始の失敗ではないので数えない
+            if (mmReconnectAttempt == 0) {
+                mTelemetry.recordFailure(cause);
+            }
+            // 再接続に失敗した場合は、回数が残っていれば間隔を空けて接続し直す
+            final boolean retry = mmReconnectAttempt > 0
+                    && ReconnectPolicy.canAttempt(mmReconnectAttempt + 1);
+            releasePlayer();
+            synchronized (mLock) {
+                if (retry == false) {
+                    mPlayingPath = null;
+                    mNotificationTitle = null;
+                    mNotificationContent = null;
+                    if (mmReconnectAttempt > 0) {
+                        ++mReconnectGaveUpCount;
+                    }
+                }
+            }
+            if (retry) {
+                changeState(new ReconnectingState(mmPath, mmNotificationTitle,
+                        mmNotificationContent, mmReconnectAttempt + 1, mmDropTime));
+                return;
+            }
+            if (mmReconnectAttempt > 0) {
+                Log.i(C.TAG, "Gave up reconnecting to " + mmPath + ".");
+                // 再接続を諦めた場合は、今まで通りストリームの終わりとして扱う
+                notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED);
+            } else {
+                notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
+            }
+            changeState(new IdleState());
+        }
+
+        @Override
+        public void play(String path, String notificationTitle,
+                String notificationContent) {
+            // 同じ番組が再生中の場合は何もしない
+            if (mPlayingPath != null && mPlayingPath.equals(path) == true) {
+                return;
+            }
+            recyclePlayer();
+            synchronized (mLock) {
+                mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED);
+
+            changeState(new PrepareState(path, notificationTitle, notificationContent));
+        }
+
+        @Override
+        public void stop() {
+            recyclePlayer();
+            synchronized (mLock) {
+                mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED);
+
+            changeState(new IdleState());
+        }
+
+        @Override
+        public int getPlayState() {
+            return (mmReconnectAttempt > 0) ? PLAY_STATE_RECONNECTING : PLAY_STATE_PREPARE;
+        }
+    }
+
+    /**
+     * 再生中状態
+     */
+    private class PlayingState implements PlayState {
+        @Override
+        public void init() {
+        }
+
+        @Override
+        public void play(String path, String notificationTitle,
+                String notificationContent) {
+            // 同じ番組が再生中の場合は何もしない
+            if (mPlayingPath != null && mPlayingPath.equals(path) == true) {
+                return;
+            }
+
+            if (C.OVERLAP_SWITCH) {
+                // 前の番組を再生したまま次の番組を準備する
+                changeState(new SwitchingState(path, notificationTitle, notificationContent));
+                return;
+            }
+
+            stopAndPrepare(path, notificationTitle, notificationContent);
+        }
+
+        /**
+         * 再生中の番組を止めてから、次の番組の準備を開始する
+         * 
+         * @param path 再生する音声のパス
+         * @param notificationTitle Notificationに表示するタイトル。局名や番組名などを入れる。
+         * @param notificationContent Notificationに表示するタイトル。アーティスト名などを入れる。
+         */
+        protected void stopAndPrepare(String path, String notificationTitle,
+                String notificationContent) {
+            mPlayer.stop();
+            recyclePlayer();
+            synchronized (mLock) {
+                mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED);
+
+            changeState(new PrepareState(path, notificationTitle, notificationContent));
+        }
+
+        /**
+         * 一時停止 時間をずらせない場合は何もしない。
+         */
+        public void pause() {
+            if (mPlayer.pause() == false) {
+                Log.i(C.TAG, "Playing of " + mPlayingPath + " cannot be paused.");
+                return;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PAUSED);
+
+            changeState(new PausedState());
+        }
+
+        /**
+         * 最新から指定した時間だけ前の位置から再生し直す 時間をずらせない場合は何もしない。
+         * 
+         * @param delayMs 最新からの時間（ms）
          */
-        public void stop();
+        public void timeShift(long delayMs) {
+            shiftPlayer(delayMs);
+        }
 
         /**
-         * 再生状態を取得する
+         * 再生エンジンを指定した位置から再生し直す 再生し直せなかった場合は停止する。
          * 
-         * @return 再生状態
-         * @see MediaPlayService#PLAY_STATE_IDLE
-         * @see MediaPlayService#PLAY_STATE_PREPARE
-         * @see MediaPlayService#PLAY_STATE_PLAYING
+         * @param delayMs 最新からの時間（ms）
+         * @return 再生し直した場合はtrue
          */
-        public int getPlayState();
-    }
-    
-    /**
-     * 停止中状態
-     */
-    private class IdleState implements PlayState {
+        protected boolean shiftPlayer(long delayMs) {
+            try {
+                if (mPlayer.timeShift(delayMs) == false) {
+                    Log.i(C.TAG, "Playing of " + mPlayingPath + " cannot be time-shifted.");
+                    return false;
+                }
+                return true;
+            } catch (IOException e) {
+                // 再生エンジンは繋ぎ直しの途中なので、再生を続けられない
+                Log.w(C.TAG, "Failed to time-shift " + mPlayingPath + "(" + e.toString() + ").");
+                stop();
+                return false;
+            }
+        }
 
         @Override
-        public void init() {
-        	if (mMediaPlayer != null) {
-        		mMediaPlayer.release();
-        		mMediaPlayer = null;
-        	}
+        public void stop() {
+            mPlayer.stop();
+            recyclePlayer();
+            synchronized (mLock) {
+                mPlayingPath = null;
+                mNotificationTitle = null;
+                mNotificationContent = null;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STOPPED);
+
+            changeState(new IdleState());
         }
 
+        @Override
+        public int getPlayState() {
+            return PLAY_STATE_PLAYING;
+        }
+    }
+
+    /**
+     * 一時停止中状態 再生エンジンは止めているが、ストリーミングプロキシは受信を続けている。
+     */
+    private class PausedState extends PlayingState {
         @Override
         public void play(String path, String notificationTitle,
                 String notificationContent) {
-            changeState(new PrepareState(path, notificationTitle, notificationContent));
+            // 同じ番組の場合は再開する
+            if (mPlayingPath != null && mPlayingPath.equals(path) == true) {
+                resume();
+                return;
+            }
+
+            // 止まっている番組とクロスフェードしても意味が無いので、止めてから切り替える
+            stopAndPrepare(path, notificationTitle, notificationContent);
         }
 
         @Override
-        public void stop() {
+        public void pause() {
+        }
+
+        /**
+         * 一時停止した位置から再開する
+         */
+        public void resume() {
+            mPlayer.resume();
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED);
+
+            changeState(new PlayingState());
+        }
+
+        @Override
+        public void timeShift(long delayMs) {
+            // 再生エンジンは準備ができると再生を開始するので、再生中に戻る
+            if (shiftPlayer(delayMs)) {
+                notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED);
+
+                changeState(new PlayingState());
+            }
         }
 
         @Override
         public int getPlayState() {
-            return PLAY_STATE_IDLE;
+            return PLAY_STATE_PAUSED;
         }
     }
-    
+
     /**
-     * 準備中状態
+     * 切り替え中状態 前の番組を再生したまま次の番組を準備し、準備ができたらクロスフェードで切り替える。
+     * 
+     * 前の番組はmPlayerで再生し続け、切り替えを終えるまでmPlayingPathも前の番組のままとする。
+     * 次の番組の準備に失敗した場合は、前の番組を再生し続ける。
      */
-    private class PrepareState implements PlayState {
-        
-        private String mmPath;
-        private String mmNotificationTitle;
-        private String mmNotificationContent;
-        
-        public PrepareState(String path, String notificationTitle,
+    private class SwitchingState implements PlayState {
+
+        private final String mmPath;
+        private final String mmNotificationTitle;
+        private final String mmNotificationContent;
+
+        /**
+         * 次の番組の再生エンジン。 切り替えを終えた場合、またはやめた場合はnull。
+         */
+        private PlayerEngine mmPlayer;
+
+        /**
+         * 次の番組の再生エンジンで準備を開始した時刻（ms）
+         */
+        private long mmEngineStartTime;
+
+        /**
+         * 次の番組の準備が完了した時刻（ms）。 完了していない場合は-1。
+         */
+        private long mmPreparedTime = -1;
+
+        /**
+         * クロスフェードを開始した時刻（ms）。 開始していない場合は-1。
+         */
+        private long mmFadeStartTime = -1;
+
+        /**
+         * クロスフェードの音量を更新する
+         */
+        private final Runnable mmFadeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                fade();
+            }
+        };
+
+        /**
+         * コンストラクタ
+         * 
+         * @param path 次に再生する音声のパス
+         * @param notificationTitle Notificationに表示するタイトル
+         * @param notificationContent Notificationに表示するタイトル
+         */
+        public SwitchingState(String path, String notificationTitle,
                 String notificationContent) {
             mmPath = path;
             mmNotificationTitle = notificationTitle;
             mmNotificationContent = notificationContent;
         }
-        
+
         @Override
         public void init() {
-            synchronized (mLock) {
-                try {
-                    notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED);
-                    // trueになることはないはず
-                    if (mMediaPlayer != null) {
-                    	mMediaPlayer.release();
-                    	mMediaPlayer = null;
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "Switching from " + mPlayingPath + " to " + mmPath + ".");
+            }
+            preparePlayer(true);
+        }
+
+        /**
+         * 次の番組の再生エンジンを作成して準備を開始する コマンドスレッドで、mLockを取得せずに呼ぶこと。
+         * 
+         * @param allowStreamingEngine 独自の再生エンジンを使ってよいか
+         */
+        private void preparePlayer(boolean allowStreamingEngine) {
+            if (mmPlayer != null) {
+                mmPlayer.release();
+                mmPlayer = null;
+            }
+            final PlayerEngine spare = useStreamingEngine(allowStreamingEngine) ? null
+                    : mPlayerRecycler.obtain();
+            mmPlayer = (spare != null) ? spare : createPlayer(allowStreamingEngine);
+            mmPlayer.setListener(new PlayerEngine.Listener() {
+
+                @Override
+                public void onPrepared(PlayerEngine engine) {
+                    onIncomingPrepared(engine);
+                }
+
+                @Override
+                public void onCompletion(PlayerEngine engine) {
+                    if (engine == mmPlayer) {
+                        // 準備中に終わった場合は繋がらなかったので、切り替えの失敗とする
+                        failSwitch(PlaybackStats.CAUSE_UNKNOWN);
+                        return;
                     }
-                	mMediaPlayer = new MediaPlayer();
-                    mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-                    mMediaPlayer.setDataSource(mmPath);
-                    mMediaPlayer.setOnPreparedListener(new OnPreparedListener() {
-
-                        @Override
-                        public void onPrepared(MediaPlayer mp) {
-                            synchronized (mLock) {
-                                mMediaPlayer.start();
-                                mNotificationTitle = mmNotificationTitle;
-                                mNotificationContent = mmNotificationContent;
-                            }
-                            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED);
-                            changeState(new PlayingState());
-                        }
-                    });
-                    mMediaPlayer.prepareAsync();
-                    mPlayingPath = mmPath;
-                } catch (IllegalStateException e) {
-                    mMediaPlayer.setOnPreparedListener(null);
-                    mMediaPlayer.release();
-                    mMediaPlayer = null;
-                    mPlayingPath = null;
-                    mNotificationTitle = null;
-                    mNotificationContent = null;
-                    notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
-                    changeState(new IdleState());
-                } catch (IOException e) {
-                    Log.i(C.TAG, "MediaPlayer occurred IOException(" + e.toString()
-                            + ").");
-                    mMediaPlayer.setOnPreparedListener(null);
-                    mMediaPlayer.release();
-                    mMediaPlayer = null;
+                    onPlayerCompletion(engine, getNextReconnectAttempt());
+                }
+
+                @Override
+                public void onError(PlayerEngine engine, int what) {
+                    if (engine != mmPlayer) {
+                        // 切り替えた後のエラーはストリームの終わりとして扱う
+                        onPlayerCompletion(engine, getNextReconnectAttempt());
+                        return;
+                    }
+                    // 独自の再生エンジンが未対応の形式はMediaPlayerで準備し直す
+                    if (what == PlayerEngine.ERROR_UNSUPPORTED
+                            && (engine instanceof MediaPlayerEngine) == false) {
+                        Log.i(C.TAG, engine.getName()
+                                + " does not support the stream, fall back to MediaPlayer.");
+                        preparePlayer(false);
+                        return;
+                    }
+                    failSwitch(PlaybackTelemetry.toCause(what));
+                }
+
+                @Override
+                public void onBufferingChanged(PlayerEngine engine, boolean isBuffering) {
+                    onPlayerBufferingChanged(engine, isBuffering);
+                }
+            });
+            mmEngineStartTime = SystemClock.uptimeMillis();
+            try {
+                mmPlayer.prepareAsync(mmPath);
+            } catch (IllegalStateException e) {
+                failSwitch(PlaybackStats.CAUSE_UNKNOWN);
+            } catch (IOException e) {
+                Log.i(C.TAG, mmPlayer.getName() + " occurred IOException(" + e.toString()
+                        + ").");
+                failSwitch(PlaybackStats.CAUSE_IO);
+            }
+        }
+
+        /**
+         * 切り替えた番組のストリームが途切れた時に、何回目の再接続になるかを取得する
+         * 
+         * 切り替えた番組は再接続ではないので、PrepareStateで再接続ではない場合と同じく数える。
+         * 
+         * @return 何回目の再接続か（1から）
+         */
+        private int getNextReconnectAttempt() {
+            return ReconnectPolicy.getNextAttempt(0, SystemClock.uptimeMillis() - mmPreparedTime);
+        }
+
+        /**
+         * 次の番組の準備が完了した 前の番組を再生している場合はクロスフェードを始める。
+         * 
+         * @param engine 再生エンジン
+         */
+        private void onIncomingPrepared(PlayerEngine engine) {
+            // 既に手放した再生エンジンからの通知は無視する
+            if (engine != mmPlayer) {
+                return;
+            }
+            mmPreparedTime = SystemClock.uptimeMillis();
+            mTelemetry.record(PlaybackStats.METRIC_PREPARE, mmPreparedTime - mPlayRequestTime);
+            final boolean isFading = (mPlayer != null);
+            mmPlayer.setVolume(isFading ? 0.0f : 1.0f);
+            mmPlayer.start();
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, engine.getName() + " prepared " + mmPath + " in "
+                        + (SystemClock.uptimeMillis() - mmEngineStartTime) + "ms.");
+            }
+            if (isFading == false) {
+                finishSwitch();
+                return;
+            }
+            mmFadeStartTime = SystemClock.uptimeMillis();
+            mHandler.post(mmFadeRunnable);
+        }
+
+        /**
+         * クロスフェードの音量を更新する 終わったら切り替えを終える。
+         */
+        private void fade() {
+            if (mPlayState != this) {
+                return;
+            }
+            final float ratio = Math.min(1.0f, (float) (SystemClock.uptimeMillis()
+                    - mmFadeStartTime) / C.SWITCH_CROSSFADE_MS);
+            // 音の大きさの合計が途中で下がらないように、等パワーの曲線で音量を変える
+            final float angle = (float) (ratio * Math.PI / 2);
+            mmPlayer.setVolume((float) Math.sin(angle));
+            if (mPlayer != null) {
+                mPlayer.setVolume((float) Math.cos(angle));
+            }
+            if (ratio < 1.0f) {
+                mHandler.postDelayed(mmFadeRunnable, C.SWITCH_CROSSFADE_STEP_MS);
+                return;
+            }
+            finishSwitch();
+        }
+
+        /**
+         * 前の番組の再生エンジンを手放し、次の番組に切り替える
+         */
+        private void finishSwitch() {
+            if (mPlayer != null) {
+                mPlayer.stop();
+                // 取っておいた再生エンジンを次に使う時のために音量を戻す
+                mPlayer.setVolume(1.0f);
+            }
+            mmPlayer.setVolume(1.0f);
+            final PlayerEngine outgoing;
+            // Binderのスレッドから切り替えの途中の状態が見えないように、まとめて入れ替える
+            synchronized (mLock) {
+                outgoing = detachPlayer();
+                endSession();
+                mPlayer = mmPlayer;
+                mmPlayer = null;
+                mPlayingPath = mmPath;
+                mNotificationTitle = mmNotificationTitle;
+                mNotificationContent = mmNotificationContent;
+                startSession(mmEngineStartTime);
+                // これから再生する番組以外の曲名は要らない
+                final String streamTitle = mStreamTitles.get(mmPath);
+                mStreamTitles.clear();
+                if (streamTitle != null) {
+                    mStreamTitles.put(mmPath, streamTitle);
+                }
+            }
+            // resetはmLockの外で行う
+            mPlayerRecycler.recycle(outgoing);
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED);
+            // 準備中に受け取った曲名を通知する
+            if (getStreamTitle() != null) {
+                scheduleStreamTitleNotification();
+            }
+            changeState(new PlayingState());
+        }
+
+        /**
+         * 次の番組の準備に失敗した 前の番組を再生している場合は、そのまま再生し続ける。
+         * 
+         * @param cause 失敗の原因
+         * @see PlaybackStats#CAUSE_IO
+         * @see PlaybackStats#CAUSE_UNSUPPORTED
+         * @see PlaybackStats#CAUSE_UNKNOWN
+         */
+        private void failSwitch(int cause) {
+            mTelemetry.recordFailure(cause);
+            Log.i(C.TAG, "Failed to switch to " + mmPath + ".");
+            leave();
+            final boolean isPlaying;
+            synchronized (mLock) {
+                isPlaying = (mPlayer != null);
+                if (isPlaying == false) {
                     mPlayingPath = null;
                     mNotificationTitle = null;
                     mNotificationContent = null;
-                    notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
-                    changeState(new IdleState());
                 }
             }
+            // 前の番組を再生している場合は、再生中のまま失敗を通知する
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START);
+            changeState(isPlaying ? new PlayingState() : new IdleState());
+        }
+
+        /**
+         * 前の番組がストリームの終わりまで再生した
+         * 
+         * 切り替え中なので接続し直さずに、次の番組の準備を続ける。
+         * 
+         * @param engine 再生エンジン
+         * @return 前の番組の再生エンジンだった場合はtrue
+         */
+        public boolean onOutgoingCompletion(PlayerEngine engine) {
+            if (engine != mPlayer) {
+                return false;
+            }
+            mPlayer.stop();
+            recyclePlayer();
+            synchronized (mLock) {
+                mPlayingPath = mmPath;
+                mNotificationTitle = mmNotificationTitle;
+                mNotificationContent = mmNotificationContent;
+            }
+            endSession();
+            // クロスフェード中であれば、次の番組は再生を始めている
+            if (mmFadeStartTime >= 0) {
+                mHandler.removeCallbacks(mmFadeRunnable);
+                finishSwitch();
+                return true;
+            }
+            notifyPlayStateChanged(MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED);
+            return true;
+        }
+
+        /**
+         * 切り替えをやめる 次の番組の再生エンジンを解放し、前の番組の音量を戻す。
+         */
+        public void leave() {
+            mHandler.removeCallbacks(mmFadeRunnable);
+            // 準備中の再生エンジンは音量を戻せないので、取っておかずに解放する
+            if (mmPlayer != null) {
+                mmPlayer.release();
+                mmPlayer = null;
+            }
+            if (mPlayer != null) {
+                mPlayer.setVolume(1.0f);
+            }
         }
 
         @Override
         public void play(String path, String notificationTitle,
                 String notificationContent) {
-            // 同じ番組が再生中の場合は何もしない
-            if (mPlayingPath != null && mPlayingPath.equals(path) == true) {
+            // 同じ番組に切り替えている場合は何もしない
+            if (mmPath.equals(path) == true) {
+                return;
+            }
+            leave();
+            // 前の番組に戻す場合は、再生し続けている前の番組をそのまま使う
+            if (mPlayer != null && path.equals(mPlayingPath) == true) {
+                changeState(new PlayingState());
+                return;
+            }
+            if (mPlayer != null) {
+                changeState(new SwitchingState(path, notificationTitle, notificationContent));
                 return;
             }
             synchronized (mLock) {
-                mMediaPlayer.setOnPreparedListener(null);
-                mMediaPlayer.release();
-                mMediaPlayer = null;
                 mPlayingPath = null;
                 mNotificationTitle = null;
                 mNotificationContent = null;
@@ -476,10 +2130,12 @@ public class MediaPlayService extends Service {
 
         @Override
         public void stop() {
+            leave();
+            if (mPlayer != null) {
+                mPlayer.stop();
+                recyclePlayer();
+            }
             synchronized (mLock) {
-                mMediaPlayer.setOnPreparedListener(null);
-                mMediaPlayer.release();
-                mMediaPlayer = null;
                 mPlayingPath = null;
                 mNotificationTitle = null;
                 mNotificationContent = null;
@@ -491,31 +2147,141 @@ public class MediaPlayService extends Service {
 
         @Override
         public int getPlayState() {
-            return PLAY_STATE_PREPARE;
+            // 前の番組を再生している間は再生中とする
+            return (mPlayer != null) ? PLAY_STATE_PLAYING : PLAY_STATE_PREPARE;
         }
     }
 
     /**
-     * 再生中状態
+     * 再接続待ち状態 間隔を空けてから、途切れたストリームに接続し直す。
+     * 待っている間にネットワークに接続した場合は、すぐに接続し直す。
      */
-    private class PlayingState implements PlayState {
+    private class ReconnectingState implements PlayState {
+
+        private final String mmPath;
+        private final String mmNotificationTitle;
+        private final String mmNotificationContent;
+
+        /**
+         * 何回目の再接続か（1から）
+         */
+        private final int mmAttempt;
+
+        /**
+         * ストリームが途切れた時刻（ms）
+         */
+        private final long mmDropTime;
+
+        /**
+         * 前回ネットワークに接続していたか
+         */
+        private boolean mmWasConnected;
+
+        /**
+         * ネットワークの状態の変化を受け取るBroadcastReceiverを登録しているか
+         */
+        private boolean mmIsReceiverRegistered = false;
+
+        /**
+         * 接続し直す
+         */
+        private final Runnable mmRetryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                retry();
+            }
+        };
+
+        /**
+         * ネットワークの状態の変化を受け取る
+         */
+        private final BroadcastReceiver mmConnectivityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onConnectivityChanged(isNetworkConnected());
+            }
+        };
+
+        /**
+         * コンストラクタ
+         * 
+         * @param path 再生する音声のパス
+         * @param notificationTitle Notificationに表示するタイトル
+         * @param notificationContent Notificationに表示するタイトル
+         * @param attempt 何回目の再接続か（1から）
+         * @param dropTime ストリームが途切れた時刻（ms）
+         */
+        public ReconnectingState(String path, String notificationTitle,
+                String notificationContent, int attempt, long dropTime) {
+            mmPath = path;
+            mmNotificationTitle = notificationTitle;
+            mmNotificationContent = notificationContent;
+            mmAttempt = attempt;
+            mmDropTime = dropTime;
+        }
+
         @Override
         public void init() {
+            recyclePlayer();
+
+            final long delay = ReconnectPolicy.getDelayMs(mmAttempt);
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "Reconnect attempt " + mmAttempt + " in " + delay + "ms.");
+            }
+            mmWasConnected = isNetworkConnected();
+            // 状態を変えるので、コマンドスレッドで受け取る
+            registerReceiver(mmConnectivityReceiver, new IntentFilter(
+                    ConnectivityManager.CONNECTIVITY_ACTION), null, mHandler);
+            mmIsReceiverRegistered = true;
+            mHandler.postDelayed(mmRetryRunnable, delay);
+        }
+
+        /**
+         * ネットワークの接続状態が変わった コマンドスレッドで呼ぶこと。
+         * 
+         * @param connected ネットワークに接続しているか
+         */
+        public void onConnectivityChanged(boolean connected) {
+            // 登録時に届く現在の状態は無視し、切断から接続に変わった場合のみ待たずに接続し直す
+            if (connected && mmWasConnected == false) {
+                mHandler.removeCallbacks(mmRetryRunnable);
+                mHandler.post(mmRetryRunnable);
+            }
+            mmWasConnected = connected;
+        }
+
+        /**
+         * 接続し直す
+         */
+        private void retry() {
+            if (mPlayState != this) {
+                return;
+            }
+            leave();
+            changeState(new PrepareState(mmPath, mmNotificationTitle, mmNotificationContent,
+                    mmAttempt, mmDropTime));
+        }
+
+        /**
+         * 再接続の待ちをやめる
+         */
+        public void leave() {
+            mHandler.removeCallbacks(mmRetryRunnable);
+            if (mmIsReceiverRegistered) {
+                unregisterReceiver(mmConnectivityReceiver);
+                mmIsReceiverRegistered = false;
+            }
         }
 
         @Override
         public void play(String path, String notificationTitle,
                 String notificationContent) {
-            // 同じ番組が再生中の場合は何もしない
-            if (mPlayingPath != null && mPlayingPath.equals(path) == true) {
+            // 同じ番組の場合は再接続を続ける
+            if (mmPath.equals(path) == true) {
                 return;
             }
-            
+            leave();
             synchronized (mLock) {
-                mMediaPlayer.stop();
-                mMediaPlayer.setOnPreparedListener(null);
-                mMediaPlayer.release();
-                mMediaPlayer = null;
                 mPlayingPath = null;
                 mNotificationTitle = null;
                 mNotificationContent = null;
@@ -527,11 +2293,8 @@ public class MediaPlayService extends Service {
 
         @Override
         public void stop() {
+            leave();
             synchronized (mLock) {
-                mMediaPlayer.stop();
-                mMediaPlayer.setOnPreparedListener(null);
-                mMediaPlayer.release();
-                mMediaPlayer = null;
                 mPlayingPath = null;
                 mNotificationTitle = null;
                 mNotificationContent = null;
@@ -543,7 +2306,7 @@ public class MediaPlayService extends Service {
 
         @Override
         public int getPlayState() {
-            return PLAY_STATE_PLAYING;
+            return PLAY_STATE_RECONNECTING;
         }
     }
 
@@ -552,25 +2315,60 @@ public class MediaPlayService extends Service {
      */
     private MediaPlayServiceInterface.Stub mInterfaceImpl = new MediaPlayServiceInterface.Stub() {
         @Override
-        public void play(String path, String notificationTitle,
+        public void play(int requestId, String path, String notificationTitle,
                 String notificationContent) throws RemoteException {
-            MediaPlayService.this.play(path, notificationTitle,
+            MediaPlayService.this.play(requestId, path, notificationTitle,
                     notificationContent);
         }
 
         @Override
-        public void stop() throws RemoteException {
-            MediaPlayService.this.stop();
+        public void stop(int requestId) throws RemoteException {
+            MediaPlayService.this.stop(requestId);
+        }
+
+        @Override
+        public void prewarm(String path) throws RemoteException {
+            MediaPlayService.this.prewarm(path);
+        }
+
+        @Override
+        public void pause(int requestId) throws RemoteException {
+            MediaPlayService.this.pause(requestId);
+        }
+
+        @Override
+        public void resume(int requestId) throws RemoteException {
+            MediaPlayService.this.resume(requestId);
+        }
+
+        @Override
+        public void timeShift(int requestId, long delayMs) throws RemoteException {
+            MediaPlayService.this.timeShift(requestId, delayMs);
+        }
+
+        @Override
+        public PlayStateEvent getState() throws RemoteException {
+            return MediaPlayService.this.getState();
+        }
+
+        @Override
+        public BufferHealth getBufferHealth() throws RemoteException {
+            return MediaPlayService.this.getBufferHealth();
+        }
+
+        @Override
+        public PlaybackStats getPlaybackStats() throws RemoteException {
+            return MediaPlayService.this.getPlaybackStats();
         }
 
         @Override
-        public String getPlayingPath() throws RemoteException {
-            return MediaPlayService.this.getPlayingPath();
+        public long getTimeShiftDelayMs() throws RemoteException {
+            return MediaPlayService.this.getTimeShiftDelayMs();
         }
 
         @Override
-        public int getPlayState() throws RemoteException {
-            return MediaPlayService.this.getPlayState();
+        public long getTimeShiftAvailableMs() throws RemoteException {
+            return MediaPlayService.this.getTimeShiftAvailableMs();
         }
 
         @Override
@@ -22,16 +22,21 @@
 
 package com.uraroji.garage.android.ladiotail;
 
+import android.app.ActivityManager;
+import android.app.ActivityManager.RunningAppProcessInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * 再生サービスとの通信クラス
@@ -63,6 +68,21 @@ public class MediaPlayServiceConnector {
      */
     public static final int MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START = 4;
 
+    /**
+     * 再接続開始メッセージ 再生中にストリームが途切れたので、サービスが同じパスに接続し直している。
+     */
+    public static final int MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED = 5;
+
+    /**
+     * 曲名変更メッセージ 再生中の番組の曲名が変わった。
+     */
+    public static final int MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED = 6;
+
+    /**
+     * 一時停止メッセージ
+     */
+    public static final int MSG_MEDIA_PLAY_MANAGER_PAUSED = 7;
+
     /**
      * 再生状態・不明
      */
@@ -83,6 +103,16 @@ public class MediaPlayServiceConnector {
      */
     public static final int PLAY_STATE_PLAYING = 2;
 
+    /**
+     * 再生状態・再接続中
+     */
+    public static final int PLAY_STATE_RECONNECTING = 3;
+
+    /**
+     * 再生状態・一時停止中
+     */
+    public static final int PLAY_STATE_PAUSED = 4;
+
     /**
      * MediaPlayServiceへのインターフェース
      */
@@ -98,6 +128,91 @@ public class MediaPlayServiceConnector {
      */
     private boolean mIsBind = false;
 
+    /**
+     * サービスの再生状態の写し。 サービスと接続していない場合はPLAY_STATE_UNKNOWN。
+     * 
+     * サービスとの接続時に一度だけ問い合わせ、以降はサービスからのコールバックで更新するので、
+     * 参照する際にサービスへの問い合わせは発生しない。
+     */
+    private int mPlayState = PLAY_STATE_UNKNOWN;
+
+    /**
+     * サービスの準備中・再生中のパスの写し
+     */
+    private String mPlayingPath;
+
+    /**
+     * サービスの準備中・再生中の番組のタイトルの写し
+     */
+    private String mPlayingTitle;
+
+    /**
+     * サービスの再生中の番組の曲名の写し
+     */
+    private String mStreamTitle;
+
+    /**
+     * 写しに反映した最後の通知の通番。 反映していない場合は-1。
+     * 
+     * 接続時の問い合わせ中にコールバックが来た場合や、通知の順序が入れ替わった場合に、古い状態で上書きしないために使う。
+     */
+    private long mMirrorSequence = -1;
+
+    /**
+     * 次の要求のID
+     */
+    private int mNextRequestId = 1;
+
+    /**
+     * サービスを呼び出した回数。 検証用。
+     */
+    private int mBinderCallCount = 0;
+
+    /**
+     * 要求の送信時刻を覚えておく数
+     */
+    private static final int REQUEST_SLOT_COUNT = 16;
+
+    /**
+     * 送信時刻を覚えている要求のID。 要求のIDをREQUEST_SLOT_COUNTで割った余りの位置に入れる。
+     */
+    private final int[] mRequestSentIds = new int[REQUEST_SLOT_COUNT];
+
+    /**
+     * 要求を送信した時刻（ns）。 mRequestSentIdsと同じ並びで、最初の通知を受け取ったら0に戻す。
+     */
+    private final long[] mRequestSentTimes = new long[REQUEST_SLOT_COUNT];
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間を計測した数
+     */
+    private int mCommandLatencyCount = 0;
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間の合計（us）
+     */
+    private long mCommandLatencyTotalUs = 0;
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間の最大（us）
+     */
+    private long mCommandLatencyMaxUs = 0;
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間を覚えておく数
+     */
+    private static final int COMMAND_LATENCY_SAMPLE_COUNT = 4096;
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間（us）。 計測した順に入れ、覚えておく数を超えたら古いものから上書きする。
+     */
+    private final long[] mCommandLatencySamplesUs = new long[COMMAND_LATENCY_SAMPLE_COUNT];
+
+    /**
+     * 再生状態の写しのロックオブジェクト
+     */
+    private final Object mMirrorLock = new Object();
+
     /**
      * 再生状態が変わった際のハンドラーリスト
      * 
@@ -106,6 +221,8 @@ public class MediaPlayServiceConnector {
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_PLAY_COMPLATED
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_PLAY_STOPPED
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START
+     * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED
+     * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED
      */
     private ArrayList<Handler> mPlayStateChangedHandlerList = new ArrayList<Handler>();
 
@@ -124,7 +241,7 @@ public class MediaPlayServiceConnector {
     public void init(Context context) {
         this.mContext = context;
 
-        Intent intent = new Intent(MediaPlayServiceInterface.class.getName());
+        Intent intent = createServiceIntent();
         context.startService(intent); // MeidaPlayサービス開始
         mIsBind = context.bindService(intent, mMediaPlayServiceConn,
                 Context.BIND_AUTO_CREATE);
@@ -136,16 +253,20 @@ public class MediaPlayServiceConnector {
      * @param path 再生する音声のパス
      * @param notificationTitle Notificationに表示するタイトル。局名や番組名などを入れる。
      * @param notificationContent Notificationに表示するタイトル。アーティスト名などを入れる。
+     * @return 要求のID
      */
-    public void play(String path, String notificationTitle,
+    public int play(String path, String notificationTitle,
             String notificationContent) {
+        final int requestId = nextRequestId();
         if (C.LOCAL_LOG) {
-            Log.v(C.TAG, "Trying to play " + path + ".");
+            Log.v(C.TAG, "Trying to play " + path + "(request " + requestId + ").");
         }
 
         try {
             if (mMediaPlayServiceInterface != null) {
-                mMediaPlayServiceInterface.play(path, notificationTitle,
+                countBinderCall();
+                // サービスの処理を待たずに戻る。 結果はコールバックで受け取る。
+                mMediaPlayServiceInterface.play(requestId, path, notificationTitle,
                         notificationContent);
             } else {
                 Log.w(C.TAG, "Service interface is NULL in play.");
@@ -155,19 +276,24 @@ public class MediaPlayServiceConnector {
             Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in play.");
             notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START);
         }
+        return requestId;
     }
 
     /**
      * 再生を停止する
+     * 
+     * @return 要求のID
      */
-    public void stop() {
+    public int stop() {
+        final int requestId = nextRequestId();
         if (C.LOCAL_LOG) {
-            Log.v(C.TAG, "Trying to stop playing.");
+            Log.v(C.TAG, "Trying to stop playing(request " + requestId + ").");
         }
 
         try {
             if (mMediaPlayServiceInterface != null) {
-                mMediaPlayServiceInterface.stop();
+                countBinderCall();
+                mMediaPlayServiceInterface.stop(requestId);
             } else {
                 Log.w(C.TAG, "Service interface is NULL in stop.");
                 notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START);
@@ -176,6 +302,189 @@ public class MediaPlayServiceConnector {
             Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in stop.");
             notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START);
         }
+        return requestId;
+    }
+
+    /**
+     * 再生を一時停止する 時間をずらせない場合は何もしない。
+     * 
+     * C.ENABLE_TIME_SHIFTがfalseの場合、またはgetTimeShiftAvailableMsが-1の場合は時間をずらせない。
+     * 
+     * @return 要求のID
+     */
+    public int pause() {
+        final int requestId = nextRequestId();
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Trying to pause playing(request " + requestId + ").");
+        }
+
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                mMediaPlayServiceInterface.pause(requestId);
+            } else {
+                Log.w(C.TAG, "Service interface is NULL in pause.");
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in pause.");
+        }
+        return requestId;
+    }
+
+    /**
+     * 一時停止した位置から再生を再開する
+     * 
+     * @return 要求のID
+     */
+    public int resume() {
+        final int requestId = nextRequestId();
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Trying to resume playing(request " + requestId + ").");
+        }
+
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                mMediaPlayServiceInterface.resume(requestId);
+            } else {
+                Log.w(C.TAG, "Service interface is NULL in resume.");
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in resume.");
+        }
+        return requestId;
+    }
+
+    /**
+     * 最新から指定した時間だけ前の位置から再生し直す 一時停止中の場合は再生を再開する。 時間をずらせない場合は何もしない。
+     * 
+     * @param delayMs 最新からの時間（ms）。0の場合は最新の位置に戻る。
+     * @return 要求のID
+     */
+    public int timeShift(long delayMs) {
+        final int requestId = nextRequestId();
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Trying to shift playing " + delayMs + "ms behind live(request "
+                    + requestId + ").");
+        }
+
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                mMediaPlayServiceInterface.timeShift(requestId, delayMs);
+            } else {
+                Log.w(C.TAG, "Service interface is NULL in timeShift.");
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in timeShift.");
+        }
+        return requestId;
+    }
+
+    /**
+     * 再生サービスを指定するIntentを作成する
+     * 
+     * @return 再生サービスを指定するIntent
+     * @see C#IN_PROCESS_SERVICE
+     */
+    private Intent createServiceIntent() {
+        if (C.IN_PROCESS_SERVICE) {
+            // 同じプロセスのサービスはIntentFilterを持たないので、クラスで指定する
+            return new Intent(mContext, LocalMediaPlayService.class);
+        }
+        return new Intent(MediaPlayServiceInterface.class.getName());
+    }
+
+    /**
+     * 次の要求のIDを取得する 要求から最初の通知までの時間を計るため、送信時刻を覚えておく。
+     * 
+     * @return 要求のID
+     */
+    private int nextRequestId() {
+        synchronized (mMirrorLock) {
+            final int requestId = mNextRequestId++;
+            final int slot = requestId % REQUEST_SLOT_COUNT;
+            mRequestSentIds[slot] = requestId;
+            mRequestSentTimes[slot] = System.nanoTime();
+            return requestId;
+        }
+    }
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間を記録する 2つ目以降の通知は記録しない。
+     * 
+     * @param requestId 通知に入っていた要求のID
+     */
+    private void recordCommandLatency(int requestId) {
+        synchronized (mMirrorLock) {
+            final int slot = requestId % REQUEST_SLOT_COUNT;
+            if (requestId <= 0 || mRequestSentIds[slot] != requestId
+                    || mRequestSentTimes[slot] == 0) {
+                return;
+            }
+            final long latencyUs = (System.nanoTime() - mRequestSentTimes[slot]) / 1000;
+            mRequestSentTimes[slot] = 0;
+            mCommandLatencyTotalUs += latencyUs;
+            mCommandLatencyMaxUs = Math.max(mCommandLatencyMaxUs, latencyUs);
+            final int sample = mCommandLatencyCount % COMMAND_LATENCY_SAMPLE_COUNT;
+            mCommandLatencySamplesUs[sample] = latencyUs;
+            ++mCommandLatencyCount;
+        }
+    }
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間を計測した数を取得する 検証用。
+     * 
+     * @return 計測した数
+     */
+    /*package*/ int getCommandLatencyCount() {
+        synchronized (mMirrorLock) {
+            return mCommandLatencyCount;
+        }
+    }
+
+    /**
+     * 要求から最初の通知を受け取るまでの時間のパーセンタイルを取得する 覚えている直近の計測から求める。
+     * 
+     * @param percentile パーセンタイル（1から100）
+     * @return 要求から最初の通知を受け取るまでの時間（us）。 計測していない場合は0。
+     */
+    /*package*/ long getCommandLatencyPercentileUs(int percentile) {
+        final long[] samples;
+        synchronized (mMirrorLock) {
+            samples = Arrays.copyOf(mCommandLatencySamplesUs,
+                    Math.min(mCommandLatencyCount, COMMAND_LATENCY_SAMPLE_COUNT));
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        final int rank = (samples.length * percentile + 99) / 100;
+        return samples[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * 再生されそうな音声に前もって接続する 接続は一定時間内にplayされなければ破棄される。
+     * 
+     * @param path 再生されそうな音声のパス
+     */
+    public void prewarm(String path) {
+        if (path == null) {
+            return;
+        }
+        // 再生中のパスは接続済み
+        if (path.equals(getPlayingPath())) {
+            return;
+        }
+
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                mMediaPlayServiceInterface.prewarm(path);
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in prewarm.");
+        }
     }
 
     /**
@@ -190,59 +499,334 @@ public class MediaPlayServiceConnector {
         final int playState = getPlayState();
 
         if (mIsBind == true) {
+            // 登録したままだと、サービスが生きている間はコールバックが届き続け、このインスタンスも解放されない
+            if (mMediaPlayServiceInterface != null) {
+                try {
+                    countBinderCall();
+                    mMediaPlayServiceInterface.unregisterPlayStateChangedCallback(remoteCallback);
+                } catch (RemoteException e) {
+                    // 例外はどうしようもないので無視しておく
+                    Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred.");
+                }
+            }
             mContext.unbindService(mMediaPlayServiceConn);
             mIsBind = false;
+            // unbindServiceではonServiceDisconnectedは呼ばれないので、ここで写しを破棄する
+            mMediaPlayServiceInterface = null;
+            clearMirror();
         }
         // 停止中の場合はサービスを止める
         if (playState == PLAY_STATE_IDLE || playState == PLAY_STATE_UNKNOWN) {
-            mContext.stopService(new Intent(MediaPlayServiceInterface.class
-                    .getName()));
+            mContext.stopService(createServiceIntent());
         }
     }
 
     /**
      * 再生中のパスを取得する
      * 
-     * @return 再生中のパス。再生していない場合はnull。
+     * サービスの再生状態の写しを返すので、サービスへの問い合わせは発生しない。
+     * 
+     * @return 再生中のパス。再生していない場合やサービスと接続していない場合はnull。
      */
     public String getPlayingPath() {
-        try {
-            if (mMediaPlayServiceInterface != null) {
-                return mMediaPlayServiceInterface.getPlayingPath();
-            } else {
-                Log.w(C.TAG, "Service interface is NULL in getPlayingPath.");
-                // どうしようもないのでとりあえずnullを返す
-                return null;
-            }
-        } catch (RemoteException e) {
-            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in getPlayingPath.");
-            // どうしようもないのでとりあえずnullを返す
-            return null;
+        synchronized (mMirrorLock) {
+            return mPlayingPath;
+        }
+    }
+
+    /**
+     * 再生中の番組のタイトルを取得する
+     * 
+     * サービスの再生状態の写しを返すので、サービスへの問い合わせは発生しない。
+     * 
+     * @return 再生中の番組のタイトル。再生していない場合やサービスと接続していない場合はnull。
+     */
+    public String getPlayingTitle() {
+        synchronized (mMirrorLock) {
+            return mPlayingTitle;
+        }
+    }
+
+    /**
+     * 再生中の番組の曲名を取得する
+     * 
+     * サービスの再生状態の写しを返すので、サービスへの問い合わせは発生しない。
+     * 
+     * @return 再生中の番組の曲名。不明な場合や再生していない場合はnull。
+     */
+    public String getStreamTitle() {
+        synchronized (mMirrorLock) {
+            return mStreamTitle;
         }
     }
 
     /**
      * 再生状態を取得する
      * 
+     * サービスの再生状態の写しを返すので、サービスへの問い合わせは発生しない。
+     * 
      * @return 再生状態
      * @see MediaPlayServiceConnector#PLAY_STATE_UNKNOWN
      * @see MediaPlayServiceConnector#PLAY_STATE_IDLE
      * @see MediaPlayServiceConnector#PLAY_STATE_PREPARE
      * @see MediaPlayServiceConnector#PLAY_STATE_PLAYING
+     * @see MediaPlayServiceConnector#PLAY_STATE_RECONNECTING
+     * @see MediaPlayServiceConnector#PLAY_STATE_PAUSED
      */
     public int getPlayState() {
+        synchronized (mMirrorLock) {
+            return mPlayState;
+        }
+    }
+
+    /**
+     * 先読みバッファの状態を取得する
+     * 
+     * 刻々と変わるので写しは持たず、呼ぶ度にサービスに問い合わせる。 表示を更新する間隔で呼ぶこと。
+     * 
+     * @return 先読みバッファの状態。停止中の場合、ジッタバッファを使っていない場合、
+     *         またはサービスに接続していない場合はnull。
+     */
+    public BufferHealth getBufferHealth() {
         try {
             if (mMediaPlayServiceInterface != null) {
-                return mMediaPlayServiceInterface.getPlayState();
-            } else {
-                Log.w(C.TAG, "Service interface is NULL in getPlayState.");
-                // どうしようもないのでとりあえずPLAY_STATE_UNKNOWNを返す
-                return PLAY_STATE_UNKNOWN;
+                countBinderCall();
+                return mMediaPlayServiceInterface.getBufferHealth();
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in getBufferHealth.");
+        }
+        return null;
+    }
+
+    /**
+     * 再生品質の統計を取得する
+     * 
+     * @return 再生品質の統計。サービスに接続していない場合はnull。
+     */
+    public PlaybackStats getPlaybackStats() {
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                return mMediaPlayServiceInterface.getPlaybackStats();
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in getPlaybackStats.");
+        }
+        return null;
+    }
+
+    /**
+     * 再生している位置が、最新からどれだけ前かを取得する 呼ぶ度にサービスに問い合わせる。
+     * 
+     * @return 最新からの時間（ms）。停止中の場合、時間をずらせない場合、
+     *         またはサービスに接続していない場合は-1。
+     */
+    public long getTimeShiftDelayMs() {
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                return mMediaPlayServiceInterface.getTimeShiftDelayMs();
+            }
+        } catch (RemoteException e) {
+            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in getTimeShiftDelayMs.");
+        }
+        return -1;
+    }
+
+    /**
+     * 最新からどれだけ前まで遡れるかを取得する 呼ぶ度にサービスに問い合わせる。
+     * 
+     * @return 遡れる時間（ms）。停止中の場合、時間をずらせない場合、
+     *         またはサービスに接続していない場合は-1。
+     */
+    public long getTimeShiftAvailableMs() {
+        try {
+            if (mMediaPlayServiceInterface != null) {
+                countBinderCall();
+                return mMediaPlayServiceInterface.getTimeShiftAvailableMs();
             }
         } catch (RemoteException e) {
-            Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred in getPlayState.");
-            // どうしようもないのでとりあえずPLAY_STATE_UNKNOWNを返す
-            return PLAY_STATE_UNKNOWN;
+            Log.w(C.TAG, "RemoteException(" + e.toString()
+                    + ") occurred in getTimeShiftAvailableMs.");
+        }
+        return -1;
+    }
+
+    /**
+     * サービスを呼び出した回数を取得する 操作毎にサービスの呼び出しが増えていないかの検証用。
+     * 
+     * @return サービスを呼び出した回数
+     */
+    public int getBinderCallCount() {
+        synchronized (mMirrorLock) {
+            return mBinderCallCount;
+        }
+    }
+
+    /**
+     * サービスの呼び出しの計測結果を取得する 同じプロセスで動かす場合と別プロセスで動かす場合を比べる。
+     * 
+     * 要求から最初の通知を受け取るまでの時間、状態の問い合わせにかかる時間、アプリのプロセス毎のメモリ使用量を返す。
+     * 問い合わせを繰り返して計るので、UIスレッドでは呼ばないこと。
+     * 
+     * @return 計測結果
+     * @see C#IN_PROCESS_SERVICE
+     */
+    public String getBenchmarkReport() {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("service mode: ").append(C.IN_PROCESS_SERVICE ? "in-process" : "remote")
+                .append('\n');
+        synchronized (mMirrorLock) {
+            sb.append(String.format("command to first event: %d commands, avg %dus, max %dus",
+                    mCommandLatencyCount, (mCommandLatencyCount != 0) ? mCommandLatencyTotalUs
+                            / mCommandLatencyCount : 0, mCommandLatencyMaxUs));
+        }
+        sb.append(String.format(", p99 %dus\n", getCommandLatencyPercentileUs(99)));
+
+        final MediaPlayServiceInterface serviceInterface = mMediaPlayServiceInterface;
+        if (serviceInterface != null) {
+            // 計測のための呼び出しなので、サービスを呼び出した回数には数えない
+            try {
+                final long start = System.nanoTime();
+                for (int i = 0; i < C.SERVICE_BENCHMARK_QUERY_COUNT; ++i) {
+                    serviceInterface.getState();
+                }
+                final long avgUs = (System.nanoTime() - start) / 1000
+                        / C.SERVICE_BENCHMARK_QUERY_COUNT;
+                sb.append(String.format("state query: avg %dus (%d calls)\n", avgUs,
+                        C.SERVICE_BENCHMARK_QUERY_COUNT));
+            } catch (RemoteException e) {
+                Log.w(C.TAG, "RemoteException(" + e.toString()
+                        + ") occurred in getBenchmarkReport.");
+            }
+        }
+
+        appendMemoryReport(sb);
+        return sb.toString();
+    }
+
+    /**
+     * アプリのプロセス毎のメモリ使用量（PSS）を追加する
+     * 
+     * @param sb 追加先
+     */
+    private void appendMemoryReport(StringBuilder sb) {
+        if (mContext == null) {
+            return;
+        }
+        final ActivityManager am = (ActivityManager) mContext
+                .getSystemService(Context.ACTIVITY_SERVICE);
+        final List<RunningAppProcessInfo> processes = am.getRunningAppProcesses();
+        if (processes == null) {
+            return;
+        }
+
+        // 別プロセスのサービスは"パッケージ名:service_process"という名前になる
+        final String packageName = mContext.getPackageName();
+        final ArrayList<RunningAppProcessInfo> appProcesses = new ArrayList<RunningAppProcessInfo>();
+        for (RunningAppProcessInfo process : processes) {
+            if (process.processName != null && process.processName.startsWith(packageName)) {
+                appProcesses.add(process);
+            }
+        }
+        final int[] pids = new int[appProcesses.size()];
+        for (int i = 0; i < pids.length; ++i) {
+            pids[i] = appProcesses.get(i).pid;
+        }
+        final Debug.MemoryInfo[] memoryInfos = am.getProcessMemoryInfo(pids);
+        int totalPss = 0;
+        for (int i = 0; i < pids.length; ++i) {
+            final int pss = memoryInfos[i].getTotalPss();
+            sb.append(String.format("%s: %dKB PSS\n", appProcesses.get(i).processName, pss));
+            totalPss += pss;
+        }
+        sb.append(String.format("total: %dKB PSS in %d processes", totalPss, pids.length));
+    }
+
+    /**
+     * サービスを呼び出した回数を数える
+     */
+    private void countBinderCall() {
+        final int count;
+        synchronized (mMirrorLock) {
+            count = ++mBinderCallCount;
+        }
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Binder call count is " + count + ".");
+        }
+    }
+
+    /**
+     * サービスの再生状態の写しを、サービスに問い合わせて初期化する
+     * 
+     * 問い合わせ中にサービスからのコールバックで写しが更新された場合は、そちらの方が新しいので何もしない。
+     * 
+     * @param serviceInterface サービスのインターフェース
+     * @throws RemoteException サービスの呼び出しに失敗した
+     */
+    private void seedMirror(MediaPlayServiceInterface serviceInterface)
+            throws RemoteException {
+        countBinderCall();
+        final PlayStateEvent state = serviceInterface.getState();
+        if (state != null) {
+            updateMirror(state);
+        }
+    }
+
+    /**
+     * サービスの再生状態の写しを、通知で更新する
+     * 
+     * @param event 通知
+     * @return 写しを更新した場合はtrue。反映済みの通知より古い場合はfalse。
+     */
+    private boolean updateMirror(PlayStateEvent event) {
+        synchronized (mMirrorLock) {
+            if (event.getSequence() <= mMirrorSequence) {
+                return false;
+            }
+            mMirrorSequence = event.getSequence();
+            mPlayState = toPlayState(event.getPlayState());
+            mPlayingPath = event.getPlayingPath();
+            mPlayingTitle = event.getPlayingTitle();
+            mStreamTitle = event.getStreamTitle();
+            return true;
+        }
+    }
+
+    /**
+     * サービスの再生状態の写しを、サービスと接続していない状態にする
+     */
+    private void clearMirror() {
+        synchronized (mMirrorLock) {
+            mMirrorSequence = -1;
+            mPlayState = PLAY_STATE_UNKNOWN;
+            mPlayingPath = null;
+            mPlayingTitle = null;
+            mStreamTitle = null;
+        }
+    }
+
+    /**
+     * サービスの再生状態をこのクラスの再生状態に変換する
+     * 
+     * @param serviceState サービスの再生状態
+     * @return 再生状態
+     */
+    private static int toPlayState(int serviceState) {
+        switch (serviceState) {
+            case MediaPlayService.PLAY_STATE_IDLE:
+                return PLAY_STATE_IDLE;
+            case MediaPlayService.PLAY_STATE_PREPARE:
+                return PLAY_STATE_PREPARE;
+            case MediaPlayService.PLAY_STATE_PLAYING:
+                return PLAY_STATE_PLAYING;
+            case MediaPlayService.PLAY_STATE_RECONNECTING:
+                return PLAY_STATE_RECONNECTING;
+            case MediaPlayService.PLAY_STATE_PAUSED:
+                return PLAY_STATE_PAUSED;
+            default:
+                return PLAY_STATE_UNKNOWN;
         }
     }
 
@@ -254,6 +838,9 @@ public class MediaPlayServiceConnector {
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_PLAY_COMPLATED
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_PLAY_STOPPED
      * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START
+     * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED
+     * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED
+     * @see MediaPlayServiceConnector#MSG_MEDIA_PLAY_MANAGER_PAUSED
      * @param handler 登録するハンドラ
      */
     public void addPlayStateChangedHandler(Handler handler) {
@@ -306,8 +893,20 @@ public class MediaPlayServiceConnector {
      */
     PlayStateChangedCallbackInterface remoteCallback = new PlayStateChangedCallbackInterface.Stub() {
         @Override
-        public void changed(int changedState) throws RemoteException {
-            switch (changedState) {
+        public void changed(PlayStateEvent event) throws RemoteException {
+            recordCommandLatency(event.getRequestId());
+
+            // 問い合わせの結果などで反映済みの通知は無視する
+            if (updateMirror(event) == false) {
+                return;
+            }
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "Event " + event.getSequence() + "(" + event.getWhat()
+                        + ") for request " + event.getRequestId() + ".");
+            }
+
+            // ハンドラーが写しを参照できるよう、通知する前に写しを更新している
+            switch (event.getWhat()) {
                 case MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PREPARE_STARTED:
                     notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_PREPARE_STARTED);
                     break;
@@ -323,10 +922,19 @@ public class MediaPlayServiceConnector {
                 case MediaPlayService.MSG_MEDIA_PLAY_SERVICE_FAILD_PLAY_START:
                     notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_FAILD_PLAY_START);
                     break;
+                case MediaPlayService.MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED:
+                    notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_RECONNECT_STARTED);
+                    break;
+                case MediaPlayService.MSG_MEDIA_PLAY_SERVICE_STREAM_TITLE_CHANGED:
+                    notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_STREAM_TITLE_CHANGED);
+                    break;
+                case MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PAUSED:
+                    notifyPlayStateChanged(MSG_MEDIA_PLAY_MANAGER_PAUSED);
+                    break;
                 default:
                     Log.w(C.TAG,
                             "Unknown PlayStateChangedCallbackInterface changedState("
-                                    + changedState + ")");
+                                    + event.getWhat() + ")");
                     break;
             }
         }
@@ -342,8 +950,11 @@ public class MediaPlayServiceConnector {
             mMediaPlayServiceInterface = MediaPlayServiceInterface.Stub
                     .asInterface(service);
             try {
+                // 状態の変化を取りこぼさないよう、先にコールバックを登録してから写しを初期化する
+                countBinderCall();
                 mMediaPlayServiceInterface
                         .registerPlayStateChangedCallback(remoteCallback);
+                seedMirror(mMediaPlayServiceInterface);
             } catch (RemoteException e) {
                 // 例外はどうしようもないので無視しておく
                 Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred.");
@@ -353,6 +964,7 @@ public class MediaPlayServiceConnector {
         @Override
         public void onServiceDisconnected(ComponentName name) {
             try {
+                countBinderCall();
                 mMediaPlayServiceInterface
                         .unregisterPlayStateChangedCallback(remoteCallback);
             } catch (RemoteException e) {
@@ -360,6 +972,7 @@ public class MediaPlayServiceConnector {
                 Log.w(C.TAG, "RemoteException(" + e.toString() + ") occurred.");
             }
             mMediaPlayServiceInterface = null;
+            clearMirror();
         }
     };
 }
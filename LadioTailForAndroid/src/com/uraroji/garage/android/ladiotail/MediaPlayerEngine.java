@@ -0,0 +1,348 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnErrorListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * MediaPlayerによる再生エンジン
+ * 
+ * 接続やバッファリングはMediaPlayerに任せる。 ストリーミングプロキシを指定した場合は、プロキシを経由して再生する。
+ * 最初に音声を出力するまでの時間は、準備の開始からstartを呼ぶまでの時間とする。
+ * エラーが発生していなければ、resetでMediaPlayerを作り直さずに再利用できる。
+ * 受信したバイト数はプロキシを経由している場合のみ分かる。
+ * 一時停止と時間をずらした再生は、プロキシが受信したデータをファイルに溜めている場合のみできる。
+ */
+/* package */class MediaPlayerEngine implements PlayerEngine {
+
+    /**
+     * Media player
+     */
+    private final MediaPlayer mMediaPlayer = new MediaPlayer();
+
+    /**
+     * ストリーミングプロキシ。 経由しない場合はnull。
+     */
+    private final StreamProxy mStreamProxy;
+
+    /**
+     * 前もって接続したストリーム。 使用しない場合はnull。
+     */
+    private final StreamPrewarmer mStreamPrewarmer;
+
+    /**
+     * ストリーミングプロキシのセッションのURL。 経由していない場合はnull。
+     */
+    private volatile String mProxyUrl;
+
+    /**
+     * エラーが発生したか エラーが発生したMediaPlayerは再利用しない。
+     */
+    private volatile boolean mHasError = false;
+
+    /**
+     * 時間をずらして再生し直すための準備中か 準備ができたらリスナーに通知せずに再生を開始する。
+     */
+    private boolean mIsTimeShifting = false;
+
+    /**
+     * リスナー
+     */
+    private Listener mListener;
+
+    /**
+     * 準備を開始した時刻（ms）。 準備を開始していない場合は-1。
+     */
+    private long mPrepareStartTime = -1;
+
+    /**
+     * 準備の開始から最初に音声を出力するまでの時間（ms）。 まだ出力していない場合は-1。
+     */
+    private long mTimeToFirstAudio = -1;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param streamProxy ストリーミングプロキシ。経由しない場合はnull。
+     * @param streamPrewarmer 前もって接続したストリーム。使用しない場合はnull。
+     */
+    public MediaPlayerEngine(StreamProxy streamProxy, StreamPrewarmer streamPrewarmer) {
+        mStreamProxy = streamProxy;
+        mStreamPrewarmer = streamPrewarmer;
+        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mMediaPlayer.setOnPreparedListener(new OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (mIsTimeShifting) {
+                    mIsTimeShifting = false;
+                    mMediaPlayer.start();
+                    return;
+                }
+                final Listener listener = mListener;
+                if (listener != null) {
+                    listener.onPrepared(MediaPlayerEngine.this);
+                }
+            }
+        });
+        mMediaPlayer.setOnCompletionListener(new OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                final Listener listener = mListener;
+                if (listener != null) {
+                    listener.onCompletion(MediaPlayerEngine.this);
+                }
+            }
+        });
+        mMediaPlayer.setOnErrorListener(new OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                mHasError = true;
+                final Listener listener = mListener;
+                if (listener != null) {
+                    listener.onError(MediaPlayerEngine.this, toError(what, extra));
+                }
+                // エラーはここで通知したので、onCompletionは呼ばせない
+                return true;
+            }
+        });
+        mMediaPlayer.setOnInfoListener(new OnInfoListener() {
+            @Override
+            public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                final Listener listener = mListener;
+                if (listener == null) {
+                    return false;
+                }
+                switch (what) {
+                    case MediaPlayer.MEDIA_INFO_BUFFERING_START:
+                        listener.onBufferingChanged(MediaPlayerEngine.this, true);
+                        return true;
+                    case MediaPlayer.MEDIA_INFO_BUFFERING_END:
+                        listener.onBufferingChanged(MediaPlayerEngine.this, false);
+                        return true;
+                    default:
+                        return false;
+                }
+            }
+        });
+    }
+
+    /**
+     * MediaPlayerのエラーを再生エンジンのエラーの種類に変換する
+     * 
+     * 詳しい原因はextraに入ることが多いので、extraを先に見る。
+     * 
+     * @param what MediaPlayerのエラーの種類
+     * @param extra MediaPlayerのエラーの詳細
+     * @return 再生エンジンのエラーの種類
+     */
+    /* package */static int toError(int what, int extra) {
+        switch (extra) {
+            case MediaPlayer.MEDIA_ERROR_IO:
+            case MediaPlayer.MEDIA_ERROR_TIMED_OUT:
+                return ERROR_IO;
+            case MediaPlayer.MEDIA_ERROR_MALFORMED:
+            case MediaPlayer.MEDIA_ERROR_UNSUPPORTED:
+                return ERROR_UNSUPPORTED;
+            default:
+                break;
+        }
+        if (what == MediaPlayer.MEDIA_ERROR_NOT_VALID_FOR_PROGRESSIVE_PLAYBACK) {
+            return ERROR_UNSUPPORTED;
+        }
+        return ERROR_UNKNOWN;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void prepareAsync(String path) throws IOException {
+        mPrepareStartTime = SystemClock.uptimeMillis();
+        mTimeToFirstAudio = -1;
+        if (mStreamPrewarmer != null) {
+            // 前もって接続したセッションがあれば、先読みした分から再生する
+            mProxyUrl = mStreamPrewarmer.take(path);
+        }
+        if (mProxyUrl == null && mStreamProxy != null) {
+            // プロキシが対応していないURLは直接再生する
+            mProxyUrl = mStreamProxy.openSession(path);
+        }
+        mMediaPlayer.setDataSource((mProxyUrl != null) ? mProxyUrl : path);
+        mMediaPlayer.prepareAsync();
+    }
+
+    @Override
+    public void start() {
+        mMediaPlayer.start();
+        if (mPrepareStartTime >= 0 && mTimeToFirstAudio < 0) {
+            mTimeToFirstAudio = SystemClock.uptimeMillis() - mPrepareStartTime;
+        }
+    }
+
+    @Override
+    public void stop() {
+        mMediaPlayer.stop();
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        mMediaPlayer.setOnPreparedListener(null);
+        mMediaPlayer.setOnCompletionListener(null);
+        mMediaPlayer.setOnErrorListener(null);
+        mMediaPlayer.setOnInfoListener(null);
+        mMediaPlayer.release();
+        closeProxySession();
+    }
+
+    @Override
+    public boolean reset() {
+        if (mHasError) {
+            return false;
+        }
+        mListener = null;
+        // 準備中・再生中でもresetは使える。 届いていないイベントも破棄される。
+        mMediaPlayer.reset();
+        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        closeProxySession();
+        mIsTimeShifting = false;
+        mPrepareStartTime = -1;
+        mTimeToFirstAudio = -1;
+        return true;
+    }
+
+    @Override
+    public boolean pause() {
+        if (getTimeShiftAvailableMs() < 0) {
+            return false;
+        }
+        // プロキシは受信を続けるので、resumeで止めた位置から再生できる
+        mMediaPlayer.pause();
+        return true;
+    }
+
+    @Override
+    public void resume() {
+        mMediaPlayer.start();
+    }
+
+    @Override
+    public boolean timeShift(long delayMs) throws IOException {
+        final String proxyUrl = mProxyUrl;
+        if (proxyUrl == null || mStreamProxy.getTimeShiftAvailableMs(proxyUrl) < 0) {
+            return false;
+        }
+        // プロキシのセッションは閉じずに、MediaPlayerだけ指定した位置から繋ぎ直す
+        mMediaPlayer.reset();
+        mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mMediaPlayer.setDataSource(mStreamProxy.getTimeShiftUrl(proxyUrl, delayMs));
+        mIsTimeShifting = true;
+        mMediaPlayer.prepareAsync();
+        return true;
+    }
+
+    @Override
+    public long getTimeShiftDelayMs() {
+        final String proxyUrl = mProxyUrl;
+        if (proxyUrl == null) {
+            return -1;
+        }
+        return mStreamProxy.getTimeShiftDelayMs(proxyUrl);
+    }
+
+    @Override
+    public long getTimeShiftAvailableMs() {
+        final String proxyUrl = mProxyUrl;
+        if (proxyUrl == null) {
+            return -1;
+        }
+        return mStreamProxy.getTimeShiftAvailableMs(proxyUrl);
+    }
+
+    /**
+     * ストリーミングプロキシのセッションを閉じる
+     */
+    private void closeProxySession() {
+        if (mProxyUrl != null) {
+            mStreamProxy.closeSession(mProxyUrl);
+            mProxyUrl = null;
+        }
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mMediaPlayer.isPlaying();
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        mMediaPlayer.setVolume(volume, volume);
+    }
+
+    @Override
+    public long getTimeToFirstAudio() {
+        return mTimeToFirstAudio;
+    }
+
+    @Override
+    public BufferHealth getBufferHealth() {
+        final String proxyUrl = mProxyUrl;
+        if (proxyUrl == null) {
+            return null;
+        }
+        final JitterBufferController jitterBuffer = mStreamProxy.getJitterBuffer(proxyUrl);
+        if (jitterBuffer == null) {
+            return null;
+        }
+        final int bufferedBytes = Math.max(mStreamProxy.getBufferedBytes(proxyUrl), 0);
+        final long now = System.currentTimeMillis();
+        return new BufferHealth(jitterBuffer.getTargetMs(),
+                jitterBuffer.getFillMs(bufferedBytes, now), jitterBuffer.getUnderrunCount(),
+                jitterBuffer.getStallMs(now),
+                jitterBuffer.getThroughputPercent(), jitterBuffer.getBitrate());
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        final String proxyUrl = mProxyUrl;
+        if (proxyUrl == null) {
+            return -1;
+        }
+        return mStreamProxy.getReceivedBytes(proxyUrl);
+    }
+
+    @Override
+    public String getName() {
+        return (mStreamProxy != null) ? "MediaPlayer+StreamProxy" : "MediaPlayer";
+    }
+}
@@ -0,0 +1,285 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.content.ComponentCallbacks2;
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * メモリ不足への対応
+ * 
+ * onTrimMemory・onLowMemoryで渡されるレベルを、このアプリで決めた解放の段階に変換してリスナーに渡す。
+ * 段階が上がるほど多く解放する。 何を解放するかは、UIのプロセスとサービスのプロセスのそれぞれのリスナーで決める。
+ * 解放の前後に回収させてから計った使用メモリとPSSをログに出力し、統計として持つ。
+ * 
+ * 解放は呼んだスレッドで行う。 UIのプロセスではUIスレッド、サービスではコマンドスレッドから呼ぶ。
+ * dumpの引数で、onTrimMemoryが呼ばれた場合と同じ解放を試せる。
+ */
+/* package */class MemoryTrimmer {
+
+    /**
+     * 解放の段階・解放しない
+     */
+    public static final int LEVEL_NONE = 0;
+
+    /**
+     * 解放の段階・画面が見えなくなった、またはメモリが少なくなり始めた 作り直すのが安いキャッシュを解放する。
+     */
+    public static final int LEVEL_BACKGROUND = 1;
+
+    /**
+     * 解放の段階・メモリが少ない 表示や再生に使っていないものを解放し、これから確保するバッファを縮める。
+     */
+    public static final int LEVEL_MODERATE = 2;
+
+    /**
+     * 解放の段階・メモリが非常に少ない 作り直せるものは全て解放する。
+     */
+    public static final int LEVEL_COMPLETE = 3;
+
+    /**
+     * 解放の段階の数
+     */
+    private static final int LEVEL_COUNT = 4;
+
+    /**
+     * 解放を行うリスナー
+     */
+    public interface OnTrimListener {
+
+        /**
+         * 解放する
+         * 
+         * @param level 解放の段階
+         * @see MemoryTrimmer#LEVEL_BACKGROUND
+         * @see MemoryTrimmer#LEVEL_MODERATE
+         * @see MemoryTrimmer#LEVEL_COMPLETE
+         */
+        public void onTrim(int level);
+    }
+
+    /**
+     * ログに出力する名前
+     */
+    private final String mName;
+
+    /**
+     * 解放を行うリスナー
+     */
+    private final OnTrimListener mListener;
+
+    /**
+     * 解放の段階毎の解放した回数
+     */
+    private final int[] mTrimCounts = new int[LEVEL_COUNT];
+
+    /**
+     * 解放で減った使用メモリの合計（バイト）
+     */
+    private long mReleasedBytes = 0;
+
+    /**
+     * 最後に解放した段階
+     */
+    private int mLastLevel = LEVEL_NONE;
+
+    /**
+     * 最後の解放の前の使用メモリ（バイト）
+     */
+    private long mLastBeforeBytes = 0;
+
+    /**
+     * 最後の解放の後の使用メモリ（バイト）
+     */
+    private long mLastAfterBytes = 0;
+
+    /**
+     * 最後の解放の前のPSS（KB）
+     */
+    private int mLastBeforePssKb = 0;
+
+    /**
+     * 最後の解放の後のPSS（KB）
+     */
+    private int mLastAfterPssKb = 0;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param name ログに出力する名前
+     * @param listener 解放を行うリスナー
+     */
+    public MemoryTrimmer(String name, OnTrimListener listener) {
+        mName = name;
+        mListener = listener;
+    }
+
+    /**
+     * onTrimMemoryのレベルを解放の段階に変換する
+     * 
+     * @param trimLevel onTrimMemoryのレベル
+     * @return 解放の段階
+     */
+    public static int toLevel(int trimLevel) {
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return LEVEL_COMPLETE;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return LEVEL_MODERATE;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return LEVEL_BACKGROUND;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            // 表示中・再生中でもメモリが非常に少ない
+            return LEVEL_COMPLETE;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return LEVEL_MODERATE;
+        } else if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return LEVEL_BACKGROUND;
+        } else {
+            return LEVEL_NONE;
+        }
+    }
+
+    /**
+     * onTrimMemoryが呼ばれた
+     * 
+     * @param trimLevel onTrimMemoryのレベル
+     */
+    public void onTrimMemory(int trimLevel) {
+        trim(toLevel(trimLevel));
+    }
+
+    /**
+     * onLowMemoryが呼ばれた Android 4.0未満ではonTrimMemoryの代わりにこれだけが呼ばれる。
+     */
+    public void onLowMemory() {
+        trim(LEVEL_COMPLETE);
+    }
+
+    /**
+     * 指定した段階まで解放し、前後の使用メモリを記録する
+     * 
+     * @param level 解放の段階
+     */
+    public void trim(int level) {
+        if (level <= LEVEL_NONE || level >= LEVEL_COUNT) {
+            return;
+        }
+
+        // 解放で手放した分だけが差になるよう、前後とも回収させてから計る 解放は稀なので負荷は問題にならない
+        Runtime.getRuntime().gc();
+        final long before = getUsedBytes();
+        final int beforePssKb = getPssKb();
+        mListener.onTrim(level);
+        Runtime.getRuntime().gc();
+        final long after = getUsedBytes();
+        final int afterPssKb = getPssKb();
+
+        synchronized (this) {
+            ++mTrimCounts[level];
+            mReleasedBytes += Math.max(before - after, 0);
+            mLastLevel = level;
+            mLastBeforeBytes = before;
+            mLastAfterBytes = after;
+            mLastBeforePssKb = beforePssKb;
+            mLastAfterPssKb = afterPssKb;
+        }
+        Log.i(C.TAG, String.format(
+                "%s trimmed memory at level %d, used %dKB -> %dKB, PSS %dKB -> %dKB.", mName,
+                level, before / 1024, after / 1024, beforePssKb, afterPssKb));
+    }
+
+    /**
+     * 最後の解放の前の使用メモリを取得する 検証用。
+     * 
+     * @return 使用メモリ（バイト）。 解放していない場合は0。
+     */
+    /*package*/ synchronized long getLastBeforeBytes() {
+        return mLastBeforeBytes;
+    }
+
+    /**
+     * 最後の解放の後の使用メモリを取得する 検証用。
+     * 
+     * @return 使用メモリ（バイト）。 解放していない場合は0。
+     */
+    /*package*/ synchronized long getLastAfterBytes() {
+        return mLastAfterBytes;
+    }
+
+    /**
+     * 使用メモリを取得する Javaのヒープとネイティブのヒープの合計とする。
+     * 
+     * @return 使用メモリ（バイト）
+     */
+    private static long getUsedBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    /**
+     * プロセスのPSSを取得する ヒープの外で確保したメモリや、他のプロセスと共有するページの按分も含む。
+     * 
+     * @return PSS（KB）
+     */
+    private static int getPssKb() {
+        final Debug.MemoryInfo memoryInfo = new Debug.MemoryInfo();
+        Debug.getMemoryInfo(memoryInfo);
+        return memoryInfo.getTotalPss();
+    }
+
+    /**
+     * dumpの引数で指定された場合は解放する
+     * 
+     * "trim レベル"が指定された場合は、onTrimMemoryにそのレベルが渡された場合と同じ解放を行う。
+     * 
+     * @param args dumpの引数
+     * @return 解放した場合はtrue
+     */
+    public boolean trimIfRequested(String[] args) {
+        if (args == null || args.length < 2 || "trim".equals(args[0]) == false) {
+            return false;
+        }
+        try {
+            onTrimMemory(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解放の統計を取得する
+     * 
+     * @return 解放の統計
+     */
+    public synchronized String getReport() {
+        return String.format(
+                "memory trim: %d background, %d moderate, %d complete, released %dKB, last level %d"
+                        + " (used %dKB -> %dKB, PSS %dKB -> %dKB), used %dKB",
+                mTrimCounts[LEVEL_BACKGROUND], mTrimCounts[LEVEL_MODERATE],
+                mTrimCounts[LEVEL_COMPLETE], mReleasedBytes / 1024, mLastLevel,
+                mLastBeforeBytes / 1024, mLastAfterBytes / 1024, mLastBeforePssKb,
+                mLastAfterPssKb, getUsedBytes() / 1024);
+    }
+}
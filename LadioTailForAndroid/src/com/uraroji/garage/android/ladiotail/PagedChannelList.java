@@ -0,0 +1,167 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+/**
+ * 番組一覧に表示する番組のリスト
+ * 
+ * 番組は共有の索引の位置として保持し、番組一覧の1行に表示する内容は表示する前に
+ * {@link RowModelPrebuilder}が別スレッドで{@link C#ROW_MODEL_PAGE_SIZE}件ずつまとめて生成する。
+ * 
+ * @see ChannelIndex
+ */
+public class PagedChannelList {
+
+    /**
+     * 索引
+     */
+    private final ChannelIndex mIndex;
+
+    /**
+     * 表示する番組の、索引での位置の配列
+     */
+    private final int[] mIndexes;
+
+    /**
+     * 番組一覧の1行に表示する内容の生成
+     */
+    private final ChannelRowModelBuilder mRowModelBuilder;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param index 索引
+     * @param indexes 表示する番組の、索引での位置の配列
+     * @param rowModelBuilder 番組一覧の1行に表示する内容の生成
+     */
+    public PagedChannelList(ChannelIndex index, int[] indexes,
+            ChannelRowModelBuilder rowModelBuilder) {
+        mIndex = index;
+        mIndexes = indexes;
+        mRowModelBuilder = rowModelBuilder;
+    }
+
+    /**
+     * 番組の数を取得する
+     * 
+     * @return 番組の数
+     */
+    public int size() {
+        return mIndexes.length;
+    }
+
+    /**
+     * 番組を取得する
+     * 
+     * @param position 位置
+     * @return 番組
+     */
+    public Channel getChannel(int position) {
+        return mIndex.getChannel(mIndexes[position]);
+    }
+
+    /**
+     * 番組を識別するIDを取得する 番組一覧の1行に表示する内容は生成しない。
+     * 
+     * @param position 位置
+     * @return 番組を識別するID
+     */
+    public long getId(int position) {
+        return mIndex.getId(mIndexes[position]);
+    }
+
+    /**
+     * 番組一覧の1行に表示する内容を取得する
+     * 
+     * キャッシュに無い場合は、指定した位置の1件だけを生成する。 周りの行は{@link #prebuild(int, int)}で別スレッドで生成しておく。
+     * 
+     * @param position 位置
+     * @return 番組一覧の1行に表示する内容
+     */
+    public ChannelRowModel getRowModel(int position) {
+        final int index = mIndexes[position];
+        ChannelRowModel rowModel = mIndex.getCachedRowModel(index);
+        if (rowModel == null) {
+            rowModel = mRowModelBuilder.build(mIndex.getChannel(index),
+                    System.currentTimeMillis());
+            mIndex.cacheRowModel(index, rowModel);
+        }
+        return rowModel;
+    }
+
+    /**
+     * 指定した範囲のうち、キャッシュに無い番組一覧の1行に表示する内容を生成する
+     * 
+     * 表示する前に別スレッドから呼ぶ。
+     * 
+     * @param start 範囲の始まりの位置
+     * @param end 範囲の終わりの位置（この位置は含まない）
+     * @return 生成した数
+     * @see RowModelPrebuilder
+     */
+    public int prebuild(int start, int end) {
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = start; i < end; ++i) {
+            final int index = mIndexes[i];
+            if (mIndex.getCachedRowModel(index) == null) {
+                mIndex.cacheRowModel(index,
+                        mRowModelBuilder.build(mIndex.getChannel(index), now));
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 番組の並びが同じか 番組一覧の1行に表示する内容は生成しない。
+     * 
+     * @param other 比較する番組のリスト
+     * @return 番組の並びが同じ場合はtrue
+     */
+    public boolean isSameOrder(PagedChannelList other) {
+        if (mIndex == other.mIndex && mIndexes == other.mIndexes) {
+            return true;
+        }
+        if (mIndexes.length != other.mIndexes.length) {
+            return false;
+        }
+        for (int i = 0; i < mIndexes.length; ++i) {
+            if (getId(i) != other.getId(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 索引を取得する
+     * 
+     * @return 索引
+     */
+    public ChannelIndex getIndex() {
+        return mIndex;
+    }
+}
@@ -0,0 +1,240 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * 再生状態の変化の通知 サービスからクライアントに渡すためにParcelableとする。
+ * 
+ * 変化後の状態をすべて持つので、クライアントは通知を受け取った後にサービスへ問い合わせる必要が無い。
+ * 通知の順序は通番で判断し、受け取った通知より古い通知は無視すること。
+ */
+public class PlayStateEvent implements Parcelable {
+
+    /**
+     * 通知の種類・変化の通知ではなく、問い合わせに対する現在の状態
+     */
+    public static final int WHAT_SNAPSHOT = -1;
+
+    /**
+     * 通知の種類 MediaPlayService#MSG_MEDIA_PLAY_SERVICE_*のいずれか。
+     */
+    private final int mWhat;
+
+    /**
+     * 変化後の再生状態 MediaPlayService#PLAY_STATE_*のいずれか。
+     */
+    private final int mPlayState;
+
+    /**
+     * 変化後の準備中・再生中のパス。 停止中の場合はnull。
+     */
+    private final String mPlayingPath;
+
+    /**
+     * 変化後の準備中・再生中の番組のタイトル。 停止中の場合はnull。
+     */
+    private final String mPlayingTitle;
+
+    /**
+     * 変化後の準備中・再生中の番組のアーティスト名など。 停止中の場合はnull。
+     */
+    private final String mPlayingContent;
+
+    /**
+     * 変化後の曲名。 不明な場合はnull。
+     */
+    private final String mStreamTitle;
+
+    /**
+     * 変化の元になった最後の要求のID。 要求が無い場合は0。
+     */
+    private final int mRequestId;
+
+    /**
+     * 通番 サービスが通知する度に増える。
+     */
+    private final long mSequence;
+
+    /**
+     * 通知した時刻（SystemClock#uptimeMillis）
+     */
+    private final long mTimestamp;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param what 通知の種類
+     * @param playState 変化後の再生状態
+     * @param playingPath 変化後の準備中・再生中のパス
+     * @param playingTitle 変化後の準備中・再生中の番組のタイトル
+     * @param playingContent 変化後の準備中・再生中の番組のアーティスト名など
+     * @param streamTitle 変化後の曲名
+     * @param requestId 変化の元になった最後の要求のID
+     * @param sequence 通番
+     * @param timestamp 通知した時刻（SystemClock#uptimeMillis）
+     */
+    public PlayStateEvent(int what, int playState, String playingPath, String playingTitle,
+            String playingContent, String streamTitle, int requestId, long sequence,
+            long timestamp) {
+        mWhat = what;
+        mPlayState = playState;
+        mPlayingPath = playingPath;
+        mPlayingTitle = playingTitle;
+        mPlayingContent = playingContent;
+        mStreamTitle = streamTitle;
+        mRequestId = requestId;
+        mSequence = sequence;
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Parcelから復元するコンストラクタ
+     * 
+     * @param in Parcel
+     */
+    private PlayStateEvent(Parcel in) {
+        mWhat = in.readInt();
+        mPlayState = in.readInt();
+        mPlayingPath = in.readString();
+        mPlayingTitle = in.readString();
+        mPlayingContent = in.readString();
+        mStreamTitle = in.readString();
+        mRequestId = in.readInt();
+        mSequence = in.readLong();
+        mTimestamp = in.readLong();
+    }
+
+    /**
+     * 通知の種類を取得する
+     * 
+     * @return 通知の種類。問い合わせに対する現在の状態の場合はWHAT_SNAPSHOT。
+     */
+    public int getWhat() {
+        return mWhat;
+    }
+
+    /**
+     * 変化後の再生状態を取得する
+     * 
+     * @return 変化後の再生状態
+     */
+    public int getPlayState() {
+        return mPlayState;
+    }
+
+    /**
+     * 変化後の準備中・再生中のパスを取得する
+     * 
+     * @return 変化後の準備中・再生中のパス。停止中の場合はnull。
+     */
+    public String getPlayingPath() {
+        return mPlayingPath;
+    }
+
+    /**
+     * 変化後の準備中・再生中の番組のタイトルを取得する
+     * 
+     * @return 変化後の準備中・再生中の番組のタイトル。停止中の場合はnull。
+     */
+    public String getPlayingTitle() {
+        return mPlayingTitle;
+    }
+
+    /**
+     * 変化後の準備中・再生中の番組のアーティスト名などを取得する
+     * 
+     * @return 変化後の準備中・再生中の番組のアーティスト名など。停止中の場合はnull。
+     */
+    public String getPlayingContent() {
+        return mPlayingContent;
+    }
+
+    /**
+     * 変化後の曲名を取得する
+     * 
+     * @return 変化後の曲名。不明な場合はnull。
+     */
+    public String getStreamTitle() {
+        return mStreamTitle;
+    }
+
+    /**
+     * 変化の元になった最後の要求のIDを取得する
+     * 
+     * @return 変化の元になった最後の要求のID。要求が無い場合は0。
+     */
+    public int getRequestId() {
+        return mRequestId;
+    }
+
+    /**
+     * 通番を取得する
+     * 
+     * @return 通番
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * 通知した時刻を取得する
+     * 
+     * @return 通知した時刻（SystemClock#uptimeMillis）
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mWhat);
+        dest.writeInt(mPlayState);
+        dest.writeString(mPlayingPath);
+        dest.writeString(mPlayingTitle);
+        dest.writeString(mPlayingContent);
+        dest.writeString(mStreamTitle);
+        dest.writeInt(mRequestId);
+        dest.writeLong(mSequence);
+        dest.writeLong(mTimestamp);
+    }
+
+    public static final Parcelable.Creator<PlayStateEvent> CREATOR = new Parcelable.Creator<PlayStateEvent>() {
+        @Override
+        public PlayStateEvent createFromParcel(Parcel in) {
+            return new PlayStateEvent(in);
+        }
+
+        @Override
+        public PlayStateEvent[] newArray(int size) {
+            return new PlayStateEvent[size];
+        }
+    };
+}
@@ -0,0 +1,256 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * 再生品質の統計 サービスからクライアントに渡すためにParcelableとする。
+ * 
+ * 計測値の種類毎に、直近の一定数の計測値の平均・中央値・最大値を持つ。
+ */
+public class PlaybackStats implements Parcelable {
+
+    /**
+     * 計測値の種類・再生要求から準備完了までの時間（ms）
+     */
+    public static final int METRIC_PREPARE = 0;
+
+    /**
+     * 計測値の種類・再生要求から最初に音声を出力するまでの時間（ms）
+     */
+    public static final int METRIC_FIRST_AUDIO = 1;
+
+    /**
+     * 計測値の種類・再生中に途切れてから再開するまでの時間（ms）
+     */
+    public static final int METRIC_REBUFFER = 2;
+
+    /**
+     * 計測値の種類・再生を開始してから終えるまでの時間（ms）
+     */
+    public static final int METRIC_SESSION = 3;
+
+    /**
+     * 計測値の種類・再生を開始してから終えるまでに受信したバイト数
+     */
+    public static final int METRIC_SESSION_BYTES = 4;
+
+    /**
+     * 計測値の種類の数
+     */
+    public static final int METRIC_COUNT = 5;
+
+    /**
+     * 準備の失敗の原因・通信エラー
+     */
+    public static final int CAUSE_IO = 0;
+
+    /**
+     * 準備の失敗の原因・未対応の形式
+     */
+    public static final int CAUSE_UNSUPPORTED = 1;
+
+    /**
+     * 準備の失敗の原因・その他
+     */
+    public static final int CAUSE_UNKNOWN = 2;
+
+    /**
+     * 準備の失敗の原因の数
+     */
+    public static final int CAUSE_COUNT = 3;
+
+    /**
+     * 計測値の種類の名前 toStringに使用する。
+     */
+    private static final String[] METRIC_NAMES = {
+            "prepare", "first audio", "rebuffer", "session", "session bytes"
+    };
+
+    /**
+     * 計測値の種類毎の、今までに計測した数
+     */
+    private final int[] mTotalCounts;
+
+    /**
+     * 計測値の種類毎の、統計に使った直近の計測値の数
+     */
+    private final int[] mSampleCounts;
+
+    /**
+     * 計測値の種類毎の平均
+     */
+    private final long[] mAverages;
+
+    /**
+     * 計測値の種類毎の中央値
+     */
+    private final long[] mMedians;
+
+    /**
+     * 計測値の種類毎の最大値
+     */
+    private final long[] mMaxima;
+
+    /**
+     * 原因毎の準備に失敗した数
+     */
+    private final int[] mFailureCounts;
+
+    /**
+     * コンストラクタ 配列はそのまま保持するので、渡した後に変更しないこと。
+     * 
+     * @param totalCounts 計測値の種類毎の、今までに計測した数
+     * @param sampleCounts 計測値の種類毎の、統計に使った直近の計測値の数
+     * @param averages 計測値の種類毎の平均
+     * @param medians 計測値の種類毎の中央値
+     * @param maxima 計測値の種類毎の最大値
+     * @param failureCounts 原因毎の準備に失敗した数
+     */
+    /* package */PlaybackStats(int[] totalCounts, int[] sampleCounts, long[] averages,
+            long[] medians, long[] maxima, int[] failureCounts) {
+        mTotalCounts = totalCounts;
+        mSampleCounts = sampleCounts;
+        mAverages = averages;
+        mMedians = medians;
+        mMaxima = maxima;
+        mFailureCounts = failureCounts;
+    }
+
+    /**
+     * Parcelから復元するコンストラクタ
+     * 
+     * @param in Parcel
+     */
+    private PlaybackStats(Parcel in) {
+        mTotalCounts = in.createIntArray();
+        mSampleCounts = in.createIntArray();
+        mAverages = in.createLongArray();
+        mMedians = in.createLongArray();
+        mMaxima = in.createLongArray();
+        mFailureCounts = in.createIntArray();
+    }
+
+    /**
+     * 今までに計測した数を取得する
+     * 
+     * @param metric 計測値の種類
+     * @return 今までに計測した数
+     */
+    public int getTotalCount(int metric) {
+        return mTotalCounts[metric];
+    }
+
+    /**
+     * 統計に使った直近の計測値の数を取得する
+     * 
+     * @param metric 計測値の種類
+     * @return 統計に使った直近の計測値の数
+     */
+    public int getSampleCount(int metric) {
+        return mSampleCounts[metric];
+    }
+
+    /**
+     * 直近の計測値の平均を取得する
+     * 
+     * @param metric 計測値の種類
+     * @return 平均。計測値が無い場合は0。
+     */
+    public long getAverage(int metric) {
+        return mAverages[metric];
+    }
+
+    /**
+     * 直近の計測値の中央値を取得する
+     * 
+     * @param metric 計測値の種類
+     * @return 中央値。計測値が無い場合は0。
+     */
+    public long getMedian(int metric) {
+        return mMedians[metric];
+    }
+
+    /**
+     * 直近の計測値の最大値を取得する
+     * 
+     * @param metric 計測値の種類
+     * @return 最大値。計測値が無い場合は0。
+     */
+    public long getMax(int metric) {
+        return mMaxima[metric];
+    }
+
+    /**
+     * 準備に失敗した数を取得する
+     * 
+     * @param cause 失敗の原因
+     * @return 準備に失敗した数
+     */
+    public int getFailureCount(int cause) {
+        return mFailureCounts[cause];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(512);
+        for (int i = 0; i < METRIC_COUNT; ++i) {
+            sb.append(String.format("%s: %d total, last %d avg %d med %d max %d\n",
+                    METRIC_NAMES[i], mTotalCounts[i], mSampleCounts[i], mAverages[i],
+                    mMedians[i], mMaxima[i]));
+        }
+        sb.append(String.format("prepare failures: io %d, unsupported %d, unknown %d",
+                mFailureCounts[CAUSE_IO], mFailureCounts[CAUSE_UNSUPPORTED],
+                mFailureCounts[CAUSE_UNKNOWN]));
+        return sb.toString();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeIntArray(mTotalCounts);
+        dest.writeIntArray(mSampleCounts);
+        dest.writeLongArray(mAverages);
+        dest.writeLongArray(mMedians);
+        dest.writeLongArray(mMaxima);
+        dest.writeIntArray(mFailureCounts);
+    }
+
+    public static final Parcelable.Creator<PlaybackStats> CREATOR = new Parcelable.Creator<PlaybackStats>() {
+        @Override
+        public PlaybackStats createFromParcel(Parcel in) {
+            return new PlaybackStats(in);
+        }
+
+        @Override
+        public PlaybackStats[] newArray(int size) {
+            return new PlaybackStats[size];
+        }
+    };
+}
@@ -0,0 +1,140 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.util.Arrays;
+
+/**
+ * 再生品質の計測値を記録する
+ * 
+ * 計測値の種類毎に、直近の一定数の計測値を固定長のlong配列にリングバッファとして持つ。
+ * 記録の度にオブジェクトを作らないので、再生中に記録し続けても負荷にならない。
+ * 記録はコマンドスレッド、統計の取得はBinderのスレッドから行われるので同期する。
+ */
+/* package */class PlaybackTelemetry {
+
+    /**
+     * 計測値の種類毎に持つ直近の計測値の数
+     */
+    private final int mCapacity;
+
+    /**
+     * 計測値の種類毎の直近の計測値
+     */
+    private final long[][] mSamples;
+
+    /**
+     * 計測値の種類毎の、今までに記録した数 次に書き込む位置はこれを容量で割った余り。
+     */
+    private final int[] mTotalCounts = new int[PlaybackStats.METRIC_COUNT];
+
+    /**
+     * 原因毎の準備に失敗した数
+     */
+    private final int[] mFailureCounts = new int[PlaybackStats.CAUSE_COUNT];
+
+    /**
+     * コンストラクタ
+     * 
+     * @param capacity 計測値の種類毎に持つ直近の計測値の数
+     */
+    public PlaybackTelemetry(int capacity) {
+        mCapacity = capacity;
+        mSamples = new long[PlaybackStats.METRIC_COUNT][capacity];
+    }
+
+    /**
+     * 計測値を記録する 容量を超えた場合は最も古い計測値を上書きする。
+     * 
+     * @param metric 計測値の種類
+     * @param value 計測値
+     * @see PlaybackStats#METRIC_PREPARE
+     * @see PlaybackStats#METRIC_FIRST_AUDIO
+     * @see PlaybackStats#METRIC_REBUFFER
+     * @see PlaybackStats#METRIC_SESSION
+     * @see PlaybackStats#METRIC_SESSION_BYTES
+     */
+    public synchronized void record(int metric, long value) {
+        mSamples[metric][mTotalCounts[metric] % mCapacity] = value;
+        ++mTotalCounts[metric];
+    }
+
+    /**
+     * 準備の失敗を記録する
+     * 
+     * @param cause 失敗の原因
+     * @see PlaybackStats#CAUSE_IO
+     * @see PlaybackStats#CAUSE_UNSUPPORTED
+     * @see PlaybackStats#CAUSE_UNKNOWN
+     */
+    public synchronized void recordFailure(int cause) {
+        ++mFailureCounts[cause];
+    }
+
+    /**
+     * 再生エンジンのエラーの種類を準備の失敗の原因に変換する
+     * 
+     * @param error 再生エンジンのエラーの種類
+     * @return 準備の失敗の原因
+     */
+    public static int toCause(int error) {
+        switch (error) {
+            case PlayerEngine.ERROR_IO:
+                return PlaybackStats.CAUSE_IO;
+            case PlayerEngine.ERROR_UNSUPPORTED:
+                return PlaybackStats.CAUSE_UNSUPPORTED;
+            default:
+                return PlaybackStats.CAUSE_UNKNOWN;
+        }
+    }
+
+    /**
+     * 統計を取得する
+     * 
+     * @return 統計
+     */
+    public synchronized PlaybackStats getStats() {
+        final int[] sampleCounts = new int[PlaybackStats.METRIC_COUNT];
+        final long[] averages = new long[PlaybackStats.METRIC_COUNT];
+        final long[] medians = new long[PlaybackStats.METRIC_COUNT];
+        final long[] maxima = new long[PlaybackStats.METRIC_COUNT];
+        for (int i = 0; i < PlaybackStats.METRIC_COUNT; ++i) {
+            final int n = Math.min(mTotalCounts[i], mCapacity);
+            sampleCounts[i] = n;
+            if (n == 0) {
+                continue;
+            }
+            final long[] sorted = Arrays.copyOf(mSamples[i], n);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long value : sorted) {
+                sum += value;
+            }
+            averages[i] = sum / n;
+            medians[i] = sorted[n / 2];
+            maxima[i] = sorted[n - 1];
+        }
+        return new PlaybackStats(mTotalCounts.clone(), sampleCounts, averages, medians, maxima,
+                mFailureCounts.clone());
+    }
+}
@@ -0,0 +1,204 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.IOException;
+
+/**
+ * 音声の再生エンジン
+ * 
+ * MediaPlayServiceの再生状態からはこのインターフェースを通して再生を操作する。
+ * Listenerのメソッドは、特に記載が無い限り再生エンジンを作成したスレッドで呼ばれる。
+ */
+/* package */interface PlayerEngine {
+
+    /**
+     * エラーの種類・通信エラー
+     */
+    public static final int ERROR_IO = 1;
+
+    /**
+     * エラーの種類・未対応の形式
+     */
+    public static final int ERROR_UNSUPPORTED = 2;
+
+    /**
+     * エラーの種類・その他
+     */
+    public static final int ERROR_UNKNOWN = 3;
+
+    /**
+     * 再生エンジンの状態の変化を受け取るリスナー
+     */
+    public interface Listener {
+
+        /**
+         * 再生の準備が完了した
+         * 
+         * @param engine 再生エンジン
+         */
+        public void onPrepared(PlayerEngine engine);
+
+        /**
+         * ストリームの終わりまで再生した
+         * 
+         * @param engine 再生エンジン
+         */
+        public void onCompletion(PlayerEngine engine);
+
+        /**
+         * エラーが発生した
+         * 
+         * @param engine 再生エンジン
+         * @param what エラーの種類
+         * @see PlayerEngine#ERROR_IO
+         * @see PlayerEngine#ERROR_UNSUPPORTED
+         * @see PlayerEngine#ERROR_UNKNOWN
+         */
+        public void onError(PlayerEngine engine, int what);
+
+        /**
+         * 再生中にバッファリングを開始・終了した
+         * 
+         * 再生エンジンが検知できない場合は呼ばれない。
+         * 
+         * @param engine 再生エンジン
+         * @param isBuffering バッファリングを開始した場合はtrue、終了した場合はfalse
+         */
+        public void onBufferingChanged(PlayerEngine engine, boolean isBuffering);
+    }
+
+    /**
+     * リスナーを設定する
+     * 
+     * @param listener リスナー。nullの場合は通知しない。
+     */
+    public void setListener(Listener listener);
+
+    /**
+     * 非同期で再生の準備を開始する 準備が完了するとListener#onPreparedが呼ばれる。
+     * 
+     * @param path 再生する音声のパス
+     * @throws IOException 準備を開始できなかった
+     */
+    public void prepareAsync(String path) throws IOException;
+
+    /**
+     * 再生を開始する Listener#onPreparedが呼ばれた後に呼ぶこと。
+     */
+    public void start();
+
+    /**
+     * 再生を停止する
+     */
+    public void stop();
+
+    /**
+     * 再生エンジンを解放する 解放後は使用しないこと。
+     */
+    public void release();
+
+    /**
+     * 再生エンジンを再利用できる状態に戻す 戻した後はprepareAsyncから使用できる。
+     * 
+     * @return 再利用できる場合はtrue。falseの場合は何もしないので、releaseすること。
+     */
+    public boolean reset();
+
+    /**
+     * 受信を続けたまま一時停止する 時間をずらせない場合は何もしない。
+     * 
+     * @return 一時停止した場合はtrue
+     */
+    public boolean pause();
+
+    /**
+     * 一時停止した位置から再生を再開する
+     */
+    public void resume();
+
+    /**
+     * 最新から指定した時間だけ前の位置から再生し直す 準備ができると、Listenerに通知せずに再生を開始する。
+     * 
+     * @param delayMs 最新からの時間（ms）。0の場合は最新の位置に戻る。
+     * @return 再生し直す場合はtrue。時間をずらせない場合はfalseで、何もしない。
+     * @throws IOException 再生し直せなかった
+     */
+    public boolean timeShift(long delayMs) throws IOException;
+
+    /**
+     * 再生している位置が、最新からどれだけ前かを取得する 再生中以外のスレッドから呼ばれる場合がある。
+     * 
+     * @return 最新からの時間（ms）。時間をずらせない場合は-1。
+     */
+    public long getTimeShiftDelayMs();
+
+    /**
+     * 最新からどれだけ前まで遡れるかを取得する 再生中以外のスレッドから呼ばれる場合がある。
+     * 
+     * @return 遡れる時間（ms）。時間をずらせない場合は-1。
+     */
+    public long getTimeShiftAvailableMs();
+
+    /**
+     * 再生中か
+     * 
+     * @return 再生中の場合はtrue
+     */
+    public boolean isPlaying();
+
+    /**
+     * 音量を設定する
+     * 
+     * @param volume 音量（0.0～1.0）
+     */
+    public void setVolume(float volume);
+
+    /**
+     * 準備の開始から最初に音声を出力するまでの時間を取得する
+     * 
+     * @return 準備の開始から最初に音声を出力するまでの時間（ms）。まだ出力していない場合は-1。
+     */
+    public long getTimeToFirstAudio();
+
+    /**
+     * 先読みバッファの状態を取得する 再生中以外のスレッドから呼ばれる場合がある。
+     * 
+     * @return 先読みバッファの状態。ジッタバッファを使っていない場合はnull。
+     */
+    public BufferHealth getBufferHealth();
+
+    /**
+     * 準備の開始から受信したバイト数を取得する 再生中以外のスレッドから呼ばれる場合がある。
+     * 
+     * @return 受信したバイト数。分からない場合は-1。
+     */
+    public long getReceivedBytes();
+
+    /**
+     * 再生エンジンの名前を取得する ログに使用する。
+     * 
+     * @return 再生エンジンの名前
+     */
+    public String getName();
+}
@@ -0,0 +1,209 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * 再生エンジンを再利用する
+ * 
+ * 番組を切り替える度にMediaPlayerを解放して作り直すと、ネイティブのデコーダも作り直すことになるので、
+ * 使い終わった再生エンジンはresetして1つだけ取っておく。 エラーが発生した再生エンジンは再利用せずに解放する。
+ * 取っておいた再生エンジンは、一定時間使われない場合とメモリが不足した場合に解放する。
+ * 再生エンジンはコマンドスレッドで操作するので、一定時間使われない場合の解放もコマンドスレッドで行う。
+ */
+/* package */class PlayerRecycler {
+
+    /**
+     * 使われない再生エンジンを解放するまでの時間（ms）
+     */
+    private final long mIdleTimeoutMs;
+
+    /**
+     * 取っておいた再生エンジン。 無い場合はnull。
+     */
+    private PlayerEngine mSpare;
+
+    /**
+     * 一定時間使われない再生エンジンを解放するためのHandler
+     */
+    private final Handler mHandler;
+
+    /**
+     * 再生エンジンを作成した数
+     */
+    private int mCreatedCount = 0;
+
+    /**
+     * 再生エンジンを再利用した数
+     */
+    private int mReusedCount = 0;
+
+    /**
+     * 作成した再生エンジンの準備時間の合計（ms）
+     */
+    private long mCreatedPrepareMs = 0;
+
+    /**
+     * 再利用した再生エンジンの準備時間の合計（ms）
+     */
+    private long mReusedPrepareMs = 0;
+
+    /**
+     * 作成した再生エンジンの準備時間を計測した数
+     */
+    private int mCreatedPrepareCount = 0;
+
+    /**
+     * 再利用した再生エンジンの準備時間を計測した数
+     */
+    private int mReusedPrepareCount = 0;
+
+    /**
+     * 一定時間使われない再生エンジンを解放する
+     */
+    private final Runnable mIdleReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "Release idle player.");
+            }
+            trim();
+        }
+    };
+
+    /**
+     * コンストラクタ
+     * 
+     * @param handler 再生エンジンを操作するスレッドのHandler。使われない再生エンジンはこのHandlerで解放する。
+     * @param idleTimeoutMs 使われない再生エンジンを解放するまでの時間（ms）
+     */
+    public PlayerRecycler(Handler handler, long idleTimeoutMs) {
+        mHandler = handler;
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * 取っておいた再生エンジンを取得する
+     * 
+     * @return 取っておいた再生エンジン。無い場合はnull。
+     */
+    public synchronized PlayerEngine obtain() {
+        final PlayerEngine engine = mSpare;
+        if (engine != null) {
+            mSpare = null;
+            mHandler.removeCallbacks(mIdleReleaseRunnable);
+            ++mReusedCount;
+        }
+        return engine;
+    }
+
+    /**
+     * 再生エンジンを作成したことを記録する
+     */
+    public synchronized void onCreated() {
+        ++mCreatedCount;
+    }
+
+    /**
+     * 使い終わった再生エンジンを返す 再利用できない場合は解放する。
+     * 
+     * @param engine 使い終わった再生エンジン。nullの場合は何もしない。
+     */
+    public void recycle(PlayerEngine engine) {
+        if (engine == null) {
+            return;
+        }
+        engine.setListener(null);
+        final boolean reusable;
+        try {
+            reusable = engine.reset();
+        } catch (IllegalStateException e) {
+            Log.w(C.TAG, engine.getName() + " can't be reset(" + e.toString() + ").");
+            engine.release();
+            return;
+        }
+        if (reusable == false) {
+            engine.release();
+            return;
+        }
+
+        final PlayerEngine old;
+        synchronized (this) {
+            old = mSpare;
+            mSpare = engine;
+            mHandler.removeCallbacks(mIdleReleaseRunnable);
+            mHandler.postDelayed(mIdleReleaseRunnable, mIdleTimeoutMs);
+        }
+        // 取っておくのは1つだけ
+        if (old != null && old != engine) {
+            old.release();
+        }
+    }
+
+    /**
+     * 取っておいた再生エンジンを解放する
+     */
+    public void trim() {
+        final PlayerEngine spare;
+        synchronized (this) {
+            spare = mSpare;
+            mSpare = null;
+            mHandler.removeCallbacks(mIdleReleaseRunnable);
+        }
+        if (spare != null) {
+            spare.release();
+        }
+    }
+
+    /**
+     * 準備にかかった時間を記録する
+     * 
+     * @param reused 再利用した再生エンジンか
+     * @param prepareMs 準備にかかった時間（ms）
+     */
+    public synchronized void recordPrepareTime(boolean reused, long prepareMs) {
+        if (reused) {
+            mReusedPrepareMs += prepareMs;
+            ++mReusedPrepareCount;
+        } else {
+            mCreatedPrepareMs += prepareMs;
+            ++mCreatedPrepareCount;
+        }
+    }
+
+    /**
+     * 再利用の統計を取得する
+     * 
+     * @return 再利用の統計
+     */
+    public synchronized String getReport() {
+        return String.format(
+                "player: %d created (avg prepare %dms), %d reused (avg prepare %dms), spare %s",
+                mCreatedCount, (mCreatedPrepareCount != 0) ? mCreatedPrepareMs
+                        / mCreatedPrepareCount : 0, mReusedCount,
+                (mReusedPrepareCount != 0) ? mReusedPrepareMs / mReusedPrepareCount : 0,
+                (mSpare != null) ? mSpare.getName() : "none");
+    }
+}
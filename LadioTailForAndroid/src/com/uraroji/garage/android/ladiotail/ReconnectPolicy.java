@@ -0,0 +1,75 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+/**
+ * 途切れたストリームに接続し直す間隔と回数を決める
+ * 
+ * 再接続の回数は、続けて途切れた場合に引き継ぐ。 再接続してからしばらく再生し続けた場合は、次に途切れた時は1回目からやり直す。
+ * 状態を持たないので、Androidの無い環境でも確かめられる。
+ */
+/* package */final class ReconnectPolicy {
+
+    /**
+     * コンストラクタ インスタンスは作らない
+     */
+    private ReconnectPolicy() {
+    }
+
+    /**
+     * 接続し直すまでの待ち時間を取得する 待ち時間は接続し直す度に倍になり、最大値で止まる。
+     * 
+     * @param attempt 何回目の再接続か（1から）
+     * @return 待ち時間（ms）
+     */
+    public static long getDelayMs(int attempt) {
+        // 大きな回数でシフトが桁あふれしないように抑える
+        final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        return Math.min(C.RECONNECT_BASE_MS << shift, C.RECONNECT_MAX_MS);
+    }
+
+    /**
+     * ストリームが途切れた時の再接続が何回目かを取得する
+     * 
+     * @param lastAttempt 今の再生が何回目の再接続で繋がったか。再接続ではない場合は0。
+     * @param playedMs 今の再生を続けた時間（ms）
+     * @return 何回目の再接続か（1から）
+     */
+    public static int getNextAttempt(int lastAttempt, long playedMs) {
+        if (lastAttempt <= 0 || playedMs >= C.RECONNECT_STABLE_MS) {
+            return 1;
+        }
+        // 繋がってもすぐ途切れる場合は、回数を引き継いで諦められるようにする
+        return lastAttempt + 1;
+    }
+
+    /**
+     * 接続し直すか
+     * 
+     * @param attempt 何回目の再接続か（1から）
+     * @return 回数が残っている場合はtrue
+     */
+    public static boolean canAttempt(int attempt) {
+        return attempt >= 1 && attempt <= C.RECONNECT_MAX_ATTEMPTS;
+    }
+}
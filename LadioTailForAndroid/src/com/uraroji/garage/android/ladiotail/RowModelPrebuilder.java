@@ -0,0 +1,116 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+/**
+ * 番組一覧の1行に表示する内容を、表示する前に別スレッドで生成する
+ * 
+ * 表示している行のページと前後のページを{@link PagedChannelList#prebuild(int, int)}で生成しておくので、
+ * スクロールしてもUIスレッドで生成することはほとんどない。 生成が間に合わなかった行だけはUIスレッドで1行ずつ生成する。
+ * 要求はページが変わった時だけ送るので、表示する度に何かを確保することはない。
+ */
+/* package */class RowModelPrebuilder {
+
+    /**
+     * 生成のメッセージ
+     */
+    private static final int MSG_PREBUILD = 0;
+
+    /**
+     * 生成を行うスレッド
+     */
+    private final HandlerThread mThread;
+
+    /**
+     * 生成を行うスレッドのHandler
+     */
+    private final Handler mHandler;
+
+    /**
+     * 最後に要求した番組のリスト。 UIスレッドでのみ使用する。
+     */
+    private PagedChannelList mLastList;
+
+    /**
+     * 最後に要求したページ。 UIスレッドでのみ使用する。
+     */
+    private int mLastPage = -1;
+
+    /**
+     * コンストラクタ 生成を行うスレッドを開始する。
+     */
+    public RowModelPrebuilder() {
+        // スクロール中の描画を邪魔しないよう、UIスレッドより低い優先度で生成する
+        mThread = new HandlerThread("RowModelPrebuilder", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_PREBUILD:
+                        ((PagedChannelList) msg.obj).prebuild(msg.arg1, msg.arg2);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * 指定した位置のページと前後のページの生成を要求する 前回と同じページの場合は何もしない。
+     * 
+     * UIスレッドから呼ぶこと。
+     * 
+     * @param channelList 番組のリスト
+     * @param position 表示する位置
+     */
+    public void request(PagedChannelList channelList, int position) {
+        final int page = position / C.ROW_MODEL_PAGE_SIZE;
+        if (channelList == mLastList && page == mLastPage) {
+            return;
+        }
+        mLastList = channelList;
+        mLastPage = page;
+
+        // 古い要求は生成しても表示されないので取り消す
+        mHandler.removeMessages(MSG_PREBUILD);
+        final int start = Math.max(page - 1, 0) * C.ROW_MODEL_PAGE_SIZE;
+        final int end = Math.min((page + 2) * C.ROW_MODEL_PAGE_SIZE, channelList.size());
+        mHandler.sendMessage(mHandler.obtainMessage(MSG_PREBUILD, start, end, channelList));
+    }
+
+    /**
+     * 生成を行うスレッドを終了する
+     */
+    public void quit() {
+        mHandler.removeMessages(MSG_PREBUILD);
+        mLastList = null;
+        mThread.quit();
+    }
+}
@@ -0,0 +1,131 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * 起動時の処理の区間を記録する
+ * 
+ * Android 4.3以降ではsystraceで区間名が表示されるよう{@link Trace}に区間を記録する。
+ * また、各区間と起動から最初の描画までの時間をログに出力する。 UIスレッドからのみ使用すること。
+ */
+public class StartupTrace {
+
+    /**
+     * 起動の開始時刻（ms）。 起動の開始を記録していない場合は-1。
+     */
+    private static long mStartTime = -1;
+
+    /**
+     * 起動から最初の描画までの時間（ms）。 まだ描画していない場合は-1。
+     */
+    private static long mTimeToFirstFrame = -1;
+
+    /**
+     * 記録中の区間名のスタック
+     */
+    private static final ArrayList<String> mSectionNames = new ArrayList<String>();
+
+    /**
+     * 記録中の区間の開始時刻（ms）のスタック
+     */
+    private static final ArrayList<Long> mSectionStartTimes = new ArrayList<Long>();
+
+    /**
+     * コンストラクタ 静的メソッドのみなのでprivateとする
+     */
+    private StartupTrace() {
+    }
+
+    /**
+     * 起動の開始を記録する
+     */
+    public static void start() {
+        mStartTime = SystemClock.uptimeMillis();
+        mTimeToFirstFrame = -1;
+        mSectionNames.clear();
+        mSectionStartTimes.clear();
+    }
+
+    /**
+     * 区間の開始を記録する 必ず{@link StartupTrace#endSection()}と対にすること。
+     * 
+     * @param name 区間名
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+        mSectionNames.add(name);
+        mSectionStartTimes.add(SystemClock.uptimeMillis());
+    }
+
+    /**
+     * 最後に開始した区間の終了を記録する
+     */
+    public static void endSection() {
+        if (mSectionNames.isEmpty()) {
+            Log.w(C.TAG, "StartupTrace#endSection is called without beginSection.");
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+        final int last = mSectionNames.size() - 1;
+        final String name = mSectionNames.remove(last);
+        final long startTime = mSectionStartTimes.remove(last);
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, String.format("Startup section %s took %dms.", name,
+                    SystemClock.uptimeMillis() - startTime));
+        }
+    }
+
+    /**
+     * 最初の描画を記録する 2回目以降の呼び出しは無視する。
+     */
+    public static void firstFrame() {
+        if (mStartTime < 0 || mTimeToFirstFrame >= 0) {
+            return;
+        }
+        mTimeToFirstFrame = SystemClock.uptimeMillis() - mStartTime;
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, String.format("Time to first frame is %dms.", mTimeToFirstFrame));
+        }
+    }
+
+    /**
+     * 起動から最初の描画までの時間を取得する
+     * 
+     * @return 起動から最初の描画までの時間（ms）。まだ描画していない場合は-1。
+     */
+    public static long getTimeToFirstFrame() {
+        return mTimeToFirstFrame;
+    }
+}
@@ -0,0 +1,322 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+
+/**
+ * 再生されそうな番組のストリームに前もって接続しておく
+ * 
+ * ストリーミングプロキシを使用している場合は、プロキシのセッションを開いて先読みを始めておき、
+ * 有効期限内に同じパスが再生された場合はそのセッションを再生に引き渡す。 プロキシを使用していない場合は
+ * 名前解決のみを行う。 同時に準備しておく数には上限があり、超えた場合は古いものから破棄する。
+ */
+/* package */class StreamPrewarmer {
+
+    /**
+     * ストリーミングプロキシ。 使用しない場合はnull。
+     */
+    private final StreamProxy mStreamProxy;
+
+    /**
+     * 同時に準備しておく最大数
+     */
+    private final int mMaxInFlight;
+
+    /**
+     * 準備の有効期限（ms）
+     */
+    private final long mTtlMs;
+
+    /**
+     * 準備中のストリーム。 古い順。
+     */
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+
+    /**
+     * 有効期限切れの準備を破棄するためのHandler
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 準備の要求数
+     */
+    private int mRequestCount = 0;
+
+    /**
+     * 準備したストリームが再生された数
+     */
+    private int mHitCount = 0;
+
+    /**
+     * 準備したストリームが再生されずに破棄された数
+     */
+    private int mWasteCount = 0;
+
+    /**
+     * 準備によって短縮できた時間の合計（ms）
+     */
+    private long mSavedMs = 0;
+
+    /**
+     * 有効期限切れの準備を破棄する
+     */
+    private final Runnable mExpireRunnable = new Runnable() {
+        @Override
+        public void run() {
+            expire();
+        }
+    };
+
+    /**
+     * コンストラクタ
+     * 
+     * @param streamProxy ストリーミングプロキシ。使用しない場合はnull。
+     * @param maxInFlight 同時に準備しておく最大数
+     * @param ttlMs 準備の有効期限（ms）
+     */
+    public StreamPrewarmer(StreamProxy streamProxy, int maxInFlight, long ttlMs) {
+        mStreamProxy = streamProxy;
+        mMaxInFlight = maxInFlight;
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * ストリームに前もって接続する 既に準備中の場合は有効期限を延ばす。
+     * 
+     * @param path 再生されそうな音声のパス
+     */
+    public void prewarm(String path) {
+        if (path == null) {
+            return;
+        }
+
+        synchronized (mEntries) {
+            ++mRequestCount;
+
+            final Entry existing = findEntry(path);
+            if (existing != null) {
+                mEntries.remove(existing);
+                existing.mmExpireTime = SystemClock.uptimeMillis() + mTtlMs;
+                mEntries.add(existing);
+                scheduleExpire();
+                return;
+            }
+
+            // 上限を超える場合は古いものから破棄する
+            while (mEntries.size() >= mMaxInFlight) {
+                discard(mEntries.remove(0));
+            }
+
+            final Entry entry = new Entry(path);
+            if (mStreamProxy != null) {
+                entry.mmProxyUrl = mStreamProxy.openSession(path);
+            }
+            if (entry.mmProxyUrl == null) {
+                resolveHost(path);
+            }
+            mEntries.add(entry);
+            scheduleExpire();
+        }
+
+        if (C.LOCAL_LOG) {
+            Log.v(C.TAG, "Prewarming " + path + ".");
+        }
+    }
+
+    /**
+     * 準備したストリームを再生に引き渡す 引き渡したストリームは、再生側でセッションを閉じること。
+     * 
+     * @param path 再生する音声のパス
+     * @return 準備したプロキシのセッションのURL。準備していない場合、または名前解決のみの場合はnull。
+     */
+    public String take(String path) {
+        synchronized (mEntries) {
+            final Entry entry = findEntry(path);
+            if (entry == null) {
+                return null;
+            }
+            mEntries.remove(entry);
+
+            final long now = SystemClock.uptimeMillis();
+            if (entry.mmExpireTime < now) {
+                discard(entry);
+                return null;
+            }
+            ++mHitCount;
+            // 準備を始めてから再生までの時間の分、接続と先読みが先に進んでいる
+            final long saved = Math.min(now - entry.mmStartTime, mTtlMs);
+            mSavedMs += saved;
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "Prewarmed stream is used, saved " + saved + "ms.");
+            }
+            return entry.mmProxyUrl;
+        }
+    }
+
+    /**
+     * 全ての準備を破棄する
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            for (Entry entry : mEntries) {
+                discard(entry);
+            }
+            mEntries.clear();
+        }
+        mHandler.removeCallbacks(mExpireRunnable);
+    }
+
+    /**
+     * 準備の統計を取得する
+     * 
+     * @return 準備の統計
+     */
+    public String getReport() {
+        synchronized (mEntries) {
+            return String.format(
+                    "prewarm: %d requests, %d hits (%.1f%%), %d wasted, %dms saved, %d in flight",
+                    mRequestCount, mHitCount, (mRequestCount != 0) ? mHitCount * 100.0
+                            / mRequestCount : 0.0, mWasteCount, mSavedMs, mEntries.size());
+        }
+    }
+
+    /**
+     * 有効期限切れの準備を破棄する
+     */
+    private void expire() {
+        synchronized (mEntries) {
+            final long now = SystemClock.uptimeMillis();
+            while (mEntries.isEmpty() == false && mEntries.get(0).mmExpireTime <= now) {
+                discard(mEntries.remove(0));
+            }
+            scheduleExpire();
+        }
+    }
+
+    /**
+     * 最も古い準備の有効期限に破棄するよう予約する mEntriesを同期してから呼ぶこと。
+     */
+    private void scheduleExpire() {
+        mHandler.removeCallbacks(mExpireRunnable);
+        if (mEntries.isEmpty() == false) {
+            mHandler.postAtTime(mExpireRunnable, mEntries.get(0).mmExpireTime);
+        }
+    }
+
+    /**
+     * 準備を破棄する
+     * 
+     * @param entry 準備
+     */
+    private void discard(Entry entry) {
+        ++mWasteCount;
+        if (entry.mmProxyUrl != null) {
+            mStreamProxy.closeSession(entry.mmProxyUrl);
+        }
+    }
+
+    /**
+     * 準備を探す mEntriesを同期してから呼ぶこと。
+     * 
+     * @param path 音声のパス
+     * @return 準備。無い場合はnull。
+     */
+    private Entry findEntry(String path) {
+        for (Entry entry : mEntries) {
+            if (entry.mmPath.equals(path)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 別スレッドで名前解決して、結果をキャッシュさせる
+     * 
+     * @param path 音声のパス
+     */
+    private static void resolveHost(String path) {
+        final String host;
+        try {
+            host = new URL(path).getHost();
+        } catch (MalformedURLException e) {
+            return;
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InetAddress.getByName(host);
+                } catch (UnknownHostException e) {
+                    ;
+                }
+            }
+        }, "StreamPrewarmer-resolve").start();
+    }
+
+    /**
+     * 準備中のストリーム
+     */
+    private static class Entry {
+
+        /**
+         * 音声のパス
+         */
+        private final String mmPath;
+
+        /**
+         * 準備を始めた時刻（ms）
+         */
+        private final long mmStartTime;
+
+        /**
+         * 有効期限（ms）
+         */
+        private long mmExpireTime;
+
+        /**
+         * プロキシのセッションのURL。 名前解決のみの場合はnull。
+         */
+        private String mmProxyUrl;
+
+        /**
+         * コンストラクタ
+         * 
+         * @param path 音声のパス
+         */
+        public Entry(String path) {
+            mmPath = path;
+            mmStartTime = SystemClock.uptimeMillis();
+        }
+    }
+}
@@ -0,0 +1,1480 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * MediaPlayerとねとらじの配信サーバの間に入るローカルのストリーミングプロキシ
+ * 
+ * MediaPlayerには{@link #openSession(String)}が返す"http://127.0.0.1:port/stream/id"を再生させる。
+ * プロキシは配信サーバから受信したデータを大きな先読みバッファ（ダイレクトByteBuffer）に溜め、ICYメタデータを
+ * 取り除いてからMediaPlayerに渡す。 取り除いたメタデータの曲名（StreamTitle）が変わった場合は
+ * {@link OnStreamTitleChangedListener}に通知する。 配信サーバとの接続が切れた場合は、MediaPlayerとの接続を保ったまま
+ * 待ち時間を倍にしながら接続し直す。 通信はすべて1つのセレクタスレッドで行う。
+ * 
+ * 時間をずらした再生を設定した場合は、受信したデータをファイルのリングバッファ（{@link TimeShiftBuffer}）に溜め、
+ * MediaPlayerには"?delay=ms"を付けたURLで最新より前の位置から送る。
+ * 
+ * Androidに依存しないので、JVM上でローカルのサーバを相手に試験できる。
+ */
+public class StreamProxy {
+
+    /**
+     * ローカルのURLのパスの接頭辞
+     */
+    private static final String PATH_PREFIX = "/stream/";
+
+    /**
+     * 配信サーバから1回に受信する最大バイト数
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * 応答ヘッダの最大バイト数
+     */
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+
+    /**
+     * リダイレクトを辿る最大回数
+     */
+    private static final int MAX_REDIRECT = 3;
+
+    /**
+     * 配信サーバがビットレートを返さない場合にジッタバッファが仮定するビットレート（kbps）
+     */
+    private static final int DEFAULT_BITRATE = 128;
+
+    /**
+     * 曲名の変化を受け取るリスナー
+     */
+    public interface OnStreamTitleChangedListener {
+
+        /**
+         * 曲名が変わった セレクタスレッドで呼ばれるので、時間のかかる処理はしないこと。
+         * 
+         * @param upstreamUrl openSessionに渡した配信サーバのURL
+         * @param title 曲名。空の場合はnull。
+         */
+        public void onStreamTitleChanged(String upstreamUrl, String title);
+    }
+
+    /**
+     * 以降に開くセッションの先読みバッファのバイト数
+     */
+    private volatile int mBufferSize;
+
+    /**
+     * 接続し直す最大回数
+     */
+    private final int mMaxReconnect;
+
+    /**
+     * 接続し直すまでの待ち時間の基準値（ms）
+     */
+    private final long mReconnectBaseMs;
+
+    /**
+     * 接続し直すまでの待ち時間の最大値（ms）
+     */
+    private final long mReconnectMaxMs;
+
+    /**
+     * ジッタバッファの目標量の最小値（ms）
+     */
+    private volatile long mJitterBufferMinMs = 0;
+
+    /**
+     * ジッタバッファの目標量の最大値（ms）。 0の場合はMediaPlayerに溜まった分をすぐに送る。
+     */
+    private volatile long mJitterBufferMaxMs = 0;
+
+    /**
+     * 再生速度より先行してMediaPlayerに送る量（ms）
+     */
+    private volatile long mJitterBufferLeadMs = 0;
+
+    /**
+     * 時間をずらして再生するためのファイルを置くディレクトリ。 使わない場合はnull。
+     */
+    private volatile File mTimeShiftDirectory;
+
+    /**
+     * 時間をずらして再生するために溜める最大の時間（ms）
+     */
+    private volatile long mTimeShiftMaxMs = 0;
+
+    /**
+     * 時間をずらして再生するために溜める最大のバイト数
+     */
+    private volatile int mTimeShiftMaxBytes = 0;
+
+    /**
+     * セレクタ
+     */
+    private Selector mSelector;
+
+    /**
+     * MediaPlayerからの接続を受け付けるチャンネル
+     */
+    private ServerSocketChannel mServerChannel;
+
+    /**
+     * セレクタスレッド
+     */
+    private Thread mThread;
+
+    /**
+     * 動作中か
+     */
+    private volatile boolean mIsRunning = false;
+
+    /**
+     * セッション。 キーはセッションID。 自身で同期する。
+     */
+    private final HashMap<Integer, Session> mSessions = new HashMap<Integer, Session>();
+
+    /**
+     * 次のセッションID
+     */
+    private int mNextSessionId = 1;
+
+    /**
+     * セレクタスレッドで実行する処理 自身で同期する。
+     */
+    private final ArrayList<Runnable> mPendingTasks = new ArrayList<Runnable>();
+
+    /**
+     * 曲名の変化を受け取るリスナー。 受け取らない場合はnull。
+     */
+    private volatile OnStreamTitleChangedListener mOnStreamTitleChangedListener;
+
+    /**
+     * 配信サーバから受信するためのバッファ セレクタスレッドでのみ使用する。
+     */
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+
+    /**
+     * コンストラクタ
+     * 
+     * @param bufferSize セッション毎の先読みバッファのバイト数
+     * @param maxReconnect 配信サーバに接続し直す最大回数
+     * @param reconnectBaseMs 接続し直すまでの待ち時間の基準値（ms）。 接続し直す度に倍になる。
+     * @param reconnectMaxMs 接続し直すまでの待ち時間の最大値（ms）
+     */
+    public StreamProxy(int bufferSize, int maxReconnect, long reconnectBaseMs,
+            long reconnectMaxMs) {
+        mBufferSize = bufferSize;
+        mMaxReconnect = maxReconnect;
+        mReconnectBaseMs = reconnectBaseMs;
+        mReconnectMaxMs = reconnectMaxMs;
+    }
+
+    /**
+     * プロキシを開始する
+     * 
+     * @throws IOException ローカルのポートを開けなかった
+     */
+    public synchronized void start() throws IOException {
+        if (mIsRunning) {
+            return;
+        }
+
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.socket().bind(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mServerChannel.configureBlocking(false);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        mIsRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "StreamProxy");
+        mThread.start();
+    }
+
+    /**
+     * プロキシを停止する 全てのセッションを閉じる。
+     */
+    public synchronized void stop() {
+        if (mIsRunning == false) {
+            return;
+        }
+        // 時間をずらすためのファイルを削除するため、セレクタスレッドの終わりにセッションを閉じる
+        for (final Session session : getSessions()) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    session.close();
+                }
+            });
+        }
+        mIsRunning = false;
+        mSelector.wakeup();
+        synchronized (mSessions) {
+            mSessions.clear();
+        }
+    }
+
+    /**
+     * ローカルのポート番号を取得する
+     * 
+     * @return ローカルのポート番号。開始していない場合は-1。
+     */
+    public synchronized int getPort() {
+        return (mServerChannel != null) ? mServerChannel.socket().getLocalPort() : -1;
+    }
+
+    /**
+     * 曲名の変化を受け取るリスナーを設定する
+     * 
+     * @param listener リスナー。nullの場合は通知しない。
+     */
+    public void setOnStreamTitleChangedListener(OnStreamTitleChangedListener listener) {
+        mOnStreamTitleChangedListener = listener;
+    }
+
+    /**
+     * ジッタバッファを設定する 以降に開いたセッションに適用する。
+     * 
+     * 設定すると、先読みバッファに目標量まで溜めてから、再生速度に合わせてMediaPlayerに送る。
+     * 目標量は受信速度に合わせて最小値と最大値の間で変わる。
+     * 
+     * @param minMs 目標量の最小値（ms）
+     * @param maxMs 目標量の最大値（ms）。0の場合は溜めずにすぐに送る。
+     * @param leadMs 再生速度より先行してMediaPlayerに送る量（ms）
+     */
+    public void setJitterBuffer(long minMs, long maxMs, long leadMs) {
+        mJitterBufferMinMs = minMs;
+        mJitterBufferMaxMs = maxMs;
+        mJitterBufferLeadMs = leadMs;
+    }
+
+    /**
+     * 先読みバッファの大きさを変更する 以降に開いたセッションに適用する。 メモリが不足した場合に縮める。
+     * 
+     * @param bufferSize セッション毎の先読みバッファのバイト数
+     */
+    public void setBufferSize(int bufferSize) {
+        mBufferSize = bufferSize;
+    }
+
+    /**
+     * 時間をずらした再生を設定する 以降に開いたセッションに適用する。
+     * 
+     * 設定すると、受信したデータをセッション毎のファイルのリングバッファに溜め、MediaPlayerにはそこから送る。
+     * MediaPlayerが読まない間も受信を続けるので、一時停止した位置や過去の位置から配信サーバに接続し直さずに再生できる。
+     * ファイルはセッションを閉じると削除する。 前回の実行で残ったファイルはここで削除する。
+     * 
+     * @param directory ファイルを置くディレクトリ。nullの場合は使わない。
+     * @param maxMs 溜める最大の時間（ms）
+     * @param maxBytes 溜める最大のバイト数。ビットレートから求めたバイト数がこれを超える場合はこれに抑える。
+     */
+    public void setTimeShift(File directory, long maxMs, int maxBytes) {
+        if (directory != null) {
+            directory.mkdirs();
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+        mTimeShiftMaxMs = maxMs;
+        mTimeShiftMaxBytes = maxBytes;
+        mTimeShiftDirectory = directory;
+    }
+
+    /**
+     * セッションを開く 配信サーバへの接続と先読みをすぐに開始する。
+     * 
+     * @param upstreamUrl 配信サーバのURL
+     * @return MediaPlayerに渡すローカルのURL。プロキシが対応していないURLの場合はnull。
+     */
+    public String openSession(String upstreamUrl) {
+        if (mIsRunning == false) {
+            return null;
+        }
+        final URL url;
+        try {
+            url = new URL(upstreamUrl);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if ("http".equalsIgnoreCase(url.getProtocol()) == false) {
+            return null;
+        }
+
+        final Session session;
+        synchronized (mSessions) {
+            session = new Session(mNextSessionId++, upstreamUrl, url);
+            mSessions.put(session.mmId, session);
+        }
+        resolveAndConnect(session, url);
+        return "http://127.0.0.1:" + getPort() + PATH_PREFIX + session.mmId;
+    }
+
+    /**
+     * セッションを閉じる
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     */
+    public void closeSession(String localUrl) {
+        final Session session;
+        synchronized (mSessions) {
+            session = mSessions.remove(parseSessionId(localUrl));
+        }
+        if (session == null) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                session.close();
+            }
+        });
+    }
+
+    /**
+     * セッションが配信サーバに接続し直した回数を取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return 接続し直した回数。セッションが無い場合は-1。
+     */
+    public int getReconnectCount(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        return (session != null) ? session.mmReconnectCount : -1;
+    }
+
+    /**
+     * セッションの先読みバッファに溜まっているバイト数を取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return 溜まっているバイト数。セッションが無い場合は-1。
+     */
+    public int getBufferedBytes(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        return (session != null) ? session.mmBufferedBytes : -1;
+    }
+
+    /**
+     * セッションが配信サーバから受信したバイト数を取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return 受信したバイト数。セッションが無い場合は-1。
+     */
+    public long getReceivedBytes(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        return (session != null) ? session.mmReceivedBytes : -1;
+    }
+
+    /**
+     * 最新から指定した時間だけ前の位置から再生するURLを取得する
+     * 
+     * MediaPlayerがこのURLに繋ぎ直すと、以降はその位置から送る。 付けずに繋ぎ直した場合は、前の接続の続きから送る。
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @param delayMs 最新からの時間（ms）。0の場合は最新の位置から溜め直す。
+     * @return MediaPlayerに渡すローカルのURL
+     */
+    public String getTimeShiftUrl(String localUrl, long delayMs) {
+        return localUrl + "?delay=" + delayMs;
+    }
+
+    /**
+     * セッションが次にMediaPlayerへ送るデータが、最新からどれだけ前かを取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return 最新からの時間（ms）。セッションが無い場合、または時間をずらせない場合は-1。
+     */
+    public long getTimeShiftDelayMs(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        final TimeShiftBuffer timeShift = (session != null) ? session.mmTimeShift : null;
+        if (timeShift == null) {
+            return -1;
+        }
+        return timeShift.bytesToMs(timeShift.getLivePosition() - session.mmClientPosition);
+    }
+
+    /**
+     * セッションが最新からどれだけ前まで遡れるかを取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return 遡れる時間（ms）。セッションが無い場合、または時間をずらせない場合は-1。
+     */
+    public long getTimeShiftAvailableMs(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        final TimeShiftBuffer timeShift = (session != null) ? session.mmTimeShift : null;
+        if (timeShift == null) {
+            return -1;
+        }
+        return timeShift.bytesToMs(timeShift.getLivePosition()
+                - timeShift.getOldestPosition());
+    }
+
+    /**
+     * セッションのジッタバッファを取得する
+     * 
+     * @param localUrl openSessionが返したローカルのURL
+     * @return ジッタバッファ。セッションが無い場合、またはジッタバッファを使わない場合はnull。
+     */
+    public JitterBufferController getJitterBuffer(String localUrl) {
+        final Session session = findSession(parseSessionId(localUrl));
+        return (session != null) ? session.mmJitterBuffer : null;
+    }
+
+    /**
+     * セッションを探す
+     * 
+     * @param id セッションID
+     * @return セッション。無い場合はnull。
+     */
+    private Session findSession(int id) {
+        synchronized (mSessions) {
+            return mSessions.get(id);
+        }
+    }
+
+    /**
+     * ローカルのURLまたはパスからセッションIDを取得する
+     * 
+     * @param urlOrPath ローカルのURLまたはパス
+     * @return セッションID。取得できない場合は-1。
+     */
+    private static int parseSessionId(String urlOrPath) {
+        if (urlOrPath == null) {
+            return -1;
+        }
+        final int start = urlOrPath.indexOf(PATH_PREFIX);
+        if (start < 0) {
+            return -1;
+        }
+        int end = start + PATH_PREFIX.length();
+        while (end < urlOrPath.length() && Character.isDigit(urlOrPath.charAt(end))) {
+            ++end;
+        }
+        try {
+            return Integer.parseInt(urlOrPath.substring(start + PATH_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * ローカルのURLまたはパスから、最新からの時間を取得する
+     * 
+     * @param urlOrPath ローカルのURLまたはパス
+     * @return 最新からの時間（ms）。指定が無い場合は-1。
+     */
+    private static long parseDelayMs(String urlOrPath) {
+        final int start = urlOrPath.indexOf("?delay=");
+        if (start < 0) {
+            return -1;
+        }
+        int end = start + "?delay=".length();
+        while (end < urlOrPath.length() && Character.isDigit(urlOrPath.charAt(end))) {
+            ++end;
+        }
+        try {
+            return Long.parseLong(urlOrPath.substring(start + "?delay=".length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * セレクタスレッドで処理を実行する
+     * 
+     * @param task 処理
+     */
+    private void post(Runnable task) {
+        synchronized (mPendingTasks) {
+            mPendingTasks.add(task);
+        }
+        final Selector selector = mSelector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 名前解決してから配信サーバに接続する 名前解決でセレクタスレッドを止めないよう、別スレッドで名前解決する。
+     * 
+     * @param session セッション
+     * @param url 接続先のURL
+     */
+    private void resolveAndConnect(final Session session, final URL url) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final int port = (url.getPort() >= 0) ? url.getPort() : 80;
+                final InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (address.isUnresolved()) {
+                            session.onUpstreamFailed("Unknown host(" + url.getHost() + ").");
+                        } else {
+                            session.connectUpstream(url, address);
+                        }
+                    }
+                });
+            }
+        }, "StreamProxy-resolve").start();
+    }
+
+    /**
+     * セレクタスレッドの処理
+     */
+    private void loop() {
+        try {
+            while (mIsRunning) {
+                runPendingTasks();
+
+                final long now = System.currentTimeMillis();
+                long timeout = 0;
+                for (Session session : getSessions()) {
+                    if (session.mmReconnectTime > 0) {
+                        if (session.mmReconnectTime <= now) {
+                            session.mmReconnectTime = 0;
+                            resolveAndConnect(session, session.mmUrl);
+                        } else {
+                            final long wait = session.mmReconnectTime - now;
+                            timeout = (timeout == 0) ? wait : Math.min(timeout, wait);
+                        }
+                    }
+                    if (session.mmNextSendTime > 0) {
+                        if (session.mmNextSendTime <= now) {
+                            session.mmNextSendTime = 0;
+                            session.requestClientWrite();
+                        } else {
+                            final long wait = session.mmNextSendTime - now;
+                            timeout = (timeout == 0) ? wait : Math.min(timeout, wait);
+                        }
+                    }
+                }
+
+                mSelector.select(timeout);
+                final Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() == false) {
+                        continue;
+                    }
+                    final Object attachment = key.attachment();
+                    if (attachment == null) {
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                    } else if (attachment instanceof ClientConnection) {
+                        ((ClientConnection) attachment).onReady(key);
+                    } else {
+                        ((Session) attachment).onUpstreamReady(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ;
+        } finally {
+            // stopで積んだ、セッションを閉じる処理を実行する
+            runPendingTasks();
+            for (SelectionKey key : mSelector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                ;
+            }
+            try {
+                mServerChannel.close();
+            } catch (IOException e) {
+                ;
+            }
+        }
+    }
+
+    /**
+     * セッションのリストのコピーを取得する
+     * 
+     * @return セッションのリストのコピー
+     */
+    private ArrayList<Session> getSessions() {
+        synchronized (mSessions) {
+            return new ArrayList<Session>(mSessions.values());
+        }
+    }
+
+    /**
+     * 溜まっている処理を実行する
+     */
+    private void runPendingTasks() {
+        final Runnable[] tasks;
+        synchronized (mPendingTasks) {
+            if (mPendingTasks.isEmpty()) {
+                return;
+            }
+            tasks = mPendingTasks.toArray(new Runnable[mPendingTasks.size()]);
+            mPendingTasks.clear();
+        }
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    /**
+     * MediaPlayerからの接続を受け付ける
+     * 
+     * @throws IOException 受け付けに失敗した
+     */
+    private void accept() throws IOException {
+        final SocketChannel channel = mServerChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(mSelector, SelectionKey.OP_READ, new ClientConnection(channel));
+    }
+
+    /**
+     * 鍵のチャンネルを閉じる
+     * 
+     * @param key 鍵。nullの場合は何もしない。
+     */
+    private static void closeQuietly(SelectionKey key) {
+        if (key == null) {
+            return;
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            ;
+        }
+    }
+
+    /**
+     * MediaPlayerからの接続 要求を読んでセッションに繋ぐまでを扱う。 繋いだ後の送信はセッションが行う。
+     */
+    private class ClientConnection {
+
+        /**
+         * チャンネル
+         */
+        private final SocketChannel mmChannel;
+
+        /**
+         * 要求ヘッダのバッファ
+         */
+        private final ByteBuffer mmRequest = ByteBuffer.allocate(MAX_HEADER_SIZE);
+
+        /**
+         * 繋いだセッション。 繋いでいない場合はnull。
+         */
+        private Session mmSession;
+
+        /**
+         * 応答ヘッダ。 送信し終えた場合はnull。
+         */
+        private ByteBuffer mmResponse;
+
+        /**
+         * コンストラクタ
+         * 
+         * @param channel チャンネル
+         */
+        public ClientConnection(SocketChannel channel) {
+            mmChannel = channel;
+        }
+
+        /**
+         * チャンネルが読み書きできる
+         * 
+         * @param key 鍵
+         */
+        public void onReady(SelectionKey key) {
+            try {
+                if (key.isReadable()) {
+                    if (mmSession == null) {
+                        readRequest(key);
+                    } else {
+                        // 要求の後に送られてきたデータは読み捨て、切断を検出する
+                        mReceiveBuffer.clear();
+                        if (mmChannel.read(mReceiveBuffer) < 0) {
+                            close(key);
+                            return;
+                        }
+                    }
+                }
+                if (key.isValid() && key.isWritable() && mmSession != null) {
+                    write(key);
+                }
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+
+        /**
+         * 要求ヘッダを読み、セッションに繋ぐ
+         * 
+         * @param key 鍵
+         * @throws IOException 読み込みに失敗した
+         */
+        private void readRequest(SelectionKey key) throws IOException {
+            if (mmChannel.read(mmRequest) < 0 || mmRequest.hasRemaining() == false) {
+                close(key);
+                return;
+            }
+            final String request = new String(mmRequest.array(), 0, mmRequest.position(),
+                    "ISO-8859-1");
+            if (request.indexOf("\r\n\r\n") < 0) {
+                return;
+            }
+            final int lineEnd = request.indexOf("\r\n");
+            final String[] requestLine = request.substring(0, lineEnd).split(" ");
+            final Session session = (requestLine.length >= 2 && "GET".equals(requestLine[0]))
+                    ? findSession(parseSessionId(requestLine[1])) : null;
+            if (session == null) {
+                mmChannel.write(ByteBuffer.wrap("HTTP/1.0 404 Not Found\r\n\r\n"
+                        .getBytes("ISO-8859-1")));
+                close(key);
+                return;
+            }
+            mmSession = session;
+            session.attachClient(this, key, parseDelayMs(requestLine[1]));
+        }
+
+        /**
+         * 応答ヘッダと先読みバッファのデータを送信する
+         * 
+         * @param key 鍵
+         * @throws IOException 送信に失敗した
+         */
+        private void write(SelectionKey key) throws IOException {
+            if (mmResponse == null) {
+                if (mmSession.mmContentType == null) {
+                    // 配信サーバの応答ヘッダを受信するまで待つ
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                mmResponse = ByteBuffer.wrap(("HTTP/1.0 200 OK\r\nContent-Type: "
+                        + mmSession.mmContentType + "\r\nConnection: close\r\n\r\n")
+                        .getBytes("ISO-8859-1"));
+            }
+            if (mmResponse.hasRemaining()) {
+                mmChannel.write(mmResponse);
+                if (mmResponse.hasRemaining()) {
+                    return;
+                }
+            }
+            mmSession.writeToClient(key);
+        }
+
+        /**
+         * 閉じる
+         * 
+         * @param key 鍵
+         */
+        public void close(SelectionKey key) {
+            closeQuietly(key);
+            if (mmSession != null) {
+                mmSession.detachClient(this);
+                mmSession = null;
+            }
+        }
+    }
+
+    /**
+     * セッション 配信サーバとの接続と先読みバッファを持つ。 mmIdとmmUrl以外はセレクタスレッドでのみ使用する。
+     */
+    private class Session {
+
+        /**
+         * 配信サーバとの接続の段階・未接続
+         */
+        private static final int PHASE_IDLE = 0;
+
+        /**
+         * 配信サーバとの接続の段階・接続中
+         */
+        private static final int PHASE_CONNECTING = 1;
+
+        /**
+         * 配信サーバとの接続の段階・応答ヘッダ受信中
+         */
+        private static final int PHASE_HEADER = 2;
+
+        /**
+         * 配信サーバとの接続の段階・データ受信中
+         */
+        private static final int PHASE_BODY = 3;
+
+        /**
+         * セッションID
+         */
+        private final int mmId;
+
+        /**
+         * openSessionに渡された配信サーバのURL
+         */
+        private final String mmUpstreamUrl;
+
+        /**
+         * 配信サーバのURL リダイレクトされた場合はリダイレクト先になる。
+         */
+        private volatile URL mmUrl;
+
+        /**
+         * 先読みバッファのバイト数 セッションを開いた時の大きさのまま変えない。
+         */
+        private final int mmBufferSize = mBufferSize;
+
+        /**
+         * 先読みバッファ
+         */
+        private final ByteBuffer mmBuffer = ByteBuffer.allocateDirect(mmBufferSize);
+
+        /**
+         * 先読みバッファに書き込むためのビュー
+         */
+        private final ByteBuffer mmWriteView = mmBuffer.duplicate();
+
+        /**
+         * 先読みバッファから読み込むためのビュー
+         */
+        private final ByteBuffer mmReadView = mmBuffer.duplicate();
+
+        /**
+         * 先読みバッファの次に読み込む位置
+         */
+        private int mmReadPosition = 0;
+
+        /**
+         * 先読みバッファに溜まっているバイト数
+         */
+        private volatile int mmBufferedBytes = 0;
+
+        /**
+         * 配信サーバとの接続の段階
+         */
+        private int mmPhase = PHASE_IDLE;
+
+        /**
+         * 配信サーバとの接続の鍵。 接続していない場合はnull。
+         */
+        private SelectionKey mmUpstreamKey;
+
+        /**
+         * 配信サーバへの要求
+         */
+        private ByteBuffer mmUpstreamRequest;
+
+        /**
+         * 配信サーバの応答ヘッダ
+         */
+        private final byte[] mmHeader = new byte[MAX_HEADER_SIZE];
+
+        /**
+         * 配信サーバの応答ヘッダの受信済みバイト数
+         */
+        private int mmHeaderLength = 0;
+
+        /**
+         * 配信サーバの応答のContent-Type。 受信していない場合はnull。
+         */
+        private volatile String mmContentType;
+
+        /**
+         * ICYメタデータの間隔（バイト）。 メタデータが無い場合は0。
+         */
+        private int mmMetaInt = 0;
+
+        /**
+         * 次のICYメタデータまでの音声データのバイト数
+         */
+        private int mmAudioUntilMeta = 0;
+
+        /**
+         * 読み飛ばすICYメタデータの残りバイト数
+         */
+        private int mmMetaRemaining = 0;
+
+        /**
+         * ICYメタデータから曲名を取り出す
+         */
+        private final IcyMetadataParser mmMetadataParser = new IcyMetadataParser();
+
+        /**
+         * 連続して接続に失敗した回数
+         */
+        private int mmRetryCount = 0;
+
+        /**
+         * 辿ったリダイレクトの回数
+         */
+        private int mmRedirectCount = 0;
+
+        /**
+         * 接続し直した回数
+         */
+        private volatile int mmReconnectCount = 0;
+
+        /**
+         * 配信サーバから受信したバイト数 接続し直した分も含む。
+         */
+        private volatile long mmReceivedBytes = 0;
+
+        /**
+         * 接続し直す時刻（ms）。 予定が無い場合は0。
+         */
+        private long mmReconnectTime = 0;
+
+        /**
+         * ジッタバッファ。 使わない場合はnull。
+         */
+        private final JitterBufferController mmJitterBuffer;
+
+        /**
+         * 時間をずらして再生するためのリングバッファ。 使わない場合はnull。
+         * 使う場合は先読みバッファの代わりにこちらに溜めて、MediaPlayerに送る。
+         */
+        private volatile TimeShiftBuffer mmTimeShift;
+
+        /**
+         * 時間をずらして再生する場合に、次にMediaPlayerへ送る位置（ストリームの先頭からのバイト数）
+         */
+        private volatile long mmClientPosition = 0;
+
+        /**
+         * 次にMediaPlayerへ送る時刻（ms）。 予定が無い場合は0。
+         */
+        private long mmNextSendTime = 0;
+
+        /**
+         * 配信サーバとの接続を諦めたか 先読みバッファを送信し終えたらMediaPlayerとの接続を閉じる。
+         */
+        private boolean mmIsUpstreamFinished = false;
+
+        /**
+         * 閉じたか
+         */
+        private boolean mmIsClosed = false;
+
+        /**
+         * 繋がっているMediaPlayerからの接続。 繋がっていない場合はnull。
+         */
+        private ClientConnection mmClient;
+
+        /**
+         * MediaPlayerからの接続の鍵。 繋がっていない場合はnull。
+         */
+        private SelectionKey mmClientKey;
+
+        /**
+         * コンストラクタ
+         * 
+         * @param id セッションID
+         * @param upstreamUrl openSessionに渡された配信サーバのURL
+         * @param url 配信サーバのURL
+         */
+        public Session(int id, String upstreamUrl, URL url) {
+            mmId = id;
+            mmUpstreamUrl = upstreamUrl;
+            mmUrl = url;
+            mmJitterBuffer = (mJitterBufferMaxMs > 0) ? new JitterBufferController(
+                    mJitterBufferMinMs, mJitterBufferMaxMs, mJitterBufferLeadMs,
+                    DEFAULT_BITRATE) : null;
+        }
+
+        /**
+         * 配信サーバに接続する
+         * 
+         * @param url 接続先のURL
+         * @param address 接続先のアドレス
+         */
+        public void connectUpstream(URL url, InetSocketAddress address) {
+            if (mmIsClosed || mIsRunning == false) {
+                return;
+            }
+            mmUrl = url;
+            try {
+                final SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                final boolean connected = channel.connect(address);
+                mmUpstreamKey = channel.register(mSelector, connected ? SelectionKey.OP_WRITE
+                        : SelectionKey.OP_CONNECT, this);
+                mmPhase = PHASE_CONNECTING;
+
+                final String file = (url.getFile().length() != 0) ? url.getFile() : "/";
+                final StringBuilder request = new StringBuilder(256);
+                request.append("GET ").append(file).append(" HTTP/1.0\r\n");
+                request.append("Host: ").append(url.getHost());
+                if (url.getPort() >= 0) {
+                    request.append(':').append(url.getPort());
+                }
+                request.append("\r\n");
+                request.append("User-Agent: LadioTail\r\n");
+                request.append("Accept: */*\r\n");
+                request.append("Icy-MetaData: 1\r\n");
+                request.append("Connection: close\r\n");
+                request.append("\r\n");
+                mmUpstreamRequest = ByteBuffer.wrap(request.toString().getBytes("ISO-8859-1"));
+            } catch (IOException e) {
+                onUpstreamFailed(e.toString());
+            }
+        }
+
+        /**
+         * 配信サーバとの接続が読み書きできる
+         * 
+         * @param key 鍵
+         */
+        public void onUpstreamReady(SelectionKey key) {
+            try {
+                final SocketChannel channel = (SocketChannel) key.channel();
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (key.isWritable()) {
+                    channel.write(mmUpstreamRequest);
+                    if (mmUpstreamRequest.hasRemaining() == false) {
+                        mmPhase = PHASE_HEADER;
+                        mmHeaderLength = 0;
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+                if (key.isReadable()) {
+                    readUpstream(channel);
+                }
+            } catch (IOException e) {
+                onUpstreamFailed(e.toString());
+            }
+        }
+
+        /**
+         * 配信サーバから受信する 先読みバッファの空きの分だけ受信する。
+         * 
+         * @param channel 配信サーバとの接続
+         * @throws IOException 受信に失敗した
+         */
+        private void readUpstream(SocketChannel channel) throws IOException {
+            // 時間をずらして再生する場合は、MediaPlayerが読まなくても受信を続ける
+            final int free = (mmTimeShift != null) ? RECEIVE_BUFFER_SIZE : mmBufferSize
+                    - mmBufferedBytes;
+            if (free == 0) {
+                // 先読みバッファが一杯なので、MediaPlayerが読むまで受信を止める
+                mmUpstreamKey.interestOps(0);
+                return;
+            }
+            mReceiveBuffer.clear();
+            mReceiveBuffer.limit(Math.min(free, RECEIVE_BUFFER_SIZE));
+            final int read = channel.read(mReceiveBuffer);
+            if (read < 0) {
+                onUpstreamFailed("End of stream.");
+                return;
+            }
+            mReceiveBuffer.flip();
+            if (mmPhase == PHASE_HEADER) {
+                readHeader();
+            }
+            if (mmPhase == PHASE_BODY && mReceiveBuffer.hasRemaining()) {
+                // 音声データを受信できたので、失敗の回数を数え直す
+                mmRetryCount = 0;
+                readBody();
+            }
+        }
+
+        /**
+         * 配信サーバの応答ヘッダを読む
+         * 
+         * @throws IOException 応答が不正
+         */
+        private void readHeader() throws IOException {
+            while (mReceiveBuffer.hasRemaining()) {
+                if (mmHeaderLength >= MAX_HEADER_SIZE) {
+                    throw new IOException("Too long header.");
+                }
+                mmHeader[mmHeaderLength++] = mReceiveBuffer.get();
+                if (mmHeaderLength >= 4 && mmHeader[mmHeaderLength - 4] == '\r'
+                        && mmHeader[mmHeaderLength - 3] == '\n'
+                        && mmHeader[mmHeaderLength - 2] == '\r'
+                        && mmHeader[mmHeaderLength - 1] == '\n') {
+                    onHeader(new String(mmHeader, 0, mmHeaderLength - 4, "ISO-8859-1"));
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 配信サーバの応答ヘッダを受信した
+         * 
+         * @param header 応答ヘッダ
+         * @throws IOException 応答が不正
+         */
+        private void onHeader(String header) throws IOException {
+            final String[] lines = header.split("\r\n");
+            final int statusCode = IcyStreamClient.parseStatusCode(lines[0]);
+            final HashMap<String, String> headers = new HashMap<String, String>();
+            for (int i = 1; i < lines.length; ++i) {
+                final int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                            lines[i].substring(colon + 1).trim());
+                }
+            }
+
+            if (statusCode == 301 || statusCode == 302 || statusCode == 303
+                    || statusCode == 307) {
+                final String location = headers.get("location");
+                if (location == null || ++mmRedirectCount > MAX_REDIRECT) {
+                    throw new IOException("Invalid redirect.");
+                }
+                closeUpstream();
+                resolveAndConnect(this, new URL(mmUrl, location));
+                return;
+            }
+            if (statusCode != 200) {
+                throw new IOException("Unexpected status(" + lines[0] + ").");
+            }
+
+            if (mmContentType == null) {
+                final String contentType = headers.get("content-type");
+                mmContentType = (contentType != null) ? contentType : "audio/mpeg";
+                // 配信サーバの応答を待っていたMediaPlayerに応答する
+                requestClientWrite();
+            }
+            mmMetaInt = 0;
+            final String metaInt = headers.get("icy-metaint");
+            if (metaInt != null) {
+                try {
+                    mmMetaInt = Integer.parseInt(metaInt);
+                } catch (NumberFormatException e) {
+                    mmMetaInt = 0;
+                }
+            }
+            mmAudioUntilMeta = mmMetaInt;
+            mmMetaRemaining = 0;
+            final int bitrate = IcyStreamClient.parseBitrate(headers.get("icy-br"));
+            if (mmJitterBuffer != null) {
+                mmJitterBuffer.setBitrate(bitrate);
+            }
+            if (mmTimeShift == null) {
+                openTimeShift((bitrate > 0) ? bitrate : DEFAULT_BITRATE);
+            }
+            mmPhase = PHASE_BODY;
+        }
+
+        /**
+         * 時間をずらして再生するためのリングバッファを作成する 設定されていない場合は何もしない。
+         * 
+         * @param bitrate ビットレート（kbps）
+         */
+        private void openTimeShift(int bitrate) {
+            final File directory = mTimeShiftDirectory;
+            if (directory == null) {
+                return;
+            }
+            final int capacity = (int) Math.min(mTimeShiftMaxMs * bitrate / 8,
+                    mTimeShiftMaxBytes);
+            try {
+                mmTimeShift = new TimeShiftBuffer(new File(directory, "session-" + mmId),
+                        capacity, bitrate);
+            } catch (IOException e) {
+                // 時間をずらさずに、今まで通り先読みバッファから送る
+                mmTimeShift = null;
+            }
+        }
+
+        /**
+         * 受信したデータからICYメタデータを取り除いて先読みバッファに溜める
+         */
+        private void readBody() {
+            while (mReceiveBuffer.hasRemaining()) {
+                if (mmMetaInt <= 0) {
+                    putToBuffer(mReceiveBuffer.remaining());
+                    break;
+                }
+                if (mmMetaRemaining > 0) {
+                    // 音声データからは取り除き、曲名を取り出すために溜める
+                    final int length = Math.min(mmMetaRemaining, mReceiveBuffer.remaining());
+                    mmMetadataParser.append(mReceiveBuffer, length);
+                    mmMetaRemaining -= length;
+                    if (mmMetaRemaining == 0) {
+                        onMetadataReceived();
+                    }
+                    continue;
+                }
+                if (mmAudioUntilMeta == 0) {
+                    // メタデータの長さは16バイト単位。 変化が無い場合は0のことが多い。
+                    mmMetaRemaining = (mReceiveBuffer.get() & 0xFF) * 16;
+                    mmAudioUntilMeta = mmMetaInt;
+                    if (mmMetaRemaining > 0) {
+                        mmMetadataParser.begin();
+                    }
+                    continue;
+                }
+                final int length = Math.min(mmAudioUntilMeta, mReceiveBuffer.remaining());
+                putToBuffer(length);
+                mmAudioUntilMeta -= length;
+            }
+            requestClientWrite();
+        }
+
+        /**
+         * ICYメタデータを受信し終えた 曲名が変わっていればリスナーに通知する。
+         */
+        private void onMetadataReceived() {
+            if (mmMetadataParser.end() == false) {
+                return;
+            }
+            final OnStreamTitleChangedListener listener = mOnStreamTitleChangedListener;
+            if (listener != null) {
+                listener.onStreamTitleChanged(mmUpstreamUrl, mmMetadataParser.getTitle());
+            }
+        }
+
+        /**
+         * 受信したデータを先読みバッファに書き込む 空きがあることは呼び出し元で保証する。
+         * 
+         * @param length 書き込むバイト数
+         */
+        private void putToBuffer(int length) {
+            if (mmTimeShift != null) {
+                mmTimeShift.write(mReceiveBuffer, length);
+                // MediaPlayerが読む前に上書きされた分は読み飛ばす
+                mmClientPosition = Math.max(mmClientPosition, mmTimeShift.getOldestPosition());
+                mmBufferedBytes = (int) (mmTimeShift.getLivePosition() - mmClientPosition);
+                onPutToBuffer(length);
+                return;
+            }
+            final int limit = mReceiveBuffer.limit();
+            int remaining = length;
+            while (remaining > 0) {
+                final int writePosition = (mmReadPosition + mmBufferedBytes) % mmBufferSize;
+                final int n = Math.min(remaining, mmBufferSize - writePosition);
+                mmWriteView.clear();
+                mmWriteView.position(writePosition);
+                mmWriteView.limit(writePosition + n);
+                mReceiveBuffer.limit(mReceiveBuffer.position() + n);
+                mmWriteView.put(mReceiveBuffer);
+                mReceiveBuffer.limit(limit);
+                mmBufferedBytes += n;
+                remaining -= n;
+            }
+            onPutToBuffer(length);
+        }
+
+        /**
+         * 受信したデータを溜めた
+         * 
+         * @param length 溜めたバイト数
+         */
+        private void onPutToBuffer(int length) {
+            mmReceivedBytes += length;
+            if (mmJitterBuffer != null) {
+                mmJitterBuffer.onReceived(length, System.currentTimeMillis());
+            }
+        }
+
+        /**
+         * 先読みバッファのデータをMediaPlayerに送信する
+         * 
+         * @param key MediaPlayerからの接続の鍵
+         * @throws IOException 送信に失敗した
+         */
+        public void writeToClient(SelectionKey key) throws IOException {
+            final SocketChannel channel = (SocketChannel) key.channel();
+            final long now = System.currentTimeMillis();
+            // 配信サーバとの接続を諦めた場合は、ジッタバッファに関わらず残りを全て送る
+            final boolean isPaced = (mmJitterBuffer != null && mmIsUpstreamFinished == false);
+            int sendable = isPaced ? mmJitterBuffer.getSendableBytes(mmBufferedBytes, now)
+                    : mmBufferedBytes;
+            while (sendable > 0) {
+                final int written = sendBuffered(channel, sendable);
+                if (written == 0) {
+                    return;
+                }
+                mmBufferedBytes -= written;
+                sendable -= written;
+                if (isPaced) {
+                    mmJitterBuffer.onSent(written);
+                }
+                // 空きができたので受信を再開する
+                if (mmUpstreamKey != null && mmUpstreamKey.isValid()
+                        && mmPhase >= PHASE_HEADER) {
+                    mmUpstreamKey.interestOps(SelectionKey.OP_READ);
+                }
+            }
+            if (mmIsUpstreamFinished && mmBufferedBytes == 0) {
+                // 配信サーバとの接続を諦めたので、送信し終えたらMediaPlayerとの接続を閉じる
+                mmClient.close(key);
+                return;
+            }
+            // 溜まるまで、または次に送る時刻まで送信を止める
+            key.interestOps(SelectionKey.OP_READ);
+            if (isPaced) {
+                final long delay = mmJitterBuffer.getSendDelayMs();
+                mmNextSendTime = (delay >= 0) ? now + delay : 0;
+            }
+        }
+
+        /**
+         * 溜めたデータをMediaPlayerに送信し、読み込む位置を進める
+         * 
+         * @param channel MediaPlayerとの接続
+         * @param length 送信する最大バイト数
+         * @return 送信したバイト数
+         * @throws IOException 送信に失敗した
+         */
+        private int sendBuffered(SocketChannel channel, int length) throws IOException {
+            if (mmTimeShift != null) {
+                final int written = mmTimeShift.read(mmClientPosition, channel, length);
+                mmClientPosition += written;
+                return written;
+            }
+            final int n = Math.min(length, mmBufferSize - mmReadPosition);
+            mmReadView.clear();
+            mmReadView.position(mmReadPosition);
+            mmReadView.limit(mmReadPosition + n);
+            final int written = channel.write(mmReadView);
+            mmReadPosition = (mmReadPosition + written) % mmBufferSize;
+            return written;
+        }
+
+        /**
+         * MediaPlayerへの送信を要求する
+         */
+        private void requestClientWrite() {
+            if (mmClientKey != null && mmClientKey.isValid()) {
+                mmClientKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * MediaPlayerからの接続を繋ぐ 既に繋がっている場合は、古い接続を閉じる。
+         * 
+         * @param client MediaPlayerからの接続
+         * @param key MediaPlayerからの接続の鍵
+         * @param delayMs 最新からどれだけ前の位置から送るか（ms）。-1の場合は前の接続の続きから送る。
+         */
+        public void attachClient(ClientConnection client, SelectionKey key, long delayMs) {
+            if (mmClient != null) {
+                mmClient.close(mmClientKey);
+            }
+            mmClient = client;
+            mmClientKey = key;
+            if (delayMs >= 0 && mmTimeShift != null) {
+                mmClientPosition = mmTimeShift.getPositionBefore(delayMs);
+                mmBufferedBytes = (int) (mmTimeShift.getLivePosition() - mmClientPosition);
+                if (mmJitterBuffer != null) {
+                    mmJitterBuffer.restart();
+                }
+            }
+            requestClientWrite();
+        }
+
+        /**
+         * MediaPlayerからの接続を外す
+         * 
+         * @param client MediaPlayerからの接続
+         */
+        public void detachClient(ClientConnection client) {
+            if (mmClient == client) {
+                mmClient = null;
+                mmClientKey = null;
+                mmNextSendTime = 0;
+            }
+        }
+
+        /**
+         * 配信サーバとの接続に失敗した、または切れた 回数の上限まで、待ち時間を倍にしながら接続し直す。
+         * 
+         * @param reason 理由
+         */
+        public void onUpstreamFailed(String reason) {
+            closeUpstream();
+            if (mmIsClosed) {
+                return;
+            }
+            if (mmRetryCount >= mMaxReconnect) {
+                // 諦めて、先読みバッファを送信し終えたらMediaPlayerとの接続を閉じる
+                mmIsUpstreamFinished = true;
+                if (mmClientKey != null && mmClientKey.isValid()) {
+                    requestClientWrite();
+                }
+                return;
+            }
+            final long delay = Math.min(mReconnectBaseMs << mmRetryCount, mReconnectMaxMs);
+            ++mmRetryCount;
+            ++mmReconnectCount;
+            mmRedirectCount = 0;
+            mmReconnectTime = System.currentTimeMillis() + delay;
+        }
+
+        /**
+         * 配信サーバとの接続を閉じる
+         */
+        private void closeUpstream() {
+            closeQuietly(mmUpstreamKey);
+            mmUpstreamKey = null;
+            mmPhase = PHASE_IDLE;
+        }
+
+        /**
+         * セッションを閉じる
+         */
+        public void close() {
+            mmIsClosed = true;
+            mmReconnectTime = 0;
+            closeUpstream();
+            if (mmClient != null) {
+                mmClient.close(mmClientKey);
+            }
+            if (mmTimeShift != null) {
+                mmTimeShift.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+/**
+ * ストリームの受信データを溜める固定長のリングバッファ
+ * 
+ * 書き込むスレッド（受信）と読み込むスレッド（デコード）がそれぞれ1つの場合に使用する。
+ * バッファが一杯の場合は書き込みが、空の場合は読み込みがブロックする。 確保するのは生成時の配列のみ。
+ * 
+ * Androidに依存しないので、JVM上で試験できる。
+ */
+public class StreamRingBuffer {
+
+    /**
+     * バッファ
+     */
+    private final byte[] mBuffer;
+
+    /**
+     * 次に読み込む位置
+     */
+    private int mReadPosition = 0;
+
+    /**
+     * 溜まっているバイト数
+     */
+    private int mAvailable = 0;
+
+    /**
+     * 書き込みを終えたか（ストリームの終わり）
+     */
+    private boolean mIsFinished = false;
+
+    /**
+     * 閉じたか
+     */
+    private boolean mIsClosed = false;
+
+    /**
+     * 書き込んだバイト数の合計
+     */
+    private long mTotalWritten = 0;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param capacity バッファのバイト数
+     */
+    public StreamRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * 書き込む 全て書き込むまでブロックする。
+     * 
+     * @param b 書き込むデータ
+     * @param off 書き込むデータの開始位置
+     * @param len 書き込むバイト数
+     * @return 書き込んだバイト数。閉じた場合は書き込めた分までになる。
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public synchronized int write(byte[] b, int off, int len) throws InterruptedException {
+        int written = 0;
+        while (written < len) {
+            while (mAvailable == mBuffer.length && mIsClosed == false) {
+                wait();
+            }
+            if (mIsClosed || mIsFinished) {
+                break;
+            }
+            final int writePosition = (mReadPosition + mAvailable) % mBuffer.length;
+            final int n = Math.min(len - written, Math.min(mBuffer.length - mAvailable,
+                    mBuffer.length - writePosition));
+            System.arraycopy(b, off + written, mBuffer, writePosition, n);
+            mAvailable += n;
+            mTotalWritten += n;
+            written += n;
+            notifyAll();
+        }
+        return written;
+    }
+
+    /**
+     * 読み込む 1バイト以上溜まるまでブロックする。
+     * 
+     * @param b 読み込み先
+     * @param off 読み込み先の開始位置
+     * @param len 読み込む最大バイト数
+     * @return 読み込んだバイト数。ストリームの終わり、または閉じた場合は-1。
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public synchronized int read(byte[] b, int off, int len) throws InterruptedException {
+        while (mAvailable == 0 && mIsFinished == false && mIsClosed == false) {
+            wait();
+        }
+        if (mIsClosed || mAvailable == 0) {
+            return -1;
+        }
+        int read = 0;
+        while (read < len && mAvailable > 0) {
+            final int n = Math.min(len - read, Math.min(mAvailable, mBuffer.length
+                    - mReadPosition));
+            System.arraycopy(mBuffer, mReadPosition, b, off + read, n);
+            mReadPosition = (mReadPosition + n) % mBuffer.length;
+            mAvailable -= n;
+            read += n;
+        }
+        notifyAll();
+        return read;
+    }
+
+    /**
+     * 指定したバイト数が溜まるまで待つ
+     * 
+     * @param bytes 待つバイト数。バッファのバイト数を超える場合はバッファが一杯になるまで待つ。
+     * @param timeoutMs タイムアウト（ms）
+     * @return 溜まった場合、またはストリームの終わりの場合はtrue。タイムアウトした場合、または閉じた場合はfalse。
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public synchronized boolean awaitAvailable(int bytes, long timeoutMs)
+            throws InterruptedException {
+        final int target = Math.min(bytes, mBuffer.length);
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mAvailable < target && mIsFinished == false && mIsClosed == false) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return mIsClosed == false;
+    }
+
+    /**
+     * 溜まっているバイト数を取得する
+     * 
+     * @return 溜まっているバイト数
+     */
+    public synchronized int available() {
+        return mAvailable;
+    }
+
+    /**
+     * バッファのバイト数を取得する
+     * 
+     * @return バッファのバイト数
+     */
+    public int getCapacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * 書き込んだバイト数の合計を取得する
+     * 
+     * @return 書き込んだバイト数の合計
+     */
+    public synchronized long getTotalWritten() {
+        return mTotalWritten;
+    }
+
+    /**
+     * 書き込みを終える 溜まっているデータを読み終えると、読み込みはストリームの終わりを返す。
+     */
+    public synchronized void finish() {
+        mIsFinished = true;
+        notifyAll();
+    }
+
+    /**
+     * 閉じる ブロック中の読み込み・書き込みは直ちに戻る。
+     */
+    public synchronized void close() {
+        mIsClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * 閉じたか
+     * 
+     * @return 閉じた場合はtrue
+     */
+    public synchronized boolean isClosed() {
+        return mIsClosed;
+    }
+}
@@ -0,0 +1,647 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 独自のHTTP/ICYクライアントとMediaCodecによる再生エンジン Android 4.1以降でのみ使用できる。
+ * 
+ * 受信スレッドで{@link IcyStreamClient}から読んだデータを{@link StreamRingBuffer}に溜め、デコードスレッドで
+ * {@link AudioFrameReader}で切り出したフレームをMediaCodecでデコードしてAudioTrackに書き込む。
+ * 開始までに溜めるデータ量とバッファの大きさは指定できる。 最初のPCMをデコードした時点で準備完了とし、
+ * startが呼ばれてからAudioTrackに書き込む。
+ */
+/* package */class StreamingEngine implements PlayerEngine {
+
+    /**
+     * 受信の1回の読み込みのバイト数
+     */
+    private static final int RECEIVE_BUFFER_SIZE = 8192;
+
+    /**
+     * MediaCodecのバッファを待つ時間（μs）
+     */
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    /**
+     * バッファの大きさ（バイト）
+     */
+    private final int mBufferSize;
+
+    /**
+     * 再生開始までに溜める時間（ms）
+     */
+    private final long mStartThresholdMs;
+
+    /**
+     * リスナーに通知するためのHandler MediaPlayerと同じく、作成したスレッドで通知する。
+     */
+    private final Handler mHandler = (Looper.myLooper() != null) ? new Handler()
+            : new Handler(Looper.getMainLooper());
+
+    /**
+     * リスナー
+     */
+    private volatile Listener mListener;
+
+    /**
+     * 受信データのバッファ。 準備を開始していない場合はnull。
+     */
+    private volatile StreamRingBuffer mRingBuffer;
+
+    /**
+     * HTTP/ICYクライアント。 準備を開始していない場合はnull。
+     */
+    private volatile IcyStreamClient mClient;
+
+    /**
+     * デコードスレッド。 接続していない場合はnull。
+     */
+    private volatile Thread mDecodeThread;
+
+    /**
+     * 再生を開始したか mStartLockで保護する。
+     */
+    private boolean mIsStarted = false;
+
+    /**
+     * 再生開始のロックオブジェクト
+     */
+    private final Object mStartLock = new Object();
+
+    /**
+     * 解放したか
+     */
+    private volatile boolean mIsReleased = false;
+
+    /**
+     * 準備が完了したか デコードスレッドからのみ使用する。
+     */
+    private boolean mIsPrepared = false;
+
+    /**
+     * AudioTrackに書き込んでいるか
+     */
+    private volatile boolean mIsPlaying = false;
+
+    /**
+     * 音量
+     */
+    private volatile float mVolume = 1.0f;
+
+    /**
+     * AudioTrack デコードスレッドからのみ使用する。
+     */
+    private AudioTrack mAudioTrack;
+
+    /**
+     * AudioTrackのサンプリングレート
+     */
+    private int mAudioTrackSampleRate;
+
+    /**
+     * AudioTrackのチャンネル数
+     */
+    private int mAudioTrackChannelCount;
+
+    /**
+     * 準備を開始した時刻（ms）
+     */
+    private long mPrepareStartTime = -1;
+
+    /**
+     * 準備の開始から最初に音声を出力するまでの時間（ms）。 まだ出力していない場合は-1。
+     */
+    private volatile long mTimeToFirstAudio = -1;
+
+    /**
+     * 配信サーバから受信したバイト数 受信スレッドだけが書き込む。
+     */
+    private volatile long mReceivedBytes = 0;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param bufferSize バッファの大きさ（バイト）
+     * @param startThresholdMs 再生開始までに溜める時間（ms）
+     */
+    public StreamingEngine(int bufferSize, long startThresholdMs) {
+        mBufferSize = bufferSize;
+        mStartThresholdMs = startThresholdMs;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void prepareAsync(final String path) throws IOException {
+        if (mRingBuffer != null) {
+            throw new IllegalStateException("prepareAsync is already called.");
+        }
+
+        mPrepareStartTime = SystemClock.uptimeMillis();
+        mRingBuffer = new StreamRingBuffer(mBufferSize);
+        mClient = new IcyStreamClient(path, C.STREAM_CONNECT_TIMEOUT_MS, C.STREAM_READ_TIMEOUT_MS);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "StreamingEngine-receive").start();
+    }
+
+    /**
+     * 接続し、ストリームを受信してバッファに溜める 受信スレッドで実行する。
+     */
+    private void receive() {
+        final IcyStreamClient client = mClient;
+        final StreamRingBuffer ringBuffer = mRingBuffer;
+        try {
+            client.connect();
+
+            // 再生開始までに溜めるバイト数はビットレートから求める
+            int bitrate = client.getBitrate();
+            if (bitrate <= 0) {
+                bitrate = C.STREAMING_ENGINE_DEFAULT_BITRATE;
+            }
+            final int startThreshold = (int) (mStartThresholdMs * bitrate / 8);
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, String.format(
+                        "StreamingEngine connected in %dms, bitrate=%dkbps, threshold=%dbytes.",
+                        SystemClock.uptimeMillis() - mPrepareStartTime, bitrate, startThreshold));
+            }
+
+            final Thread decodeThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                    decode(startThreshold);
+                }
+            }, "StreamingEngine-decode");
+            mDecodeThread = decodeThread;
+            if (mIsReleased) {
+                return;
+            }
+            decodeThread.start();
+
+            final InputStream in = client.getInputStream();
+            final byte[] buffer = new byte[RECEIVE_BUFFER_SIZE];
+            while (mIsReleased == false) {
+                final int read = in.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                ringBuffer.write(buffer, 0, read);
+                mReceivedBytes += read;
+            }
+        } catch (IOException e) {
+            if (mIsReleased == false) {
+                Log.i(C.TAG, "StreamingEngine occurred IOException(" + e.toString() + ").");
+                // デコードスレッドを開始する前であれば準備の失敗とする
+                if (mDecodeThread == null) {
+                    postError(ERROR_IO);
+                }
+            }
+        } catch (InterruptedException e) {
+            ;
+        } finally {
+            client.close();
+            // 溜まった分を再生し終えたら、デコードスレッドがストリームの終わりを通知する
+            ringBuffer.finish();
+        }
+    }
+
+    /**
+     * バッファのデータをデコードしてAudioTrackに書き込む デコードスレッドで実行する。
+     * 
+     * @param startThreshold 再生開始までに溜めるバイト数
+     */
+    private void decode(int startThreshold) {
+        final StreamRingBuffer ringBuffer = mRingBuffer;
+        MediaCodec codec = null;
+        try {
+            if (ringBuffer.awaitAvailable(startThreshold, C.STREAM_READ_TIMEOUT_MS) == false) {
+                if (mIsReleased == false) {
+                    Log.i(C.TAG, "StreamingEngine timed out while buffering.");
+                    postError(ERROR_IO);
+                }
+                return;
+            }
+
+            final AudioFrameReader reader = new AudioFrameReader(ringBuffer);
+            try {
+                if (reader.sync() == false) {
+                    if (mIsReleased == false) {
+                        postError(ERROR_IO);
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                Log.i(C.TAG, "StreamingEngine can not find audio frames(" + e.toString() + ").");
+                postError(ERROR_UNSUPPORTED);
+                return;
+            }
+
+            final MediaFormat format = MediaFormat.createAudioFormat(reader.getMimeType(),
+                    reader.getSampleRate(), reader.getChannelCount());
+            if (reader.getCodecConfig() != null) {
+                format.setByteBuffer("csd-0", ByteBuffer.wrap(reader.getCodecConfig()));
+            }
+            try {
+                codec = MediaCodec.createDecoderByType(reader.getMimeType());
+                codec.configure(format, null, null, 0);
+            } catch (RuntimeException e) {
+                Log.i(C.TAG, "StreamingEngine can not create decoder for " + reader.getMimeType()
+                        + "(" + e.toString() + ").");
+                if (codec != null) {
+                    codec.release();
+                    codec = null;
+                }
+                postError(ERROR_UNSUPPORTED);
+                return;
+            }
+            codec.start();
+
+            mAudioTrackSampleRate = reader.getSampleRate();
+            mAudioTrackChannelCount = reader.getChannelCount();
+            decodeLoop(codec, reader);
+
+            if (mIsReleased == false) {
+                if (mIsPrepared) {
+                    postCompletion();
+                } else {
+                    postError(ERROR_IO);
+                }
+            }
+        } catch (InterruptedException e) {
+            ;
+        } catch (IllegalStateException e) {
+            if (mIsReleased == false) {
+                Log.w(C.TAG, "StreamingEngine occurred IllegalStateException(" + e.toString()
+                        + ").");
+                postError(ERROR_UNKNOWN);
+            }
+        } finally {
+            mIsPlaying = false;
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    ;
+                }
+                codec.release();
+            }
+            releaseAudioTrack();
+        }
+    }
+
+    /**
+     * フレームをMediaCodecに入力し、出力されたPCMをAudioTrackに書き込む ストリームの終わりまで、または解放するまで続ける。
+     * 
+     * @param codec MediaCodec
+     * @param reader フレームを切り出すクラス
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    private void decodeLoop(MediaCodec codec, AudioFrameReader reader)
+            throws InterruptedException {
+        final ByteBuffer[] inputBuffers = codec.getInputBuffers();
+        ByteBuffer[] outputBuffers = codec.getOutputBuffers();
+        final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        final byte[] frame = new byte[AudioFrameReader.MAX_FRAME_SIZE];
+        byte[] pcm = new byte[0];
+        final long frameDurationUs = reader.getFrameDurationUs();
+        long presentationTimeUs = 0;
+        boolean isInputEnded = false;
+
+        while (mIsReleased == false) {
+            if (isInputEnded == false) {
+                final int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    final int length = reader.readFrame(frame);
+                    if (length < 0) {
+                        codec.queueInputBuffer(inputIndex, 0, 0, presentationTimeUs,
+                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        isInputEnded = true;
+                    } else {
+                        final ByteBuffer inputBuffer = inputBuffers[inputIndex];
+                        inputBuffer.clear();
+                        inputBuffer.put(frame, 0, length);
+                        codec.queueInputBuffer(inputIndex, 0, length, presentationTimeUs, 0);
+                        presentationTimeUs += frameDurationUs;
+                    }
+                }
+            }
+
+            final int outputIndex = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+            if (outputIndex >= 0) {
+                if (info.size > 0) {
+                    if (pcm.length < info.size) {
+                        pcm = new byte[info.size];
+                    }
+                    final ByteBuffer outputBuffer = outputBuffers[outputIndex];
+                    outputBuffer.position(info.offset);
+                    outputBuffer.limit(info.offset + info.size);
+                    outputBuffer.get(pcm, 0, info.size);
+                    outputBuffer.clear();
+                }
+                codec.releaseOutputBuffer(outputIndex, false);
+                if (info.size > 0) {
+                    writePcm(pcm, info.size);
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = codec.getOutputBuffers();
+            } else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                final MediaFormat outputFormat = codec.getOutputFormat();
+                final int sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                final int channelCount = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                if (sampleRate != mAudioTrackSampleRate || channelCount != mAudioTrackChannelCount) {
+                    // 形式が変わった場合はAudioTrackを作り直す
+                    mAudioTrackSampleRate = sampleRate;
+                    mAudioTrackChannelCount = channelCount;
+                    if (mAudioTrack != null) {
+                        releaseAudioTrack();
+                        mAudioTrack = createAudioTrack();
+                        mAudioTrack.setStereoVolume(mVolume, mVolume);
+                        mAudioTrack.play();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * PCMをAudioTrackに書き込む 最初の書き込みの前に準備完了を通知し、startが呼ばれるまで待つ。
+     * 
+     * @param pcm PCM
+     * @param size PCMのバイト数
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    private void writePcm(byte[] pcm, int size) throws InterruptedException {
+        if (mIsPrepared == false) {
+            mIsPrepared = true;
+            postPrepared();
+            synchronized (mStartLock) {
+                while (mIsStarted == false && mIsReleased == false) {
+                    mStartLock.wait();
+                }
+            }
+            if (mIsReleased) {
+                return;
+            }
+        }
+
+        if (mAudioTrack == null) {
+            mAudioTrack = createAudioTrack();
+            mAudioTrack.setStereoVolume(mVolume, mVolume);
+            mAudioTrack.play();
+            mIsPlaying = true;
+        }
+
+        int written = 0;
+        while (written < size && mIsReleased == false) {
+            final int n = mAudioTrack.write(pcm, written, size - written);
+            if (n < 0) {
+                throw new IllegalStateException("AudioTrack#write returned " + n + ".");
+            }
+            written += n;
+        }
+
+        if (mTimeToFirstAudio < 0) {
+            mTimeToFirstAudio = SystemClock.uptimeMillis() - mPrepareStartTime;
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, "StreamingEngine time to first audio is " + mTimeToFirstAudio
+                        + "ms.");
+            }
+        }
+    }
+
+    /**
+     * AudioTrackを作る
+     * 
+     * @return AudioTrack
+     */
+    private AudioTrack createAudioTrack() {
+        final int channelConfig = (mAudioTrackChannelCount == 1) ? AudioFormat.CHANNEL_OUT_MONO
+                : AudioFormat.CHANNEL_OUT_STEREO;
+        final int minBufferSize = AudioTrack.getMinBufferSize(mAudioTrackSampleRate,
+                channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        return new AudioTrack(AudioManager.STREAM_MUSIC, mAudioTrackSampleRate, channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 2, AudioTrack.MODE_STREAM);
+    }
+
+    /**
+     * AudioTrackを解放する デコードスレッドからのみ呼ぶこと。
+     */
+    private void releaseAudioTrack() {
+        if (mAudioTrack == null) {
+            return;
+        }
+        try {
+            mAudioTrack.pause();
+            mAudioTrack.flush();
+        } catch (IllegalStateException e) {
+            ;
+        }
+        mAudioTrack.release();
+        mAudioTrack = null;
+    }
+
+    @Override
+    public void start() {
+        synchronized (mStartLock) {
+            mIsStarted = true;
+            mStartLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void stop() {
+        mIsPlaying = false;
+        shutdown();
+    }
+
+    @Override
+    public void release() {
+        mListener = null;
+        shutdown();
+    }
+
+    /**
+     * 受信とデコードを止める スレッドの終了は待たない。 MediaCodecとAudioTrackはデコードスレッドが解放する。
+     */
+    private void shutdown() {
+        mIsReleased = true;
+        synchronized (mStartLock) {
+            mStartLock.notifyAll();
+        }
+        if (mRingBuffer != null) {
+            mRingBuffer.close();
+        }
+        if (mClient != null) {
+            mClient.close();
+        }
+        final Thread decodeThread = mDecodeThread;
+        if (decodeThread != null) {
+            decodeThread.interrupt();
+        }
+    }
+
+    @Override
+    public boolean reset() {
+        // 受信とデコードのスレッドは1回の再生ごとに作り直すので、再利用しない
+        return false;
+    }
+
+    @Override
+    public boolean pause() {
+        // 受信したものをすぐにデコードして捨てるので、時間をずらせない
+        return false;
+    }
+
+    @Override
+    public void resume() {
+        ;
+    }
+
+    @Override
+    public boolean timeShift(long delayMs) {
+        return false;
+    }
+
+    @Override
+    public long getTimeShiftDelayMs() {
+        return -1;
+    }
+
+    @Override
+    public long getTimeShiftAvailableMs() {
+        return -1;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return mIsPlaying && mIsReleased == false;
+    }
+
+    @Override
+    public void setVolume(float volume) {
+        // AudioTrackを作る前であれば、作るときに反映する
+        mVolume = volume;
+        final AudioTrack audioTrack = mAudioTrack;
+        if (audioTrack != null) {
+            try {
+                audioTrack.setStereoVolume(volume, volume);
+            } catch (IllegalStateException e) {
+                ;
+            }
+        }
+    }
+
+    @Override
+    public long getTimeToFirstAudio() {
+        return mTimeToFirstAudio;
+    }
+
+    @Override
+    public BufferHealth getBufferHealth() {
+        // リングバッファは受信したものをすぐにデコードするので、ジッタバッファは持たない
+        return null;
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    @Override
+    public String getName() {
+        return "StreamingEngine";
+    }
+
+    /**
+     * 準備完了を作成したスレッドで通知する
+     */
+    private void postPrepared() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = mListener;
+                if (listener != null && mIsReleased == false) {
+                    listener.onPrepared(StreamingEngine.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * ストリームの終わりを作成したスレッドで通知する
+     */
+    private void postCompletion() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = mListener;
+                if (listener != null && mIsReleased == false) {
+                    listener.onCompletion(StreamingEngine.this);
+                }
+            }
+        });
+    }
+
+    /**
+     * エラーを作成したスレッドで通知する
+     * 
+     * @param what エラーの種類
+     */
+    private void postError(final int what) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = mListener;
+                if (listener != null && mIsReleased == false) {
+                    listener.onError(StreamingEngine.this, what);
+                }
+            }
+        });
+    }
+}
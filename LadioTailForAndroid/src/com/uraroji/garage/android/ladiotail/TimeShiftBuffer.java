@@ -0,0 +1,236 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 時間をずらして再生するためのリングバッファ
+ * 
+ * 受信した音声データを、固定長のファイルをメモリマップしたバッファに先頭から順に書き込み、末尾に達したら先頭に戻って
+ * 最も古いデータを上書きする。 位置はストリームの先頭からのバイト数で表し、上書きされていない範囲であればどこからでも読める。
+ * 書き込み・読み込みのどちらもオブジェクトを作らない。
+ * 
+ * 書き込みと読み込みは1つのスレッドで行うこと。 位置の取得はどのスレッドからでもできる。
+ * Androidに依存しないので、JVM上で試験できる。
+ */
+/* package */class TimeShiftBuffer {
+
+    /**
+     * ファイル
+     */
+    private final File mFile;
+
+    /**
+     * ファイル
+     */
+    private final RandomAccessFile mRandomAccessFile;
+
+    /**
+     * ファイルのチャンネル
+     */
+    private final FileChannel mChannel;
+
+    /**
+     * ファイルをメモリマップしたバッファ
+     */
+    private final MappedByteBuffer mBuffer;
+
+    /**
+     * バッファに書き込むためのビュー
+     */
+    private final ByteBuffer mWriteView;
+
+    /**
+     * バッファから読み込むためのビュー
+     */
+    private final ByteBuffer mReadView;
+
+    /**
+     * バッファのバイト数
+     */
+    private final int mCapacity;
+
+    /**
+     * ビットレート（kbps） 時間とバイト数の換算に使う。
+     */
+    private final int mBitrate;
+
+    /**
+     * 次に書き込む位置（ストリームの先頭からのバイト数）
+     */
+    private volatile long mLivePosition = 0;
+
+    /**
+     * 閉じたか
+     */
+    private boolean mIsClosed = false;
+
+    /**
+     * コンストラクタ ファイルを作成してメモリマップする。
+     * 
+     * ファイルは書き込んだ分だけディスクを使う。 閉じた時に削除する。
+     * 
+     * @param file ファイル
+     * @param capacity バッファのバイト数
+     * @param bitrate ビットレート（kbps）
+     * @throws IOException ファイルを作成できなかった
+     */
+    public TimeShiftBuffer(File file, int capacity, int bitrate) throws IOException {
+        mFile = file;
+        mCapacity = capacity;
+        mBitrate = Math.max(bitrate, 1);
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        try {
+            mRandomAccessFile.setLength(capacity);
+            mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        mWriteView = mBuffer.duplicate();
+        mReadView = mBuffer.duplicate();
+    }
+
+    /**
+     * 書き込む 容量を超えた分は最も古いデータを上書きする。
+     * 
+     * @param src 書き込むデータ。positionからlengthバイトを書き込み、positionを進める。
+     * @param length 書き込むバイト数
+     */
+    public void write(ByteBuffer src, int length) {
+        final int limit = src.limit();
+        int remaining = length;
+        while (remaining > 0) {
+            final int writePosition = (int) (mLivePosition % mCapacity);
+            final int n = Math.min(remaining, mCapacity - writePosition);
+            mWriteView.clear();
+            mWriteView.position(writePosition);
+            mWriteView.limit(writePosition + n);
+            src.limit(src.position() + n);
+            mWriteView.put(src);
+            src.limit(limit);
+            mLivePosition += n;
+            remaining -= n;
+        }
+    }
+
+    /**
+     * 読み込んでチャンネルに書き込む
+     * 
+     * 読み込める範囲は呼び出し元で保証する。 バッファの末尾で区切るので、一度に書き込めるとは限らない。
+     * 
+     * @param position 読み込む位置。getOldestPosition以上、getLivePosition未満であること。
+     * @param channel 書き込むチャンネル
+     * @param maxBytes 書き込む最大バイト数。getLivePositionとの差以下であること。
+     * @return 書き込んだバイト数
+     * @throws IOException 書き込みに失敗した
+     */
+    public int read(long position, WritableByteChannel channel, int maxBytes)
+            throws IOException {
+        final int readPosition = (int) (position % mCapacity);
+        final int n = Math.min(maxBytes, mCapacity - readPosition);
+        mReadView.clear();
+        mReadView.position(readPosition);
+        mReadView.limit(readPosition + n);
+        return channel.write(mReadView);
+    }
+
+    /**
+     * 次に書き込む位置を取得する
+     * 
+     * @return 次に書き込む位置（ストリームの先頭からのバイト数）
+     */
+    public long getLivePosition() {
+        return mLivePosition;
+    }
+
+    /**
+     * 上書きされていない最も古い位置を取得する
+     * 
+     * @return 最も古い位置（ストリームの先頭からのバイト数）
+     */
+    public long getOldestPosition() {
+        return Math.max(0, mLivePosition - mCapacity);
+    }
+
+    /**
+     * 最新から指定した時間だけ前の位置を取得する 上書きされた範囲の場合は最も古い位置とする。
+     * 
+     * @param delayMs 最新からの時間（ms）
+     * @return 位置（ストリームの先頭からのバイト数）
+     */
+    public long getPositionBefore(long delayMs) {
+        return Math.max(getOldestPosition(), mLivePosition - msToBytes(delayMs));
+    }
+
+    /**
+     * 時間をバイト数に換算する
+     * 
+     * @param ms 時間（ms）
+     * @return バイト数
+     */
+    public long msToBytes(long ms) {
+        return ms * mBitrate / 8;
+    }
+
+    /**
+     * バイト数を時間に換算する
+     * 
+     * @param bytes バイト数
+     * @return 時間（ms）
+     */
+    public long bytesToMs(long bytes) {
+        return bytes * 8 / mBitrate;
+    }
+
+    /**
+     * 閉じてファイルを削除する
+     * 
+     * メモリマップはガベージコレクションまで残るが、削除したファイルのディスクはその時に解放される。
+     */
+    public void close() {
+        if (mIsClosed) {
+            return;
+        }
+        mIsClosed = true;
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            ;
+        }
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            ;
+        }
+        mFile.delete();
+    }
+}
@@ -0,0 +1,188 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+import java.util.Locale;
+
+/**
+ * ウォッチルール 指定した項目に指定した単語を含む番組が放送を開始した際に通知する。
+ * 
+ * 単語の大文字・小文字は区別しない。
+ */
+public class WatchRule {
+
+    /**
+     * 対象の項目 DJ
+     */
+    public static final int FIELD_DJ = 0;
+
+    /**
+     * 対象の項目 タイトル
+     */
+    public static final int FIELD_TITLE = 1;
+
+    /**
+     * 対象の項目 ジャンル
+     */
+    public static final int FIELD_GENRE = 2;
+
+    /**
+     * 対象の項目の数
+     */
+    /* package */static final int FIELD_NUM = 3;
+
+    /**
+     * 対象の項目
+     */
+    private final int mField;
+
+    /**
+     * 単語
+     */
+    private final String mKeyword;
+
+    /**
+     * 比較用に小文字にした単語
+     */
+    private final String mNormalizedKeyword;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param field 対象の項目
+     * @param keyword 単語。前後の空白は取り除く。
+     * @see WatchRule#FIELD_DJ
+     * @see WatchRule#FIELD_TITLE
+     * @see WatchRule#FIELD_GENRE
+     */
+    public WatchRule(int field, String keyword) {
+        if (field < 0 || field >= FIELD_NUM) {
+            throw new IllegalArgumentException("Unknown field(" + field + ").");
+        }
+        if (keyword == null || keyword.trim().length() == 0) {
+            throw new IllegalArgumentException("keyword is empty.");
+        }
+
+        mField = field;
+        mKeyword = keyword.trim();
+        mNormalizedKeyword = normalize(mKeyword);
+    }
+
+    /**
+     * 対象の項目を取得する
+     * 
+     * @return 対象の項目
+     */
+    public int getField() {
+        return mField;
+    }
+
+    /**
+     * 単語を取得する
+     * 
+     * @return 単語
+     */
+    public String getKeyword() {
+        return mKeyword;
+    }
+
+    /**
+     * 比較用に小文字にした単語を取得する
+     * 
+     * @return 比較用に小文字にした単語
+     */
+    /* package */String getNormalizedKeyword() {
+        return mNormalizedKeyword;
+    }
+
+    /**
+     * 番組がこのルールに一致するか
+     * 
+     * @param channel 番組
+     * @return 一致する場合はtrue
+     */
+    public boolean matches(Channel channel) {
+        final String value = getFieldValue(channel, mField);
+        return value != null && value.indexOf(mNormalizedKeyword) >= 0;
+    }
+
+    /**
+     * 番組の対象の項目の値を、比較用に小文字にして取得する
+     * 
+     * @param channel 番組
+     * @param field 対象の項目
+     * @return 比較用に小文字にした値。値が無い場合はnull。
+     */
+    /* package */static String getFieldValue(Channel channel, int field) {
+        final String value;
+        switch (field) {
+            case FIELD_DJ:
+                value = channel.getDj();
+                break;
+            case FIELD_TITLE:
+                value = channel.getNam();
+                break;
+            case FIELD_GENRE:
+                value = channel.getGnl();
+                break;
+            default:
+                value = null;
+                break;
+        }
+        return (value != null) ? normalize(value) : null;
+    }
+
+    /**
+     * 比較用に小文字にする
+     * 
+     * @param str 文字列
+     * @return 小文字にした文字列
+     */
+    private static String normalize(String str) {
+        return str.toLowerCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if ((o instanceof WatchRule) == false) {
+            return false;
+        }
+        final WatchRule other = (WatchRule) o;
+        return mField == other.mField && mNormalizedKeyword.equals(other.mNormalizedKeyword);
+    }
+
+    @Override
+    public int hashCode() {
+        return mField * 31 + mNormalizedKeyword.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "WatchRule(" + mField + ", " + mKeyword + ")";
+    }
+}
@@ -0,0 +1,191 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * ウォッチルールの索引
+ * 
+ * 各ルールを単語の先頭2文字（1文字の単語はその1文字）で項目毎に索引しておき、
+ * 番組の項目の値の2文字ずつを索引から引いて、候補となったルールのみを照合する。
+ * そのため、番組1件あたりの照合の手間は項目の値の長さに比例し、ルールの数にはほぼ依存しない。
+ * 
+ * スレッドセーフではない。
+ */
+/* package */class WatchRuleIndex {
+
+    /**
+     * ルール
+     */
+    private final WatchRule[] mRules;
+
+    /**
+     * 項目毎の、先頭2文字（1文字の単語はその1文字）をキーとしたルールの位置の配列
+     */
+    private final ArrayList<HashMap<Integer, int[]>> mIndexes;
+
+    /**
+     * 項目毎の、1文字の単語のルールがあるか
+     */
+    private final boolean[] mHasSingleCharRule = new boolean[WatchRule.FIELD_NUM];
+
+    /**
+     * ルール毎の、最後に照合した番組の通し番号。 1件の番組で同じルールを2回照合しないために使う。
+     */
+    private final int[] mCheckedStamps;
+
+    /**
+     * 照合した番組の通し番号
+     */
+    private int mStamp = 0;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param rules ルール
+     */
+    public WatchRuleIndex(List<WatchRule> rules) {
+        mRules = rules.toArray(new WatchRule[rules.size()]);
+        mCheckedStamps = new int[mRules.length];
+
+        final ArrayList<HashMap<Integer, ArrayList<Integer>>> builders = new ArrayList<HashMap<Integer, ArrayList<Integer>>>(
+                WatchRule.FIELD_NUM);
+        for (int i = 0; i < WatchRule.FIELD_NUM; ++i) {
+            builders.add(new HashMap<Integer, ArrayList<Integer>>());
+        }
+        for (int i = 0; i < mRules.length; ++i) {
+            final String keyword = mRules[i].getNormalizedKeyword();
+            final int key;
+            if (keyword.length() == 1) {
+                key = keyword.charAt(0);
+                mHasSingleCharRule[mRules[i].getField()] = true;
+            } else {
+                key = getBigramKey(keyword, 0);
+            }
+            final HashMap<Integer, ArrayList<Integer>> builder = builders.get(mRules[i]
+                    .getField());
+            ArrayList<Integer> bucket = builder.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Integer>(1);
+                builder.put(key, bucket);
+            }
+            bucket.add(i);
+        }
+
+        mIndexes = new ArrayList<HashMap<Integer, int[]>>(WatchRule.FIELD_NUM);
+        for (HashMap<Integer, ArrayList<Integer>> builder : builders) {
+            final HashMap<Integer, int[]> index = new HashMap<Integer, int[]>(
+                    builder.size() * 4 / 3 + 1);
+            for (Integer key : builder.keySet()) {
+                final ArrayList<Integer> bucket = builder.get(key);
+                final int[] ruleIndexes = new int[bucket.size()];
+                for (int i = 0; i < ruleIndexes.length; ++i) {
+                    ruleIndexes[i] = bucket.get(i);
+                }
+                index.put(key, ruleIndexes);
+            }
+            mIndexes.add(index);
+        }
+    }
+
+    /**
+     * ルールが無いか
+     * 
+     * @return ルールが無い場合はtrue
+     */
+    public boolean isEmpty() {
+        return mRules.length == 0;
+    }
+
+    /**
+     * 番組に一致するルールを取得する
+     * 
+     * @param channel 番組
+     * @param result 一致したルールを追加するリスト
+     */
+    public void match(Channel channel, List<WatchRule> result) {
+        if (mRules.length == 0) {
+            return;
+        }
+
+        ++mStamp;
+        for (int field = 0; field < WatchRule.FIELD_NUM; ++field) {
+            final HashMap<Integer, int[]> index = mIndexes.get(field);
+            if (index.isEmpty()) {
+                continue;
+            }
+            final String value = WatchRule.getFieldValue(channel, field);
+            if (value == null) {
+                continue;
+            }
+
+            final int length = value.length();
+            for (int i = 0; i < length; ++i) {
+                if (mHasSingleCharRule[field]) {
+                    check(value, index.get((int) value.charAt(i)), result);
+                }
+                if (i + 1 < length) {
+                    check(value, index.get(getBigramKey(value, i)), result);
+                }
+            }
+        }
+    }
+
+    /**
+     * 候補のルールを照合する
+     * 
+     * @param value 比較用に小文字にした番組の項目の値
+     * @param ruleIndexes 候補のルールの位置の配列。候補が無い場合はnull。
+     * @param result 一致したルールを追加するリスト
+     */
+    private void check(String value, int[] ruleIndexes, List<WatchRule> result) {
+        if (ruleIndexes == null) {
+            return;
+        }
+        for (int ruleIndex : ruleIndexes) {
+            if (mCheckedStamps[ruleIndex] == mStamp) {
+                continue;
+            }
+            mCheckedStamps[ruleIndex] = mStamp;
+            if (value.indexOf(mRules[ruleIndex].getNormalizedKeyword()) >= 0) {
+                result.add(mRules[ruleIndex]);
+            }
+        }
+    }
+
+    /**
+     * 2文字の索引のキーを取得する
+     * 
+     * @param str 文字列
+     * @param start 2文字の開始位置
+     * @return 索引のキー
+     */
+    private static int getBigramKey(String str, int start) {
+        return (str.charAt(start) << 16) | str.charAt(start + 1);
+    }
+}
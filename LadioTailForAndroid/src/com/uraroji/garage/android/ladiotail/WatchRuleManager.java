@@ -0,0 +1,351 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ウォッチルールを管理する
+ * 
+ * ルールはファイルに保存する。 ヘッドラインを取得する度に、前回のヘッドラインから追加された番組と
+ * 内容が変わった番組のみをルールと照合する。 起動して最初のヘッドラインは照合せずに覚えるだけにし、
+ * 起動前から配信している番組は通知しない。
+ */
+public class WatchRuleManager {
+
+    /**
+     * ルールを保存するファイル名
+     */
+    private static final String RULE_FILE_NAME = "watch_rules";
+
+    /**
+     * ルールを保存するファイルの形式のバージョン
+     */
+    private static final int RULE_FILE_VERSION = 1;
+
+    /**
+     * シングルトンのインスタンス
+     */
+    private static WatchRuleManager mInstance = new WatchRuleManager();
+
+    /**
+     * ルールを保存するファイル。 初期化していない場合はnull。
+     */
+    private File mRuleFile;
+
+    /**
+     * ルール。 ファイルから読み込んでいない場合はnull。
+     */
+    private ArrayList<WatchRule> mRules;
+
+    /**
+     * ルールの索引。 ルールを変更した場合はnullにし、次に照合する際に作り直す。
+     */
+    private WatchRuleIndex mRuleIndex;
+
+    /**
+     * 前回照合したヘッドラインの番組のIDの昇順の配列
+     */
+    private long[] mLastIds = new long[0];
+
+    /**
+     * 前回照合したヘッドラインの番組の内容のハッシュ。 mLastIdsと同じ並び。
+     */
+    private long[] mLastSignatures = new long[0];
+
+    /**
+     * 起動してからヘッドラインを照合したか。 最初のヘッドラインは照合せずに覚えるだけにするために使う。
+     */
+    private boolean mHasEvaluated = false;
+
+    /**
+     * ロックオブジェクト
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * コンストラクタ シングルトンなのでprivateとする
+     */
+    private WatchRuleManager() {
+    }
+
+    /**
+     * インスタンスを取得する
+     * 
+     * @return インスタンス
+     */
+    public static WatchRuleManager getManager() {
+        return mInstance;
+    }
+
+    /**
+     * 初期化 ルールを使用する前に初期化すること。
+     * 
+     * ファイルの読み込みは最初にルールを使用する際に行う。
+     * 
+     * @param context コンテキスト。アプリケーションのコンテキストを渡すこと。
+     */
+    public void init(Context context) {
+        synchronized (mLock) {
+            if (mRuleFile == null) {
+                mRuleFile = new File(context.getFilesDir(), RULE_FILE_NAME);
+            }
+        }
+    }
+
+    /**
+     * ルールのリストを取得する
+     * 
+     * @return ルールのリストのコピー
+     */
+    public List<WatchRule> getRules() {
+        synchronized (mLock) {
+            return new ArrayList<WatchRule>(loadRules());
+        }
+    }
+
+    /**
+     * ルールを追加する 同じルールが既にある場合は何もしない。
+     * 
+     * 追加したルールは、次にヘッドラインを取得した際に追加された番組と内容が変わった番組から照合する。
+     * 
+     * @param rule ルール
+     * @return 追加した場合はtrue
+     */
+    public boolean addRule(WatchRule rule) {
+        synchronized (mLock) {
+            final ArrayList<WatchRule> rules = loadRules();
+            if (rules.contains(rule)) {
+                return false;
+            }
+            rules.add(rule);
+            mRuleIndex = null;
+            saveRules();
+            return true;
+        }
+    }
+
+    /**
+     * ルールを削除する
+     * 
+     * @param rule ルール
+     * @return 削除した場合はtrue
+     */
+    public boolean removeRule(WatchRule rule) {
+        synchronized (mLock) {
+            if (loadRules().remove(rule) == false) {
+                return false;
+            }
+            mRuleIndex = null;
+            saveRules();
+            return true;
+        }
+    }
+
+    /**
+     * ヘッドラインの番組をルールと照合する
+     * 
+     * 前回照合したヘッドラインから追加された番組と、内容が変わった番組のみを照合する。
+     * 起動して初めて照合する場合は、配信中の番組を覚えるだけで照合しない。 起動する度に同じ番組を通知しないようにするため。
+     * ファイルを読み込む場合があるので、UIスレッドからは呼ばないこと。
+     * 
+     * @param index ヘッドラインの番組の索引
+     * @return ルールに一致した番組のリスト
+     */
+    public List<Channel> evaluate(ChannelIndex index) {
+        final ArrayList<Channel> result = new ArrayList<Channel>();
+
+        synchronized (mLock) {
+            if (mRuleIndex == null) {
+                mRuleIndex = new WatchRuleIndex(loadRules());
+            }
+
+            final int count = index.getChannelCount();
+            final long[] ids = new long[count];
+            final long[] signatures = new long[count];
+            for (int i = 0; i < count; ++i) {
+                ids[i] = index.getId(i);
+            }
+            Arrays.sort(ids);
+
+            final ArrayList<WatchRule> matched = new ArrayList<WatchRule>();
+            int checkedCount = 0;
+            for (int i = 0; i < count; ++i) {
+                final Channel channel = index.getChannel(i);
+                final long signature = getSignature(channel);
+                signatures[Arrays.binarySearch(ids, index.getId(i))] = signature;
+
+                // 最初のヘッドラインは覚えるだけ
+                if (mHasEvaluated == false) {
+                    continue;
+                }
+                // 追加された番組と内容が変わった番組のみを照合する
+                final int lastPosition = Arrays.binarySearch(mLastIds, index.getId(i));
+                if (lastPosition >= 0 && mLastSignatures[lastPosition] == signature) {
+                    continue;
+                }
+                ++checkedCount;
+                matched.clear();
+                mRuleIndex.match(channel, matched);
+                if (matched.isEmpty() == false) {
+                    result.add(channel);
+                }
+            }
+
+            mLastIds = ids;
+            mLastSignatures = signatures;
+            mHasEvaluated = true;
+
+            if (C.LOCAL_LOG) {
+                Log.v(C.TAG, String.format("Checked %d of %d channels with %d watch rules, %d matched.",
+                        checkedCount, count, mRules.size(), result.size()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 番組の照合する内容のハッシュを取得する
+     * 
+     * @param channel 番組
+     * @return 番組の照合する内容のハッシュ
+     */
+    private static long getSignature(Channel channel) {
+        long hash = 0xcbf29ce484222325L;
+        for (int field = 0; field < WatchRule.FIELD_NUM; ++field) {
+            final String value = WatchRule.getFieldValue(channel, field);
+            if (value != null) {
+                final int length = value.length();
+                for (int i = 0; i < length; ++i) {
+                    hash ^= value.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+            }
+            // 項目の区切り
+            hash ^= 0xffff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * ルールを取得する まだ読み込んでいない場合はファイルから読み込む。 mLockを取得してから呼ぶこと。
+     * 
+     * @return ルール
+     */
+    private ArrayList<WatchRule> loadRules() {
+        if (mRules != null) {
+            return mRules;
+        }
+
+        mRules = new ArrayList<WatchRule>();
+        if (mRuleFile == null) {
+            Log.w(C.TAG, "WatchRuleManager is not initialized.");
+            return mRules;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mRuleFile)));
+            final int version = in.readInt();
+            if (version != RULE_FILE_VERSION) {
+                Log.w(C.TAG, "Unknown watch rule file version(" + version + ").");
+                return mRules;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final int field = in.readByte();
+                final String keyword = in.readUTF();
+                try {
+                    mRules.add(new WatchRule(field, keyword));
+                } catch (IllegalArgumentException e) {
+                    Log.w(C.TAG, "Invalid watch rule(" + e.toString() + ").");
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // まだルールを保存していない
+            ;
+        } catch (IOException e) {
+            Log.w(C.TAG, "Failed to load watch rules(" + e.toString() + ").");
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+        }
+        return mRules;
+    }
+
+    /**
+     * ルールをファイルに保存する mLockを取得してから呼ぶこと。
+     * 
+     * 項目は1バイト、単語は修正UTF-8で保存する。
+     */
+    private void saveRules() {
+        if (mRuleFile == null) {
+            Log.w(C.TAG, "WatchRuleManager is not initialized.");
+            return;
+        }
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mRuleFile)));
+            out.writeInt(RULE_FILE_VERSION);
+            out.writeInt(mRules.size());
+            for (WatchRule rule : mRules) {
+                out.writeByte(rule.getField());
+                out.writeUTF(rule.getKeyword());
+            }
+        } catch (IOException e) {
+            Log.w(C.TAG, "Failed to save watch rules(" + e.toString() + ").");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * AudioFrameReaderのテスト
+ */
+public class AudioFrameReaderTest {
+
+    @Test
+    public void parseMp3Header() {
+        final byte[] frames = LocalStreamServer.createMp3Frames(1);
+        final int[] header = new int[5];
+
+        assertEquals(AudioFrameReader.MIME_TYPE_MPEG,
+                AudioFrameReader.parseHeader(frames, 0, frames.length, header));
+        assertArrayEquals(new int[] {
+                LocalStreamServer.MP3_FRAME_SIZE, 4, 44100, 2, 1152
+        }, header);
+    }
+
+    @Test
+    public void parseAdtsHeader() {
+        final byte[] frame = createAdtsFrame(107);
+        final int[] header = new int[5];
+
+        assertEquals(AudioFrameReader.MIME_TYPE_AAC,
+                AudioFrameReader.parseHeader(frame, 0, frame.length, header));
+        assertArrayEquals(new int[] {
+                107, 7, 44100, 2, 1024
+        }, header);
+    }
+
+    @Test
+    public void parseHeaderRejectsNonFrames() {
+        final int[] header = new int[5];
+        // 同期ワードが無い
+        assertNull(AudioFrameReader.parseHeader(new byte[] {
+                0x49, 0x44, 0x33, 0x04
+        }, 0, 4, header));
+        // Layer I
+        assertNull(AudioFrameReader.parseHeader(new byte[] {
+                (byte) 0xFF, (byte) 0xFF, (byte) 0x90, 0x00
+        }, 0, 4, header));
+        // ビットレートが不正
+        assertNull(AudioFrameReader.parseHeader(new byte[] {
+                (byte) 0xFF, (byte) 0xFB, (byte) 0xF0, 0x00
+        }, 0, 4, header));
+        // 長さが足りない
+        assertNull(AudioFrameReader.parseHeader(new byte[] {
+                (byte) 0xFF, (byte) 0xFB, (byte) 0x90
+        }, 0, 3, header));
+    }
+
+    @Test
+    public void syncSkipsLeadingGarbage() throws Exception {
+        final int garbage = 100;
+        final int frameCount = 10;
+        final AudioFrameReader reader = new AudioFrameReader(createBuffer(garbage, frameCount));
+
+        assertTrue(reader.sync());
+        assertEquals(AudioFrameReader.MIME_TYPE_MPEG, reader.getMimeType());
+        assertEquals(44100, reader.getSampleRate());
+        assertEquals(2, reader.getChannelCount());
+        assertEquals(1152L * 1000000 / 44100, reader.getFrameDurationUs());
+        assertNull(reader.getCodecConfig());
+        assertEquals(garbage, reader.getSkippedBytes());
+
+        final byte[] frame = new byte[AudioFrameReader.MAX_FRAME_SIZE];
+        for (int i = 0; i < frameCount; ++i) {
+            assertEquals(LocalStreamServer.MP3_FRAME_SIZE, reader.readFrame(frame));
+            // フレームの中身はフレームの番号
+            assertEquals(i, frame[LocalStreamServer.MP3_FRAME_SIZE - 1]);
+        }
+        assertEquals(-1, reader.readFrame(frame));
+        assertEquals(garbage, reader.getSkippedBytes());
+    }
+
+    @Test
+    public void syncNeedsTwoConsecutiveHeaders() throws Exception {
+        // ヘッダが1つだけではストリームの終わりまでに同期できない
+        final StreamRingBuffer buffer = createBuffer(0, 1);
+        assertFalse(new AudioFrameReader(buffer).sync());
+    }
+
+    @Test(expected = IOException.class)
+    public void syncGivesUpOnUnsupportedStream() throws Exception {
+        final byte[] garbage = new byte[128 * 1024];
+        final StreamRingBuffer buffer = new StreamRingBuffer(garbage.length);
+        buffer.write(garbage, 0, garbage.length);
+        buffer.finish();
+
+        new AudioFrameReader(buffer).sync();
+    }
+
+    /**
+     * 読み飛ばすデータとMP3のフレームを書き込んだバッファを作成する 書き込みは終えておく。
+     * 
+     * @param garbage フレームの前の読み飛ばすデータのバイト数
+     * @param frameCount フレームの数
+     * @return バッファ
+     * @throws InterruptedException 書き込み中に割り込まれた
+     */
+    private static StreamRingBuffer createBuffer(int garbage, int frameCount)
+            throws InterruptedException {
+        final byte[] frames = LocalStreamServer.createMp3Frames(frameCount);
+        final StreamRingBuffer buffer = new StreamRingBuffer(garbage + frames.length);
+        buffer.write(new byte[garbage], 0, garbage);
+        buffer.write(frames, 0, frames.length);
+        buffer.finish();
+        return buffer;
+    }
+
+    /**
+     * ADTSのフレーム（AAC LC、44.1kHz、ステレオ、CRC無し）を作成する
+     * 
+     * @param frameSize ヘッダを含むフレームのバイト数
+     * @return フレーム
+     */
+    private static byte[] createAdtsFrame(int frameSize) {
+        final byte[] frame = new byte[frameSize];
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xF1;
+        // プロファイル LC、サンプリングレート 44.1kHz、チャンネル構成の上位ビット
+        frame[2] = (byte) 0x50;
+        frame[3] = (byte) (0x80 | ((frameSize >> 11) & 0x03));
+        frame[4] = (byte) ((frameSize >> 3) & 0xFF);
+        frame[5] = (byte) (((frameSize & 0x07) << 5) | 0x1F);
+        frame[6] = (byte) 0xFC;
+        return frame;
+    }
+}
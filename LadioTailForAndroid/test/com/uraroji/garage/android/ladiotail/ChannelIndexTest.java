@@ -0,0 +1,115 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+import com.uraroji.garage.android.netladiolib.Headline;
+import com.uraroji.garage.android.netladiolib.TestChannels;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * ChannelIndexのメモリ不足時の破棄のテスト
+ */
+public class ChannelIndexTest {
+
+    private ChannelIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mIndex = new ChannelIndex(new FakeHeadline(
+                TestChannels.create("b-title", "c-dj", 10, "/one", 3000),
+                TestChannels.create("c-title", "a-dj", 30, "/two", 2000),
+                TestChannels.create("a-title", "b-dj", 20, "/three", 1000)));
+        for (int i = 0; i < mIndex.getChannelCount(); ++i) {
+            mIndex.cacheRowModel(i, createRowModel(mIndex.getChannel(i)));
+        }
+    }
+
+    private static ChannelRowModel createRowModel(Channel channel) {
+        return new ChannelRowModel(channel, channel.getNam(), "", channel.getDj(), "", "", 0,
+                channel.getTims().getTime());
+    }
+
+    @Test
+    public void backgroundDropsRowModelsAndSearch() {
+        final int[] matched = mIndex.getIndexes(Headline.SORT_TYPE_NEWLY, "title");
+        final int[] listeners = mIndex.getIndexes(Headline.SORT_TYPE_LISTENERS, null);
+
+        mIndex.trim(MemoryTrimmer.LEVEL_BACKGROUND, Headline.SORT_TYPE_NEWLY);
+
+        assertEquals(0, mIndex.getCachedRowModelCount());
+        assertNull(mIndex.getCachedRowModel(0));
+        // 並び順の索引は残す
+        assertSame(listeners, mIndex.getIndexes(Headline.SORT_TYPE_LISTENERS, null));
+        // 検索は作り直しても同じ結果になる
+        assertArrayEquals(matched, mIndex.getIndexes(Headline.SORT_TYPE_NEWLY, "title"));
+    }
+
+    @Test
+    public void moderateKeepsOnlyShownSortType() {
+        final int[] listeners = mIndex.getIndexes(Headline.SORT_TYPE_LISTENERS, null);
+        final int[] title = mIndex.getIndexes(Headline.SORT_TYPE_TITLE, null);
+
+        mIndex.trim(MemoryTrimmer.LEVEL_MODERATE, Headline.SORT_TYPE_LISTENERS);
+
+        assertEquals(0, mIndex.getCachedRowModelCount());
+        assertSame(listeners, mIndex.getIndexes(Headline.SORT_TYPE_LISTENERS, null));
+        // 破棄した索引は作り直され、内容は変わらない
+        final int[] rebuilt = mIndex.getIndexes(Headline.SORT_TYPE_TITLE, null);
+        assertNotSame(title, rebuilt);
+        assertArrayEquals(title, rebuilt);
+    }
+
+    @Test
+    public void rebuiltIndexesFollowSortType() {
+        mIndex.trim(MemoryTrimmer.LEVEL_COMPLETE, Headline.SORT_TYPE_NEWLY);
+
+        assertArrayEquals(new int[] {
+                1, 2, 0
+        }, mIndex.getIndexes(Headline.SORT_TYPE_LISTENERS, null));
+        assertArrayEquals(new int[] {
+                2, 0, 1
+        }, mIndex.getIndexes(Headline.SORT_TYPE_TITLE, null));
+        assertArrayEquals(new int[] {
+                1, 2, 0
+        }, mIndex.getIndexes(Headline.SORT_TYPE_DJ, null));
+    }
+
+    @Test
+    public void rowModelsCanBeCachedAgain() {
+        mIndex.trim(MemoryTrimmer.LEVEL_COMPLETE, Headline.SORT_TYPE_NEWLY);
+
+        final ChannelRowModel rowModel = createRowModel(mIndex.getChannel(1));
+        mIndex.cacheRowModel(1, rowModel);
+        assertSame(rowModel, mIndex.getCachedRowModel(1));
+        assertEquals(1, mIndex.getCachedRowModelCount());
+    }
+}
@@ -0,0 +1,146 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+import com.uraroji.garage.android.netladiolib.Headline;
+import com.uraroji.garage.android.netladiolib.TestChannels;
+
+import org.junit.Test;
+
+/**
+ * 番組のIDと、ヘッドラインを取得し直した際の番組の並びの比較のテスト
+ * 
+ * ChannelAdapterが実際に表示し直す行の数は、LadioTailForAndroidTestのChannelListUpdateTestで数える。
+ */
+public class ChannelListDiffTest {
+
+    /**
+     * 合成のヘッドラインの番組の数
+     */
+    private static final int CHANNEL_COUNT = 1000;
+
+    @Test
+    public void idFollowsPlayUrl() {
+        final Channel channel = TestChannels.create("title", "dj", 10, "/mount", 1000);
+        // 取得し直すと別のオブジェクトになり、リスナー数なども変わる
+        final Channel refetched = TestChannels.create("new title", "dj", 20, "/mount", 1000);
+        final Channel other = TestChannels.create("title", "dj", 10, "/other", 1000);
+
+        assertEquals(ChannelRowModel.createId(channel), ChannelRowModel.createId(refetched));
+        assertNotEquals(ChannelRowModel.createId(channel), ChannelRowModel.createId(other));
+        assertEquals(ChannelRowModel.createId(channel), createRowModel(channel).getId());
+    }
+
+    @Test
+    public void idWithoutPlayUrlUsesTitleAndDj() {
+        final Channel channel = TestChannels.create("title", "dj", 10, null, 1000);
+        final Channel sameTitle = TestChannels.create("title", "other dj", 10, null, 1000);
+
+        assertEquals(ChannelRowModel.createId(channel),
+                ChannelRowModel.createId(TestChannels.create("title", "dj", 20, null, 2000)));
+        assertNotEquals(ChannelRowModel.createId(channel), ChannelRowModel.createId(sameTitle));
+    }
+
+    @Test
+    public void refetchWithoutChurnKeepsOrder() {
+        final PagedChannelList oldList = createList(createChannels(0));
+        final PagedChannelList newList = createList(createChannels(0));
+
+        // 番組のオブジェクトは別でも、IDで同じ並びと分かる
+        assertTrue(oldList.isSameOrder(newList));
+    }
+
+    @Test
+    public void churnChangesOrder() {
+        final PagedChannelList oldList = createList(createChannels(0));
+        final PagedChannelList newList = createList(createChannels(CHANNEL_COUNT / 20));
+
+        assertFalse(oldList.isSameOrder(newList));
+    }
+
+    @Test
+    public void titleChangeKeepsOrderButChangesContent() {
+        final Channel[] oldChannels = createChannels(0);
+        final Channel[] newChannels = createChannels(0);
+        newChannels[3] = TestChannels.create("renamed", "dj3", CHANNEL_COUNT - 3, "/mount3",
+                3000);
+        final PagedChannelList oldList = createList(oldChannels);
+        final PagedChannelList newList = createList(newChannels);
+
+        // 並びは同じだが、その行の表示内容は変わる
+        assertTrue(oldList.isSameOrder(newList));
+        assertFalse(createRowModel(newChannels[3]).hasSameContent(
+                createRowModel(oldChannels[3])));
+        assertTrue(createRowModel(newChannels[4]).hasSameContent(
+                createRowModel(oldChannels[4])));
+    }
+
+    /**
+     * 合成のヘッドラインの番組を作成する
+     * 
+     * @param churn 入れ替える番組の数。 入れ替えた番組は同じ位置に別のマウントで並ぶ。
+     * @return 番組の配列
+     */
+    private static Channel[] createChannels(int churn) {
+        final Channel[] channels = new Channel[CHANNEL_COUNT];
+        // 入れ替える番組は全体に散らばるように選ぶ
+        final int step = (churn > 0) ? CHANNEL_COUNT / churn : 0;
+        for (int i = 0; i < CHANNEL_COUNT; ++i) {
+            final boolean replaced = (step > 0 && i % step == 0 && i / step < churn);
+            final String mount = (replaced ? "/new" : "/mount") + i;
+            channels[i] = TestChannels.create("title" + i, "dj" + i, CHANNEL_COUNT - i, mount,
+                    1000L * i);
+        }
+        return channels;
+    }
+
+    /**
+     * リスナー数の順の番組のリストを作成する 1行に表示する内容は生成しない。
+     * 
+     * @param channels 番組の配列
+     * @return 番組のリスト
+     */
+    private static PagedChannelList createList(Channel[] channels) {
+        final ChannelIndex index = new ChannelIndex(new FakeHeadline(channels));
+        return new PagedChannelList(index, index.getIndexes(Headline.SORT_TYPE_LISTENERS, null),
+                null);
+    }
+
+    /**
+     * 番組一覧の1行に表示する内容を作成する ChannelRowModelBuilderはContextが必要なので使わない。
+     * 
+     * @param channel 番組
+     * @return 番組一覧の1行に表示する内容
+     */
+    private static ChannelRowModel createRowModel(Channel channel) {
+        return new ChannelRowModel(channel, channel.getNam(), "", channel.getDj(),
+                String.valueOf(channel.getCln()), String.valueOf(channel.getTims().getTime()),
+                0, channel.getTims().getTime());
+    }
+}
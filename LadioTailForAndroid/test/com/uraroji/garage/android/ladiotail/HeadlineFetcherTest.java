@@ -0,0 +1,71 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * HeadlineFetcherのリトライの待ち時間のテスト
+ */
+public class HeadlineFetcherTest {
+
+    @Test
+    public void delayDoublesUntilMax() {
+        // 乱数が0の場合は待ち時間の半分になる
+        assertEquals(C.HEADLINE_FETCH_BACKOFF_BASE_MS / 2, HeadlineFetcher.getBackoffDelay(1, 0));
+        assertEquals(C.HEADLINE_FETCH_BACKOFF_BASE_MS, HeadlineFetcher.getBackoffDelay(2, 0));
+        assertEquals(C.HEADLINE_FETCH_BACKOFF_BASE_MS * 2, HeadlineFetcher.getBackoffDelay(3, 0));
+        assertEquals(C.HEADLINE_FETCH_BACKOFF_MAX_MS / 2, HeadlineFetcher.getBackoffDelay(100, 0));
+        assertEquals(C.HEADLINE_FETCH_BACKOFF_MAX_MS / 2,
+                HeadlineFetcher.getBackoffDelay(Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    public void jitterStaysWithinUpperHalf() {
+        for (int retry = 1; retry <= C.HEADLINE_FETCH_MAX_RETRY + 2; ++retry) {
+            final long min = HeadlineFetcher.getBackoffDelay(retry, 0);
+            final long max = HeadlineFetcher.getBackoffDelay(retry, 0.999999);
+            assertTrue(max >= min);
+            // ゆらぎは待ち時間の半分まで
+            assertTrue(max < min * 2);
+            assertTrue(max < C.HEADLINE_FETCH_BACKOFF_MAX_MS);
+            for (double random = 0; random < 1; random += 0.1) {
+                final long delay = HeadlineFetcher.getBackoffDelay(retry, random);
+                assertTrue(min <= delay && delay <= max);
+            }
+        }
+    }
+
+    @Test
+    public void delayNeverDecreases() {
+        long last = 0;
+        for (int retry = 1; retry <= 64; ++retry) {
+            final long delay = HeadlineFetcher.getBackoffDelay(retry, 0.5);
+            assertTrue(delay >= last);
+            last = delay;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * IcyMetadataParserのテスト
+ */
+public class IcyMetadataParserTest {
+
+    @Test
+    public void parsesTitle() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='Artist - Song';StreamUrl='';"));
+        assertEquals("Artist - Song", parser.getTitle());
+    }
+
+    @Test
+    public void reportsOnlyChanges() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='Song A';"));
+        assertFalse(parse(parser, "StreamTitle='Song A';"));
+        assertTrue(parse(parser, "StreamTitle='Song B';"));
+        assertEquals("Song B", parser.getTitle());
+
+        // 曲名の無いメタデータは無視する
+        assertFalse(parse(parser, "StreamUrl='http://example.com/';"));
+        assertEquals("Song B", parser.getTitle());
+
+        parser.reset();
+        assertTrue(parse(parser, "StreamTitle='Song B';"));
+    }
+
+    @Test
+    public void emptyTitleIsNull() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='';"));
+        assertNull(parser.getTitle());
+    }
+
+    @Test
+    public void titleMayContainQuotes() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='It's a song';"));
+        assertEquals("It's a song", parser.getTitle());
+    }
+
+    @Test
+    public void unterminatedTitleEndsAtPadding() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='Song"));
+        assertFalse(parse(parser, "StreamTitle='Song';"));
+        assertEquals("Song", parser.getTitle());
+    }
+
+    @Test
+    public void decodesUtf8AndShiftJis() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+
+        assertTrue(parse(parser, "StreamTitle='曲名';".getBytes("UTF-8")));
+        assertEquals("曲名", parser.getTitle());
+        // UTF-8として正しくない場合はShift_JIS
+        assertTrue(parse(parser, "StreamTitle='曲名';".getBytes("Shift_JIS")));
+        assertEquals("曲名", parser.getTitle());
+    }
+
+    @Test
+    public void blockSplitAcrossAppends() throws Exception {
+        final IcyMetadataParser parser = new IcyMetadataParser();
+        final byte[] metadata = "StreamTitle='Song A';".getBytes("ISO-8859-1");
+
+        parser.begin();
+        for (int i = 0; i < metadata.length; ++i) {
+            parser.append(ByteBuffer.wrap(metadata, i, 1), 1);
+        }
+        assertTrue(parser.end());
+        assertEquals("Song A", parser.getTitle());
+    }
+
+    @Test
+    public void isValidUtf8() throws Exception {
+        final byte[] utf8 = "あいう abc".getBytes("UTF-8");
+        final byte[] sjis = "あいう".getBytes("Shift_JIS");
+
+        assertTrue(IcyMetadataParser.isValidUtf8(utf8, utf8.length));
+        assertFalse(IcyMetadataParser.isValidUtf8(sjis, sjis.length));
+        // 途中で切れている
+        assertFalse(IcyMetadataParser.isValidUtf8(utf8, 1));
+    }
+
+    /**
+     * メタデータを1つ解析する 16バイト単位になるよう0で埋める。
+     * 
+     * @param parser パーサ
+     * @param metadata メタデータ
+     * @return 曲名が変わった場合はtrue
+     * @throws Exception 文字列を変換できなかった
+     */
+    private static boolean parse(IcyMetadataParser parser, String metadata) throws Exception {
+        return parse(parser, metadata.getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * メタデータを1つ解析する 16バイト単位になるよう0で埋める。
+     * 
+     * @param parser パーサ
+     * @param metadata メタデータ
+     * @return 曲名が変わった場合はtrue
+     */
+    private static boolean parse(IcyMetadataParser parser, byte[] metadata) {
+        final byte[] block = new byte[(metadata.length + 15) / 16 * 16];
+        System.arraycopy(metadata, 0, block, 0, metadata.length);
+        parser.begin();
+        parser.append(ByteBuffer.wrap(block), block.length);
+        return parser.end();
+    }
+}
@@ -0,0 +1,248 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * IcyStreamClientのテスト ローカルの配信サーバの代わりに接続する。
+ */
+public class IcyStreamClientTest {
+
+    /**
+     * 接続・読み込みのタイムアウト（ms）
+     */
+    private static final int TIMEOUT_MS = 5000;
+
+    /**
+     * 配信サーバの代わり
+     */
+    private LocalStreamServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    @Test
+    public void parseStatusCode() throws IOException {
+        assertEquals(200, IcyStreamClient.parseStatusCode("ICY 200 OK"));
+        assertEquals(200, IcyStreamClient.parseStatusCode("HTTP/1.0 200 OK"));
+        assertEquals(302, IcyStreamClient.parseStatusCode("HTTP/1.1 302 Found"));
+        assertEquals(404, IcyStreamClient.parseStatusCode("HTTP/1.1 404"));
+    }
+
+    @Test(expected = IOException.class)
+    public void parseStatusCodeRejectsOtherProtocols() throws IOException {
+        IcyStreamClient.parseStatusCode("RTSP/1.0 200 OK");
+    }
+
+    @Test(expected = IOException.class)
+    public void parseStatusCodeRejectsNonNumericCode() throws IOException {
+        IcyStreamClient.parseStatusCode("ICY OK");
+    }
+
+    @Test
+    public void parseBitrate() {
+        assertEquals(128, IcyStreamClient.parseBitrate("128"));
+        assertEquals(64, IcyStreamClient.parseBitrate("64,64"));
+        assertEquals(-1, IcyStreamClient.parseBitrate("unknown"));
+        assertEquals(-1, IcyStreamClient.parseBitrate(null));
+    }
+
+    @Test
+    public void connectReadsHeadersAndStream() throws Exception {
+        final byte[] body = LocalStreamServer.createMp3Frames(10);
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                LocalStreamServer.writeIcyHeader(out, 128, 0);
+                out.write(body);
+            }
+        });
+
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+
+            assertEquals(128, client.getBitrate());
+            // ヘッダ名の大文字・小文字は区別しない
+            assertEquals("audio/mpeg", client.getHeader("content-type"));
+            assertEquals("128", client.getHeader("ICY-BR"));
+            assertNull(client.getHeader("icy-metaint"));
+            assertEquals("/live.mp3", mServer.getRequest(0).mPath);
+            // メタデータは要求しない
+            assertEquals("0", mServer.getRequest(0).mHeaders.get("icy-metadata"));
+
+            final byte[] read = readAll(client.getInputStream());
+            assertEquals(body.length, read.length);
+            for (int i = 0; i < body.length; ++i) {
+                assertEquals(body[i], read[i]);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void connectFollowsRedirect() throws Exception {
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                if (connection == 0) {
+                    out.write(("HTTP/1.0 302 Found\r\nLocation: /relay.mp3\r\n\r\n")
+                            .getBytes("ISO-8859-1"));
+                } else {
+                    LocalStreamServer.writeIcyHeader(out, 64, 0);
+                }
+            }
+        });
+
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+
+            assertEquals(64, client.getBitrate());
+            assertEquals(2, mServer.getConnectionCount());
+            // 相対パスのLocationは元のURLから解決する
+            assertEquals("/relay.mp3", mServer.getRequest(1).mPath);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void connectGivesUpAfterMaxRedirects() throws Exception {
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                out.write(("HTTP/1.0 302 Found\r\nLocation: /loop" + connection + "\r\n\r\n")
+                        .getBytes("ISO-8859-1"));
+            }
+        });
+
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+            fail("Redirect loop is followed forever.");
+        } catch (IOException e) {
+            assertEquals(IcyStreamClient.MAX_REDIRECT + 1, mServer.getConnectionCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void connectFailsOnErrorStatus() throws Exception {
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                out.write("HTTP/1.0 404 Not Found\r\n\r\n".getBytes("ISO-8859-1"));
+            }
+        });
+
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void closeAbortsPendingConnect() throws Exception {
+        // 応答ヘッダを返さないサーバ
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                Thread.sleep(TIMEOUT_MS * 2);
+            }
+        });
+
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                TIMEOUT_MS, TIMEOUT_MS);
+        final Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    ;
+                }
+                client.close();
+            }
+        };
+        closer.start();
+
+        final long start = System.currentTimeMillis();
+        try {
+            client.connect();
+            fail("Connect succeeded without response.");
+        } catch (IOException e) {
+            // 読み込みのタイムアウトを待たずに中断する
+            assertTrue(System.currentTimeMillis() - start < TIMEOUT_MS);
+        }
+        closer.join();
+    }
+
+    /**
+     * ストリームの終わりまで読む
+     * 
+     * @param in 入力ストリーム
+     * @return 読んだデータ
+     * @throws IOException 読み込みに失敗した
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        for (;;) {
+            final int read = in.read(buffer);
+            if (read < 0) {
+                return out.toByteArray();
+            }
+            out.write(buffer, 0, read);
+        }
+    }
+}
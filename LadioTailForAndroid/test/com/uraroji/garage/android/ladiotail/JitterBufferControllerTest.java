@@ -0,0 +1,259 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * JitterBufferControllerのテスト
+ * 
+ * 時刻を進めながら受信速度を変える模擬的な通信で、StreamProxyと同じ手順（受信したらonReceived、
+ * 送れるだけ送ってonSent）で動かし、目標量の変化と途切れを確かめる。 時刻は実時間を使わないので結果は毎回同じになる。
+ */
+public class JitterBufferControllerTest {
+
+    /**
+     * ビットレート（kbps）
+     */
+    private static final int BITRATE = 128;
+
+    /**
+     * 1msあたりのバイト数
+     */
+    private static final int BYTES_PER_MS = BITRATE / 8;
+
+    /**
+     * 目標量の最小値（ms）
+     */
+    private static final long MIN_MS = 2 * 1000;
+
+    /**
+     * 目標量の最大値（ms）
+     */
+    private static final long MAX_MS = 20 * 1000;
+
+    /**
+     * 再生速度より先行して送る量（ms）
+     */
+    private static final long LEAD_MS = 5 * 1000;
+
+    @Test
+    public void holdsBackUntilTargetIsBuffered() {
+        final JitterBufferController controller = createController();
+        final int target = (int) (MIN_MS * BYTES_PER_MS);
+
+        assertEquals(0, controller.getSendableBytes(target - 1, 0));
+        assertTrue(controller.isBuffering());
+        assertEquals(-1, controller.getSendDelayMs());
+
+        // 溜まったら、先行して送る量までまとめて送る
+        assertEquals(target, controller.getSendableBytes(target, 0));
+        assertFalse(controller.isBuffering());
+        assertTrue(controller.getSendDelayMs() > 0);
+    }
+
+    @Test
+    public void pacesAtBitratePlusLead() {
+        final JitterBufferController controller = createController();
+        final int plenty = 1024 * 1024;
+
+        final int first = controller.getSendableBytes(plenty, 0);
+        assertEquals(LEAD_MS * BYTES_PER_MS, first);
+        controller.onSent(first);
+        // 先行した分を送った後は、経過した時間の分だけ送れる
+        assertEquals(0, controller.getSendableBytes(plenty, 0));
+        final int next = controller.getSendableBytes(plenty, 1000);
+        assertEquals(1000 * BYTES_PER_MS, next);
+        controller.onSent(next);
+        // MediaPlayerに渡した分は常に先行して送る量だけ再生より先にある
+        assertEquals(LEAD_MS, controller.getFillMs(0, 1000));
+    }
+
+    @Test
+    public void slowTrickleIsAnUnderrun() {
+        final JitterBufferController controller = createController();
+        final int lead = (int) (LEAD_MS * BYTES_PER_MS);
+        controller.onSent(controller.getSendableBytes(lead, 0));
+
+        // 先読みバッファは空ではないが、全て送っても再生に追い付かない
+        final int behind = 1000 * BYTES_PER_MS;
+        assertEquals(0, controller.getSendableBytes(behind - 1, LEAD_MS + 1000));
+        assertEquals(1, controller.getUnderrunCount());
+        assertTrue(controller.isBuffering());
+    }
+
+    @Test
+    public void steadyNetworkStaysAtMinimum() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(5 * 60 * 1000, 100);
+
+        assertEquals(MIN_MS, simulation.mmController.getTargetMs());
+        assertEquals(0, simulation.mmController.getUnderrunCount());
+        assertEquals(0, simulation.mmController.getStallMs(simulation.mmNow));
+        assertEquals(100, simulation.mmController.getThroughputPercent());
+    }
+
+    @Test
+    public void shortGapGrowsTargetWithoutUnderrun() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(30 * 1000, 100);
+        // 先行して送った分で1秒の途切れは埋まる
+        simulation.run(1000, 0);
+        simulation.run(30 * 1000, 100);
+
+        assertEquals(0, simulation.mmController.getUnderrunCount());
+        assertTrue(simulation.mmController.getTargetMs() > MIN_MS);
+    }
+
+    @Test
+    public void slowNetworkGrowsTargetUpToMaximum() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(10 * 1000, 100);
+        simulation.run(60 * 1000, 50);
+
+        final JitterBufferController controller = simulation.mmController;
+        assertEquals(MAX_MS, controller.getTargetMs());
+        assertTrue(controller.getUnderrunCount() > 0);
+        assertTrue(controller.getStallMs(simulation.mmNow) > 0);
+        assertEquals(50, controller.getThroughputPercent());
+    }
+
+    @Test
+    public void stableNetworkShrinksTargetBackToMinimum() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(10 * 1000, 100);
+        simulation.run(60 * 1000, 50);
+        final int underruns = simulation.mmController.getUnderrunCount();
+
+        // 回復してすぐには減らさない
+        simulation.run(30 * 1000, 100);
+        assertEquals(MAX_MS, simulation.mmController.getTargetMs());
+
+        // 遅れない状態が続く度に1段ずつ減らす
+        simulation.run(20 * 60 * 1000, 100);
+        assertEquals(MIN_MS, simulation.mmController.getTargetMs());
+        assertEquals(underruns, simulation.mmController.getUnderrunCount());
+    }
+
+    @Test
+    public void outageCountsStallTime() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(30 * 1000, 100);
+        simulation.run(10 * 1000, 0);
+
+        final JitterBufferController controller = simulation.mmController;
+        assertEquals(1, controller.getUnderrunCount());
+        assertTrue(controller.isBuffering());
+        // 先行して送った2秒分を再生し終えてから途切れている
+        final long stallMs = controller.getStallMs(simulation.mmNow);
+        assertTrue(stallMs > 0 && stallMs <= 10 * 1000 - MIN_MS);
+
+        // 再開すると目標量まで溜めてから送る
+        simulation.run(30 * 1000, 100);
+        assertFalse(controller.isBuffering());
+        assertEquals(1, controller.getUnderrunCount());
+    }
+
+    @Test
+    public void restartIsNotAnUnderrun() {
+        final Simulation simulation = new Simulation(createController());
+        simulation.run(30 * 1000, 100);
+        simulation.mmController.restart();
+
+        assertTrue(simulation.mmController.isBuffering());
+        simulation.run(30 * 1000, 100);
+        assertEquals(0, simulation.mmController.getUnderrunCount());
+        assertEquals(0, simulation.mmController.getStallMs(simulation.mmNow));
+    }
+
+    @Test
+    public void setBitrateIgnoresUnknown() {
+        final JitterBufferController controller = createController();
+        controller.setBitrate(-1);
+        assertEquals(BITRATE, controller.getBitrate());
+        controller.setBitrate(64);
+        assertEquals(64, controller.getBitrate());
+    }
+
+    /**
+     * テストする対象を作成する
+     * 
+     * @return ジッタバッファ
+     */
+    private static JitterBufferController createController() {
+        return new JitterBufferController(MIN_MS, MAX_MS, LEAD_MS, BITRATE);
+    }
+
+    /**
+     * 模擬的な通信
+     */
+    private static class Simulation {
+
+        /**
+         * 時刻を進める間隔（ms）
+         */
+        private static final long STEP_MS = 100;
+
+        private final JitterBufferController mmController;
+
+        /**
+         * 現在時刻（ms）
+         */
+        private long mmNow = 0;
+
+        /**
+         * 先読みバッファに溜まっているバイト数
+         */
+        private int mmBuffered = 0;
+
+        public Simulation(JitterBufferController controller) {
+            mmController = controller;
+        }
+
+        /**
+         * 時刻を進める
+         * 
+         * @param durationMs 進める時間（ms）
+         * @param throughputPercent ビットレートに対する受信速度（%）
+         */
+        public void run(long durationMs, int throughputPercent) {
+            final long end = mmNow + durationMs;
+            while (mmNow < end) {
+                mmNow += STEP_MS;
+                final int received = (int) (STEP_MS * BYTES_PER_MS * throughputPercent / 100);
+                // StreamProxyは受信できた場合だけ知らせる
+                if (received > 0) {
+                    mmBuffered += received;
+                    mmController.onReceived(received, mmNow);
+                }
+                final int sendable = mmController.getSendableBytes(mmBuffered, mmNow);
+                mmBuffered -= sendable;
+                mmController.onSent(sendable);
+            }
+        }
+    }
+}
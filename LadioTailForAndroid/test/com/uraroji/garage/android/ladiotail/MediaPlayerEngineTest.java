@@ -0,0 +1,71 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * MediaPlayerEngineのエラーの変換のテスト
+ */
+public class MediaPlayerEngineTest {
+
+    /**
+     * MediaPlayer.MEDIA_ERROR_UNKNOWN
+     */
+    private static final int MEDIA_ERROR_UNKNOWN = 1;
+
+    @Test
+    public void ioErrorsAreIo() {
+        assertEquals(PlayerEngine.ERROR_IO, MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, -1004));
+        assertEquals(PlayerEngine.ERROR_IO, MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, -110));
+    }
+
+    @Test
+    public void formatErrorsAreUnsupported() {
+        assertEquals(PlayerEngine.ERROR_UNSUPPORTED,
+                MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, -1007));
+        assertEquals(PlayerEngine.ERROR_UNSUPPORTED,
+                MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, -1010));
+        assertEquals(PlayerEngine.ERROR_UNSUPPORTED, MediaPlayerEngine.toError(200, 0));
+    }
+
+    @Test
+    public void otherErrorsAreUnknown() {
+        assertEquals(PlayerEngine.ERROR_UNKNOWN, MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, 0));
+        assertEquals(PlayerEngine.ERROR_UNKNOWN,
+                MediaPlayerEngine.toError(MEDIA_ERROR_UNKNOWN, Integer.MIN_VALUE));
+        // メディアサーバーが落ちた場合
+        assertEquals(PlayerEngine.ERROR_UNKNOWN, MediaPlayerEngine.toError(100, 0));
+    }
+
+    @Test
+    public void causesFollowErrors() {
+        assertEquals(PlaybackStats.CAUSE_IO, PlaybackTelemetry.toCause(PlayerEngine.ERROR_IO));
+        assertEquals(PlaybackStats.CAUSE_UNSUPPORTED,
+                PlaybackTelemetry.toCause(PlayerEngine.ERROR_UNSUPPORTED));
+        assertEquals(PlaybackStats.CAUSE_UNKNOWN,
+                PlaybackTelemetry.toCause(PlayerEngine.ERROR_UNKNOWN));
+    }
+}
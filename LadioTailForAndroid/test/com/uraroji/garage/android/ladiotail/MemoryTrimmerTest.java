@@ -0,0 +1,85 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+/**
+ * MemoryTrimmerの段階の変換のテスト
+ */
+public class MemoryTrimmerTest {
+
+    @Test
+    public void backgroundLevels() {
+        assertEquals(MemoryTrimmer.LEVEL_COMPLETE,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        assertEquals(MemoryTrimmer.LEVEL_MODERATE,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(MemoryTrimmer.LEVEL_BACKGROUND,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(MemoryTrimmer.LEVEL_BACKGROUND,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+    }
+
+    @Test
+    public void runningLevels() {
+        assertEquals(MemoryTrimmer.LEVEL_COMPLETE,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+        assertEquals(MemoryTrimmer.LEVEL_MODERATE,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(MemoryTrimmer.LEVEL_BACKGROUND,
+                MemoryTrimmer.toLevel(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+    }
+
+    @Test
+    public void unknownLevels() {
+        assertEquals(MemoryTrimmer.LEVEL_NONE, MemoryTrimmer.toLevel(0));
+        assertEquals(MemoryTrimmer.LEVEL_NONE, MemoryTrimmer.toLevel(-1));
+        // 今後追加されるレベルは近い段階として扱う
+        assertEquals(MemoryTrimmer.LEVEL_COMPLETE, MemoryTrimmer.toLevel(100));
+        assertEquals(MemoryTrimmer.LEVEL_MODERATE, MemoryTrimmer.toLevel(70));
+    }
+
+    @Test
+    public void ignoresOtherDumpArgs() {
+        final MemoryTrimmer trimmer = new MemoryTrimmer("test", new MemoryTrimmer.OnTrimListener() {
+            @Override
+            public void onTrim(int level) {
+                throw new AssertionError("trimmed at level " + level);
+            }
+        });
+        assertFalse(trimmer.trimIfRequested(null));
+        assertFalse(trimmer.trimIfRequested(new String[0]));
+        assertFalse(trimmer.trimIfRequested(new String[] {
+                "stress", "80"
+        }));
+        assertFalse(trimmer.trimIfRequested(new String[] {
+                "trim", "high"
+        }));
+    }
+}
@@ -0,0 +1,93 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * ReconnectPolicyのテスト
+ */
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delayDoublesUntilMax() {
+        assertEquals(C.RECONNECT_BASE_MS, ReconnectPolicy.getDelayMs(1));
+        assertEquals(C.RECONNECT_BASE_MS * 2, ReconnectPolicy.getDelayMs(2));
+        assertEquals(C.RECONNECT_BASE_MS * 4, ReconnectPolicy.getDelayMs(3));
+        assertEquals(C.RECONNECT_MAX_MS, ReconnectPolicy.getDelayMs(100));
+        assertEquals(C.RECONNECT_MAX_MS, ReconnectPolicy.getDelayMs(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void delayNeverDecreases() {
+        long last = 0;
+        for (int attempt = 1; attempt <= 64; ++attempt) {
+            final long delay = ReconnectPolicy.getDelayMs(attempt);
+            assertTrue(delay >= last);
+            assertTrue(delay <= C.RECONNECT_MAX_MS);
+            last = delay;
+        }
+    }
+
+    @Test
+    public void firstDropStartsAtOne() {
+        assertEquals(1, ReconnectPolicy.getNextAttempt(0, 0));
+        assertEquals(1, ReconnectPolicy.getNextAttempt(0, C.RECONNECT_STABLE_MS * 10));
+    }
+
+    @Test
+    public void dropSoonAfterReconnectCarriesAttempt() {
+        assertEquals(2, ReconnectPolicy.getNextAttempt(1, 0));
+        assertEquals(4, ReconnectPolicy.getNextAttempt(3, C.RECONNECT_STABLE_MS - 1));
+    }
+
+    @Test
+    public void stablePlaybackResetsAttempt() {
+        assertEquals(1, ReconnectPolicy.getNextAttempt(3, C.RECONNECT_STABLE_MS));
+    }
+
+    @Test
+    public void canAttemptWithinLimit() {
+        assertFalse(ReconnectPolicy.canAttempt(0));
+        assertTrue(ReconnectPolicy.canAttempt(1));
+        assertTrue(ReconnectPolicy.canAttempt(C.RECONNECT_MAX_ATTEMPTS));
+        assertFalse(ReconnectPolicy.canAttempt(C.RECONNECT_MAX_ATTEMPTS + 1));
+    }
+
+    @Test
+    public void flappingStreamGivesUp() {
+        // 繋がってはすぐ途切れるストリームでも、決まった回数で諦める
+        int attempt = ReconnectPolicy.getNextAttempt(0, C.RECONNECT_STABLE_MS);
+        int reconnects = 0;
+        while (ReconnectPolicy.canAttempt(attempt)) {
+            ++reconnects;
+            assertTrue(reconnects <= C.RECONNECT_MAX_ATTEMPTS);
+            attempt = ReconnectPolicy.getNextAttempt(attempt, 1000);
+        }
+        assertEquals(C.RECONNECT_MAX_ATTEMPTS, reconnects);
+    }
+}
@@ -0,0 +1,359 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * StreamProxyのテスト
+ * 
+ * ローカルの配信サーバの代わりを相手にプロキシを動かし、MediaPlayerの代わりにIcyStreamClientでローカルのURLから読む。
+ */
+public class StreamProxyTest {
+
+    /**
+     * 接続・読み込みのタイムアウト（ms）
+     */
+    private static final int TIMEOUT_MS = 5000;
+
+    /**
+     * 配信サーバに接続し直す最大回数
+     */
+    private static final int MAX_RECONNECT = 2;
+
+    /**
+     * icy-metaintの値
+     */
+    private static final int META_INT = 1000;
+
+    /**
+     * 配信サーバの代わり
+     */
+    private LocalStreamServer mServer;
+
+    /**
+     * プロキシ
+     */
+    private StreamProxy mProxy;
+
+    /**
+     * 時間をずらして再生するためのファイルを置くディレクトリ
+     */
+    private File mTimeShiftDirectory;
+
+    @After
+    public void tearDown() {
+        if (mProxy != null) {
+            mProxy.stop();
+        }
+        if (mServer != null) {
+            mServer.close();
+        }
+        if (mTimeShiftDirectory != null) {
+            final File[] files = mTimeShiftDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mTimeShiftDirectory.delete();
+        }
+    }
+
+    @Test
+    public void stripsIcyMetadataFromTrickledStream() throws Exception {
+        final byte[] audio = LocalStreamServer.createMp3Frames(50);
+        // 同じ曲名が続く場合は通知しない
+        final byte[] body = LocalStreamServer.createIcyBody(audio, META_INT, new String[] {
+                "Song A", null, "Song A", "曲B"
+        });
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                if (connection == 0) {
+                    LocalStreamServer.writeIcyHeader(out, 128, META_INT);
+                    // メタデータが受信の区切りをまたぐよう、半端な大きさで少しずつ送る
+                    LocalStreamServer.writeTrickle(out, body, 333, 1);
+                }
+            }
+        });
+        final ArrayList<String> titles = new ArrayList<String>();
+        startProxy(1024 * 1024);
+        mProxy.setOnStreamTitleChangedListener(new StreamProxy.OnStreamTitleChangedListener() {
+            @Override
+            public void onStreamTitleChanged(String upstreamUrl, String title) {
+                synchronized (titles) {
+                    titles.add(title);
+                }
+            }
+        });
+
+        final String localUrl = mProxy.openSession(mServer.getUrl("/live.mp3"));
+        assertTrue(localUrl.startsWith("http://127.0.0.1:" + mProxy.getPort() + "/stream/"));
+
+        final byte[] received = readAll(localUrl);
+
+        assertArrayEquals(audio, received);
+        assertEquals("1", mServer.getRequest(0).mHeaders.get("icy-metadata"));
+        synchronized (titles) {
+            assertEquals(Arrays.asList("Song A", "曲B"), titles);
+        }
+    }
+
+    @Test
+    public void reconnectsWithoutClosingClient() throws Exception {
+        final byte[] audio = LocalStreamServer.createMp3Frames(50);
+        final int half = audio.length / 2;
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                // 前半を送って切断し、接続し直すと後半を送って切断する。 それ以降は応答せずに切断する。
+                if (connection == 0) {
+                    LocalStreamServer.writeIcyHeader(out, 128, META_INT);
+                    out.write(LocalStreamServer.createIcyBody(Arrays.copyOf(audio, half),
+                            META_INT, new String[] {
+                                null
+                            }));
+                } else if (connection == 1) {
+                    LocalStreamServer.writeIcyHeader(out, 128, META_INT);
+                    out.write(LocalStreamServer.createIcyBody(
+                            Arrays.copyOfRange(audio, half, audio.length), META_INT,
+                            new String[] {
+                                null
+                            }));
+                }
+            }
+        });
+        startProxy(1024 * 1024);
+
+        final String localUrl = mProxy.openSession(mServer.getUrl("/live.mp3"));
+        final byte[] received = readAll(localUrl);
+
+        // MediaPlayerとの接続は1つのまま、前半と後半が続けて届く
+        assertArrayEquals(audio, received);
+        // 後半を受信すると失敗の回数を数え直すので、最初の切断の1回と、後半の後で諦めるまでの回数だけ接続し直す
+        assertEquals(1 + MAX_RECONNECT, mProxy.getReconnectCount(localUrl));
+        assertEquals(2 + MAX_RECONNECT, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void pausesUpstreamWhileBufferIsFull() throws Exception {
+        final int bufferSize = 8 * 1024;
+        final byte[] audio = LocalStreamServer.createMp3Frames(200);
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                if (connection == 0) {
+                    LocalStreamServer.writeIcyHeader(out, 128, 0);
+                    out.write(audio);
+                }
+            }
+        });
+        startProxy(bufferSize);
+
+        final String localUrl = mProxy.openSession(mServer.getUrl("/live.mp3"));
+        final IcyStreamClient client = new IcyStreamClient(localUrl, TIMEOUT_MS, TIMEOUT_MS);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        try {
+            client.connect();
+            final InputStream in = client.getInputStream();
+            final byte[] buffer = new byte[1024];
+            for (;;) {
+                final int read = in.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                received.write(buffer, 0, read);
+                // ゆっくり読んでも先読みバッファは大きさを超えない
+                assertTrue(mProxy.getBufferedBytes(localUrl) <= bufferSize);
+                Thread.sleep(1);
+            }
+        } finally {
+            client.close();
+        }
+
+        assertArrayEquals(audio, received.toByteArray());
+        assertEquals(audio.length, mProxy.getReceivedBytes(localUrl));
+    }
+
+    @Test
+    public void closeSessionClosesClient() throws Exception {
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                LocalStreamServer.writeIcyHeader(out, 128, 0);
+                // 終わらない配信
+                for (;;) {
+                    LocalStreamServer.writeTrickle(out, LocalStreamServer.createMp3Frames(1),
+                            LocalStreamServer.MP3_FRAME_SIZE, 20);
+                }
+            }
+        });
+        startProxy(1024 * 1024);
+
+        final String localUrl = mProxy.openSession(mServer.getUrl("/live.mp3"));
+        final IcyStreamClient client = new IcyStreamClient(localUrl, TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+            final InputStream in = client.getInputStream();
+            assertTrue(in.read() >= 0);
+
+            mProxy.closeSession(localUrl);
+            final byte[] buffer = new byte[1024];
+            final long start = System.currentTimeMillis();
+            try {
+                while (in.read(buffer) >= 0) {
+                    assertTrue(System.currentTimeMillis() - start < TIMEOUT_MS);
+                }
+            } catch (IOException e) {
+                // 接続がリセットされた
+            }
+            assertEquals(-1, mProxy.getReconnectCount(localUrl));
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void timeShiftReplaysFromEarlierPosition() throws Exception {
+        final byte[] audio = LocalStreamServer.createMp3Frames(100);
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                if (connection == 0) {
+                    LocalStreamServer.writeIcyHeader(out, 128, 0);
+                    out.write(audio);
+                }
+            }
+        });
+        startProxy(8 * 1024);
+        mTimeShiftDirectory = File.createTempFile("timeshift", null);
+        mTimeShiftDirectory.delete();
+        final int maxBytes = 1024 * 1024;
+        mProxy.setTimeShift(mTimeShiftDirectory, 60 * 1000, maxBytes);
+
+        final String localUrl = mProxy.openSession(mServer.getUrl("/live.mp3"));
+        // 時間をずらす場合は先読みバッファの大きさに関わらず溜める
+        assertArrayEquals(audio, readAll(localUrl));
+
+        // 128kbpsで60秒分の固定長のファイルを1つだけ使う
+        final File[] files = mTimeShiftDirectory.listFiles();
+        assertEquals(1, files.length);
+        assertEquals(60 * 1000 * 128 / 8, files[0].length());
+        assertEquals(audio.length * 8 / 128, mProxy.getTimeShiftAvailableMs(localUrl));
+
+        // 1秒前から繋ぎ直すと、最後の1秒分を送り直す
+        final int oneSecond = 128 / 8 * 1000;
+        assertArrayEquals(Arrays.copyOfRange(audio, audio.length - oneSecond, audio.length),
+                readAll(mProxy.getTimeShiftUrl(localUrl, 1000)));
+        // 溜めてあるより前は最も古い位置から送る
+        assertArrayEquals(audio, readAll(mProxy.getTimeShiftUrl(localUrl, 60 * 1000)));
+
+        // セッションを閉じるとファイルを削除してディスクを空ける
+        mProxy.closeSession(localUrl);
+        final long start = System.currentTimeMillis();
+        while (files[0].exists()) {
+            assertTrue(System.currentTimeMillis() - start < TIMEOUT_MS);
+            Thread.sleep(10);
+        }
+        assertFalse(files[0].exists());
+    }
+
+    @Test
+    public void rejectsUnsupportedUrls() throws Exception {
+        startProxy(1024 * 1024);
+
+        assertNull(mProxy.openSession("rtsp://127.0.0.1/live"));
+        assertNull(mProxy.openSession("not a url"));
+
+        final IcyStreamClient client = new IcyStreamClient("http://127.0.0.1:"
+                + mProxy.getPort() + "/stream/999", TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+            fail("Unknown session is served.");
+        } catch (IOException e) {
+            // 404
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * プロキシを開始する 接続し直すまでの待ち時間は試験のために短くする。
+     * 
+     * @param bufferSize セッション毎の先読みバッファのバイト数
+     * @throws IOException 開始できなかった
+     */
+    private void startProxy(int bufferSize) throws IOException {
+        mProxy = new StreamProxy(bufferSize, MAX_RECONNECT, 20, 100);
+        mProxy.start();
+    }
+
+    /**
+     * ローカルのURLからストリームの終わりまで読む
+     * 
+     * @param localUrl ローカルのURL
+     * @return 読んだデータ
+     * @throws IOException 読み込みに失敗した
+     */
+    private static byte[] readAll(String localUrl) throws IOException {
+        final IcyStreamClient client = new IcyStreamClient(localUrl, TIMEOUT_MS, TIMEOUT_MS);
+        try {
+            client.connect();
+            assertEquals("audio/mpeg", client.getHeader("content-type"));
+            final InputStream in = client.getInputStream();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            for (;;) {
+                final int read = in.read(buffer);
+                if (read < 0) {
+                    return out.toByteArray();
+                }
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * StreamRingBufferのテスト
+ */
+public class StreamRingBufferTest {
+
+    @Test
+    public void readsBackAcrossWrapAround() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+        final byte[] data = sequence(12);
+        final byte[] read = new byte[12];
+
+        assertEquals(6, buffer.write(data, 0, 6));
+        assertEquals(4, buffer.read(read, 0, 4));
+        // 書き込み位置がバッファの終わりを越えて先頭に戻る
+        assertEquals(6, buffer.write(data, 6, 6));
+        assertEquals(8, buffer.available());
+        assertEquals(8, buffer.read(read, 4, 8));
+
+        assertEquals(0, buffer.available());
+        assertEquals(12, buffer.getTotalWritten());
+        for (int i = 0; i < read.length; ++i) {
+            assertEquals(data[i], read[i]);
+        }
+    }
+
+    @Test
+    public void writerWaitsForReader() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(16);
+        final byte[] data = sequence(1000);
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    buffer.write(data, 0, data.length);
+                    buffer.finish();
+                } catch (InterruptedException e) {
+                    ;
+                }
+            }
+        };
+        writer.start();
+
+        // バッファより大きいデータも、読んだ分だけ書き込みが進んで全て届く
+        final byte[] read = new byte[data.length];
+        int total = 0;
+        final byte[] chunk = new byte[7];
+        for (;;) {
+            final int n = buffer.read(chunk, 0, chunk.length);
+            if (n < 0) {
+                break;
+            }
+            assertTrue(buffer.available() <= buffer.getCapacity());
+            System.arraycopy(chunk, 0, read, total, n);
+            total += n;
+        }
+        writer.join(5000);
+
+        assertEquals(data.length, total);
+        for (int i = 0; i < data.length; ++i) {
+            assertEquals(data[i], read[i]);
+        }
+    }
+
+    @Test
+    public void finishDrainsRemainingData() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+        final byte[] b = new byte[8];
+        buffer.write(sequence(3), 0, 3);
+        buffer.finish();
+
+        // 書き込みを終えても溜まっている分は読める
+        assertEquals(0, buffer.write(sequence(3), 0, 3));
+        assertEquals(3, buffer.read(b, 0, b.length));
+        assertEquals(-1, buffer.read(b, 0, b.length));
+        assertFalse(buffer.isClosed());
+    }
+
+    @Test
+    public void closeReleasesBlockedReader() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+        final int[] result = new int[] {
+            0
+        };
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = buffer.read(new byte[8], 0, 8);
+                } catch (InterruptedException e) {
+                    ;
+                }
+            }
+        };
+        reader.start();
+        Thread.sleep(50);
+        buffer.close();
+        reader.join(5000);
+
+        assertFalse(reader.isAlive());
+        assertEquals(-1, result[0]);
+        assertTrue(buffer.isClosed());
+    }
+
+    @Test
+    public void closeReleasesBlockedWriter() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+        final int[] result = new int[] {
+            0
+        };
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = buffer.write(sequence(20), 0, 20);
+                } catch (InterruptedException e) {
+                    ;
+                }
+            }
+        };
+        writer.start();
+        Thread.sleep(50);
+        buffer.close();
+        writer.join(5000);
+
+        assertFalse(writer.isAlive());
+        // 閉じるまでに書き込めたのはバッファの分だけ
+        assertEquals(8, result[0]);
+    }
+
+    @Test
+    public void awaitAvailable() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+
+        assertFalse(buffer.awaitAvailable(4, 10));
+        buffer.write(sequence(4), 0, 4);
+        assertTrue(buffer.awaitAvailable(4, 10));
+        // バッファより大きい指定はバッファが一杯になるまで待つ
+        assertFalse(buffer.awaitAvailable(100, 10));
+        buffer.write(sequence(4), 0, 4);
+        assertTrue(buffer.awaitAvailable(100, 10));
+
+        buffer.close();
+        assertFalse(buffer.awaitAvailable(1, 10));
+    }
+
+    @Test
+    public void awaitAvailableReturnsAtEndOfStream() throws Exception {
+        final StreamRingBuffer buffer = new StreamRingBuffer(8);
+        buffer.write(sequence(2), 0, 2);
+        buffer.finish();
+
+        // 溜まりきらなくても、ストリームの終わりであれば待たない
+        assertTrue(buffer.awaitAvailable(8, 10 * 1000));
+    }
+
+    /**
+     * 0から順に並んだデータを作成する
+     * 
+     * @param length バイト数
+     * @return データ
+     */
+    private static byte[] sequence(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,136 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * StreamingEngineの受信から最初のフレームを取り出すまでの時間を計る
+ * 
+ * StreamingEngineと同じ手順（接続、ビットレートから求めたバイト数を溜める、フレームに同期する）を、
+ * 実時間の速さで送るローカルの配信サーバの代わりを相手に行う。 MediaCodecとAudioTrackはAndroidが必要なので、
+ * 最初のフレームを取り出した時点を最初の音声とみなす。
+ */
+public class StreamingPipelineTest {
+
+    /**
+     * 配信のビットレート（kbps）
+     */
+    private static final int BITRATE = 128;
+
+    /**
+     * 接続直後にまとめて送るバイト数 Icecastのburst-on-connectの代わり。
+     */
+    private static final int BURST_BYTES = 16 * 1024;
+
+    /**
+     * 配信サーバの代わり
+     */
+    private LocalStreamServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    @Test
+    public void timeToFirstAudio() throws Exception {
+        final byte[] frames = LocalStreamServer.createMp3Frames(200);
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                LocalStreamServer.writeIcyHeader(out, BITRATE, 0);
+                out.write(frames, 0, BURST_BYTES);
+                out.flush();
+                // 残りは実時間の速さで1KBずつ送る
+                final int bytesPerSecond = BITRATE * 1000 / 8;
+                for (int off = BURST_BYTES; off < frames.length; off += 1024) {
+                    Thread.sleep(1024 * 1000 / bytesPerSecond);
+                    out.write(frames, off, Math.min(1024, frames.length - off));
+                    out.flush();
+                }
+            }
+        });
+
+        final long start = System.currentTimeMillis();
+        final IcyStreamClient client = new IcyStreamClient(mServer.getUrl("/live.mp3"),
+                C.STREAM_CONNECT_TIMEOUT_MS, C.STREAM_READ_TIMEOUT_MS);
+        final StreamRingBuffer ringBuffer = new StreamRingBuffer(C.STREAMING_ENGINE_BUFFER_SIZE);
+        try {
+            client.connect();
+            final long connected = System.currentTimeMillis() - start;
+            final int startThreshold = (int) (C.STREAMING_ENGINE_START_THRESHOLD_MS
+                    * client.getBitrate() / 8);
+
+            final InputStream in = client.getInputStream();
+            final Thread receiveThread = new Thread() {
+                @Override
+                public void run() {
+                    final byte[] buffer = new byte[8192];
+                    try {
+                        for (;;) {
+                            final int read = in.read(buffer);
+                            if (read < 0) {
+                                break;
+                            }
+                            ringBuffer.write(buffer, 0, read);
+                        }
+                    } catch (Exception e) {
+                        ;
+                    } finally {
+                        ringBuffer.finish();
+                    }
+                }
+            };
+            receiveThread.start();
+
+            assertTrue(ringBuffer.awaitAvailable(startThreshold, C.STREAM_READ_TIMEOUT_MS));
+            final AudioFrameReader reader = new AudioFrameReader(ringBuffer);
+            assertTrue(reader.sync());
+            assertEquals(LocalStreamServer.MP3_FRAME_SIZE,
+                    reader.readFrame(new byte[AudioFrameReader.MAX_FRAME_SIZE]));
+            final long firstAudio = System.currentTimeMillis() - start;
+
+            System.out.println(String.format(
+                    "StreamingPipeline: connected in %dms, threshold %d bytes, first audio in %dms",
+                    connected, startThreshold, firstAudio));
+            // バーストで足りない分は実時間でしか届かない
+            final long expected = (startThreshold - BURST_BYTES) * 8L / BITRATE;
+            assertTrue(firstAudio >= expected - 100);
+            assertTrue(firstAudio < C.STREAMING_ENGINE_START_THRESHOLD_MS + 1000);
+        } finally {
+            client.close();
+            ringBuffer.close();
+        }
+    }
+}
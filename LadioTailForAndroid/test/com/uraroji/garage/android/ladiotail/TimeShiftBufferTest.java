@@ -0,0 +1,202 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * TimeShiftBufferのテスト
+ * 
+ * 一時ファイルにメモリマップして、上書き・読み込み・後始末を確かめる。
+ */
+public class TimeShiftBufferTest {
+
+    /**
+     * バッファのバイト数
+     */
+    private static final int CAPACITY = 1000;
+
+    /**
+     * ビットレート（kbps） 1msが16バイトになる。
+     */
+    private static final int BITRATE = 128;
+
+    /**
+     * ファイル
+     */
+    private File mFile;
+
+    /**
+     * テストする対象
+     */
+    private TimeShiftBuffer mBuffer;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("timeshift", null);
+        mBuffer = new TimeShiftBuffer(mFile, CAPACITY, BITRATE);
+    }
+
+    @After
+    public void tearDown() {
+        mBuffer.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void fileSizeIsBoundedByCapacity() {
+        assertEquals(CAPACITY, mFile.length());
+
+        write(createData(CAPACITY * 5 / 2));
+
+        // 容量を超えて書き込んでもファイルは大きくならない
+        assertEquals(CAPACITY, mFile.length());
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        final byte[] data = createData(600);
+        write(data);
+
+        assertEquals(0, mBuffer.getOldestPosition());
+        assertEquals(600, mBuffer.getLivePosition());
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 500), read(100, 400));
+    }
+
+    @Test
+    public void overwritesOldestData() throws IOException {
+        final byte[] data = createData(CAPACITY * 5 / 2);
+        // 末尾をまたぐよう、半端な大きさで書き込む
+        for (int off = 0; off < data.length; off += 333) {
+            write(Arrays.copyOfRange(data, off, Math.min(off + 333, data.length)));
+        }
+
+        assertEquals(data.length, mBuffer.getLivePosition());
+        assertEquals(data.length - CAPACITY, mBuffer.getOldestPosition());
+        // 上書きされていない範囲は、末尾をまたいでも元のデータが読める
+        final long oldest = mBuffer.getOldestPosition();
+        assertArrayEquals(Arrays.copyOfRange(data, (int) oldest, data.length),
+                read(oldest, CAPACITY));
+    }
+
+    @Test
+    public void readStopsAtEndOfBuffer() throws IOException {
+        write(createData(CAPACITY + 100));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel channel = Channels.newChannel(out);
+        // 末尾までの900バイトで区切られる
+        assertEquals(CAPACITY - 100, mBuffer.read(100, channel, CAPACITY));
+    }
+
+    @Test
+    public void positionBeforeIsClampedToOldest() {
+        write(createData(CAPACITY * 2));
+
+        // 1msが16バイトなので、10ms前は160バイト前
+        assertEquals(CAPACITY * 2 - 160, mBuffer.getPositionBefore(10));
+        assertEquals(CAPACITY * 2, mBuffer.getPositionBefore(0));
+        // 溜めてあるより前は最も古い位置になる
+        assertEquals(mBuffer.getOldestPosition(), mBuffer.getPositionBefore(60 * 1000));
+    }
+
+    @Test
+    public void convertsBetweenBytesAndMs() {
+        assertEquals(16000, mBuffer.msToBytes(1000));
+        assertEquals(1000, mBuffer.bytesToMs(16000));
+        assertEquals(CAPACITY * 8 / BITRATE, mBuffer.bytesToMs(CAPACITY));
+    }
+
+    @Test
+    public void closeDeletesFile() {
+        write(createData(CAPACITY));
+        assertTrue(mFile.exists());
+
+        mBuffer.close();
+
+        assertFalse(mFile.exists());
+        // 2回閉じても問題ない
+        mBuffer.close();
+    }
+
+    /**
+     * 書き込む
+     * 
+     * @param data 書き込むデータ
+     */
+    private void write(byte[] data) {
+        final ByteBuffer src = ByteBuffer.wrap(data);
+        mBuffer.write(src, data.length);
+        assertEquals(data.length, src.position());
+    }
+
+    /**
+     * 末尾で区切られても指定したバイト数まで読み込む
+     * 
+     * @param position 読み込む位置
+     * @param length 読み込むバイト数
+     * @return 読み込んだデータ
+     * @throws IOException 読み込みに失敗した
+     */
+    private byte[] read(long position, int length) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel channel = Channels.newChannel(out);
+        int remaining = length;
+        while (remaining > 0) {
+            final int n = mBuffer.read(position, channel, remaining);
+            assertTrue(n > 0);
+            position += n;
+            remaining -= n;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 位置ごとに異なる値のデータを作成する
+     * 
+     * @param length バイト数
+     * @return データ
+     */
+    private static byte[] createData(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i % 251);
+        }
+        return data;
+    }
+}
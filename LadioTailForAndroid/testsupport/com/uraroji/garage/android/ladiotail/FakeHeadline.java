@@ -0,0 +1,100 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+import com.uraroji.garage.android.netladiolib.Headline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 通信せずに決まった番組を返すヘッドライン
+ */
+public class FakeHeadline extends Headline {
+
+    /**
+     * 番組の配列
+     */
+    private final Channel[] mChannels;
+
+    /**
+     * コンストラクタ
+     * 
+     * @param channels 番組の配列
+     */
+    public FakeHeadline(Channel... channels) {
+        mChannels = channels;
+    }
+
+    @Override
+    public Channel[] getChannels() {
+        return mChannels.clone();
+    }
+
+    @Override
+    public Channel[] getChannels(int sortType) {
+        final Channel[] sorted = mChannels.clone();
+        switch (sortType) {
+            case Headline.SORT_TYPE_LISTENERS:
+                Arrays.sort(sorted, new Comparator<Channel>() {
+                    @Override
+                    public int compare(Channel lhs, Channel rhs) {
+                        return rhs.getCln() - lhs.getCln();
+                    }
+                });
+                break;
+            case Headline.SORT_TYPE_TITLE:
+                Arrays.sort(sorted, new Comparator<Channel>() {
+                    @Override
+                    public int compare(Channel lhs, Channel rhs) {
+                        return lhs.getNam().compareTo(rhs.getNam());
+                    }
+                });
+                break;
+            case Headline.SORT_TYPE_DJ:
+                Arrays.sort(sorted, new Comparator<Channel>() {
+                    @Override
+                    public int compare(Channel lhs, Channel rhs) {
+                        return lhs.getDj().compareTo(rhs.getDj());
+                    }
+                });
+                break;
+            default:
+                break;
+        }
+        return sorted;
+    }
+
+    @Override
+    public Channel[] getChannels(String searchWord) {
+        final ArrayList<Channel> matched = new ArrayList<Channel>();
+        for (Channel channel : mChannels) {
+            if (channel.getNam().contains(searchWord) || channel.getDj().contains(searchWord)) {
+                matched.add(channel);
+            }
+        }
+        return matched.toArray(new Channel[matched.size()]);
+    }
+}
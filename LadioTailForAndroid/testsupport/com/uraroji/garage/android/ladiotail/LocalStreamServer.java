@@ -0,0 +1,395 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * 試験用の配信サーバの代わり
+ * 
+ * ループバックの空いているポートで待ち受け、接続ごとに別スレッドで{@link Responder}に応答させる。
+ * 応答を返し終えると接続を閉じるので、途中で切断するサーバや少しずつ送るサーバも応答の書き方だけで作れる。
+ */
+public class LocalStreamServer {
+
+    /**
+     * {@link #createMp3Frames(int)}の1フレームのバイト数 144 * 128000 / 44100
+     */
+    public static final int MP3_FRAME_SIZE = 417;
+
+    /**
+     * 接続への応答
+     */
+    public interface Responder {
+
+        /**
+         * 応答を書き込む 戻ると接続を閉じる。
+         * 
+         * @param connection 何番目の接続か（0から）
+         * @param request 要求
+         * @param out 応答の書き込み先
+         * @throws Exception 応答に失敗した
+         */
+        void respond(int connection, Request request, OutputStream out) throws Exception;
+    }
+
+    /**
+     * 受け取った要求
+     */
+    public static class Request {
+
+        /**
+         * 要求のパス
+         */
+        public final String mPath;
+
+        /**
+         * 要求ヘッダ。 キーは小文字。
+         */
+        public final HashMap<String, String> mHeaders = new HashMap<String, String>();
+
+        /**
+         * コンストラクタ
+         * 
+         * @param path 要求のパス
+         */
+        public Request(String path) {
+            mPath = path;
+        }
+    }
+
+    /**
+     * 待ち受けるソケット
+     */
+    private final ServerSocket mServerSocket;
+
+    /**
+     * 応答
+     */
+    private final Responder mResponder;
+
+    /**
+     * 受け取った要求
+     */
+    private final ArrayList<Request> mRequests = new ArrayList<Request>();
+
+    /**
+     * 受け付けた接続
+     */
+    private final ArrayList<Socket> mSockets = new ArrayList<Socket>();
+
+    /**
+     * コンストラクタ 待ち受けを開始する。
+     * 
+     * @param responder 応答
+     * @throws IOException 待ち受けを開始できなかった
+     */
+    public LocalStreamServer(Responder responder) throws IOException {
+        mResponder = responder;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptThread = new Thread("LocalStreamServer") {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        final Socket socket = mServerSocket.accept();
+                        final int connection;
+                        synchronized (mSockets) {
+                            connection = mSockets.size();
+                            mSockets.add(socket);
+                        }
+                        serve(connection, socket);
+                    }
+                } catch (IOException e) {
+                    // 閉じた
+                }
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 接続に別スレッドで応答する
+     * 
+     * @param connection 何番目の接続か
+     * @param socket 接続
+     */
+    private void serve(final int connection, final Socket socket) {
+        final Thread thread = new Thread("LocalStreamServer-" + connection) {
+            @Override
+            public void run() {
+                try {
+                    final Request request = readRequest(socket.getInputStream());
+                    if (request == null) {
+                        return;
+                    }
+                    synchronized (mRequests) {
+                        mRequests.add(request);
+                    }
+                    final OutputStream out = socket.getOutputStream();
+                    mResponder.respond(connection, request, out);
+                    out.flush();
+                } catch (Exception e) {
+                    // 相手が切断した、または閉じた
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        ;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 要求を読む
+     * 
+     * @param in 入力ストリーム
+     * @return 要求。 要求を読む前に切断された場合はnull。
+     * @throws IOException 読み込みに失敗した
+     */
+    private static Request readRequest(InputStream in) throws IOException {
+        final InputStream bin = new BufferedInputStream(in);
+        final String requestLine = readLine(bin);
+        if (requestLine == null) {
+            return null;
+        }
+        // "GET /path HTTP/1.0"
+        final String[] parts = requestLine.split(" ");
+        final Request request = new Request((parts.length >= 2) ? parts[1] : "/");
+        for (;;) {
+            final String line = readLine(bin);
+            if (line == null || line.length() == 0) {
+                return request;
+            }
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH),
+                        line.substring(colon + 1).trim());
+            }
+        }
+    }
+
+    /**
+     * 1行読む
+     * 
+     * @param in 入力ストリーム
+     * @return 改行を除いた1行。 ストリームの終わりの場合はnull。
+     * @throws IOException 読み込みに失敗した
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (;;) {
+            final int c = in.read();
+            if (c < 0) {
+                return (sb.length() != 0) ? sb.toString() : null;
+            }
+            if (c == '\n') {
+                final int length = sb.length();
+                if (length != 0 && sb.charAt(length - 1) == '\r') {
+                    sb.setLength(length - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+    }
+
+    /**
+     * 待ち受けているポートを取得する
+     * 
+     * @return ポート
+     */
+    public int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * 指定したパスのURLを取得する
+     * 
+     * @param path パス
+     * @return URL
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    /**
+     * 受け付けた接続の数を取得する
+     * 
+     * @return 受け付けた接続の数
+     */
+    public int getConnectionCount() {
+        synchronized (mSockets) {
+            return mSockets.size();
+        }
+    }
+
+    /**
+     * 受け取った要求を取得する
+     * 
+     * @param index 何番目の要求か（0から）
+     * @return 要求
+     */
+    public Request getRequest(int index) {
+        synchronized (mRequests) {
+            return mRequests.get(index);
+        }
+    }
+
+    /**
+     * 待ち受けを終了し、全ての接続を閉じる
+     */
+    public void close() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            ;
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    ;
+                }
+            }
+        }
+    }
+
+    /**
+     * ICYの応答ヘッダを書き込む
+     * 
+     * @param out 書き込み先
+     * @param bitrate icy-brの値（kbps）
+     * @param metaInt icy-metaintの値。 0の場合はメタデータを挟まない。
+     * @throws IOException 書き込みに失敗した
+     */
+    public static void writeIcyHeader(OutputStream out, int bitrate, int metaInt)
+            throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ICY 200 OK\r\n");
+        sb.append("Content-Type: audio/mpeg\r\n");
+        sb.append("icy-br: ").append(bitrate).append("\r\n");
+        if (metaInt > 0) {
+            sb.append("icy-metaint: ").append(metaInt).append("\r\n");
+        }
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    /**
+     * 少しずつ間を空けて書き込む
+     * 
+     * @param out 書き込み先
+     * @param data データ
+     * @param chunkSize 1回に書き込むバイト数
+     * @param intervalMs 書き込む間隔（ms）
+     * @throws IOException 書き込みに失敗した
+     * @throws InterruptedException 待機中に割り込まれた
+     */
+    public static void writeTrickle(OutputStream out, byte[] data, int chunkSize,
+            long intervalMs) throws IOException, InterruptedException {
+        for (int off = 0; off < data.length; off += chunkSize) {
+            out.write(data, off, Math.min(chunkSize, data.length - off));
+            out.flush();
+            Thread.sleep(intervalMs);
+        }
+    }
+
+    /**
+     * 音声データにICYメタデータを挟んだデータを作成する
+     * 
+     * icy-metaintのバイト数ごとに、メタデータの長さ（16バイト単位）とメタデータを挟む。
+     * 
+     * @param audio 音声データ
+     * @param metaInt icy-metaintの値
+     * @param titles メタデータの曲名。 n番目のメタデータにはtitles[n]を使い、それより後は最後の曲名を使う。
+     *            nullの場合は長さ0とする。
+     * @return データ
+     * @throws IOException 文字列を変換できなかった
+     */
+    public static byte[] createIcyBody(byte[] audio, int metaInt, String[] titles)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int block = 0;
+        for (int off = 0; off < audio.length; off += metaInt) {
+            final int length = Math.min(metaInt, audio.length - off);
+            out.write(audio, off, length);
+            if (length < metaInt) {
+                break;
+            }
+            final String title = titles[Math.min(block++, titles.length - 1)];
+            if (title == null) {
+                out.write(0);
+                continue;
+            }
+            final byte[] metadata = ("StreamTitle='" + title + "';").getBytes("UTF-8");
+            final int blocks = (metadata.length + 15) / 16;
+            out.write(blocks);
+            out.write(metadata);
+            // 残りは0で埋める
+            out.write(new byte[blocks * 16 - metadata.length]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * MP3（MPEG1 Layer III、128kbps、44.1kHz、ステレオ）のフレームを並べたデータを作成する
+     * 
+     * フレームの中身はフレームの番号の下位7ビットで埋めるので、受け取った側で順番を確かめられる。 0xFFを含まないので、
+     * フレームの途中が同期ヘッダに見えることはない。
+     * 
+     * @param frameCount フレームの数
+     * @return データ
+     */
+    public static byte[] createMp3Frames(int frameCount) {
+        final byte[] data = new byte[MP3_FRAME_SIZE * frameCount];
+        for (int i = 0; i < frameCount; ++i) {
+            final int off = i * MP3_FRAME_SIZE;
+            data[off] = (byte) 0xFF;
+            data[off + 1] = (byte) 0xFB;
+            data[off + 2] = (byte) 0x90;
+            data[off + 3] = (byte) 0x00;
+            for (int j = 4; j < MP3_FRAME_SIZE; ++j) {
+                data[off + j] = (byte) (i & 0x7F);
+            }
+        }
+        return data;
+    }
+}
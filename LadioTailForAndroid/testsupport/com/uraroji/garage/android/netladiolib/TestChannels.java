@@ -0,0 +1,56 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.netladiolib;
+
+import java.util.Date;
+
+/**
+ * テスト用の番組を作成する
+ * 
+ * 番組はヘッドラインの取得でしか作れないので、ライブラリと同じパッケージから作る。
+ */
+public class TestChannels {
+
+    /**
+     * 番組を作成する
+     * 
+     * @param title 番組名
+     * @param dj DJ
+     * @param listeners リスナー数
+     * @param mount マウント
+     * @param startTime 開始時刻（ms）
+     * @return 番組
+     */
+    public static Channel create(String title, String dj, int listeners, String mount,
+            long startTime) {
+        final Channel channel = new Channel();
+        channel.setNam(title);
+        channel.setDj(dj);
+        channel.setCln(listeners);
+        channel.setSrv("example.com");
+        channel.setPrt(8080);
+        channel.setMnt(mount);
+        channel.setTims(new Date(startTime));
+        return channel;
+    }
+}
@@ -0,0 +1,286 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.content.ComponentCallbacks2;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TabHost;
+import android.widget.AbsListView;
+import android.widget.HeaderViewListAdapter;
+import android.widget.ListAdapter;
+import android.widget.ListView;
+
+/**
+ * 番組一覧の行の表示の負荷を計る
+ * 
+ * 行を表示する度に確保するオブジェクトの数と、キャッシュを破棄した直後とキャッシュ済みの場合のスクロール中のフレーム時間を計る。
+ * また、全てのタブを表示してからonTrimMemoryを呼び、解放の段階毎に回収後の使用メモリとPSSがどれだけ減るかを計る。
+ * 番組一覧を取得するので、ネットワークに接続した状態で実行すること。
+ * 
+ * adb logcat -s ChannelListPerformance で結果を確認する。
+ */
+public class ChannelListPerformanceTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "ChannelListPerformance";
+
+    /**
+     * 番組一覧の取得を待つ時間（ms）
+     */
+    private static final long FETCH_WAIT_MS = 30 * 1000;
+
+    /**
+     * 確保するオブジェクトの数を計る際に表示する行の数
+     */
+    private static final int BIND_COUNT = 64;
+
+    /**
+     * 1行の表示で確保してよいオブジェクトの数 行の内容を生成した場合は文字列の生成で数十個を確保するので、それより十分少なくする。
+     */
+    private static final int MAX_ALLOCATIONS_PER_BIND = 8;
+
+    /**
+     * スクロールする距離（px）
+     */
+    private static final int SCROLL_DISTANCE = 20000;
+
+    /**
+     * スクロールする時間（ms）
+     */
+    private static final int SCROLL_DURATION_MS = 2000;
+
+    private ListView mListView;
+
+    public ChannelListPerformanceTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getActivity();
+
+        // 番組一覧を取得し、表示中のタブに番組が並ぶまで待つ
+        final long deadline = SystemClock.uptimeMillis() + FETCH_WAIT_MS;
+        while (mListView == null) {
+            assertTrue("Channels are not shown. Check the network.",
+                    SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(500);
+            getInstrumentation().waitForIdleSync();
+            mListView = findChannelListView(getActivity().getWindow().getDecorView());
+        }
+    }
+
+    public void testBindAllocations() throws Throwable {
+        final ListAdapter adapter = getChannelAdapter();
+        // 先頭は広告の行なので、番組の行から始める
+        final int count = Math.min(BIND_COUNT, adapter.getCount() - 1);
+        final int[] allocations = new int[1];
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                View convertView = adapter.getView(1, null, mListView);
+                // 1回目は行の内容を生成する場合があるので、2回目を計る
+                for (int i = 0; i < count; ++i) {
+                    convertView = adapter.getView(i + 1, convertView, mListView);
+                }
+
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+                for (int i = 0; i < count; ++i) {
+                    convertView = adapter.getView(i + 1, convertView, mListView);
+                }
+                allocations[0] = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+            }
+        });
+
+        final float perBind = (float) allocations[0] / count;
+        Log.i(TAG, String.format("%d allocations in %d binds, %.2f per bind", allocations[0],
+                count, perBind));
+        assertTrue("Too many allocations per bind: " + perBind,
+                perBind <= MAX_ALLOCATIONS_PER_BIND);
+    }
+
+    public void testFlingFrameTimes() throws Throwable {
+        // キャッシュを破棄した直後は、生成が間に合わない行をUIスレッドで生成する
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                getActivity().onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+        final FrameMetricsCollector cold = fling("cold");
+        // 同じ範囲をもう一度スクロールする 行の内容はキャッシュ済み
+        final FrameMetricsCollector warm = fling("warm");
+
+        Log.i(TAG, cold.getReport());
+        Log.i(TAG, warm.getReport());
+    }
+
+    /**
+     * 番組一覧の先頭からスクロールし、スクロール中のフレーム時間を計る
+     * 
+     * @param name 計測結果の名前
+     * @return スクロール中のフレーム時間の計測結果
+     * @throws Throwable スクロールに失敗した
+     */
+    private FrameMetricsCollector fling(String name) throws Throwable {
+        final FrameMetricsCollector collector = new FrameMetricsCollector(name, mListView);
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mListView.setSelection(0);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                collector.onScrollStateChanged(mListView,
+                        AbsListView.OnScrollListener.SCROLL_STATE_FLING);
+                mListView.smoothScrollBy(SCROLL_DISTANCE, SCROLL_DURATION_MS);
+            }
+        });
+        SystemClock.sleep(SCROLL_DURATION_MS + 500);
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                collector.onScrollStateChanged(mListView,
+                        AbsListView.OnScrollListener.SCROLL_STATE_IDLE);
+            }
+        });
+        return collector;
+    }
+
+    public void testTrimMemoryReleasesHeap() throws Throwable {
+        final int[] trimLevels = {
+                ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN,
+                ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+                ComponentCallbacks2.TRIM_MEMORY_COMPLETE
+        };
+        final MemoryTrimmer trimmer = getActivity().getMemoryTrimmer();
+        for (final int trimLevel : trimLevels) {
+            // 前の段階で解放したものを作り直してから解放する
+            showAllTabs();
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    getActivity().onTrimMemory(trimLevel);
+                }
+            });
+
+            final long before = trimmer.getLastBeforeBytes();
+            final long after = trimmer.getLastAfterBytes();
+            Log.i(TAG, String.format("onTrimMemory(%d): released %dKB", trimLevel,
+                    (before - after) / 1024));
+            Log.i(TAG, trimmer.getReport());
+            // 表示中でないタブの番組一覧を破棄する段階では、必ず減る
+            if (MemoryTrimmer.toLevel(trimLevel) >= MemoryTrimmer.LEVEL_MODERATE) {
+                assertTrue("Used " + before + " -> " + after + " bytes.", after < before);
+            }
+        }
+    }
+
+    /**
+     * 全てのタブを表示し、番組一覧の末尾まで行を表示してから最初のタブに戻る
+     * 
+     * @throws Throwable タブの切り替えに失敗した
+     */
+    private void showAllTabs() throws Throwable {
+        final TabHost tabHost = getActivity().getTabHost();
+        for (int i = tabHost.getTabWidget().getTabCount() - 1; i >= 0; --i) {
+            final int tab = i;
+            runTestOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    tabHost.setCurrentTab(tab);
+                }
+            });
+            getInstrumentation().waitForIdleSync();
+        }
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mListView.setSelection(getChannelAdapter().getCount() - 1);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+        runTestOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mListView.setSelection(0);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    /**
+     * 番組一覧のAdapterを取得する Pull to refreshのヘッダーを除いたもの。
+     * 
+     * @return 番組一覧のAdapter
+     */
+    private ListAdapter getChannelAdapter() {
+        final ListAdapter adapter = mListView.getAdapter();
+        if (adapter instanceof HeaderViewListAdapter) {
+            return ((HeaderViewListAdapter) adapter).getWrappedAdapter();
+        }
+        return adapter;
+    }
+
+    /**
+     * 表示中の、番組が並んだListViewを探す
+     * 
+     * @param view 探し始めるView
+     * @return 番組が並んだListView。無い場合はnull。
+     */
+    private static ListView findChannelListView(View view) {
+        if (view instanceof ListView) {
+            final ListView listView = (ListView) view;
+            // 広告の行の他に番組の行が1画面分以上ある場合のみ
+            if (listView.isShown() && listView.getAdapter() != null
+                    && listView.getAdapter().getCount() > listView.getChildCount() + 1) {
+                return listView;
+            }
+            return null;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); ++i) {
+                final ListView listView = findChannelListView(group.getChildAt(i));
+                if (listView != null) {
+                    return listView;
+                }
+            }
+        }
+        return null;
+    }
+}
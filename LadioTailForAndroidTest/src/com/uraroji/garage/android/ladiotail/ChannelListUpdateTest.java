@@ -0,0 +1,321 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import com.uraroji.garage.android.netladiolib.Channel;
+import com.uraroji.garage.android.netladiolib.TestChannels;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ListView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ヘッドラインを取得し直した際に表示し直す番組の行の数を数える
+ * 
+ * 合成のヘッドラインで最初のタブ（新着順）を表示し、番組を挿入・削除したヘッドラインに差し替えて、
+ * ChannelAdapterが実際に表示し直した行を数える。 ネットワークには接続しなくてよい。
+ * 
+ * adb logcat -s ChannelListUpdate で結果を確認する。
+ */
+public class ChannelListUpdateTest extends ActivityInstrumentationTestCase2<MainActivity> {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "ChannelListUpdate";
+
+    /**
+     * 起動時のヘッドラインの取得を待つ時間（ms）
+     */
+    private static final long FETCH_WAIT_MS = 30 * 1000;
+
+    /**
+     * 合成のヘッドラインの番組の数
+     */
+    private static final int CHANNEL_COUNT = 500;
+
+    /**
+     * 表示範囲の先頭にする番組の位置
+     */
+    private static final int FIRST_VISIBLE_CHANNEL = 200;
+
+    /**
+     * 同じIDの番組を表示していたViewをListViewが渡すようになったバージョン（Android 5.0）
+     */
+    private static final int STABLE_ID_SCRAP_SDK_INT = 21;
+
+    /**
+     * 番組を挿入する際に使う番号 既存の番組と重ならないように、番組の数より大きい値から振る。
+     */
+    private int mNextChannelNumber = CHANNEL_COUNT;
+
+    private ListView mListView;
+
+    public ChannelListUpdateTest() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final MainActivity activity = getActivity();
+
+        // 起動時に取得したヘッドラインで差し替えられないよう、取得が終わるまで待つ
+        final long deadline = SystemClock.uptimeMillis() + FETCH_WAIT_MS;
+        while (activity.isHeadlineUpdating()) {
+            assertTrue("Headline fetch did not finish.", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(500);
+        }
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activity.getTabHost().setCurrentTab(0);
+            }
+        });
+        show(createChannels());
+        mListView = findChannelListView(activity.getWindow().getDecorView());
+        assertNotNull(mListView);
+
+        // リストの上端以外を表示していれば、並びが変わっても先頭の番組の位置を保つ
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mListView.setSelectionFromTop(
+                        mListView.getHeaderViewsCount() + 1 + FIRST_VISIBLE_CHANNEL, 0);
+            }
+        });
+        getInstrumentation().waitForIdleSync();
+    }
+
+    public void testRefetchWithoutChurnRebindsNothing() {
+        final long[] visibleIds = getVisibleIds();
+        final int binds = show(createChannels());
+
+        assertTrue(Arrays.equals(visibleIds, getVisibleIds()));
+        assertEquals(0, binds);
+    }
+
+    public void testChurnOutsideWindowRebindsOnlyChangedRows() {
+        final List<Channel> channels = createChannels();
+        final long[] visibleIds = getVisibleIds();
+
+        // 表示範囲より前の番組を削除・挿入し、表示中の番組の位置をずらす
+        removeChannels(channels, 10, 10);
+        insertChannels(channels, 50, 15);
+        // 表示範囲より後ろの番組も入れ替える
+        final int last = channels.size() - 30;
+        removeChannels(channels, last, 20);
+        insertChannels(channels, last, 20);
+        // 表示中の番組のうち2つは番組名が変わる
+        final int first = FIRST_VISIBLE_CHANNEL - 10 + 15;
+        renameChannel(channels, first + 1);
+        renameChannel(channels, first + 3);
+
+        final int binds = show(channels);
+        Log.i(TAG, String.format("Churn outside window: %d rows visible, %d rebound.",
+                visibleIds.length, binds));
+        assertTrue(Arrays.equals(visibleIds, getVisibleIds()));
+        assertRebinds(2, binds, visibleIds.length);
+    }
+
+    public void testInsertIntoWindowRebindsOnlyInsertedRows() {
+        final List<Channel> channels = createChannels();
+        final long[] visibleIds = getVisibleIds();
+
+        // 表示範囲より前の番組を削除し、表示範囲の途中に番組を挿入する
+        removeChannels(channels, 10, 3);
+        insertChannels(channels, FIRST_VISIBLE_CHANNEL - 3 + 2, 2);
+
+        final int binds = show(channels);
+        final long[] newVisibleIds = getVisibleIds();
+        Log.i(TAG, String.format("Insert into window: %d rows visible, %d rebound.",
+                newVisibleIds.length, binds));
+        // 先頭の番組の位置は保ち、挿入した番組の分だけ下端の番組が表示範囲から外れる
+        assertEquals(visibleIds[0], newVisibleIds[0]);
+        assertEquals(visibleIds[2], newVisibleIds[4]);
+        assertRebinds(2, binds, newVisibleIds.length);
+    }
+
+    /**
+     * 表示し直した行の数を確かめる
+     * 
+     * Android 5.0より前は、ListViewは位置が同じ行を表示していたViewを渡すので、位置がずれた行も表示し直す。
+     * その場合は表示中の行の数を超えないことだけを確かめる。
+     * 
+     * @param expected 表示し直すべき行の数
+     * @param binds 表示し直した行の数
+     * @param visibleCount 表示中の行の数
+     */
+    private static void assertRebinds(int expected, int binds, int visibleCount) {
+        if (Build.VERSION.SDK_INT >= STABLE_ID_SCRAP_SDK_INT) {
+            assertEquals(expected, binds);
+        } else {
+            assertTrue("Rebound " + binds + " rows.", binds >= expected && binds <= visibleCount);
+        }
+    }
+
+    /**
+     * 番組をヘッドラインとして表示する
+     * 
+     * ヘッドラインを取得した際と同じく、索引を作成してMainActivityに渡す。
+     * 
+     * @param channels 番組のリスト
+     * @return 表示し直した最初のタブの番組の行の数
+     */
+    private int show(List<Channel> channels) {
+        final MainActivity activity = getActivity();
+        final ChannelIndex channelIndex = new ChannelIndex(new FakeHeadline(
+                channels.toArray(new Channel[channels.size()])));
+        final int[] binds = new int[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                binds[0] = activity.getBindCount(0);
+                activity.showChannelIndex(channelIndex);
+            }
+        });
+        // 並びが変わった場合は、次の配置で表示し直す
+        getInstrumentation().waitForIdleSync();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                binds[0] = activity.getBindCount(0) - binds[0];
+            }
+        });
+        return binds[0];
+    }
+
+    /**
+     * 表示中の番組の行のIDを取得する
+     * 
+     * @return 表示中の番組の行のIDの配列 上から順に並ぶ。
+     */
+    private long[] getVisibleIds() {
+        final long[][] ids = new long[1][];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // 広告とPull down to refreshの行は表示していない
+                final int firstPosition = mListView.getFirstVisiblePosition();
+                ids[0] = new long[mListView.getChildCount()];
+                for (int i = 0; i < ids[0].length; ++i) {
+                    ids[0][i] = mListView.getItemIdAtPosition(firstPosition + i);
+                }
+            }
+        });
+        return ids[0];
+    }
+
+    /**
+     * 合成のヘッドラインの番組を作成する
+     * 
+     * @return 番組のリスト 新着順のタブではこの順に並ぶ。
+     */
+    private static List<Channel> createChannels() {
+        final List<Channel> channels = new ArrayList<Channel>(CHANNEL_COUNT);
+        for (int i = 0; i < CHANNEL_COUNT; ++i) {
+            channels.add(createChannel(i));
+        }
+        return channels;
+    }
+
+    /**
+     * 合成のヘッドラインの番組を作成する
+     * 
+     * @param number 番組の番号 マウントが番号毎に異なるので、番号が同じ番組は同じIDになる。
+     * @return 番組
+     */
+    private static Channel createChannel(int number) {
+        return TestChannels.create("title" + number, "dj" + number, number, "/mount" + number,
+                1000L * number);
+    }
+
+    /**
+     * 番組を削除する
+     * 
+     * @param channels 番組のリスト
+     * @param start 削除する番組の位置
+     * @param count 削除する番組の数
+     */
+    private static void removeChannels(List<Channel> channels, int start, int count) {
+        channels.subList(start, start + count).clear();
+    }
+
+    /**
+     * 新しい番組を挿入する
+     * 
+     * @param channels 番組のリスト
+     * @param start 挿入する位置
+     * @param count 挿入する番組の数
+     */
+    private void insertChannels(List<Channel> channels, int start, int count) {
+        for (int i = 0; i < count; ++i) {
+            channels.add(start + i, createChannel(mNextChannelNumber++));
+        }
+    }
+
+    /**
+     * 番組名を変える マウントは変えないので、IDは同じまま。
+     * 
+     * @param channels 番組のリスト
+     * @param position 番組名を変える番組の位置
+     */
+    private static void renameChannel(List<Channel> channels, int position) {
+        final Channel channel = channels.get(position);
+        channels.set(position, TestChannels.create("renamed " + channel.getNam(),
+                channel.getDj(), channel.getCln(), channel.getPlayUrl().getPath(),
+                channel.getTims().getTime()));
+    }
+
+    /**
+     * 表示中の、番組が並んだListViewを探す
+     * 
+     * @param view 探し始めるView
+     * @return 番組が並んだListView。無い場合はnull。
+     */
+    private static ListView findChannelListView(View view) {
+        if (view instanceof ListView) {
+            final ListView listView = (ListView) view;
+            return (listView.isShown() && listView.getAdapter() != null) ? listView : null;
+        }
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); ++i) {
+                final ListView listView = findChannelListView(group.getChildAt(i));
+                if (listView != null) {
+                    return listView;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,158 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+/**
+ * MediaPlayServiceConnectorがサービスを呼び出す回数を確かめる
+ * 
+ * 再生状態はコールバックで受け取った写しを返すので、操作1回につきサービスの呼び出しは1回だけになる。
+ * 解放後はコールバックの登録を外しているので、他の接続の操作の通知は届かない。
+ */
+public class MediaPlayServiceConnectorTest extends AndroidTestCase {
+
+    /**
+     * 接続や通知を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * 接続できないので準備に失敗するパス
+     */
+    private static final String UNREACHABLE_PATH = "http://127.0.0.1:1/";
+
+    private MediaPlayServiceConnector mConnector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mConnector = connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mConnector.stop();
+        mConnector.release();
+        super.tearDown();
+    }
+
+    public void testPlayCallsServiceOnce() throws InterruptedException {
+        final RecordingHandler handler = new RecordingHandler();
+        mConnector.addPlayStateChangedHandler(handler.mmHandler);
+        try {
+            final int before = mConnector.getBinderCallCount();
+            mConnector.play(UNREACHABLE_PATH, "title", "content");
+            assertEquals(before + 1, mConnector.getBinderCallCount());
+
+            // 通知を受け取っても、写しを更新するだけでサービスは呼び出さない
+            assertTrue(handler.await());
+            mConnector.getPlayState();
+            mConnector.getPlayingPath();
+            mConnector.getPlayingTitle();
+            mConnector.getStreamTitle();
+            assertEquals(before + 1, mConnector.getBinderCallCount());
+        } finally {
+            mConnector.removePlayStateChangedHandler(handler.mmHandler);
+        }
+    }
+
+    public void testReleaseUnregistersCallback() throws InterruptedException {
+        final MediaPlayServiceConnector released = connect();
+        final RecordingHandler releasedHandler = new RecordingHandler();
+        released.addPlayStateChangedHandler(releasedHandler.mmHandler);
+
+        // 登録を外す呼び出しの1回だけ増える
+        final int before = released.getBinderCallCount();
+        released.release();
+        assertEquals(before + 1, released.getBinderCallCount());
+
+        final RecordingHandler handler = new RecordingHandler();
+        mConnector.addPlayStateChangedHandler(handler.mmHandler);
+        try {
+            mConnector.play(UNREACHABLE_PATH, "title", "content");
+            assertTrue(handler.await());
+            // 届くとすれば同じ通知なので、届いた後に少し待てば十分
+            SystemClock.sleep(500);
+            assertEquals(0, releasedHandler.getCount());
+        } finally {
+            mConnector.removePlayStateChangedHandler(handler.mmHandler);
+        }
+    }
+
+    /**
+     * サービスに接続し、再生状態の写しを受け取るまで待つ
+     * 
+     * @return 接続済みのMediaPlayServiceConnector
+     */
+    private MediaPlayServiceConnector connect() {
+        final MediaPlayServiceConnector connector = new MediaPlayServiceConnector();
+        connector.init(getContext().getApplicationContext());
+        final long deadline = SystemClock.uptimeMillis() + WAIT_MS;
+        while (connector.getPlayState() == MediaPlayServiceConnector.PLAY_STATE_UNKNOWN) {
+            assertTrue("Service is not connected.", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(50);
+        }
+        return connector;
+    }
+
+    /**
+     * 受け取った通知を数えるハンドラー UIスレッドで受け取る。
+     */
+    private static class RecordingHandler implements Handler.Callback {
+
+        private final Handler mmHandler = new Handler(Looper.getMainLooper(), this);
+
+        private final CountDownLatch mmFirstMessage = new CountDownLatch(1);
+
+        private int mmCount = 0;
+
+        @Override
+        public synchronized boolean handleMessage(Message msg) {
+            ++mmCount;
+            mmFirstMessage.countDown();
+            return true;
+        }
+
+        /**
+         * 最初の通知を待つ
+         * 
+         * @return 通知を受け取った場合はtrue
+         * @throws InterruptedException 待っている間に割り込まれた
+         */
+        public boolean await() throws InterruptedException {
+            return mmFirstMessage.await(WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        public synchronized int getCount() {
+            return mmCount;
+        }
+    }
+}
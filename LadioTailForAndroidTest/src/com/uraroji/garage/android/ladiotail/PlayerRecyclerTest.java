@@ -0,0 +1,282 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+/**
+ * PlayerRecyclerのテスト
+ * 
+ * PlayerRecyclerはアプリのパッケージの中だけで使うクラスなので、テストも同じパッケージに置く。
+ * 一定時間使われない再生エンジンの解放はHandlerで行うので、JVMではなく端末で実行する。
+ */
+public class PlayerRecyclerTest extends AndroidTestCase {
+
+    /**
+     * 使われない再生エンジンを解放するまでの時間（ms） テストのために短くする。
+     */
+    private static final long IDLE_TIMEOUT_MS = 200;
+
+    /**
+     * 再生エンジンを操作するスレッド
+     */
+    private HandlerThread mThread;
+
+    /**
+     * テストする対象
+     */
+    private PlayerRecycler mRecycler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("PlayerRecyclerTest");
+        mThread.start();
+        mRecycler = new PlayerRecycler(new Handler(mThread.getLooper()), IDLE_TIMEOUT_MS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRecycler.trim();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testObtainReturnsRecycledEngine() {
+        assertNull(mRecycler.obtain());
+
+        final FakePlayerEngine engine = new FakePlayerEngine(true);
+        engine.setListener(new NullListener());
+        mRecycler.recycle(engine);
+
+        assertEquals(1, engine.mmResetCount);
+        assertEquals(0, engine.mmReleaseCount);
+        // 前の再生のイベントが届かないよう、リスナーは外してある
+        assertNull(engine.mmListener);
+        assertSame(engine, mRecycler.obtain());
+        // 取っておくのは1つだけなので、取り出すと空になる
+        assertNull(mRecycler.obtain());
+    }
+
+    public void testKeepsOnlyOneSpare() {
+        final FakePlayerEngine first = new FakePlayerEngine(true);
+        final FakePlayerEngine second = new FakePlayerEngine(true);
+        mRecycler.recycle(first);
+        mRecycler.recycle(second);
+
+        assertEquals(1, first.mmReleaseCount);
+        assertEquals(0, second.mmReleaseCount);
+        assertSame(second, mRecycler.obtain());
+    }
+
+    public void testReleasesEngineThatCanNotBeReset() {
+        final FakePlayerEngine errored = new FakePlayerEngine(false);
+        mRecycler.recycle(errored);
+
+        assertEquals(1, errored.mmReleaseCount);
+        assertNull(mRecycler.obtain());
+
+        final FakePlayerEngine broken = new FakePlayerEngine(true);
+        broken.mmResetThrows = true;
+        mRecycler.recycle(broken);
+
+        assertEquals(1, broken.mmReleaseCount);
+        assertNull(mRecycler.obtain());
+    }
+
+    public void testReleasesSpareAfterIdleTimeout() {
+        final FakePlayerEngine engine = new FakePlayerEngine(true);
+        mRecycler.recycle(engine);
+
+        SystemClock.sleep(IDLE_TIMEOUT_MS * 3);
+
+        assertEquals(1, engine.mmReleaseCount);
+        assertNull(mRecycler.obtain());
+    }
+
+    public void testObtainCancelsIdleRelease() {
+        final FakePlayerEngine engine = new FakePlayerEngine(true);
+        mRecycler.recycle(engine);
+        assertSame(engine, mRecycler.obtain());
+
+        SystemClock.sleep(IDLE_TIMEOUT_MS * 3);
+
+        // 使用中の再生エンジンは解放しない
+        assertEquals(0, engine.mmReleaseCount);
+    }
+
+    public void testTrimReleasesSpare() {
+        final FakePlayerEngine engine = new FakePlayerEngine(true);
+        mRecycler.recycle(engine);
+        mRecycler.trim();
+
+        assertEquals(1, engine.mmReleaseCount);
+        assertNull(mRecycler.obtain());
+    }
+
+    public void testReportCountsCreatedAndReused() {
+        mRecycler.onCreated();
+        mRecycler.recordPrepareTime(false, 300);
+        mRecycler.recycle(new FakePlayerEngine(true));
+        assertNotNull(mRecycler.obtain());
+        mRecycler.recordPrepareTime(true, 100);
+
+        assertEquals("player: 1 created (avg prepare 300ms), "
+                + "1 reused (avg prepare 100ms), spare none", mRecycler.getReport());
+    }
+
+    /**
+     * resetとreleaseの回数を数える再生エンジン
+     */
+    private static class FakePlayerEngine implements PlayerEngine {
+
+        /**
+         * resetで再利用できると返すか
+         */
+        private final boolean mmIsReusable;
+
+        /**
+         * resetで例外を投げるか
+         */
+        private boolean mmResetThrows = false;
+
+        private int mmResetCount = 0;
+
+        private int mmReleaseCount = 0;
+
+        private Listener mmListener;
+
+        public FakePlayerEngine(boolean reusable) {
+            mmIsReusable = reusable;
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            mmListener = listener;
+        }
+
+        @Override
+        public void prepareAsync(String path) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+            ++mmReleaseCount;
+        }
+
+        @Override
+        public boolean reset() {
+            if (mmResetThrows) {
+                throw new IllegalStateException("reset");
+            }
+            ++mmResetCount;
+            return mmIsReusable;
+        }
+
+        @Override
+        public boolean pause() {
+            return false;
+        }
+
+        @Override
+        public void resume() {
+        }
+
+        @Override
+        public boolean timeShift(long delayMs) {
+            return false;
+        }
+
+        @Override
+        public long getTimeShiftDelayMs() {
+            return -1;
+        }
+
+        @Override
+        public long getTimeShiftAvailableMs() {
+            return -1;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return false;
+        }
+
+        @Override
+        public void setVolume(float volume) {
+        }
+
+        @Override
+        public long getTimeToFirstAudio() {
+            return -1;
+        }
+
+        @Override
+        public BufferHealth getBufferHealth() {
+            return null;
+        }
+
+        @Override
+        public long getReceivedBytes() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "Fake";
+        }
+    }
+
+    /**
+     * 何もしないリスナー
+     */
+    private static class NullListener implements PlayerEngine.Listener {
+
+        @Override
+        public void onPrepared(PlayerEngine engine) {
+        }
+
+        @Override
+        public void onCompletion(PlayerEngine engine) {
+        }
+
+        @Override
+        public void onError(PlayerEngine engine, int what) {
+        }
+
+        @Override
+        public void onBufferingChanged(PlayerEngine engine, boolean isBuffering) {
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * 番組を続けて切り替えた場合の、MediaPlayerを作り直す場合と再利用する場合の切り替えの時間を比べる
+ * 
+ * 無音のMP3を送り続けるローカルの配信サーバの代わりを相手に、前の再生エンジンの後始末から次の再生エンジンの準備完了までを
+ * {@link #SWITCH_COUNT}回続けて計り、中央値と平均をログに出力する。 結果は端末で変わるので、速さの大小は確かめない。
+ * 
+ * adb logcat -s PlayerSwitchBenchmark で結果を確認する。
+ */
+public class PlayerSwitchBenchmarkTest extends AndroidTestCase {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "PlayerSwitchBenchmark";
+
+    /**
+     * 続けて切り替える回数
+     */
+    private static final int SWITCH_COUNT = 50;
+
+    /**
+     * 準備を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * MP3（MPEG1 Layer III、128kbps、44.1kHz、ステレオ）の1フレームのバイト数
+     */
+    private static final int MP3_FRAME_SIZE = 417;
+
+    /**
+     * 再生エンジンを操作するスレッド MediaPlayerのイベントもこのスレッドに届く。
+     */
+    private HandlerThread mThread;
+
+    private Handler mHandler;
+
+    /**
+     * 配信サーバの代わり
+     */
+    private ServerSocket mServerSocket;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("PlayerSwitchBenchmark");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        startServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServerSocket.close();
+        mThread.quit();
+        super.tearDown();
+    }
+
+    public void testSwitchLatency() throws Exception {
+        // 1回目はコーデックの読み込みなどを含むので、両方を計る前に捨てる
+        measureSwitches("warm-up", false);
+        final long[] created = measureSwitches("new player", false);
+        final long[] reused = measureSwitches("reused player", true);
+
+        Log.i(TAG, String.format("new player median %dms, reused player median %dms",
+                median(created), median(reused)));
+    }
+
+    /**
+     * 番組を続けて切り替える時間を計る
+     * 
+     * @param name ログに出力する計測の名前
+     * @param reuse 再生エンジンを再利用するか
+     * @return 切り替えごとの時間（ms）
+     * @throws Exception 計測に失敗した
+     */
+    private long[] measureSwitches(String name, final boolean reuse) throws Exception {
+        final PlayerRecycler recycler = new PlayerRecycler(mHandler, C.PLAYER_IDLE_RELEASE_MS);
+        final long[] switchMs = new long[SWITCH_COUNT];
+        PlayerEngine current = null;
+        try {
+            for (int i = 0; i < SWITCH_COUNT; ++i) {
+                final PlayerEngine outgoing = current;
+                final String path = "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/ch"
+                        + i;
+                final CountDownLatch prepared = new CountDownLatch(1);
+                final boolean[] isReused = new boolean[1];
+                final long start = SystemClock.uptimeMillis();
+                current = runOnPlayerThread(new Callable<PlayerEngine>() {
+                    @Override
+                    public PlayerEngine call() throws Exception {
+                        // MediaPlayServiceと同じく、前の再生エンジンを返してから次を用意する
+                        if (reuse) {
+                            recycler.recycle(outgoing);
+                        } else if (outgoing != null) {
+                            outgoing.release();
+                        }
+                        PlayerEngine engine = reuse ? recycler.obtain() : null;
+                        isReused[0] = (engine != null);
+                        if (engine == null) {
+                            recycler.onCreated();
+                            engine = new MediaPlayerEngine(null, null);
+                        }
+                        engine.setListener(new PlayerEngine.Listener() {
+                            @Override
+                            public void onPrepared(PlayerEngine engine) {
+                                prepared.countDown();
+                            }
+
+                            @Override
+                            public void onCompletion(PlayerEngine engine) {
+                            }
+
+                            @Override
+                            public void onError(PlayerEngine engine, int what) {
+                                Log.w(TAG, "Error " + what + " while preparing.");
+                            }
+
+                            @Override
+                            public void onBufferingChanged(PlayerEngine engine,
+                                    boolean isBuffering) {
+                            }
+                        });
+                        engine.prepareAsync(path);
+                        return engine;
+                    }
+                });
+                assertTrue("Not prepared.", prepared.await(WAIT_MS, TimeUnit.MILLISECONDS));
+                switchMs[i] = SystemClock.uptimeMillis() - start;
+                recycler.recordPrepareTime(isReused[0], switchMs[i]);
+            }
+        } finally {
+            final PlayerEngine last = current;
+            runOnPlayerThread(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    if (last != null) {
+                        last.release();
+                    }
+                    recycler.trim();
+                    return null;
+                }
+            });
+        }
+
+        long total = 0;
+        for (long ms : switchMs) {
+            total += ms;
+        }
+        Log.i(TAG, String.format("%s: %d switches, median %dms, average %dms", name,
+                SWITCH_COUNT, median(switchMs), total / SWITCH_COUNT));
+        Log.i(TAG, recycler.getReport());
+        return switchMs;
+    }
+
+    /**
+     * 再生エンジンを操作するスレッドで実行し、終わるまで待つ
+     * 
+     * @param task 実行する処理
+     * @return 処理の結果
+     * @throws Exception 処理が失敗した
+     */
+    private <T> T runOnPlayerThread(final Callable<T> task) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        final Exception[] error = new Exception[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = task.call();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(WAIT_MS, TimeUnit.MILLISECONDS));
+        if (error[0] != null) {
+            throw error[0];
+        }
+        @SuppressWarnings("unchecked")
+        final T value = (T) result[0];
+        return value;
+    }
+
+    /**
+     * 無音のMP3を送り続ける配信サーバの代わりを開始する
+     * 
+     * @throws IOException 待ち受けを開始できなかった
+     */
+    private void startServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        serve(mServerSocket.accept());
+                    }
+                } catch (IOException e) {
+                    // 閉じた
+                }
+            }
+        }, "PlayerSwitchBenchmark-accept").start();
+    }
+
+    /**
+     * 接続に別スレッドで応答する 切断されるまで送り続ける。
+     * 
+     * @param socket 接続
+     */
+    private static void serve(final Socket socket) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // 要求ヘッダの終わりまで読み捨てる
+                    final InputStream in = socket.getInputStream();
+                    int matched = 0;
+                    while (matched < 4) {
+                        final int c = in.read();
+                        if (c < 0) {
+                            return;
+                        }
+                        matched = (c == "\r\n\r\n".charAt(matched)) ? matched + 1
+                                : ((c == '\r') ? 1 : 0);
+                    }
+
+                    final OutputStream out = socket.getOutputStream();
+                    out.write("ICY 200 OK\r\nContent-Type: audio/mpeg\r\nicy-br: 128\r\n\r\n"
+                            .getBytes("ISO-8859-1"));
+                    // 中身が0のフレームは無音として復号できる
+                    final byte[] frames = new byte[MP3_FRAME_SIZE * 16];
+                    for (int off = 0; off < frames.length; off += MP3_FRAME_SIZE) {
+                        frames[off] = (byte) 0xFF;
+                        frames[off + 1] = (byte) 0xFB;
+                        frames[off + 2] = (byte) 0x90;
+                    }
+                    for (;;) {
+                        out.write(frames);
+                        SystemClock.sleep(20);
+                    }
+                } catch (IOException e) {
+                    // 切断された
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        ;
+                    }
+                }
+            }
+        }, "PlayerSwitchBenchmark-serve").start();
+    }
+
+    /**
+     * 中央値を取得する
+     * 
+     * @param values 値
+     * @return 中央値
+     */
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
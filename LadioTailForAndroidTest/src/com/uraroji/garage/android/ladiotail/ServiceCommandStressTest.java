@@ -0,0 +1,164 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.OutputStream;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * 再生と停止を交互に何千回も要求しても、サービスが遅れずに応え、最後に停止した状態で落ち着くことを確かめる
+ * 
+ * MediaPlayServiceConnectorから、LocalStreamServerが配信するMP3の再生と停止を交互に要求する。
+ * 要求から最初の通知を受け取るまでの時間はMediaPlayServiceConnectorが計るので、その99パーセンタイルが
+ * 遅いコマンドとして警告する時間に収まることを確かめる。
+ * 
+ * adb logcat -s ServiceCommandStress で結果を確認する。
+ */
+public class ServiceCommandStressTest extends AndroidTestCase {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "ServiceCommandStress";
+
+    /**
+     * 接続や通知を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * 要求する回数 再生と停止で1回ずつ数える。
+     */
+    private static final int COMMAND_COUNT = 4000;
+
+    /**
+     * 通知を待たずに続けて要求する回数
+     * 
+     * MediaPlayServiceConnectorが送信時刻を覚えておける数より少なくし、全ての再生の要求の時間を計れるようにする。
+     */
+    private static final int BURST_COUNT = 8;
+
+    /**
+     * 1フレームの再生時間（ms）
+     */
+    private static final long FRAME_MS = 26;
+
+    /**
+     * 配信する音声のフレームの数 約1分。
+     */
+    private static final int FRAME_COUNT = (int) (60 * 1000 / FRAME_MS);
+
+    private LocalStreamServer mServer;
+
+    private MediaPlayServiceConnector mConnector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // 停止されて切断されるまで、再生と同じ速さで送り続ける
+        final byte[] frames = LocalStreamServer.createMp3Frames(FRAME_COUNT);
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                LocalStreamServer.writeIcyHeader(out, 128, 0);
+                LocalStreamServer.writeTrickle(out, frames, LocalStreamServer.MP3_FRAME_SIZE,
+                        FRAME_MS);
+            }
+        });
+        mConnector = connect();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mConnector.stop();
+        mConnector.release();
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testInterleavedPlayAndStop() {
+        final String path = mServer.getUrl("/stress");
+        final int startCount = mConnector.getCommandLatencyCount();
+        final long startTime = SystemClock.uptimeMillis();
+
+        for (int sent = 0; sent < COMMAND_COUNT; sent += BURST_COUNT) {
+            final int before = mConnector.getCommandLatencyCount();
+            for (int i = 0; i < BURST_COUNT; i += 2) {
+                mConnector.play(path, "title", "content");
+                mConnector.stop();
+            }
+            // 停止中からの再生は必ず準備の開始を通知するので、再生の数だけは計れる
+            waitFor(before + BURST_COUNT / 2, MediaPlayServiceConnector.PLAY_STATE_IDLE);
+        }
+
+        mConnector.stop();
+        waitFor(0, MediaPlayServiceConnector.PLAY_STATE_IDLE);
+        // 遅れて届く通知で状態が戻らないことを確かめる
+        SystemClock.sleep(1000);
+        assertEquals(MediaPlayServiceConnector.PLAY_STATE_IDLE, mConnector.getPlayState());
+
+        final int measured = mConnector.getCommandLatencyCount() - startCount;
+        final long p50Us = mConnector.getCommandLatencyPercentileUs(50);
+        final long p99Us = mConnector.getCommandLatencyPercentileUs(99);
+        Log.i(TAG, String.format("%d commands in %dms, %d measured, p50 %dus, p99 %dus",
+                COMMAND_COUNT, SystemClock.uptimeMillis() - startTime, measured, p50Us, p99Us));
+        assertTrue(measured >= COMMAND_COUNT / 2);
+        assertTrue("p99 " + p99Us + "us", p99Us <= C.COMMAND_SLOW_WARNING_MS * 1000);
+    }
+
+    /**
+     * 計測した数が指定した数に達し、再生状態が指定した状態になるまで待つ
+     * 
+     * @param latencyCount 要求から最初の通知を受け取るまでの時間を計測した数
+     * @param playState 再生状態
+     */
+    private void waitFor(int latencyCount, int playState) {
+        final long deadline = SystemClock.uptimeMillis() + WAIT_MS;
+        while (mConnector.getCommandLatencyCount() < latencyCount
+                || mConnector.getPlayState() != playState) {
+            assertTrue("State " + mConnector.getPlayState() + " is not " + playState + ".",
+                    SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(1);
+        }
+    }
+
+    /**
+     * サービスに接続し、再生状態の写しを受け取るまで待つ
+     * 
+     * @return 接続済みのMediaPlayServiceConnector
+     */
+    private MediaPlayServiceConnector connect() {
+        final MediaPlayServiceConnector connector = new MediaPlayServiceConnector();
+        connector.init(getContext().getApplicationContext());
+        final long deadline = SystemClock.uptimeMillis() + WAIT_MS;
+        while (connector.getPlayState() == MediaPlayServiceConnector.PLAY_STATE_UNKNOWN) {
+            assertTrue("Service is not connected.", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(50);
+        }
+        return connector;
+    }
+}
@@ -0,0 +1,198 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * 別プロセスのサービスと同じプロセスのサービスの呼び出しの速さを比べる
+ * 
+ * C.IN_PROCESS_SERVICEに関わらず、両方のサービスに直接バインドして同じ手順で計る。
+ * 状態の問い合わせの時間と、再生の要求から最初の通知までの時間を、それぞれ何回か計った中央値をログに出力する。
+ * 結果は端末の状態で変わるので、速さの大小は確かめない。
+ * 
+ * adb logcat -s ServiceModeBenchmark で結果を確認する。
+ */
+public class ServiceModeBenchmarkTest extends AndroidTestCase {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "ServiceModeBenchmark";
+
+    /**
+     * 接続や通知を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * 計る回数
+     */
+    private static final int ROUND_COUNT = 5;
+
+    /**
+     * 1回の計測で状態を問い合わせる回数
+     */
+    private static final int QUERY_COUNT = 200;
+
+    /**
+     * 接続できないので準備に失敗するパス
+     */
+    private static final String UNREACHABLE_PATH = "http://127.0.0.1:1/";
+
+    public void testRemoteService() throws Exception {
+        measure("remote", MediaPlayService.class);
+    }
+
+    public void testInProcessService() throws Exception {
+        measure("in-process", LocalMediaPlayService.class);
+    }
+
+    /**
+     * サービスにバインドして計る
+     * 
+     * @param mode ログに出力する動作モードの名前
+     * @param serviceClass バインドするサービスのクラス
+     * @throws Exception 計測に失敗した
+     */
+    private void measure(String mode, Class<?> serviceClass) throws Exception {
+        final Context context = getContext();
+        final Intent intent = new Intent(context, serviceClass);
+        final Connection connection = new Connection();
+        assertTrue(context.bindService(intent, connection, Context.BIND_AUTO_CREATE));
+        try {
+            assertTrue("Service is not connected.",
+                    connection.mmConnected.await(WAIT_MS, TimeUnit.MILLISECONDS));
+            final MediaPlayServiceInterface service = connection.mmService;
+
+            final long[] queryNs = new long[ROUND_COUNT];
+            final long[] roundTripNs = new long[ROUND_COUNT];
+            for (int round = 0; round < ROUND_COUNT; ++round) {
+                queryNs[round] = measureQuery(service);
+                roundTripNs[round] = measureRoundTrip(service, round + 1);
+            }
+
+            Log.i(TAG, String.format("%s: state query median %dus, play to first event median %dus",
+                    mode, median(queryNs) / 1000, median(roundTripNs) / 1000));
+        } finally {
+            context.unbindService(connection);
+            context.stopService(intent);
+        }
+    }
+
+    /**
+     * 状態の問い合わせ1回にかかる時間を計る
+     * 
+     * @param service サービスのインターフェース
+     * @return 問い合わせ1回の平均の時間（ns）
+     * @throws RemoteException サービスの呼び出しに失敗した
+     */
+    private static long measureQuery(MediaPlayServiceInterface service) throws RemoteException {
+        final long start = System.nanoTime();
+        for (int i = 0; i < QUERY_COUNT; ++i) {
+            assertNotNull(service.getState());
+        }
+        return (System.nanoTime() - start) / QUERY_COUNT;
+    }
+
+    /**
+     * 再生の要求から、その要求による最初の通知を受け取るまでの時間を計る
+     * 
+     * @param service サービスのインターフェース
+     * @param requestId 要求のID
+     * @return 最初の通知を受け取るまでの時間（ns）
+     * @throws Exception 計測に失敗した
+     */
+    private static long measureRoundTrip(MediaPlayServiceInterface service, final int requestId)
+            throws Exception {
+        final CountDownLatch firstEvent = new CountDownLatch(1);
+        final long[] receivedTime = new long[1];
+        final PlayStateChangedCallbackInterface callback = new PlayStateChangedCallbackInterface.Stub() {
+            @Override
+            public void changed(PlayStateEvent event) {
+                if (event.getRequestId() == requestId && firstEvent.getCount() != 0) {
+                    receivedTime[0] = System.nanoTime();
+                    firstEvent.countDown();
+                }
+            }
+        };
+
+        service.registerPlayStateChangedCallback(callback);
+        try {
+            final long start = System.nanoTime();
+            service.play(requestId, UNREACHABLE_PATH, "title", "content");
+            assertTrue("No event received.", firstEvent.await(WAIT_MS, TimeUnit.MILLISECONDS));
+            return receivedTime[0] - start;
+        } finally {
+            service.unregisterPlayStateChangedCallback(callback);
+            service.stop(0);
+            // 停止が終わってから次を計る
+            SystemClock.sleep(200);
+        }
+    }
+
+    /**
+     * 中央値を取得する
+     * 
+     * @param values 値
+     * @return 中央値
+     */
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * サービスとの接続
+     */
+    private static class Connection implements ServiceConnection {
+
+        private final CountDownLatch mmConnected = new CountDownLatch(1);
+
+        private volatile MediaPlayServiceInterface mmService;
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            mmService = MediaPlayServiceInterface.Stub.asInterface(service);
+            mmConnected.countDown();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mmService = null;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+import android.content.Intent;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.ServiceTestCase;
+
+/**
+ * ストリームが途切れた時の再接続を、サービスを動かして確かめる
+ * 
+ * LocalStreamServerの最初の接続は数秒だけ配信して切断し、再接続には指定した回数目まで404を返す。
+ * 再接続の回数、回数を使い切った時に諦めること、ネットワークに繋がり直した時に待たずに接続し直すことを確かめる。
+ * 実際のネットワークは切り替えられないので、接続状態の変化はサービスに直接伝える。
+ */
+public class ServiceReconnectTest extends ServiceTestCase<LocalMediaPlayService> {
+
+    /**
+     * 接続や通知を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * 1フレームの再生時間（ms）
+     */
+    private static final long FRAME_MS = 26;
+
+    /**
+     * 切断するまでに配信する時間（ms）
+     */
+    private static final long STREAM_MS = 5 * 1000;
+
+    /**
+     * 何回目の再接続から配信するか
+     */
+    private volatile int mServeFromAttempt = Integer.MAX_VALUE;
+
+    /**
+     * 最後に接続を受け付けた時刻（ms）
+     */
+    private volatile long mLastConnectionTime = -1;
+
+    private LocalStreamServer mServer;
+
+    private MediaPlayServiceInterface mService;
+
+    private final EventRecorder mRecorder = new EventRecorder();
+
+    public ServiceReconnectTest() {
+        super(LocalMediaPlayService.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        final byte[] frames = LocalStreamServer.createMp3Frames((int) (STREAM_MS / FRAME_MS));
+        mServer = new LocalStreamServer(new LocalStreamServer.Responder() {
+            @Override
+            public void respond(int connection, LocalStreamServer.Request request,
+                    OutputStream out) throws Exception {
+                mLastConnectionTime = SystemClock.uptimeMillis();
+                // 再接続の回数は準備を始める前に数えるので、接続した時点で何回目の再接続か分かる
+                if (connection != 0
+                        && getService().getReconnectAttemptCount() < mServeFromAttempt) {
+                    out.write("HTTP/1.0 404 Not Found\r\n\r\n".getBytes("ISO-8859-1"));
+                    return;
+                }
+                LocalStreamServer.writeIcyHeader(out, 128, 0);
+                LocalStreamServer.writeTrickle(out, frames, LocalStreamServer.MP3_FRAME_SIZE,
+                        FRAME_MS);
+            }
+        });
+        mService = MediaPlayServiceInterface.Stub.asInterface(bindService(new Intent(
+                getContext(), LocalMediaPlayService.class)));
+        mService.registerPlayStateChangedCallback(mRecorder);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mService.unregisterPlayStateChangedCallback(mRecorder);
+        mService.stop(0);
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws RemoteException {
+        playAndWaitForDrop();
+
+        // 回数を使い切ると、ストリームの終わりとして停止する
+        long giveUpMs = 0;
+        for (int attempt = 1; attempt <= C.RECONNECT_MAX_ATTEMPTS; ++attempt) {
+            giveUpMs += ReconnectPolicy.getDelayMs(attempt) + WAIT_MS;
+        }
+        mRecorder.waitFor(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED, 1, giveUpMs);
+
+        assertEquals(C.RECONNECT_MAX_ATTEMPTS, getService().getReconnectAttemptCount());
+        assertEquals(MediaPlayService.PLAY_STATE_IDLE, mService.getState().getPlayState());
+        assertEquals(1, mRecorder.count(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED));
+        assertTrue(mServer.getConnectionCount() >= 1 + C.RECONNECT_MAX_ATTEMPTS);
+    }
+
+    public void testRecoversWithinAttempts() throws RemoteException {
+        mServeFromAttempt = 2;
+        playAndWaitForDrop();
+
+        final long recoverMs = ReconnectPolicy.getDelayMs(1) + ReconnectPolicy.getDelayMs(2)
+                + 2 * WAIT_MS;
+        mRecorder.waitFor(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED, 2, recoverMs);
+
+        assertEquals(2, getService().getReconnectAttemptCount());
+        assertEquals(MediaPlayService.PLAY_STATE_PLAYING, mService.getState().getPlayState());
+        assertEquals(0, mRecorder.count(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_COMPLATED));
+    }
+
+    public void testReconnectsAtOnceWhenNetworkComesBack() throws RemoteException {
+        mServeFromAttempt = 3;
+        playAndWaitForDrop();
+
+        // 2回目の再接続に失敗して、3回目を待ち始めるまで待つ
+        final long deadline = SystemClock.uptimeMillis() + ReconnectPolicy.getDelayMs(1)
+                + ReconnectPolicy.getDelayMs(2) + 2 * WAIT_MS;
+        while (getService().getReconnectAttemptCount() < 2
+                || mService.getState().getPlayState() != MediaPlayService.PLAY_STATE_RECONNECTING) {
+            assertTrue("Second attempt did not fail.", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(10);
+        }
+
+        // 切断から接続に変わると、3回目の待ち時間を待たずに接続し直す
+        final long connectedTime = SystemClock.uptimeMillis();
+        getService().onConnectivityChanged(false);
+        getService().onConnectivityChanged(true);
+        mRecorder.waitFor(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED, 2, WAIT_MS);
+
+        assertEquals(3, getService().getReconnectAttemptCount());
+        // 待ち時間の半分も経たないうちに接続し直している
+        final long reconnectMs = mLastConnectionTime - connectedTime;
+        assertTrue("Reconnected in " + reconnectMs + "ms.",
+                reconnectMs < ReconnectPolicy.getDelayMs(3) / 2);
+    }
+
+    /**
+     * 再生を開始し、最初の接続が切断されて再接続を始めるまで待つ
+     * 
+     * @throws RemoteException サービスの呼び出しに失敗した
+     */
+    private void playAndWaitForDrop() throws RemoteException {
+        mService.play(1, mServer.getUrl("/reconnect"), "title", "content");
+        mRecorder.waitFor(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_PLAY_STARTED, 1, WAIT_MS);
+        mRecorder.waitFor(MediaPlayService.MSG_MEDIA_PLAY_SERVICE_RECONNECT_STARTED, 1,
+                STREAM_MS + WAIT_MS);
+        assertEquals(MediaPlayService.PLAY_STATE_RECONNECTING, mService.getState().getPlayState());
+    }
+
+    /**
+     * 受け取った通知を記録する
+     */
+    private static class EventRecorder extends PlayStateChangedCallbackInterface.Stub {
+
+        /**
+         * 受け取った通知の種類
+         */
+        private final ArrayList<Integer> mmWhats = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void changed(PlayStateEvent event) {
+            mmWhats.add(event.getWhat());
+            notifyAll();
+        }
+
+        /**
+         * 指定した種類の通知を受け取った数を取得する
+         * 
+         * @param what 通知の種類
+         * @return 受け取った数
+         */
+        public synchronized int count(int what) {
+            int count = 0;
+            for (Integer w : mmWhats) {
+                if (w == what) {
+                    ++count;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * 指定した種類の通知を指定した数だけ受け取るまで待つ
+         * 
+         * @param what 通知の種類
+         * @param n 受け取る数
+         * @param timeoutMs 待つ時間（ms）
+         */
+        public synchronized void waitFor(int what, int n, long timeoutMs) {
+            final long deadline = SystemClock.uptimeMillis() + timeoutMs;
+            while (count(what) < n) {
+                final long remaining = deadline - SystemClock.uptimeMillis();
+                assertTrue("Event " + what + " is not received " + n + " times.", remaining > 0);
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail("Interrupted.");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/* 
+ * Copyright (c) 2011-2014 Yuichi Hirano
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.uraroji.garage.android.ladiotail;
+
+import java.util.Arrays;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+/**
+ * MainActivityの起動から最初の描画までの時間を計る
+ * 
+ * 広告の表示と再生サービスの接続を最初の描画の後まで遅らせる場合と遅らせない場合で、それぞれ何回か起動した中央値をログに出力する。
+ * 大小は端末の状態で変わるので確かめないが、C.DEFER_STARTUP_WORKの設定で起動した場合は予算に収まることを確かめる。
+ * 同じプロセスで起動し直すので、プロセスの起動は含まない。
+ * 
+ * adb logcat -s StartupTime で結果を確認する。
+ */
+public class StartupTimeTest extends InstrumentationTestCase {
+
+    /**
+     * ログのタグ
+     */
+    private static final String TAG = "StartupTime";
+
+    /**
+     * 最初の描画を待つ時間（ms）
+     */
+    private static final long WAIT_MS = 10 * 1000;
+
+    /**
+     * それぞれの設定で起動する回数
+     */
+    private static final int LAUNCH_COUNT = 5;
+
+    /**
+     * 起動から最初の描画までの時間の予算（ms） 遅い端末でも、描画が止まって見えない時間に収める。
+     */
+    private static final long TIME_TO_FIRST_FRAME_BUDGET_MS = 1000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        MainActivity.mDeferStartupWork = C.DEFER_STARTUP_WORK;
+        super.tearDown();
+    }
+
+    public void testTimeToFirstFrame() {
+        // 最初の起動はクラスの読み込みなどで遅いので、計測から外す
+        launch(C.DEFER_STARTUP_WORK);
+
+        final long[] deferredMs = new long[LAUNCH_COUNT];
+        final long[] immediateMs = new long[LAUNCH_COUNT];
+        for (int i = 0; i < LAUNCH_COUNT; ++i) {
+            // 順番による偏りが出ないよう、交互に起動する
+            if (i % 2 == 0) {
+                deferredMs[i] = launch(true);
+                immediateMs[i] = launch(false);
+            } else {
+                immediateMs[i] = launch(false);
+                deferredMs[i] = launch(true);
+            }
+        }
+
+        final long deferredMedian = median(deferredMs);
+        final long immediateMedian = median(immediateMs);
+        Log.i(TAG, String.format("time to first frame: deferred median %dms %s, "
+                + "immediate median %dms %s", deferredMedian, Arrays.toString(deferredMs),
+                immediateMedian, Arrays.toString(immediateMs)));
+        final long configuredMedian = C.DEFER_STARTUP_WORK ? deferredMedian : immediateMedian;
+        assertTrue("Time to first frame is " + configuredMedian + "ms.",
+                configuredMedian <= TIME_TO_FIRST_FRAME_BUDGET_MS);
+    }
+
+    /**
+     * MainActivityを起動し、最初の描画までの時間を取得してから終了する
+     * 
+     * @param deferStartupWork 広告の表示と再生サービスの接続を最初の描画の後まで遅らせるか
+     * @return 起動から最初の描画までの時間（ms）
+     */
+    private long launch(boolean deferStartupWork) {
+        MainActivity.mDeferStartupWork = deferStartupWork;
+        final Intent intent = new Intent(getInstrumentation().getTargetContext(),
+                MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        final Activity activity = getInstrumentation().startActivitySync(intent);
+        try {
+            final long deadline = SystemClock.uptimeMillis() + WAIT_MS;
+            for (;;) {
+                final long timeToFirstFrame = getTimeToFirstFrame();
+                if (timeToFirstFrame >= 0) {
+                    return timeToFirstFrame;
+                }
+                assertTrue("First frame is not drawn.", SystemClock.uptimeMillis() < deadline);
+                SystemClock.sleep(50);
+            }
+        } finally {
+            activity.finish();
+            getInstrumentation().waitForIdleSync();
+        }
+    }
+
+    /**
+     * StartupTraceはUIスレッドからのみ使うので、UIスレッドで最初の描画までの時間を取得する
+     * 
+     * @return 起動から最初の描画までの時間（ms）。 まだ描画していない場合は-1。
+     */
+    private long getTimeToFirstFrame() {
+        final long[] timeToFirstFrame = new long[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                timeToFirstFrame[0] = StartupTrace.getTimeToFirstFrame();
+            }
+        });
+        return timeToFirstFrame[0];
+    }
+
+    /**
+     * 中央値を取得する
+     * 
+     * @param values 値
+     * @return 中央値
+     */
+    private static long median(long[] values) {
+        final long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}